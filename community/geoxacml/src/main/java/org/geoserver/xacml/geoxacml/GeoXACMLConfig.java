@@ -25,6 +25,7 @@ import org.geotools.xacml.geoxacml.finder.impl.GeoSelectorModule;
 import org.geotools.xacml.transport.XACMLLocalTransportFactory;
 import org.geotools.xacml.transport.XACMLTransport;
 import org.geotools.xacml.transport.XACMLTransportFactory;
+import org.springframework.context.ApplicationContext;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 import com.sun.xacml.PDP;
@@ -61,6 +62,15 @@ public class GeoXACMLConfig {
 
     private static String repositoryBaseDir = null;
 
+    /**
+     * Property holding the time to live of cached decisions, in milliseconds. Decisions are not
+     * cached unless the property is set to a positive value, as a system property, servlet
+     * context parameter or environment variable, for example
+     * <code>-DGEOXACML_DECISION_CACHE_TTL=60000</code>. Cached decisions do not see policy
+     * changes until they expire.
+     */
+    public static final String DECISION_CACHE_TTL = "GEOXACML_DECISION_CACHE_TTL";
+
     static public void reset() {
         synchronized (pdpLock) {
             pdp = null;
@@ -151,12 +161,30 @@ public class GeoXACMLConfig {
                 return transportFactory;
             transportFactory = GeoServerExtensions.bean(XACMLTransportFactory.class);
             if (transportFactory == null)
-                transportFactory = new XACMLLocalTransportFactory(getPDP(), true);
+                transportFactory = new XACMLLocalTransportFactory(getPDP(), true,
+                        getDecisionCacheTTL());
             return transportFactory;
         }
 
     }
 
+    /**
+     * @return the time to live of cached decisions in milliseconds, configured with the
+     *         {@link #DECISION_CACHE_TTL} property, 0 (no caching) by default
+     */
+    static long getDecisionCacheTTL() {
+        String ttl = GeoServerExtensions.getProperty(DECISION_CACHE_TTL, (ApplicationContext) null);
+        if (ttl == null)
+            return 0;
+        try {
+            return Long.parseLong(ttl.trim());
+        } catch (NumberFormatException e) {
+            XACMLUtil.getXACMLLogger().warning("Invalid " + DECISION_CACHE_TTL + ": " + ttl
+                    + ", decisions will not be cached");
+            return 0;
+        }
+    }
+
     static public RequestCtxBuilderFactory getRequestCtxBuilderFactory() {
         if (requstCtxBuilderFactory != null)
             return requstCtxBuilderFactory;
@@ -0,0 +1,229 @@
+/*
+ *    GeoTools - The Open Source Java GIS Toolkit
+ *    http://geotools.org
+ *
+ *    (C) 2008, Open Source Geospatial Foundation (OSGeo)
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    version 2.1 of the License.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+
+package org.geotools.xacml.transport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.sun.xacml.ctx.Attribute;
+import com.sun.xacml.ctx.RequestCtx;
+import com.sun.xacml.ctx.ResponseCtx;
+import com.sun.xacml.ctx.Result;
+import com.sun.xacml.ctx.Subject;
+
+/**
+ * Transport decorator caching the responses of another transport.
+ * <p>
+ * Responses are keyed by the canonical form of the request, that is the encoded subject,
+ * resource, action and environment attributes, each group sorted. Responses are kept for a
+ * limited amount of time, so that policies depending on attributes not part of the request
+ * (the current time for instance) are eventually evaluated again. Responses carrying an
+ * indeterminate decision are never cached.
+ * </p>
+ * <p>
+ * GeoServer does not use this transport unless the GEOXACML_DECISION_CACHE_TTL property is set
+ * to a positive time to live, in milliseconds.
+ * </p>
+ * <p>
+ * This class is thread safe
+ * </p>
+ */
+public class XACMLCachingTransport extends XACMLAbstractTransport {
+
+    /**
+     * Default time to live of a cached response, in milliseconds
+     */
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    /**
+     * Default max number of cached responses
+     */
+    public static final int DEFAULT_SIZE = 10000;
+
+    private XACMLTransport delegate;
+
+    private long ttl;
+
+    private Map<String, CachedResponse> cache;
+
+    private long hits, misses;
+
+    public XACMLCachingTransport(XACMLTransport delegate) {
+        this(delegate, DEFAULT_TTL, DEFAULT_SIZE);
+    }
+
+    public XACMLCachingTransport(XACMLTransport delegate, long ttl, final int maxSize) {
+        this.delegate = delegate;
+        this.ttl = ttl;
+        this.cache = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public ResponseCtx evaluateRequestCtx(RequestCtx request) {
+        String key = key(request);
+        ResponseCtx response = lookup(key);
+        if (response == null) {
+            response = delegate.evaluateRequestCtx(request);
+            store(key, response);
+        }
+        return response;
+    }
+
+    public List<ResponseCtx> evaluateRequestCtxList(List<RequestCtx> requests) {
+        List<ResponseCtx> responses = new ArrayList<ResponseCtx>(requests.size());
+        List<String> keys = new ArrayList<String>(requests.size());
+        List<RequestCtx> missed = new ArrayList<RequestCtx>();
+
+        for (RequestCtx request : requests) {
+            String key = key(request);
+            ResponseCtx response = lookup(key);
+            keys.add(key);
+            responses.add(response);
+            if (response == null) {
+                missed.add(request);
+            }
+        }
+
+        if (missed.isEmpty()) {
+            return responses;
+        }
+
+        // evaluate the misses in one go, the delegate may do so concurrently
+        List<ResponseCtx> evaluated = delegate.evaluateRequestCtxList(missed);
+        for (int i = 0, j = 0; i < responses.size(); i++) {
+            if (responses.get(i) == null) {
+                ResponseCtx response = evaluated.get(j++);
+                responses.set(i, response);
+                store(keys.get(i), response);
+            }
+        }
+        return responses;
+    }
+
+    /**
+     * Drops all cached responses.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * The number of requests answered from the cache.
+     */
+    public long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    /**
+     * The number of requests handed over to the delegate transport.
+     */
+    public long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    private ResponseCtx lookup(String key) {
+        synchronized (cache) {
+            CachedResponse cached = cache.get(key);
+            if (cached != null && cached.expires < System.currentTimeMillis()) {
+                cache.remove(key);
+                cached = null;
+            }
+            if (cached == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return cached.response;
+        }
+    }
+
+    private void store(String key, ResponseCtx response) {
+        if (response == null) {
+            return;
+        }
+        for (Result result : response.getResults()) {
+            if (result.getDecision() == Result.DECISION_INDETERMINATE) {
+                return;
+            }
+        }
+
+        synchronized (cache) {
+            cache.put(key, new CachedResponse(response, System.currentTimeMillis() + ttl));
+        }
+    }
+
+    /**
+     * Builds the canonical form of a request, attribute sets are not ordered hence each group
+     * of encoded attributes is sorted.
+     */
+    String key(RequestCtx request) {
+        StringBuffer key = new StringBuffer();
+
+        List<String> subjects = new ArrayList<String>();
+        for (Subject subject : request.getSubjects()) {
+            subjects.add(subject.getCategory() + encode(subject.getAttributes()));
+        }
+        Collections.sort(subjects);
+        for (String subject : subjects) {
+            key.append("S:").append(subject);
+        }
+
+        key.append("R:").append(encode(request.getResource()));
+        key.append("A:").append(encode(request.getAction()));
+        key.append("E:").append(encode(request.getEnvironmentAttributes()));
+        return key.toString();
+    }
+
+    private String encode(Set<Attribute> attributes) {
+        List<String> encoded = new ArrayList<String>(attributes.size());
+        for (Attribute attribute : attributes) {
+            encoded.add(attribute.encode());
+        }
+        Collections.sort(encoded);
+
+        StringBuffer sb = new StringBuffer();
+        for (String attribute : encoded) {
+            sb.append(attribute);
+        }
+        return sb.toString();
+    }
+
+    static class CachedResponse {
+        ResponseCtx response;
+
+        long expires;
+
+        CachedResponse(ResponseCtx response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
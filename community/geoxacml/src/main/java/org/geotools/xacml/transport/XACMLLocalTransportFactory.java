@@ -17,6 +17,19 @@ public class XACMLLocalTransportFactory implements XACMLTransportFactory {
         transport = new XACMLLocalTransport(pdp, multithreaded);
     }
 
+    /**
+     * @param decisionCacheTTL
+     *            time to live of cached decisions in milliseconds, a value &lt;= 0 disables
+     *            decision caching
+     */
+    public XACMLLocalTransportFactory(PDP pdp, boolean multithreaded, long decisionCacheTTL) {
+        this(pdp, multithreaded);
+        if (decisionCacheTTL > 0) {
+            transport = new XACMLCachingTransport(transport, decisionCacheTTL,
+                    XACMLCachingTransport.DEFAULT_SIZE);
+        }
+    }
+
     public XACMLTransport getXACMLTransport() {
         return transport;
     }
@@ -26,6 +26,7 @@ import junit.framework.TestCase;
 
 import org.geotools.xacml.geoxacml.config.GeoXACML;
 import org.geotools.xacml.test.TestSupport;
+import org.geotools.xacml.transport.XACMLCachingTransport;
 import org.geotools.xacml.transport.XACMLLocalTransportFactory;
 import org.geotools.xacml.transport.XACMLTransport;
 
@@ -115,6 +116,28 @@ public class XACMLTransporterTest extends TestCase {
 
     }
 
+    public void testXACMLCachingTransport() {
+
+        PDP pdp = TestSupport
+                .getPDP(TestSupport.getGeoXACMLFNFor("wildcard", "WildCardPolicy.xml"));
+        XACMLCachingTransport transport = new XACMLCachingTransport(
+                new XACMLLocalTransportFactory(pdp, false).getXACMLTransport());
+
+        // the list holds two distinct requests, each one repeated
+        List<RequestCtx> requestList = createRequestList();
+        checkResponseList(transport.evaluateRequestCtxList(requestList));
+        assertEquals(requestList.size(), transport.getMisses() + transport.getHits());
+        long misses = transport.getMisses();
+
+        // all answered from the cache the second time
+        checkResponseList(transport.evaluateRequestCtxList(createRequestList()));
+        assertEquals(misses, transport.getMisses());
+
+        transport.clear();
+        checkResponseList(transport.evaluateRequestCtxList(requestList));
+        assertEquals(misses * 2, transport.getMisses());
+    }
+
     private void checkResponseList(List<ResponseCtx> responseList) {
         for (int i = 0; i < responseList.size(); i++) {
             ResponseCtx response = responseList.get(i);
@@ -0,0 +1,107 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.geosearch;
+
+import java.util.NoSuchElementException;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.rest.RestletException;
+import org.jdom.Document;
+import org.jdom.Element;
+import org.restlet.Restlet;
+import org.restlet.data.Method;
+import org.restlet.data.Request;
+import org.restlet.data.Response;
+import org.restlet.data.Status;
+import org.vfny.geoserver.wms.responses.map.kml.RegionatingHierarchyBuilder;
+import org.vfny.geoserver.wms.responses.map.kml.RegionatingHierarchyBuilder.Job;
+
+/**
+ * Starts and monitors the background computation of the KML regionating hierarchy of a layer.
+ * <ul>
+ * <li>POST starts the computation</li>
+ * <li>GET reports its progress</li>
+ * <li>DELETE cancels it</li>
+ * </ul>
+ */
+public class RegionatingRestlet extends Restlet {
+
+    private Catalog catalog;
+
+    private RegionatingHierarchyBuilder builder;
+
+    public void setCatalog(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    public void setBuilder(RegionatingHierarchyBuilder builder) {
+        this.builder = builder;
+    }
+
+    public void handle(Request request, Response response) {
+        FeatureTypeInfo featureType = getFeatureType(request);
+
+        Job job;
+        if (request.getMethod().equals(Method.POST)) {
+            job = builder.build(featureType);
+            response.setStatus(Status.SUCCESS_ACCEPTED);
+        } else if (request.getMethod().equals(Method.GET)) {
+            job = builder.getJob(featureType);
+            if (job == null) {
+                throw new RestletException("Regionating hierarchy of " + featureType.getName()
+                        + " was never built", Status.CLIENT_ERROR_NOT_FOUND);
+            }
+        } else if (request.getMethod().equals(Method.DELETE)) {
+            job = builder.getJob(featureType);
+            if (job != null) {
+                job.setCanceled(true);
+            }
+            response.setStatus(Status.SUCCESS_NO_CONTENT);
+            return;
+        } else {
+            response.setStatus(Status.CLIENT_ERROR_METHOD_NOT_ALLOWED);
+            return;
+        }
+
+        response.setEntity(new JDOMRepresentation(encode(featureType, job)));
+    }
+
+    FeatureTypeInfo getFeatureType(Request request) {
+        String layer = (String) request.getAttributes().get("layer");
+        String namespace = (String) request.getAttributes().get("namespace");
+
+        NamespaceInfo ns = catalog.getNamespaceByPrefix(namespace);
+        if (ns == null) {
+            throw new RestletException("No such namespace:" + namespace,
+                    Status.CLIENT_ERROR_NOT_FOUND);
+        }
+
+        FeatureTypeInfo featureType = null;
+        try {
+            featureType = catalog.getFeatureTypeByName(ns, layer);
+        } catch (NoSuchElementException e) {
+            // ignore, handled later
+        }
+
+        if (featureType == null) {
+            throw new RestletException("No such layer:" + layer, Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        return featureType;
+    }
+
+    Document encode(FeatureTypeInfo featureType, Job job) {
+        Element root = new Element("regionating");
+        root.addContent(new Element("layer").setText(featureType.getPrefixedName()));
+        root.addContent(new Element("state").setText(job.getState().name()));
+        root.addContent(new Element("progress").setText(String.valueOf(job.getProgress())));
+        if (job.getError() != null) {
+            root.addContent(new Element("error").setText(String.valueOf(job.getError()
+                    .getMessage())));
+        }
+        return new Document(root);
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opengis.feature.type.FeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+
+/**
+ * Lookup structure over the attributes of a feature type, used to resolve property names
+ * without walking the attribute list.
+ * <p>
+ * Instances are built and cached by {@link ResourcePool#getAttributeIndex(FeatureTypeInfo)}
+ * and are immutable.
+ * </p>
+ */
+public class AttributeTypeIndex {
+
+    /** attributes in declaration order */
+    List<AttributeTypeInfo> attributes;
+
+    /** attribute names in declaration order */
+    List<String> names;
+
+    /** attributes by name */
+    Map<String, AttributeTypeInfo> byName;
+
+    /** names of the attributes that must always be present */
+    Set<String> mandatory;
+
+    /** names of the geometric attributes */
+    Set<String> geometries;
+
+    public AttributeTypeIndex(List<AttributeTypeInfo> attributes, FeatureType featureType) {
+        this.attributes = Collections.unmodifiableList(new ArrayList<AttributeTypeInfo>(attributes));
+
+        List<String> names = new ArrayList<String>(attributes.size());
+        byName = new HashMap<String, AttributeTypeInfo>();
+        mandatory = new HashSet<String>();
+        geometries = new HashSet<String>();
+
+        for (AttributeTypeInfo att : attributes) {
+            String name = att.getName();
+            names.add(name);
+            byName.put(name, att);
+
+            if (att.getMinOccurs() > 0 && att.getMaxOccurs() != 0) {
+                mandatory.add(name);
+            }
+            if (featureType != null && featureType.getDescriptor(name) instanceof GeometryDescriptor) {
+                geometries.add(name);
+            }
+        }
+        this.names = Collections.unmodifiableList(names);
+    }
+
+    /**
+     * The attributes, in declaration order.
+     */
+    public List<AttributeTypeInfo> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * The attribute names, in declaration order.
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * Looks up an attribute from a property name, which may be qualified with a namespace
+     * prefix.
+     *
+     * @return The attribute, or <code>null</code> if no such attribute exists.
+     */
+    public AttributeTypeInfo get(String propertyName) {
+        return byName.get(stripPrefix(propertyName));
+    }
+
+    /**
+     * Returns the names of the attributes matching a list of property names, ignoring the names
+     * which do not match any attribute.
+     */
+    public Set<String> resolve(Collection<String> propertyNames) {
+        Set<String> resolved = new HashSet<String>();
+        for (String propertyName : propertyNames) {
+            AttributeTypeInfo att = get(propertyName);
+            if (att != null) {
+                resolved.add(att.getName());
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Whether the named attribute must always be present, ie. has a non zero minOccurs.
+     */
+    public boolean isMandatory(String name) {
+        return mandatory.contains(name);
+    }
+
+    /**
+     * Whether the named attribute is geometric.
+     */
+    public boolean isGeometry(String name) {
+        return geometries.contains(name);
+    }
+
+    static String stripPrefix(String propertyName) {
+        int colon = propertyName.indexOf(':');
+        return colon != -1 ? propertyName.substring(colon + 1) : propertyName;
+    }
+}
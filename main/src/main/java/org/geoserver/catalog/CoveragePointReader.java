@@ -0,0 +1,284 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.geometry.DirectPosition2D;
+import org.opengis.coverage.PointOutsideCoverageException;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.geometry.DirectPosition;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+/**
+ * Reads the value of a single coverage pixel, as needed by GetFeatureInfo.
+ * <p>
+ * The source pixel is computed from the native grid geometry of the reader and only that
+ * pixel, at full resolution, is read. The values of the most recently queried pixels are
+ * cached, so that repeated clicks on the same area do not go through the reader again.
+ * The cached values of a reader are dropped when the {@link ResourcePool} disposes it,
+ * including the ones being read at that time.
+ * </p>
+ */
+public class CoveragePointReader {
+
+    /**
+     * Default number of cached pixels
+     */
+    public static int CACHE_SIZE_DEFAULT = 1000;
+
+    PixelCache cache;
+
+    long hits;
+
+    long misses;
+
+    /**
+     * Incremented each time the cache is cleared, so that the values read while clearing
+     * are not cached
+     */
+    long generation;
+
+    public CoveragePointReader() {
+        this(CACHE_SIZE_DEFAULT);
+    }
+
+    public CoveragePointReader(int cacheSize) {
+        cache = new PixelCache(cacheSize);
+    }
+
+    /**
+     * Returns the values of the pixel containing the position, or null if the position is
+     * outside of the coverage.
+     *
+     * @param reader
+     *            the coverage reader
+     * @param parameters
+     *            the read parameters, the grid geometry one is overwritten
+     * @param position
+     *            a position in the coverage native crs
+     */
+    public PixelValue read(AbstractGridCoverage2DReader reader,
+            GeneralParameterValue[] parameters, DirectPosition position) throws IOException {
+        if (!reader.getOriginalEnvelope().contains(position)) {
+            return null;
+        }
+
+        // locate the pixel in the native grid
+        final int x, y;
+        final DirectPosition2D center;
+        try {
+            MathTransform worldToGrid = reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER)
+                    .inverse();
+            DirectPosition gridPosition = worldToGrid.transform(position, null);
+            x = (int) Math.floor(gridPosition.getOrdinate(0));
+            y = (int) Math.floor(gridPosition.getOrdinate(1));
+            // evaluate at the pixel center, the position might be right on its border
+            center = new DirectPosition2D(reader.getCrs(), x, y);
+            reader.getOriginalGridToWorld(PixelInCell.CELL_CENTER).transform(center, center);
+        } catch (TransformException e) {
+            throw (IOException) new IOException("Could not locate " + position
+                    + " in the coverage grid").initCause(e);
+        }
+        GridEnvelope range = reader.getOriginalGridRange();
+        if (x < range.getLow(0) || x > range.getHigh(0) || y < range.getLow(1)
+                || y > range.getHigh(1)) {
+            return null;
+        }
+
+        PixelKey key = new PixelKey(reader, parameters, x, y);
+        final long readGeneration;
+        synchronized (this) {
+            PixelValue value = cache.get(key);
+            if (value != null) {
+                hits++;
+                return value;
+            }
+            misses++;
+            readGeneration = generation;
+        }
+
+        // read just that pixel, at native resolution
+        GridGeometry2D gridGeometry = new GridGeometry2D(new GridEnvelope2D(x, y, 1, 1), reader
+                .getOriginalGridToWorld(PixelInCell.CELL_CENTER), reader.getCrs());
+        GeneralParameterValue[] readParameters = withGridGeometry(parameters, gridGeometry);
+        GridCoverage2D coverage = (GridCoverage2D) reader.read(readParameters);
+        if (coverage == null) {
+            return null;
+        }
+
+        PixelValue value;
+        try {
+            value = new PixelValue(coverage.evaluate(center, (double[]) null), coverage
+                    .getSampleDimensions());
+        } catch (PointOutsideCoverageException e) {
+            return null;
+        } finally {
+            coverage.dispose(false);
+        }
+
+        synchronized (this) {
+            // the reader might have been disposed while we were reading
+            if (generation == readGeneration) {
+                cache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Drops the cached pixels read from the reader
+     */
+    public synchronized void clear(GridCoverageReader reader) {
+        generation++;
+        for (Iterator<PixelKey> it = cache.keySet().iterator(); it.hasNext();) {
+            if (it.next().reader == reader) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached pixels
+     */
+    public synchronized void clear() {
+        generation++;
+        cache.clear();
+    }
+
+    /**
+     * The number of queries answered from the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of queries that had to read the coverage
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    GeneralParameterValue[] withGridGeometry(GeneralParameterValue[] parameters,
+            GridGeometry2D gridGeometry) {
+        List<GeneralParameterValue> result = new ArrayList<GeneralParameterValue>();
+        if (parameters != null) {
+            for (GeneralParameterValue gpv : parameters) {
+                if (!isGridGeometry(gpv)) {
+                    result.add(gpv);
+                }
+            }
+        }
+        ParameterValue<GridGeometry2D> gg = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+        gg.setValue(gridGeometry);
+        result.add(gg);
+        return result.toArray(new GeneralParameterValue[result.size()]);
+    }
+
+    static boolean isGridGeometry(GeneralParameterValue gpv) {
+        return gpv.getDescriptor().getName().equals(
+                AbstractGridFormat.READ_GRIDGEOMETRY2D.getName());
+    }
+
+    /**
+     * The values of a pixel, along with the sample dimensions describing them
+     */
+    public static class PixelValue {
+        double[] values;
+
+        GridSampleDimension[] sampleDimensions;
+
+        PixelValue(double[] values, GridSampleDimension[] sampleDimensions) {
+            this.values = values;
+            this.sampleDimensions = sampleDimensions;
+        }
+
+        public double[] getValues() {
+            return values.clone();
+        }
+
+        public GridSampleDimension[] getSampleDimensions() {
+            return sampleDimensions;
+        }
+    }
+
+    /**
+     * Identifies a pixel read, the grid geometry being replaced by the pixel location
+     */
+    static class PixelKey {
+        GridCoverageReader reader;
+
+        Object[] parameters;
+
+        int x;
+
+        int y;
+
+        PixelKey(GridCoverageReader reader, GeneralParameterValue[] parameters, int x, int y) {
+            this.reader = reader;
+            this.x = x;
+            this.y = y;
+            List<Object> values = new ArrayList<Object>();
+            if (parameters != null) {
+                for (GeneralParameterValue gpv : parameters) {
+                    if (!isGridGeometry(gpv)) {
+                        values.add(gpv.getDescriptor().getName().getCode());
+                        values.add(gpv instanceof ParameterValue ? ((ParameterValue) gpv)
+                                .getValue() : gpv);
+                    }
+                }
+            }
+            this.parameters = values.toArray();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PixelKey)) {
+                return false;
+            }
+            PixelKey other = (PixelKey) obj;
+            return reader == other.reader && x == other.x && y == other.y
+                    && Arrays.deepEquals(parameters, other.parameters);
+        }
+
+        @Override
+        public int hashCode() {
+            return ((System.identityHashCode(reader) * 31 + x) * 31 + y) * 31
+                    + Arrays.deepHashCode(parameters);
+        }
+    }
+
+    static class PixelCache extends LinkedHashMap<PixelKey, PixelValue> {
+        int maxSize;
+
+        PixelCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PixelKey, PixelValue> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.awt.geom.AffineTransform;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.media.jai.JAI;
+
+import org.geoserver.jai.CoverageTileCache;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.factory.Hints;
+import org.geotools.geometry.GeneralEnvelope;
+import org.geotools.util.logging.Logging;
+import org.opengis.coverage.grid.Format;
+import org.opengis.coverage.grid.GridCoverage;
+import org.opengis.coverage.grid.GridEnvelope;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.datum.PixelInCell;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * A grid coverage reader backed by a pool of readers against the same source, used by
+ * {@link ResourcePool} so that the reads against a busy coverage store can run in
+ * parallel, since most format readers cannot be used by more than one thread at a time.
+ * <p>
+ * The first reader is opened eagerly and kept open for the lifetime of the pool, it
+ * provides the metadata (envelope, grid range, crs) so that the source is parsed only
+ * once. Up to {@link #getMaxReaders()} readers are opened as concurrent reads require
+ * them, they are kept open and reused, and disposed after being idle for longer than
+ * {@link #getMaxIdleTime()} milliseconds. When all the readers are busy a read waits for one to be returned, the number of waits and
+ * the time spent waiting are tracked.
+ * </p>
+ * <p>
+ * The coverages read are backed by the {@link CoverageTileCache}, when enabled, so that
+ * the tiles decoded by a read are reused by the following reads against the same overview
+ * level and bands, wherever their read window is.
+ * </p>
+ */
+public class PooledGridCoverageReader extends AbstractGridCoverage2DReader {
+
+    /** logging */
+    static Logger LOGGER = Logging.getLogger("org.geoserver.catalog");
+
+    /**
+     * How far, in pixels, a read can be from the grid of its level to share its tiles
+     */
+    static final double PIXEL_TOLERANCE = 1e-6;
+
+    /**
+     * Default maximum number of readers per store
+     */
+    public static int MAX_READERS_DEFAULT = 4;
+
+    /**
+     * Default time, in milliseconds, after which an idle reader gets disposed
+     */
+    public static long MAX_IDLE_TIME_DEFAULT = 60 * 1000;
+
+    AbstractGridFormat format;
+
+    File file;
+
+    /**
+     * The reader providing the metadata, never disposed before the pool is
+     */
+    AbstractGridCoverage2DReader master;
+
+    /**
+     * The readers not in use, most recently returned last
+     */
+    LinkedList<IdleReader> idle = new LinkedList<IdleReader>();
+
+    /**
+     * The number of readers open, idle or in use
+     */
+    int open;
+
+    int maxReaders;
+
+    long maxIdleTime = MAX_IDLE_TIME_DEFAULT;
+
+    boolean disposed;
+
+    long reads;
+
+    long waits;
+
+    long waitTime;
+
+    /**
+     * Builds a pool around an already open reader against the file
+     */
+    public PooledGridCoverageReader(AbstractGridFormat format, File file, Hints hints,
+            AbstractGridCoverage2DReader master, int maxReaders) {
+        this.format = format;
+        this.file = file;
+        this.hints = hints;
+        this.master = master;
+        this.maxReaders = Math.max(1, maxReaders);
+        idle.add(new IdleReader(master));
+        open = 1;
+    }
+
+    public Format getFormat() {
+        return master.getFormat();
+    }
+
+    public Object getSource() {
+        return master.getSource();
+    }
+
+    public CoordinateReferenceSystem getCrs() {
+        return master.getCrs();
+    }
+
+    public GeneralEnvelope getOriginalEnvelope() {
+        return master.getOriginalEnvelope();
+    }
+
+    public GridEnvelope getOriginalGridRange() {
+        return master.getOriginalGridRange();
+    }
+
+    public MathTransform getOriginalGridToWorld(PixelInCell pixInCell) {
+        return master.getOriginalGridToWorld(pixInCell);
+    }
+
+    public GridCoverage read(GeneralParameterValue[] parameters) throws IllegalArgumentException,
+            IOException {
+        AbstractGridCoverage2DReader reader = borrow();
+        GridCoverage coverage;
+        try {
+            coverage = reader.read(parameters);
+        } finally {
+            giveBack(reader);
+        }
+
+        CoverageTileCache cache = CoverageTileCache.getDefaultInstance();
+        if (coverage instanceof GridCoverage2D && cache.isEnabled()) {
+            GridCoverage2D gc = (GridCoverage2D) coverage;
+            int[] offset = new int[2];
+            Level level = locate(gc, parameters, offset);
+            if (level != null) {
+                coverage = cache.wrap(gc, file.getAbsolutePath(), level, offset[0], offset[1]);
+            }
+        }
+        return coverage;
+    }
+
+    /**
+     * Locates the coverage in the level of the source it has been read from, returning the
+     * level and filling the offset of the coverage image in it, or returns null if the
+     * coverage cannot be located (rotated or not affine grid to world, not pixel aligned)
+     */
+    Level locate(GridCoverage2D coverage, GeneralParameterValue[] parameters, int[] offset) {
+        MathTransform original = master.getOriginalGridToWorld(PixelInCell.CELL_CORNER);
+        MathTransform read = coverage.getGridGeometry().getGridToCRS2D(
+                PixelOrientation.UPPER_LEFT);
+        if (!(original instanceof AffineTransform) || !(read instanceof AffineTransform)) {
+            return null;
+        }
+        AffineTransform ot = (AffineTransform) original;
+        AffineTransform rt = (AffineTransform) read;
+        if (ot.getShearX() != 0 || ot.getShearY() != 0 || rt.getShearX() != 0
+                || rt.getShearY() != 0) {
+            return null;
+        }
+
+        // the overview level is given by the read resolution, the position by where the
+        // image origin falls in the grid of the level
+        double scaleX = rt.getScaleX() / ot.getScaleX();
+        double scaleY = rt.getScaleY() / ot.getScaleY();
+        double x = (rt.getTranslateX() - ot.getTranslateX()) / rt.getScaleX();
+        double y = (rt.getTranslateY() - ot.getTranslateY()) / rt.getScaleY();
+        long ox = Math.round(x);
+        long oy = Math.round(y);
+        if (Math.abs(x - ox) > PIXEL_TOLERANCE || Math.abs(y - oy) > PIXEL_TOLERANCE
+                || Math.abs(ox) > Integer.MAX_VALUE / 2 || Math.abs(oy) > Integer.MAX_VALUE / 2) {
+            return null;
+        }
+        offset[0] = (int) ox;
+        offset[1] = (int) oy;
+        return new Level(file, hints, scaleX, scaleY, parameters);
+    }
+
+    /**
+     * Disposes all the readers, the ones in use are disposed as they are returned
+     */
+    public void dispose() {
+        synchronized (this) {
+            disposed = true;
+            for (IdleReader ir : idle) {
+                disposeReader(ir.reader);
+            }
+            idle.clear();
+            // wake up the waiting reads, they will fail
+            notifyAll();
+        }
+        CoverageTileCache.getDefaultInstance().clear(file.getAbsolutePath());
+    }
+
+    /**
+     * The maximum number of readers used concurrently
+     */
+    public int getMaxReaders() {
+        return maxReaders;
+    }
+
+    public synchronized void setMaxReaders(int maxReaders) {
+        this.maxReaders = Math.max(1, maxReaders);
+        notifyAll();
+    }
+
+    /**
+     * The time, in milliseconds, after which a reader that's not being used is disposed
+     */
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public void setMaxIdleTime(long maxIdleTime) {
+        this.maxIdleTime = maxIdleTime;
+    }
+
+    /**
+     * The number of readers currently open
+     */
+    public synchronized int getOpenReaders() {
+        return open;
+    }
+
+    /**
+     * The number of reads performed so far
+     */
+    public synchronized long getReads() {
+        return reads;
+    }
+
+    /**
+     * The number of reads that had to wait for a reader to become available
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+
+    /**
+     * The total time, in milliseconds, reads spent waiting for a reader
+     */
+    public synchronized long getWaitTime() {
+        return waitTime;
+    }
+
+    AbstractGridCoverage2DReader borrow() throws IOException {
+        synchronized (this) {
+            reads++;
+            long start = 0;
+            while (!disposed && idle.isEmpty() && open >= maxReaders) {
+                if (start == 0) {
+                    start = System.currentTimeMillis();
+                    waits++;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw (IOException) new IOException("Interrupted while waiting for a "
+                            + "coverage reader on " + file).initCause(e);
+                }
+            }
+            if (start > 0) {
+                waitTime += System.currentTimeMillis() - start;
+            }
+            if (disposed) {
+                throw new IOException("The coverage reader on " + file + " has been disposed");
+            }
+
+            if (!idle.isEmpty()) {
+                // most recently used first, the others are more likely to expire
+                return idle.removeLast().reader;
+            }
+            open++;
+        }
+
+        // open a new reader outside of the lock, it may take a while
+        AbstractGridCoverage2DReader reader = null;
+        try {
+            reader = createReader();
+        } finally {
+            if (reader == null) {
+                synchronized (this) {
+                    open--;
+                    notifyAll();
+                }
+            }
+        }
+        if (reader == null) {
+            throw new IOException("Could not create a " + format.getName() + " reader for "
+                    + file);
+        }
+        return reader;
+    }
+
+    void giveBack(AbstractGridCoverage2DReader reader) {
+        synchronized (this) {
+            // drop the reader if the pool is gone or has been shrunk
+            if (disposed || (open > maxReaders && reader != master)) {
+                open--;
+                disposeReader(reader);
+                notifyAll();
+                return;
+            }
+            idle.add(new IdleReader(reader));
+            evictIdle();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Disposes the readers that have not been used for too long, the master one excluded
+     */
+    void evictIdle() {
+        long threshold = System.currentTimeMillis() - maxIdleTime;
+        for (Iterator<IdleReader> it = idle.iterator(); it.hasNext();) {
+            IdleReader ir = it.next();
+            // least recently returned first
+            if (ir.since > threshold) {
+                break;
+            }
+            if (ir.reader != master) {
+                it.remove();
+                open--;
+                disposeReader(ir.reader);
+            }
+        }
+    }
+
+    AbstractGridCoverage2DReader createReader() {
+        return (AbstractGridCoverage2DReader) format.getReader(file, hints);
+    }
+
+    void disposeReader(AbstractGridCoverage2DReader reader) {
+        try {
+            reader.dispose();
+        } catch (Exception e) {
+            LOGGER.warning("Error occured disposing coverage reader on '" + file + "'");
+            LOGGER.log(Level.FINE, "", e);
+        }
+    }
+
+    /**
+     * Identifies a level of the source for the coverage tile cache: the resolution
+     * relative to the native one determines the overview level, the read parameters other
+     * than the requested grid geometry (band subset, ...) what is read from it, the reader
+     * hints (overview policy, image layout) how it is decoded, and the file modification
+     * time is part of it so that tiles decoded from a file that has since been modified are
+     * not reused. The read window is not, reads against different windows of
+     * the same level share the tiles they have in common.
+     */
+    static class Level {
+        Object[] key;
+
+        Level(File file, Hints hints, double scaleX, double scaleY,
+                GeneralParameterValue[] parameters) {
+            String gridGeometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.getName().getCode();
+            List<Object> key = new ArrayList<Object>();
+            key.add(file.lastModified());
+            // the pools with and without hints read the same file, an overview and a
+            // subsampled native read at the same resolution must not share tiles
+            key.add(hints != null ? hints.get(Hints.OVERVIEW_POLICY) : null);
+            key.add(hints != null ? hints.get(JAI.KEY_IMAGE_LAYOUT) : null);
+            key.add(scaleX);
+            key.add(scaleY);
+            if (parameters != null) {
+                for (GeneralParameterValue gpv : parameters) {
+                    String name = gpv.getDescriptor().getName().getCode();
+                    if (gridGeometry.equals(name)) {
+                        continue;
+                    }
+                    key.add(name);
+                    key.add(gpv instanceof ParameterValue ? ((ParameterValue) gpv).getValue()
+                            : gpv);
+                }
+            }
+            this.key = key.toArray();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Level && Arrays.deepEquals(key, ((Level) obj).key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.deepHashCode(key);
+        }
+    }
+
+    static class IdleReader {
+        AbstractGridCoverage2DReader reader;
+
+        long since = System.currentTimeMillis();
+
+        IdleReader(AbstractGridCoverage2DReader reader) {
+            this.reader = reader;
+        }
+    }
+}
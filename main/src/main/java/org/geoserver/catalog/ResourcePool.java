@@ -47,6 +47,7 @@ import org.geoserver.data.util.CoverageStoreUtils;
 import org.geoserver.data.util.CoverageUtils;
 import org.geoserver.feature.retype.RetypingDataStore;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.data.DataAccess;
 import org.geotools.data.DataAccessFactory;
@@ -134,8 +135,11 @@ public class ResourcePool {
     DataStoreCache dataStoreCache;
     FeatureTypeCache featureTypeCache;
     FeatureTypeAttributeCache featureTypeAttributeCache;
+    AttributeIndexCache attributeIndexCache;
     CoverageReaderCache coverageReaderCache;
     CoverageReaderCache hintCoverageReaderCache;
+    int coverageReaderPoolSize = PooledGridCoverageReader.MAX_READERS_DEFAULT;
+    CoveragePointReader coveragePointReader;
     HashMap<StyleInfo,Style> styleCache;
     List<Listener> listeners;
     
@@ -145,8 +149,10 @@ public class ResourcePool {
         dataStoreCache = new DataStoreCache();
         featureTypeCache = new FeatureTypeCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         featureTypeAttributeCache = new FeatureTypeAttributeCache();
+        attributeIndexCache = new AttributeIndexCache(FEATURETYPE_CACHE_SIZE_DEFAULT);
         coverageReaderCache = new CoverageReaderCache();
         hintCoverageReaderCache = new CoverageReaderCache();
+        coveragePointReader = new CoveragePointReader();
         styleCache = new HashMap<StyleInfo, Style>();
         listeners = new CopyOnWriteArrayList<Listener>();
         
@@ -166,6 +172,35 @@ public class ResourcePool {
         }
     }
     
+    /**
+     * Sets the maximum number of readers used concurrently against a single coverage
+     * store. A value of 1 disables pooling, each store being served by a single reader.
+     * <p>
+     * The new size applies to the readers already cached as well.
+     * </p>
+     */
+    public void setCoverageReaderPoolSize(int coverageReaderPoolSize) {
+        this.coverageReaderPoolSize = coverageReaderPoolSize;
+        for (CoverageReaderCache cache : new CoverageReaderCache[] { coverageReaderCache,
+                hintCoverageReaderCache }) {
+            synchronized (cache) {
+                for (Object reader : cache.values()) {
+                    if (reader instanceof PooledGridCoverageReader) {
+                        ((PooledGridCoverageReader) reader).setMaxReaders(coverageReaderPoolSize);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of readers used concurrently against a single coverage
+     * store.
+     */
+    public int getCoverageReaderPoolSize() {
+        return coverageReaderPoolSize;
+    }
+
     /**
      * Adds a pool listener.
      */
@@ -684,6 +719,35 @@ public class ResourcePool {
     public void clear( FeatureTypeInfo info ) {
         featureTypeCache.remove( info );
         featureTypeAttributeCache.remove( info );
+        synchronized ( attributeIndexCache ) {
+            attributeIndexCache.remove( info.getId() );
+        }
+    }
+    
+    /**
+     * Returns the attribute index of a feature type, used to resolve property names against 
+     * the attributes of the feature type.
+     * <p>
+     * The index is built from {@link #getAttributes(FeatureTypeInfo)} and cached until the 
+     * feature type is modified.
+     * </p>
+     * @param info The feature type metadata.
+     */
+    public AttributeTypeIndex getAttributeIndex( FeatureTypeInfo info ) throws IOException {
+        AttributeTypeIndex index = null;
+        synchronized ( attributeIndexCache ) {
+            index = (AttributeTypeIndex) attributeIndexCache.get( info.getId() );
+        }
+        
+        if ( index == null ) {
+            //build outside of the lock, building may hit the data store
+            index = new AttributeTypeIndex( getAttributes( info ), getFeatureType( info ) );
+            synchronized ( attributeIndexCache ) {
+                attributeIndexCache.put( info.getId(), index );
+            }
+        }
+        
+        return index;
     }
     
     /**
@@ -820,6 +884,12 @@ public class ResourcePool {
     
     /**
      * Returns a coverage reader, caching the result.
+     * <p>
+     * Unless pooling is disabled (see {@link #setCoverageReaderPoolSize(int)}) the reader
+     * is a {@link PooledGridCoverageReader}, which can be shared by concurrent requests:
+     * each read is performed by one of up to {@link #getCoverageReaderPoolSize()} readers
+     * against the same source.
+     * </p>
      *  
      * @param info The coverage metadata.
      * @param hints Hints to use when loading the coverage, may be <code>null</code>.
@@ -858,6 +928,10 @@ public class ResourcePool {
     
                 // XXX CACHING READERS HERE
                 reader = (info.getFormat()).getReader(obj,hints);
+                if (reader instanceof AbstractGridCoverage2DReader && coverageReaderPoolSize > 1) {
+                    reader = new PooledGridCoverageReader(info.getFormat(), obj, hints,
+                            (AbstractGridCoverage2DReader) reader, coverageReaderPoolSize);
+                }
                 (hints != null ? hintCoverageReaderCache : coverageReaderCache ).put(info, reader);
             }
         }
@@ -866,6 +940,14 @@ public class ResourcePool {
             
     }
     
+    /**
+     * Returns the object reading single pixels out of the cached coverage readers, as
+     * done by GetFeatureInfo, which caches the most recently read pixel values.
+     */
+    public CoveragePointReader getCoveragePointReader() {
+        return coveragePointReader;
+    }
+    
     /**
      * Clears any cached readers for the coverage.
      */
@@ -1161,6 +1243,9 @@ public class ResourcePool {
         dataStoreCache.clear();
         featureTypeCache.clear();
         featureTypeAttributeCache.clear();
+        synchronized ( attributeIndexCache ) {
+            attributeIndexCache.clear();
+        }
         coverageReaderCache.clear();
         hintCoverageReaderCache.clear();
         styleCache.clear();
@@ -1232,6 +1317,7 @@ public class ResourcePool {
         void dispose( CoverageStoreInfo info, GridCoverageReader reader ) {
             LOGGER.info( "Disposing grid coverage reader '" + info.getName() + "'");
             fireDisposed(info, reader);
+            coveragePointReader.clear(reader);
             try {
                 reader.dispose();
             }
@@ -1260,6 +1346,13 @@ public class ResourcePool {
         
     }
     
+    static class AttributeIndexCache extends LRUMap {
+        
+        public AttributeIndexCache(int maxSize) {
+            super(maxSize);
+        }
+    }
+    
     /**
      * Listens to catalog events clearing cache entires when resources are modified.
      */
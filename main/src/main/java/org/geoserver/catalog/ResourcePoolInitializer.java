@@ -19,6 +19,12 @@ import org.geoserver.config.GeoServerInitializer;
  */
 public class ResourcePoolInitializer implements GeoServerInitializer {
 
+    /**
+     * Key of the global metadata entry holding the maximum number of concurrent readers
+     * per coverage store
+     */
+    public static final String COVERAGE_READER_POOL_SIZE = "coverageReaderPoolSize";
+
     GeoServer gs;
     
     public void initialize(GeoServer geoServer) throws Exception {
@@ -28,6 +34,7 @@ public class ResourcePoolInitializer implements GeoServerInitializer {
         if (cacheSize > 0) {
             gs.getCatalog().getResourcePool().setFeatureTypeCacheSize(cacheSize);
         }
+        initCoverageReaderPoolSize(geoServer.getGlobal());
         
         geoServer.addListener(new ConfigurationListenerAdapter() {
             @Override
@@ -37,8 +44,18 @@ public class ResourcePoolInitializer implements GeoServerInitializer {
                 if (i > -1) {
                     gs.getCatalog().getResourcePool().setFeatureTypeCacheSize(i);
                 }
+                if (propertyNames.contains("metadata")) {
+                    initCoverageReaderPoolSize(global);
+                }
             }
         });
     }
     
+    void initCoverageReaderPoolSize(GeoServerInfo global) {
+        Integer poolSize = global.getMetadata().get(COVERAGE_READER_POOL_SIZE, Integer.class);
+        if (poolSize != null && poolSize > 0) {
+            gs.getCatalog().getResourcePool().setCoverageReaderPoolSize(poolSize);
+        }
+    }
+    
 }
@@ -6,6 +6,8 @@ package org.geoserver.config;
 
 import javax.media.jai.JAI;
 
+import org.geoserver.jai.CoverageTileCache;
+
 import com.sun.media.jai.util.SunTileCache;
 
 /**
@@ -76,6 +78,12 @@ public interface JAIInfo {
     void setImageIOCache(boolean imageIOCache);
     boolean isImageIOCache();
 
+    /**
+     * The size, in megabytes, of the decoded coverage tile cache. Zero disables it.
+     */
+    int getCoverageTileCacheSize();
+    void setCoverageTileCacheSize(int coverageTileCacheSize);
+
     /**
      * The jai instance.
      */
@@ -87,4 +95,10 @@ public interface JAIInfo {
      */
     SunTileCache getTileCache();
     void setTileCache(SunTileCache tileCache);
+
+    /**
+     * The decoded coverage tile cache.
+     */
+    CoverageTileCache getCoverageTileCache();
+    void setCoverageTileCache(CoverageTileCache coverageTileCache);
 }
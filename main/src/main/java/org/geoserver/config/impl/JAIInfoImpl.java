@@ -9,6 +9,7 @@ import java.io.Serializable;
 import javax.media.jai.JAI;
 
 import org.geoserver.config.JAIInfo;
+import org.geoserver.jai.CoverageTileCache;
 
 import com.sun.media.jai.util.SunTileCache;
 
@@ -20,6 +21,7 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     
     transient JAI jai;
     transient SunTileCache tileCache;
+    transient CoverageTileCache coverageTileCache;
     
     boolean allowInterpolation;
     
@@ -49,6 +51,9 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     
     public static final boolean DEFAULT_MosaicNative = false;
     boolean allowNativeMosaic = DEFAULT_MosaicNative;
+    
+    public static final int DEFAULT_CoverageTileCacheSize = 0;
+    int coverageTileCacheSize = DEFAULT_CoverageTileCacheSize;
 
     /**
      * @uml.property name="allowInterpolation"
@@ -158,6 +163,14 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
         return imageIOCache;
     }
     
+    public int getCoverageTileCacheSize() {
+        return coverageTileCacheSize;
+    }
+    
+    public void setCoverageTileCacheSize(int coverageTileCacheSize) {
+        this.coverageTileCacheSize = coverageTileCacheSize;
+    }
+    
     public JAI getJAI() {
         return jai;
     }
@@ -173,6 +186,14 @@ public class JAIInfoImpl implements Serializable, JAIInfo {
     public void setTileCache( SunTileCache tileCache ) {
         this.tileCache = tileCache;
     }
+    
+    public CoverageTileCache getCoverageTileCache() {
+        return coverageTileCache;
+    }
+    
+    public void setCoverageTileCache( CoverageTileCache coverageTileCache ) {
+        this.coverageTileCache = coverageTileCache;
+    }
 
 	public boolean isAllowNativeMosaic() {
 		return allowNativeMosaic;
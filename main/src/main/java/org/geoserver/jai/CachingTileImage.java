@@ -0,0 +1,88 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+
+/**
+ * Wraps the image returned by a coverage reader, looking up the tiles in a
+ * {@link CoverageTileCache} before asking the source image to decode them.
+ * <p>
+ * Tiles are cached in the coordinates of the level the image has been read from, and
+ * translated back into the image coordinates when handed out, the data is shared.
+ * </p>
+ */
+class CachingTileImage extends PlanarImage {
+
+    RenderedImage image;
+
+    CoverageTileCache cache;
+
+    Object source;
+
+    Object level;
+
+    int offsetX;
+
+    int offsetY;
+
+    CachingTileImage(RenderedImage image, CoverageTileCache cache, Object source,
+            Object level, int offsetX, int offsetY) {
+        super(new ImageLayout(image), null, null);
+        this.image = image;
+        this.cache = cache;
+        this.source = source;
+        this.level = level;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+    }
+
+    public Raster getTile(int tileX, int tileY) {
+        // the area covered in the level, clipped to the image, so that the tiles on the
+        // border of different read windows do not get mixed up
+        Rectangle area = getTileRect(tileX, tileY);
+        area.translate(offsetX, offsetY);
+
+        int minX = tileXToX(tileX);
+        int minY = tileYToY(tileY);
+        Raster tile = cache.getTile(source, level, area);
+        // a read using another tile grid may have cached a tile covering the same area,
+        // only reuse it if it has the same size and origin as the one being asked for
+        if (tile != null && tile.getWidth() == getTileWidth()
+                && tile.getHeight() == getTileHeight() && tile.getMinX() == minX + offsetX
+                && tile.getMinY() == minY + offsetY) {
+            return tile.createTranslatedChild(minX, minY);
+        }
+
+        tile = image.getTile(tileX, tileY);
+        if (tile != null) {
+            cache.putTile(source, level, area, tile.createTranslatedChild(tile.getMinX()
+                    + offsetX, tile.getMinY() + offsetY));
+        }
+        return tile;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return image.getProperty(name);
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return image.getPropertyNames();
+    }
+
+    @Override
+    public void dispose() {
+        if (image instanceof PlanarImage) {
+            ((PlanarImage) image).dispose();
+        }
+    }
+}
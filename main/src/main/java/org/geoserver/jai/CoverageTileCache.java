@@ -0,0 +1,255 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+
+/**
+ * A cache of decoded coverage tiles, shared by all the services reading coverages
+ * (WMS GetMap rendering, WCS GetCoverage) and sitting in front of the coverage readers.
+ * <p>
+ * Unlike the JAI tile cache, whose entries belong to a single image and hence to a single
+ * read, tiles are keyed by what they contain: the source (the coverage store file), the
+ * level they have been read from (overview level, band subset, ...) and the area they
+ * cover in that level, in pixels. The read window is not part of the key, two requests
+ * covering the same tiles of the source, as tiled clients routinely do, share them even
+ * if their read windows differ.
+ * </p>
+ * <p>
+ * Tiles are kept as decoded, on the heap, and handed out without copying them, so the
+ * rasters returned must not be modified. The cache is bounded by the total size of the
+ * tile data, the least recently used tiles are evicted first. The cache is disabled when
+ * its capacity is zero. It is configured by {@link JAIInitializer} from
+ * {@link org.geoserver.config.JAIInfo#getCoverageTileCacheSize()}.
+ * </p>
+ */
+public class CoverageTileCache {
+
+    static final CoverageTileCache DEFAULT = new CoverageTileCache();
+
+    /**
+     * Returns the cache shared by the whole application
+     */
+    public static CoverageTileCache getDefaultInstance() {
+        return DEFAULT;
+    }
+
+    LinkedHashMap<TileKey, Tile> tiles = new LinkedHashMap<TileKey, Tile>(16, 0.75f, true);
+
+    long capacity;
+
+    long size;
+
+    long hits;
+
+    long misses;
+
+    long evictions;
+
+    /**
+     * The maximum size of the cached tiles, in bytes. Zero disables the cache.
+     */
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = Math.max(0, capacity);
+        evict();
+    }
+
+    public synchronized boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /**
+     * Wraps a coverage freshly returned by a reader so that its tiles are looked up in, and
+     * added to, this cache.
+     *
+     * @param source
+     *            identifies the reader source, its configuration included
+     * @param level
+     *            identifies the level of the source the coverage has been read from, must
+     *            have a meaningful equals/hashCode
+     * @param offsetX
+     *            the position in the level of the coverage image origin, along x
+     * @param offsetY
+     *            the position in the level of the coverage image origin, along y
+     */
+    public GridCoverage2D wrap(GridCoverage2D coverage, Object source, Object level,
+            int offsetX, int offsetY) {
+        if (!isEnabled()) {
+            return coverage;
+        }
+
+        GridSampleDimension[] bands = new GridSampleDimension[coverage.getNumSampleDimensions()];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = coverage.getSampleDimension(i);
+        }
+        RenderedImage image = new CachingTileImage(coverage.getRenderedImage(), this, source,
+                level, offsetX, offsetY);
+        return new GridCoverageFactory().create(coverage.getName(), image, coverage
+                .getGridGeometry(), bands, null, coverage.getProperties());
+    }
+
+    /**
+     * Returns the cached tile covering the area of the level, or null if not found. The
+     * tile is shared, it must not be modified.
+     */
+    public Raster getTile(Object source, Object level, Rectangle area) {
+        synchronized (this) {
+            Tile tile = tiles.get(new TileKey(source, level, area));
+            if (tile == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return tile.raster;
+        }
+    }
+
+    /**
+     * Caches the tile covering the area of the level. The tile is not copied, it must not
+     * be modified afterwards.
+     */
+    public void putTile(Object source, Object level, Rectangle area, Raster raster) {
+        Tile tile = new Tile(raster);
+        synchronized (this) {
+            if (tile.size > capacity) {
+                return;
+            }
+            Tile previous = tiles.put(new TileKey(source, level, area), tile);
+            if (previous != null) {
+                size -= previous.size;
+            }
+            size += tile.size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes the tiles read from the specified source
+     */
+    public synchronized void clear(Object source) {
+        for (Iterator<java.util.Map.Entry<TileKey, Tile>> it = tiles.entrySet().iterator(); it
+                .hasNext();) {
+            java.util.Map.Entry<TileKey, Tile> entry = it.next();
+            if (equals(entry.getKey().source, source)) {
+                size -= entry.getValue().size;
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all the tiles
+     */
+    public synchronized void flush() {
+        tiles.clear();
+        size = 0;
+    }
+
+    /**
+     * The total size of the cached tiles, in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of cached tiles
+     */
+    public synchronized int getCount() {
+        return tiles.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * The number of tiles removed to make room for new ones
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    void evict() {
+        for (Iterator<Tile> it = tiles.values().iterator(); size > capacity && it.hasNext();) {
+            Tile tile = it.next();
+            size -= tile.size;
+            evictions++;
+            it.remove();
+        }
+    }
+
+    static boolean equals(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    /**
+     * Identifies a tile: the source and level it has been read from, and the area it covers
+     * in the level
+     */
+    static class TileKey {
+        Object source;
+
+        Object level;
+
+        Rectangle area;
+
+        TileKey(Object source, Object level, Rectangle area) {
+            this.source = source;
+            this.level = level;
+            this.area = area;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey)) {
+                return false;
+            }
+            TileKey other = (TileKey) obj;
+            return area.equals(other.area) && CoverageTileCache.equals(source, other.source)
+                    && CoverageTileCache.equals(level, other.level);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = source == null ? 0 : source.hashCode();
+            hash = hash * 31 + (level == null ? 0 : level.hashCode());
+            return hash * 31 + area.hashCode();
+        }
+    }
+
+    /**
+     * A cached raster along with the size of its data
+     */
+    static class Tile {
+        Raster raster;
+
+        long size;
+
+        Tile(Raster raster) {
+            this.raster = raster;
+            DataBuffer db = raster.getDataBuffer();
+            this.size = ((long) db.getSize()) * db.getNumBanks()
+                    * DataBuffer.getDataTypeSize(db.getDataType()) / 8;
+        }
+    }
+}
@@ -11,6 +11,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerInitializer;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.config.ServiceInfo;
 import org.geotools.image.jai.Registry;
 
 import com.sun.media.jai.util.SunTileCache;
@@ -28,6 +29,9 @@ public class JAIInitializer implements GeoServerInitializer {
 
     public void initialize(GeoServer geoServer) throws Exception {
         initJAI( geoServer.getGlobal().getJAI() );
+        for ( ServiceInfo service : geoServer.getServices() ) {
+            initServiceJAI( service );
+        }
         
         geoServer.addListener( new ConfigurationListenerAdapter() {
 
@@ -37,8 +41,18 @@ public class JAIInitializer implements GeoServerInitializer {
                 
                 initJAI( global.getJAI() );
             }
+            
+            public void handlePostServiceChange(ServiceInfo service) {
+                initServiceJAI( service );
+            }
         });
     }
+    
+    void initServiceJAI(ServiceInfo service) {
+        if ( service.getId() != null ) {
+            ServiceJAI.get( service.getId() ).configure( service );
+        }
+    }
 
     void initJAI(JAIInfo jai) {
         
@@ -53,8 +67,17 @@ public class JAIInitializer implements GeoServerInitializer {
         jaiDef.setRenderingHint(JAI.KEY_TILE_FACTORY, recyclingFactory);
         jaiDef.setRenderingHint(JAI.KEY_TILE_RECYCLER, recyclingFactory);
         
+        // route the tile computations and caching to the resources of the service
+        // handling the request, the global scheduler and cache being the default ones
+        if ( !(jaiDef.getTileScheduler() instanceof ServiceTileScheduler) ) {
+            jaiDef.setTileScheduler( new ServiceTileScheduler( jaiDef.getTileScheduler() ) );
+        }
+        if ( !(jaiDef.getTileCache() instanceof ServiceTileCache) ) {
+            jaiDef.setTileCache( new ServiceTileCache( jaiDef.getTileCache() ) );
+        }
+        
         // Setting up Cache Capacity
-        SunTileCache jaiCache = (SunTileCache) jaiDef.getTileCache();
+        SunTileCache jaiCache = (SunTileCache) ((ServiceTileCache) jaiDef.getTileCache()).defaultCache;
         jai.setTileCache( jaiCache );
         
         long jaiMemory = (long) (jai.getMemoryCapacity() * Runtime.getRuntime().maxMemory());
@@ -68,6 +91,11 @@ public class JAIInitializer implements GeoServerInitializer {
         jaiDef.getTileScheduler().setPriority(jai.getTilePriority());
         jaiDef.getTileScheduler().setPrefetchPriority(jai.getTilePriority());
         
+        // Decoded coverage tile cache
+        CoverageTileCache coverageCache = CoverageTileCache.getDefaultInstance();
+        jai.setCoverageTileCache( coverageCache );
+        coverageCache.setCapacity(jai.getCoverageTileCacheSize() * 1024l * 1024l);
+        
         // ImageIO Caching
         ImageIO.setUseCache(jai.isImageIOCache());
         
@@ -0,0 +1,45 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+
+/**
+ * Binds the threads handling OWS requests to the JAI resources of the service they are
+ * dispatched to, see {@link ServiceJAI}.
+ */
+public class JAIServiceCallback implements DispatcherCallback {
+
+    public Request init(Request request) {
+        return request;
+    }
+
+    public Service serviceDispatched(Request request, Service service) {
+        ServiceJAI.enter(service.getId());
+        return service;
+    }
+
+    public Operation operationDispatched(Request request, Operation operation) {
+        return operation;
+    }
+
+    public Object operationExecuted(Request request, Operation operation, Object result) {
+        return result;
+    }
+
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        return response;
+    }
+
+    public void finished(Request request) {
+        ServiceJAI.exit();
+    }
+
+}
@@ -0,0 +1,249 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.media.jai.JAI;
+import javax.media.jai.TileCache;
+import javax.media.jai.TileScheduler;
+
+import org.geoserver.config.ServiceInfo;
+
+import com.sun.media.jai.util.SunTileCache;
+
+/**
+ * The JAI resources of a single service (WMS, WCS, ...): its own tile scheduler and tile
+ * cache, the limits applied to each of its requests, and the statistics of the tiles it
+ * computed.
+ * <p>
+ * The default JAI instance is set up by {@link JAIInitializer} with a tile scheduler and a
+ * tile cache routing each call to the resources of the service the calling thread is
+ * working for, as set by {@link JAIServiceCallback}, so that a heavy request cannot starve
+ * the other services. Services without a dedicated scheduler or cache share the global
+ * ones.
+ * </p>
+ * <p>
+ * The resources are configured through the service metadata:
+ * <ul>
+ * <li>{@link #TILE_THREADS}: the threads of the service tile scheduler</li>
+ * <li>{@link #MEMORY_CAPACITY}: the size of the service tile cache, as a fraction of the
+ * heap</li>
+ * <li>{@link #REQUEST_TILE_THREADS}: the maximum number of tiles computed in parallel for
+ * a single request</li>
+ * <li>{@link #REQUEST_PREFETCH_TILES}: the maximum number of tiles prefetched at once for
+ * a single request, 0 disables prefetching</li>
+ * </ul>
+ * </p>
+ */
+public class ServiceJAI {
+
+    public static final String TILE_THREADS = "jai.tileThreads";
+
+    public static final String MEMORY_CAPACITY = "jai.memoryCapacity";
+
+    public static final String REQUEST_TILE_THREADS = "jai.requestTileThreads";
+
+    public static final String REQUEST_PREFETCH_TILES = "jai.requestPrefetchTiles";
+
+    static Map<String, ServiceJAI> services = new ConcurrentHashMap<String, ServiceJAI>();
+
+    static ThreadLocal<ServiceJAI> current = new ThreadLocal<ServiceJAI>();
+
+    /**
+     * Returns the resources of the service, creating them if need be
+     */
+    public static ServiceJAI get(String service) {
+        String id = service.toLowerCase();
+        synchronized (services) {
+            ServiceJAI jai = services.get(id);
+            if (jai == null) {
+                jai = new ServiceJAI(id);
+                services.put(id, jai);
+            }
+            return jai;
+        }
+    }
+
+    /**
+     * All the services that have been configured or have processed a request
+     */
+    public static List<ServiceJAI> getServices() {
+        return new ArrayList<ServiceJAI>(services.values());
+    }
+
+    /**
+     * Returns the resources of the service the current thread is working for, or null
+     */
+    public static ServiceJAI getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Binds the current thread to the service, until {@link #exit()} is called
+     */
+    public static void enter(String service) {
+        current.set(get(service));
+    }
+
+    public static void exit() {
+        current.remove();
+    }
+
+    String id;
+
+    TileScheduler scheduler;
+
+    SunTileCache cache;
+
+    int requestTileThreads;
+
+    int requestPrefetchTiles = -1;
+
+    long tiles;
+
+    long computeTime;
+
+    int queued;
+
+    int maxQueued;
+
+    ServiceJAI(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Configures the service resources from its metadata
+     */
+    public synchronized void configure(ServiceInfo service) {
+        Integer threads = service.getMetadata().get(TILE_THREADS, Integer.class);
+        if (threads != null && threads > 0) {
+            if (scheduler == null) {
+                scheduler = JAI.createTileScheduler();
+                scheduler.setPriority(Thread.NORM_PRIORITY);
+                scheduler.setPrefetchPriority(Thread.NORM_PRIORITY);
+            }
+            scheduler.setParallelism(threads);
+            scheduler.setPrefetchParallelism(threads);
+        } else if (scheduler != null) {
+            // let the worker threads go, the requests will use the global scheduler
+            scheduler.setParallelism(0);
+            scheduler.setPrefetchParallelism(0);
+            scheduler = null;
+        }
+
+        Double capacity = service.getMetadata().get(MEMORY_CAPACITY, Double.class);
+        if (capacity != null && capacity > 0) {
+            long memory = (long) (capacity * Runtime.getRuntime().maxMemory());
+            if (cache == null) {
+                cache = (SunTileCache) JAI.createTileCache(memory);
+            } else {
+                cache.setMemoryCapacity(memory);
+            }
+        } else if (cache != null) {
+            cache.flush();
+            cache = null;
+        }
+
+        Integer requestThreads = service.getMetadata().get(REQUEST_TILE_THREADS, Integer.class);
+        requestTileThreads = requestThreads != null ? requestThreads : 0;
+        Integer prefetch = service.getMetadata().get(REQUEST_PREFETCH_TILES, Integer.class);
+        requestPrefetchTiles = prefetch != null ? prefetch : -1;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * The service tile scheduler, or null if the service uses the global one
+     */
+    public synchronized TileScheduler getTileScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * The service tile cache, or null if the service uses the global one
+     */
+    public synchronized SunTileCache getTileCache() {
+        return cache;
+    }
+
+    /**
+     * The maximum number of tiles computed in parallel for a single request, 0 if not
+     * limited
+     */
+    public synchronized int getRequestTileThreads() {
+        return requestTileThreads;
+    }
+
+    /**
+     * The maximum number of tiles prefetched at once for a single request, negative if not
+     * limited
+     */
+    public synchronized int getRequestPrefetchTiles() {
+        return requestPrefetchTiles;
+    }
+
+    /**
+     * The number of tiles computed so far
+     */
+    public synchronized long getTiles() {
+        return tiles;
+    }
+
+    /**
+     * The total time, in milliseconds, spent waiting for tiles to be computed
+     */
+    public synchronized long getComputeTime() {
+        return computeTime;
+    }
+
+    /**
+     * The number of tiles currently scheduled and not yet computed
+     */
+    public synchronized int getQueued() {
+        return queued;
+    }
+
+    /**
+     * The maximum number of tiles that have been scheduled at the same time
+     */
+    public synchronized int getMaxQueued() {
+        return maxQueued;
+    }
+
+    synchronized void scheduled(int count) {
+        queued += count;
+        maxQueued = Math.max(maxQueued, queued);
+    }
+
+    synchronized void computed(int count, long time) {
+        queued -= count;
+        tiles += count;
+        computeTime += time;
+    }
+
+    /**
+     * Tiles that have been scheduled but are not going to be computed, because the
+     * computation failed
+     */
+    synchronized void unscheduled(int count) {
+        queued -= count;
+    }
+
+    TileScheduler scheduler(TileScheduler defaultScheduler) {
+        TileScheduler ts = getTileScheduler();
+        return ts != null ? ts : defaultScheduler;
+    }
+
+    TileCache cache(TileCache defaultCache) {
+        TileCache tc = getTileCache();
+        return tc != null ? tc : defaultCache;
+    }
+}
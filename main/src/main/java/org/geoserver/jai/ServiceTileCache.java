@@ -0,0 +1,160 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.media.jai.TileCache;
+
+/**
+ * Tile cache storing the tiles in the cache of the service the calling thread works for
+ * (see {@link ServiceJAI}), so that each service works within its own memory quota. Tiles
+ * are looked up in all the caches since an image may be computed by a thread and read
+ * by another one. The capacity, threshold and comparator settings apply to the global
+ * cache, used by the services that do not have their own.
+ */
+class ServiceTileCache implements TileCache {
+
+    TileCache defaultCache;
+
+    ServiceTileCache(TileCache defaultCache) {
+        this.defaultCache = defaultCache;
+    }
+
+    TileCache current() {
+        ServiceJAI service = ServiceJAI.getCurrent();
+        return service != null ? service.cache(defaultCache) : defaultCache;
+    }
+
+    List<TileCache> caches() {
+        List<TileCache> caches = new ArrayList<TileCache>();
+        caches.add(defaultCache);
+        for (ServiceJAI service : ServiceJAI.getServices()) {
+            TileCache cache = service.getTileCache();
+            if (cache != null) {
+                caches.add(cache);
+            }
+        }
+        return caches;
+    }
+
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data) {
+        current().add(owner, tileX, tileY, data);
+    }
+
+    public void add(RenderedImage owner, int tileX, int tileY, Raster data,
+            Object tileCacheMetric) {
+        current().add(owner, tileX, tileY, data, tileCacheMetric);
+    }
+
+    public void addTiles(RenderedImage owner, Point[] tileIndices, Raster[] tiles,
+            Object tileCacheMetric) {
+        current().addTiles(owner, tileIndices, tiles, tileCacheMetric);
+    }
+
+    public Raster getTile(RenderedImage owner, int tileX, int tileY) {
+        TileCache current = current();
+        Raster tile = current.getTile(owner, tileX, tileY);
+        if (tile == null) {
+            for (TileCache cache : caches()) {
+                if (cache != current) {
+                    tile = cache.getTile(owner, tileX, tileY);
+                    if (tile != null) {
+                        break;
+                    }
+                }
+            }
+        }
+        return tile;
+    }
+
+    public Raster[] getTiles(RenderedImage owner) {
+        List<Raster> tiles = new ArrayList<Raster>();
+        for (TileCache cache : caches()) {
+            Raster[] cached = cache.getTiles(owner);
+            if (cached != null) {
+                for (Raster tile : cached) {
+                    tiles.add(tile);
+                }
+            }
+        }
+        return tiles.isEmpty() ? null : tiles.toArray(new Raster[tiles.size()]);
+    }
+
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+        Raster[] tiles = new Raster[tileIndices.length];
+        for (int i = 0; i < tileIndices.length; i++) {
+            tiles[i] = getTile(owner, tileIndices[i].x, tileIndices[i].y);
+        }
+        return tiles;
+    }
+
+    public void remove(RenderedImage owner, int tileX, int tileY) {
+        for (TileCache cache : caches()) {
+            cache.remove(owner, tileX, tileY);
+        }
+    }
+
+    public void removeTiles(RenderedImage owner) {
+        for (TileCache cache : caches()) {
+            cache.removeTiles(owner);
+        }
+    }
+
+    public void flush() {
+        for (TileCache cache : caches()) {
+            cache.flush();
+        }
+    }
+
+    public void memoryControl() {
+        for (TileCache cache : caches()) {
+            cache.memoryControl();
+        }
+    }
+
+    /**
+     * @deprecated
+     */
+    public void setTileCapacity(int tileCapacity) {
+        defaultCache.setTileCapacity(tileCapacity);
+    }
+
+    /**
+     * @deprecated
+     */
+    public int getTileCapacity() {
+        return defaultCache.getTileCapacity();
+    }
+
+    public void setMemoryCapacity(long memoryCapacity) {
+        defaultCache.setMemoryCapacity(memoryCapacity);
+    }
+
+    public long getMemoryCapacity() {
+        return defaultCache.getMemoryCapacity();
+    }
+
+    public void setMemoryThreshold(float memoryThreshold) {
+        defaultCache.setMemoryThreshold(memoryThreshold);
+    }
+
+    public float getMemoryThreshold() {
+        return defaultCache.getMemoryThreshold();
+    }
+
+    public void setTileComparator(Comparator comparator) {
+        defaultCache.setTileComparator(comparator);
+    }
+
+    public Comparator getTileComparator() {
+        return defaultCache.getTileComparator();
+    }
+}
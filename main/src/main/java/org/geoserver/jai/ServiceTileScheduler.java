@@ -0,0 +1,175 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TileComputationListener;
+import javax.media.jai.TileRequest;
+import javax.media.jai.TileScheduler;
+
+/**
+ * Tile scheduler routing the tile computations to the scheduler of the service the calling
+ * thread works for (see {@link ServiceJAI}), applying the per request limits and collecting
+ * the service statistics. The parallelism and priority settings apply to the global
+ * scheduler, used by the services that do not have their own.
+ */
+class ServiceTileScheduler implements TileScheduler {
+
+    TileScheduler defaultScheduler;
+
+    ServiceTileScheduler(TileScheduler defaultScheduler) {
+        this.defaultScheduler = defaultScheduler;
+    }
+
+    public Raster scheduleTile(OpImage target, int tileX, int tileY) {
+        ServiceJAI service = ServiceJAI.getCurrent();
+        if (service == null) {
+            return defaultScheduler.scheduleTile(target, tileX, tileY);
+        }
+
+        service.scheduled(1);
+        long start = System.currentTimeMillis();
+        boolean computed = false;
+        try {
+            Raster tile = service.scheduler(defaultScheduler).scheduleTile(target, tileX, tileY);
+            service.computed(1, System.currentTimeMillis() - start);
+            computed = true;
+            return tile;
+        } finally {
+            if (!computed) {
+                service.unscheduled(1);
+            }
+        }
+    }
+
+    public Raster[] scheduleTiles(OpImage target, Point[] tileIndices) {
+        ServiceJAI service = ServiceJAI.getCurrent();
+        if (service == null) {
+            return defaultScheduler.scheduleTiles(target, tileIndices);
+        }
+
+        TileScheduler scheduler = service.scheduler(defaultScheduler);
+        int batch = service.getRequestTileThreads();
+        if (batch <= 0 || batch >= tileIndices.length) {
+            batch = tileIndices.length;
+        }
+
+        // compute at most "batch" tiles at a time so that a single request cannot grab all
+        // the scheduler threads
+        Raster[] tiles = new Raster[tileIndices.length];
+        service.scheduled(tileIndices.length);
+        int done = 0;
+        try {
+            for (int i = 0; i < tileIndices.length; i += batch) {
+                int n = Math.min(batch, tileIndices.length - i);
+                Point[] indices = tileIndices;
+                if (n != tileIndices.length) {
+                    indices = new Point[n];
+                    System.arraycopy(tileIndices, i, indices, 0, n);
+                }
+
+                long start = System.currentTimeMillis();
+                Raster[] computed = scheduler.scheduleTiles(target, indices);
+                System.arraycopy(computed, 0, tiles, i, n);
+                service.computed(n, System.currentTimeMillis() - start);
+                done += n;
+            }
+        } finally {
+            // the tiles of a failed batch, and of the batches following it, are not going
+            // to be computed
+            if (done < tileIndices.length) {
+                service.unscheduled(tileIndices.length - done);
+            }
+        }
+        return tiles;
+    }
+
+    public TileRequest scheduleTiles(PlanarImage target, Point[] tileIndices,
+            TileComputationListener[] tileListeners) {
+        ServiceJAI service = ServiceJAI.getCurrent();
+        if (service == null) {
+            return defaultScheduler.scheduleTiles(target, tileIndices, tileListeners);
+        }
+        return service.scheduler(defaultScheduler).scheduleTiles(target, tileIndices,
+                tileListeners);
+    }
+
+    public void cancelTiles(TileRequest request, Point[] tileIndices) {
+        // the request may have been issued by any of the schedulers, the ones that
+        // did not issue it will just ignore the call
+        for (TileScheduler scheduler : schedulers()) {
+            scheduler.cancelTiles(request, tileIndices);
+        }
+    }
+
+    public void prefetchTiles(PlanarImage target, Point[] tileIndices) {
+        ServiceJAI service = ServiceJAI.getCurrent();
+        if (service == null) {
+            defaultScheduler.prefetchTiles(target, tileIndices);
+            return;
+        }
+
+        int max = service.getRequestPrefetchTiles();
+        if (max == 0) {
+            return;
+        }
+        if (max > 0 && tileIndices.length > max) {
+            Point[] indices = new Point[max];
+            System.arraycopy(tileIndices, 0, indices, 0, max);
+            tileIndices = indices;
+        }
+        service.scheduler(defaultScheduler).prefetchTiles(target, tileIndices);
+    }
+
+    public void setParallelism(int parallelism) {
+        defaultScheduler.setParallelism(parallelism);
+    }
+
+    public int getParallelism() {
+        return defaultScheduler.getParallelism();
+    }
+
+    public void setPrefetchParallelism(int parallelism) {
+        defaultScheduler.setPrefetchParallelism(parallelism);
+    }
+
+    public int getPrefetchParallelism() {
+        return defaultScheduler.getPrefetchParallelism();
+    }
+
+    public void setPriority(int priority) {
+        defaultScheduler.setPriority(priority);
+    }
+
+    public int getPriority() {
+        return defaultScheduler.getPriority();
+    }
+
+    public void setPrefetchPriority(int priority) {
+        defaultScheduler.setPrefetchPriority(priority);
+    }
+
+    public int getPrefetchPriority() {
+        return defaultScheduler.getPrefetchPriority();
+    }
+
+    List<TileScheduler> schedulers() {
+        List<TileScheduler> schedulers = new ArrayList<TileScheduler>();
+        schedulers.add(defaultScheduler);
+        for (ServiceJAI service : ServiceJAI.getServices()) {
+            TileScheduler scheduler = service.getTileScheduler();
+            if (scheduler != null) {
+                schedulers.add(scheduler);
+            }
+        }
+        return schedulers;
+    }
+}
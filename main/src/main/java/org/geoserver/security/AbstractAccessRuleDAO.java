@@ -43,7 +43,7 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable> {
     /**
      * Parsed rules
      */
-    TreeSet<R> rules;
+    volatile TreeSet<R> rules;
 
     /**
      * Used to check the file for modifications
@@ -53,7 +53,7 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable> {
     /**
      * Stores the time of the last rule list loading
      */
-    long lastModified;
+    volatile long lastModified;
     
     /**
      * The security dir
@@ -195,6 +195,14 @@ public abstract class AbstractAccessRuleDAO<R extends Comparable> {
                     } else {
                         // ok, something is there, let's load it
                         watcher = new PropertyFileWatcher(layers);
+                        watcher.setListener(new PropertyFileWatcher.Listener() {
+                            public void fileChanged(PropertyFileWatcher watcher) throws Exception {
+                                // reload in the background, request threads will just pick
+                                // up the new rules
+                                loadRules(watcher.getProperties());
+                                lastModified = System.currentTimeMillis();
+                            }
+                        });
                         loadRules(watcher.getProperties());
                     }
                 }
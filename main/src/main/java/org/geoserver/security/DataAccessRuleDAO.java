@@ -55,7 +55,7 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
     /**
      * Default to the highest security mode
      */
-    CatalogMode catalogMode = CatalogMode.HIDE;
+    volatile CatalogMode catalogMode = CatalogMode.HIDE;
 
     /**
      * Returns the instanced contained in the Spring context for the UI to use
@@ -103,7 +103,7 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
      */
     protected void loadRules(Properties props) {
         TreeSet<DataAccessRule> result = new TreeSet<DataAccessRule>();
-        catalogMode = CatalogMode.HIDE;
+        CatalogMode mode = CatalogMode.HIDE;
         for (Map.Entry entry : props.entrySet()) {
             String ruleKey = (String) entry.getKey();
             String ruleValue = (String) entry.getValue();
@@ -111,7 +111,7 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
             // check for the mode
             if ("mode".equalsIgnoreCase(ruleKey)) {
                 try {
-                    catalogMode = CatalogMode.valueOf(ruleValue.toUpperCase());
+                    mode = CatalogMode.valueOf(ruleValue.toUpperCase());
                 } catch (Exception e) {
                     LOGGER.warning("Invalid security mode " + ruleValue + " acceptable values are "
                             + Arrays.asList(CatalogMode.values()));
@@ -134,6 +134,7 @@ public class DataAccessRuleDAO extends AbstractAccessRuleDAO<DataAccessRule> {
         }
         
         rules = result;
+        catalogMode = mode;
     }
 
     /**
@@ -16,10 +16,13 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.acegisecurity.Authentication;
+import org.acegisecurity.GrantedAuthority;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WorkspaceInfo;
@@ -57,13 +60,24 @@ import org.geotools.util.logging.Logging;
 public class DefaultDataAccessManager implements DataAccessManager {
     static final Logger LOGGER = Logging.getLogger(DataAccessManager.class);
 
-    SecureTreeNode root;
+    /**
+     * Max number of access decisions cached before the cache gets flushed
+     */
+    static int DECISION_CACHE_SIZE = 100000;
+
+    volatile SecureTreeNode root;
+
+    /**
+     * Access decisions taken against the current tree, keyed by role set, path and mode. 
+     * Replaced every time the tree is rebuilt.
+     */
+    volatile ConcurrentHashMap<DecisionKey, Boolean> decisions = new ConcurrentHashMap<DecisionKey, Boolean>();
 
 //    Catalog catalog;
     
     DataAccessRuleDAO dao;
 
-    long lastLoaded = Long.MIN_VALUE;
+    volatile long lastLoaded = Long.MIN_VALUE;
 
     DefaultDataAccessManager(DataAccessRuleDAO dao) {
         this.dao = dao;
@@ -76,8 +90,7 @@ public class DefaultDataAccessManager implements DataAccessManager {
 
     public boolean canAccess(Authentication user, WorkspaceInfo workspace, AccessMode mode) {
         checkPropertyFile();
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, new String[] { workspace.getName() }, mode);
     }
 
     public boolean canAccess(Authentication user, LayerInfo layer, AccessMode mode) {
@@ -105,16 +118,59 @@ public class DefaultDataAccessManager implements DataAccessManager {
             return true;
         }
 
-        SecureTreeNode node = root.getDeepestNode(new String[] { workspace, resource.getName() });
-        return node.canAccess(user, mode);
+        return canAccess(user, new String[] { workspace, resource.getName() }, mode);
+    }
+
+    /**
+     * Looks up the access decision for the specified path in the decision cache, walking the 
+     * tree and caching the result on a miss.
+     */
+    boolean canAccess(Authentication user, String[] path, AccessMode mode) {
+        // the tree may get rebuilt concurrently, the decision map is replaced after the tree
+        // so reading it first ensures we never cache a decision of an old tree in a new map
+        ConcurrentHashMap<DecisionKey, Boolean> decisions = this.decisions;
+        SecureTreeNode root = this.root;
+        
+        DecisionKey key = new DecisionKey(roles(user), path, mode);
+        Boolean decision = decisions.get(key);
+        if (decision == null) {
+            decision = Boolean.valueOf(root.getDeepestNode(path).canAccess(user, mode));
+            if (decisions.size() >= DECISION_CACHE_SIZE) {
+                decisions.clear();
+            }
+            decisions.put(key, decision);
+        }
+        return decision.booleanValue();
     }
 
     void checkPropertyFile() {
         long daoLastModified = dao.getLastModified();
         if(lastLoaded < daoLastModified) {
-            root = buildAuthorizationTree(dao);
-            lastLoaded = daoLastModified;
+            synchronized (this) {
+                if (lastLoaded < daoLastModified) {
+                    root = buildAuthorizationTree(dao);
+                    decisions = new ConcurrentHashMap<DecisionKey, Boolean>();
+                    lastLoaded = daoLastModified;
+                }
+            }
+        }
+    }
+
+    /**
+     * The set of roles granted to the user, the only part of the authentication access 
+     * decisions depend upon.
+     */
+    static Set<String> roles(Authentication user) {
+        if (user == null || user.getAuthorities() == null) {
+            return Collections.emptySet();
+        }
+        
+        GrantedAuthority[] authorities = user.getAuthorities();
+        Set<String> roles = new HashSet<String>(authorities.length);
+        for (GrantedAuthority authority : authorities) {
+            roles.add(authority.getAuthority());
         }
+        return roles;
     }
 
     SecureTreeNode buildAuthorizationTree(DataAccessRuleDAO dao) {
@@ -161,4 +217,37 @@ public class DefaultDataAccessManager implements DataAccessManager {
         
         return root;
     }
+
+    /**
+     * Key of the access decision cache.
+     */
+    static class DecisionKey {
+        Set<String> roles;
+        String[] path;
+        AccessMode mode;
+        int hashCode;
+
+        DecisionKey(Set<String> roles, String[] path, AccessMode mode) {
+            this.roles = roles;
+            this.path = path;
+            this.mode = mode;
+            this.hashCode = roles.hashCode() * 31 * 31 + Arrays.hashCode(path) * 31 
+                + mode.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) obj;
+            return mode == other.mode && Arrays.equals(path, other.path) 
+                && roles.equals(other.roles);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
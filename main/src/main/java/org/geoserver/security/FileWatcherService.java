@@ -0,0 +1,110 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.WeakHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * Checks the files watched by {@link PropertyFileWatcher} instances from a single background
+ * thread, so that request threads never have to hit the file system to find out whether a
+ * configuration file changed.
+ * <p>
+ * Watchers are held through weak references, watchers no longer in use are dropped
+ * automatically.
+ * </p>
+ */
+public class FileWatcherService implements DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(FileWatcherService.class);
+
+    /**
+     * Default delay between two checks, in milliseconds
+     */
+    static final long DEFAULT_INTERVAL = 1000;
+
+    /**
+     * Returns the service registered in the GeoServer Spring context, or <code>null</code> if
+     * there is none.
+     */
+    public static FileWatcherService get() {
+        return GeoServerExtensions.bean(FileWatcherService.class);
+    }
+
+    /**
+     * the watchers, values are unused
+     */
+    WeakHashMap<PropertyFileWatcher, Object> watchers = new WeakHashMap<PropertyFileWatcher, Object>();
+
+    /**
+     * the polling thread
+     */
+    Timer timer;
+
+    public FileWatcherService() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    public FileWatcherService(long interval) {
+        timer = new Timer("GeoServer file watcher", true);
+        timer.schedule(new TimerTask() {
+            public void run() {
+                check();
+            }
+        }, interval, interval);
+    }
+
+    /**
+     * Adds a watcher to the set of watchers checked periodically.
+     */
+    public void watch(PropertyFileWatcher watcher) {
+        synchronized (watchers) {
+            watchers.put(watcher, null);
+        }
+    }
+
+    /**
+     * Removes a watcher from the set of watchers checked periodically.
+     */
+    public void unwatch(PropertyFileWatcher watcher) {
+        synchronized (watchers) {
+            watchers.remove(watcher);
+        }
+    }
+
+    /**
+     * Checks all the watched files once.
+     */
+    void check() {
+        List<PropertyFileWatcher> current;
+        synchronized (watchers) {
+            current = new ArrayList<PropertyFileWatcher>(watchers.keySet());
+        }
+
+        for (PropertyFileWatcher watcher : current) {
+            try {
+                watcher.check();
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Error occurred checking " + watcher.getFile(), t);
+            }
+        }
+    }
+
+    public void destroy() throws Exception {
+        timer.cancel();
+        synchronized (watchers) {
+            watchers.clear();
+        }
+    }
+}
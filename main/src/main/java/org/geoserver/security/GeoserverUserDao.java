@@ -45,7 +45,7 @@ public class GeoserverUserDao implements UserDetailsService {
     /** logger */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.security");
 
-    TreeMap<String, User> userMap;
+    volatile TreeMap<String, User> userMap;
 
     PropertyFileWatcher userDefinitionsFile;
     
@@ -116,6 +116,13 @@ public class GeoserverUserDao implements UserDetailsService {
                     }
 
                     userDefinitionsFile = new PropertyFileWatcher(propFile);
+                    userDefinitionsFile.setListener(new PropertyFileWatcher.Listener() {
+                        public void fileChanged(PropertyFileWatcher watcher) throws Exception {
+                            // reload in the background, request threads will just pick
+                            // up the new users
+                            userMap = loadUsersFromProperties(watcher.getProperties());
+                        }
+                    });
                 }
 
                 userMap = loadUsersFromProperties(userDefinitionsFile.getProperties());
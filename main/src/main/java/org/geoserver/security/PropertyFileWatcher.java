@@ -9,23 +9,72 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
 
 
 /**
  * A simple class to support reloadable property files. Watches last modified
  * date on the specified file, and allows to read a Properties out of it.
+ * <p>
+ * When a {@link FileWatcherService} is available the file is checked by the service
+ * background thread, and {@link #isStale()} merely reads the outcome of the last check.
+ * Otherwise the file is checked by {@link #isStale()} itself, at most once a second.
+ * </p>
+ * <p>
+ * Users wanting to be told about changes, rather than polling {@link #isStale()}, can
+ * register a {@link Listener}. When the file is checked by the service the listener is
+ * called from its background thread.
+ * </p>
  *
  * @author Andrea Aime
  *
  */
 public class PropertyFileWatcher {
+    static final Logger LOGGER = Logging.getLogger(PropertyFileWatcher.class);
+
+    /**
+     * Receives notifications of file changes
+     */
+    public static interface Listener {
+        /**
+         * Called when the watched file has been modified. Implementations will usually call
+         * {@link PropertyFileWatcher#getProperties()} to reload the file.
+         */
+        void fileChanged(PropertyFileWatcher watcher) throws Exception;
+    }
+
     File file;
-    private long lastModified = Long.MIN_VALUE;
+    private volatile long lastModified = Long.MIN_VALUE;
     private long lastCheck;
-    private boolean stale;
+    private volatile boolean stale;
+    private Listener listener;
+    private boolean watched;
 
     public PropertyFileWatcher(File file) {
         this.file = file;
+
+        FileWatcherService service = FileWatcherService.get();
+        if (service != null) {
+            service.watch(this);
+            watched = true;
+        }
+    }
+
+    /**
+     * Sets the listener to be notified when the file changes.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * The watched file.
+     */
+    public File getFile() {
+        return file;
     }
 
     public Properties getProperties() throws IOException {
@@ -51,6 +100,10 @@ public class PropertyFileWatcher {
     }
 
     public boolean isStale() {
+        if (watched) {
+            return stale;
+        }
+
         long now = System.currentTimeMillis();
         if((now - lastCheck) > 1000) {
             lastCheck = now;
@@ -58,4 +111,26 @@ public class PropertyFileWatcher {
         }
         return stale;
     }
+
+    /**
+     * Checks the file for modifications, notifying the listener if the file changed. Called
+     * by the {@link FileWatcherService}.
+     */
+    void check() {
+        if (stale || !file.exists() || file.lastModified() <= lastModified) {
+            return;
+        }
+
+        if (listener != null) {
+            try {
+                listener.fileChanged(this);
+                return;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error occurred reloading " + file.getPath(), e);
+            }
+        }
+
+        // nobody took care of the change, let users know on their next check
+        stale = true;
+    }
 }
@@ -38,7 +38,7 @@ public class RESTAccessRuleDAO extends AbstractAccessRuleDAO<String> {
 
     @Override
     protected void loadRules(Properties props) {
-        rules = new TreeSet<String>();
+        TreeSet<String> result = new TreeSet<String>();
         for (Map.Entry entry : props.entrySet()) {
             String key = (String) entry.getKey();
             String val = (String) entry.getValue();
@@ -49,8 +49,11 @@ public class RESTAccessRuleDAO extends AbstractAccessRuleDAO<String> {
                 continue;
             }
             rule = rule.replaceAll(";", ":");
-            rules.add(rule);
+            result.add(rule);
         }
+
+        // publish the rules only once complete, they are read concurrently
+        rules = result;
     }
     
     @Override
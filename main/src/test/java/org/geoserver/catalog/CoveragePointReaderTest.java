@@ -0,0 +1,92 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.geoserver.data.test.TestData;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.geometry.DirectPosition2D;
+import org.geotools.geometry.GeneralEnvelope;
+import org.opengis.parameter.GeneralParameterValue;
+
+public class CoveragePointReaderTest extends TestCase {
+
+    AbstractGridCoverage2DReader reader;
+
+    CoveragePointReader pointReader;
+
+    @Override
+    protected void setUp() throws Exception {
+        reader = (AbstractGridCoverage2DReader) new GeoTiffFormat().getReader(TestData.class
+                .getResource("tazdem.tiff"));
+        pointReader = new CoveragePointReader(10);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        reader.dispose();
+    }
+
+    public void testReadPixel() throws Exception {
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+        DirectPosition2D position = new DirectPosition2D(reader.getCrs(), envelope.getMedian(0),
+                envelope.getMedian(1));
+
+        CoveragePointReader.PixelValue value = pointReader.read(reader,
+                new GeneralParameterValue[0], position);
+        assertNotNull(value);
+
+        GridCoverage2D coverage = (GridCoverage2D) reader.read(null);
+        double[] expected = coverage.evaluate(position, (double[]) null);
+        assertEquals(expected.length, value.getValues().length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], value.getValues()[i], 0d);
+        }
+        assertEquals(coverage.getNumSampleDimensions(), value.getSampleDimensions().length);
+        assertEquals(0, pointReader.getHits());
+        assertEquals(1, pointReader.getMisses());
+
+        // same pixel, from the cache
+        assertNotNull(pointReader.read(reader, new GeneralParameterValue[0], position));
+        assertEquals(1, pointReader.getHits());
+
+        // dropped along with the reader
+        pointReader.clear(reader);
+        assertNotNull(pointReader.read(reader, new GeneralParameterValue[0], position));
+        assertEquals(2, pointReader.getMisses());
+    }
+
+    public void testClearWhileReading() throws Exception {
+        reader.dispose();
+        reader = new GeoTiffReader(TestData.class.getResource("tazdem.tiff")) {
+            @Override
+            public GridCoverage2D read(GeneralParameterValue[] params) throws IOException {
+                // the resource pool disposes the reader while the pixel is being read
+                pointReader.clear(this);
+                return super.read(params);
+            }
+        };
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+        DirectPosition2D position = new DirectPosition2D(reader.getCrs(), envelope.getMedian(0),
+                envelope.getMedian(1));
+
+        assertNotNull(pointReader.read(reader, new GeneralParameterValue[0], position));
+        // not cached, it was read from a disposed reader
+        assertEquals(0, pointReader.cache.size());
+    }
+
+    public void testOutside() throws Exception {
+        GeneralEnvelope envelope = reader.getOriginalEnvelope();
+        DirectPosition2D position = new DirectPosition2D(reader.getCrs(), envelope
+                .getMaximum(0) + 1, envelope.getMedian(1));
+        assertNull(pointReader.read(reader, new GeneralParameterValue[0], position));
+    }
+}
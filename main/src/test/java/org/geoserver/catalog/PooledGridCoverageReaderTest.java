@@ -0,0 +1,113 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import junit.framework.TestCase;
+
+import org.geoserver.data.test.TestData;
+import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.opengis.coverage.grid.GridCoverage;
+import org.opengis.parameter.GeneralParameterValue;
+
+public class PooledGridCoverageReaderTest extends TestCase {
+
+    File file;
+
+    GeoTiffFormat format = new GeoTiffFormat();
+
+    PooledGridCoverageReader pool;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("tazdem", ".tiff");
+        InputStream in = TestData.class.getResourceAsStream("tazdem.tiff");
+        OutputStream out = new FileOutputStream(file);
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        out.close();
+
+        AbstractGridCoverage2DReader master = (AbstractGridCoverage2DReader) format.getReader(
+                file, null);
+        pool = new PooledGridCoverageReader(format, file, null, master, 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        pool.dispose();
+        file.delete();
+    }
+
+    public void testMetadata() throws Exception {
+        AbstractGridCoverage2DReader reader = (AbstractGridCoverage2DReader) format.getReader(
+                file, null);
+        assertEquals(reader.getOriginalEnvelope(), pool.getOriginalEnvelope());
+        assertEquals(reader.getOriginalGridRange(), pool.getOriginalGridRange());
+        assertNotNull(pool.getCrs());
+        assertNotNull(pool.getFormat());
+        reader.dispose();
+    }
+
+    public void testRead() throws Exception {
+        GridCoverage coverage = pool.read(new GeneralParameterValue[0]);
+        assertNotNull(coverage);
+        assertEquals(1, pool.getReads());
+        assertEquals(0, pool.getWaits());
+        assertEquals(1, pool.getOpenReaders());
+    }
+
+    public void testWaitForReader() throws Exception {
+        final AbstractGridCoverage2DReader r1 = pool.borrow();
+        final AbstractGridCoverage2DReader r2 = pool.borrow();
+        assertNotSame(r1, r2);
+        assertEquals(2, pool.getOpenReaders());
+
+        // a third read has to wait
+        final AbstractGridCoverage2DReader[] borrowed = new AbstractGridCoverage2DReader[1];
+        Thread t = new Thread() {
+            public void run() {
+                try {
+                    borrowed[0] = pool.borrow();
+                } catch (Exception e) {
+                    // the assertion below will fail
+                }
+            }
+        };
+        t.start();
+        t.join(200);
+        assertNull(borrowed[0]);
+
+        pool.giveBack(r1);
+        t.join(5000);
+        assertSame(r1, borrowed[0]);
+        assertEquals(1, pool.getWaits());
+        assertEquals(2, pool.getOpenReaders());
+
+        pool.giveBack(r1);
+        pool.giveBack(r2);
+    }
+
+    public void testIdleEviction() throws Exception {
+        AbstractGridCoverage2DReader r1 = pool.borrow();
+        AbstractGridCoverage2DReader r2 = pool.borrow();
+        pool.setMaxIdleTime(0);
+        pool.giveBack(r1);
+        Thread.sleep(10);
+        pool.giveBack(r2);
+
+        // the master reader is never evicted
+        assertEquals(1, pool.getOpenReaders());
+        assertNotNull(pool.read(new GeneralParameterValue[0]));
+    }
+}
@@ -110,4 +110,23 @@ public class ResourcePoolTest extends GeoServerTestSupport {
         pool.dispose();
         assertTrue(disposeCalled);
     }
+
+    public void testAttributeIndex() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        FeatureTypeInfo info = getCatalog().getFeatureTypeByName(
+                MockData.LAKES.getNamespaceURI(), MockData.LAKES.getLocalPart());
+
+        AttributeTypeIndex index = pool.getAttributeIndex(info);
+        assertSame(index, pool.getAttributeIndex(info));
+
+        assertNotNull(index.get("NAME"));
+        assertNotNull(index.get("cite:NAME"));
+        assertNull(index.get("cite:FOO"));
+        assertTrue(index.isGeometry("the_geom"));
+        assertFalse(index.isGeometry("NAME"));
+        assertEquals(pool.getAttributes(info).size(), index.getNames().size());
+
+        pool.clear(info);
+        assertNotSame(index, pool.getAttributeIndex(info));
+    }
 }
@@ -0,0 +1,117 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BandedSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import junit.framework.TestCase;
+
+public class CoverageTileCacheTest extends TestCase {
+
+    CoverageTileCache cache;
+
+    @Override
+    protected void setUp() throws Exception {
+        cache = new CoverageTileCache();
+        cache.setCapacity(1024 * 1024);
+    }
+
+    public void testRoundTrip() throws Exception {
+        int[] types = new int[] { DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT,
+                DataBuffer.TYPE_SHORT, DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT,
+                DataBuffer.TYPE_DOUBLE };
+        for (int i = 0; i < types.length; i++) {
+            Raster raster = raster(types[i], 16, 32);
+            cache.putTile("file", "level", area(i), raster);
+            Raster cached = cache.getTile("file", "level", area(i));
+            assertNotNull(cached);
+            assertEquals(types[i], cached.getDataBuffer().getDataType());
+            assertEquals(16, cached.getMinX());
+            assertEquals(32, cached.getMinY());
+            for (int b = 0; b < raster.getNumBands(); b++) {
+                for (int y = 32; y < 48; y++) {
+                    for (int x = 16; x < 32; x++) {
+                        assertEquals(raster.getSampleDouble(x, y, b), cached.getSampleDouble(x,
+                                y, b), 0d);
+                    }
+                }
+            }
+        }
+        assertEquals(types.length, cache.getCount());
+        assertEquals(types.length, cache.getHits());
+    }
+
+    public void testNoCopy() throws Exception {
+        Raster raster = raster(DataBuffer.TYPE_BYTE, 0, 0);
+        cache.putTile("file", "level", area(0), raster);
+        assertSame(raster, cache.getTile("file", "level", area(0)));
+    }
+
+    public void testMiss() throws Exception {
+        cache.putTile("file", "level", area(0), raster(DataBuffer.TYPE_BYTE, 0, 0));
+        assertNull(cache.getTile("file", "level", area(1)));
+        assertNull(cache.getTile("file", "otherLevel", area(0)));
+        assertNull(cache.getTile("otherFile", "level", area(0)));
+        // same origin, but clipped differently
+        assertNull(cache.getTile("file", "level", new Rectangle(0, 0, 16, 8)));
+        assertEquals(4, cache.getMisses());
+    }
+
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        // 16x16x3 bytes each
+        cache.setCapacity(768 * 2);
+        cache.putTile("file", "level", area(0), raster(DataBuffer.TYPE_BYTE, 0, 0));
+        cache.putTile("file", "level", area(1), raster(DataBuffer.TYPE_BYTE, 16, 0));
+        cache.getTile("file", "level", area(0));
+        cache.putTile("file", "level", area(2), raster(DataBuffer.TYPE_BYTE, 32, 0));
+
+        assertEquals(2, cache.getCount());
+        assertEquals(768 * 2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertNotNull(cache.getTile("file", "level", area(0)));
+        assertNull(cache.getTile("file", "level", area(1)));
+        assertNotNull(cache.getTile("file", "level", area(2)));
+    }
+
+    public void testDisabled() throws Exception {
+        cache.setCapacity(0);
+        assertFalse(cache.isEnabled());
+        cache.putTile("file", "level", area(0), raster(DataBuffer.TYPE_BYTE, 0, 0));
+        assertEquals(0, cache.getCount());
+    }
+
+    public void testClearSource() throws Exception {
+        cache.putTile("file1", "level", area(0), raster(DataBuffer.TYPE_BYTE, 0, 0));
+        cache.putTile("file2", "level", area(0), raster(DataBuffer.TYPE_BYTE, 0, 0));
+
+        cache.clear("file1");
+        assertEquals(1, cache.getCount());
+        assertEquals(768, cache.getSize());
+        assertNull(cache.getTile("file1", "level", area(0)));
+        assertNotNull(cache.getTile("file2", "level", area(0)));
+    }
+
+    Rectangle area(int tileX) {
+        return new Rectangle(tileX * 16, 0, 16, 16);
+    }
+
+    Raster raster(int type, int minX, int minY) {
+        WritableRaster raster = Raster.createWritableRaster(new BandedSampleModel(type, 16, 16,
+                3), new Point(minX, minY));
+        for (int b = 0; b < 3; b++) {
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    raster.setSample(minX + x, minY + y, b, (x + y * 16 + b) % 100);
+                }
+            }
+        }
+        return raster;
+    }
+}
@@ -0,0 +1,174 @@
+/* Copyright (c) 2001 - 2008 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.jai;
+
+import java.awt.Point;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.jai.OpImage;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TileComputationListener;
+import javax.media.jai.TileRequest;
+import javax.media.jai.TileScheduler;
+
+import junit.framework.TestCase;
+
+public class ServiceTileSchedulerTest extends TestCase {
+
+    RecordingScheduler global;
+
+    RecordingScheduler wms;
+
+    ServiceTileScheduler scheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        global = new RecordingScheduler();
+        wms = new RecordingScheduler();
+        scheduler = new ServiceTileScheduler(global);
+
+        ServiceJAI service = ServiceJAI.get("test-wms");
+        service.scheduler = wms;
+        service.requestTileThreads = 2;
+        service.requestPrefetchTiles = 3;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ServiceJAI.exit();
+        ServiceJAI.services.remove("test-wms");
+    }
+
+    public void testNoService() throws Exception {
+        scheduler.scheduleTiles(null, points(5));
+        assertEquals(1, global.batches.size());
+        assertEquals(5, global.batches.get(0).intValue());
+        assertTrue(wms.batches.isEmpty());
+    }
+
+    public void testBatches() throws Exception {
+        ServiceJAI.enter("test-wms");
+        Raster[] tiles = scheduler.scheduleTiles(null, points(5));
+        assertEquals(5, tiles.length);
+
+        assertTrue(global.batches.isEmpty());
+        assertEquals(3, wms.batches.size());
+        assertEquals(2, wms.batches.get(0).intValue());
+        assertEquals(2, wms.batches.get(1).intValue());
+        assertEquals(1, wms.batches.get(2).intValue());
+
+        ServiceJAI service = ServiceJAI.getCurrent();
+        assertEquals(5, service.getTiles());
+        assertEquals(0, service.getQueued());
+        assertEquals(5, service.getMaxQueued());
+    }
+
+    public void testFailedBatch() throws Exception {
+        ServiceJAI.enter("test-wms");
+        wms.failAt = 2;
+        try {
+            scheduler.scheduleTiles(null, points(5));
+            fail("The second batch should have failed");
+        } catch (RuntimeException e) {
+            // fine
+        }
+
+        ServiceJAI service = ServiceJAI.getCurrent();
+        assertEquals(2, wms.batches.size());
+        assertEquals(2, service.getTiles());
+        assertEquals(0, service.getQueued());
+    }
+
+    public void testPrefetchLimit() throws Exception {
+        ServiceJAI.enter("test-wms");
+        scheduler.prefetchTiles(null, points(5));
+        assertEquals(3, wms.prefetched);
+
+        ServiceJAI.getCurrent().requestPrefetchTiles = 0;
+        scheduler.prefetchTiles(null, points(5));
+        assertEquals(3, wms.prefetched);
+    }
+
+    public void testSharedScheduler() throws Exception {
+        ServiceJAI.enter("test-wms");
+        ServiceJAI.getCurrent().scheduler = null;
+        scheduler.scheduleTiles(null, points(1));
+        assertEquals(1, global.batches.size());
+    }
+
+    Point[] points(int n) {
+        Point[] points = new Point[n];
+        for (int i = 0; i < n; i++) {
+            points[i] = new Point(i, 0);
+        }
+        return points;
+    }
+
+    static class RecordingScheduler implements TileScheduler {
+        List<Integer> batches = new ArrayList<Integer>();
+
+        int prefetched;
+
+        /**
+         * The batch, counting from 1, that throws an exception
+         */
+        int failAt;
+
+        public Raster scheduleTile(OpImage target, int tileX, int tileY) {
+            batches.add(1);
+            return null;
+        }
+
+        public Raster[] scheduleTiles(OpImage target, Point[] tileIndices) {
+            batches.add(tileIndices.length);
+            if (batches.size() == failAt) {
+                throw new RuntimeException("Tile computation failed");
+            }
+            return new Raster[tileIndices.length];
+        }
+
+        public TileRequest scheduleTiles(PlanarImage target, Point[] tileIndices,
+                TileComputationListener[] tileListeners) {
+            return null;
+        }
+
+        public void cancelTiles(TileRequest request, Point[] tileIndices) {
+        }
+
+        public void prefetchTiles(PlanarImage target, Point[] tileIndices) {
+            prefetched += tileIndices.length;
+        }
+
+        public void setParallelism(int parallelism) {
+        }
+
+        public int getParallelism() {
+            return 0;
+        }
+
+        public void setPrefetchParallelism(int parallelism) {
+        }
+
+        public int getPrefetchParallelism() {
+            return 0;
+        }
+
+        public void setPriority(int priority) {
+        }
+
+        public int getPriority() {
+            return 0;
+        }
+
+        public void setPrefetchPriority(int priority) {
+        }
+
+        public int getPrefetchPriority() {
+            return 0;
+        }
+    }
+}
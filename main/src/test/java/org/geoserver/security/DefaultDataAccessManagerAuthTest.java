@@ -125,4 +125,19 @@ public class DefaultDataAccessManagerAuthTest extends AbstractAuthorizationTest
         assertEquals(CatalogMode.HIDE, wo.getMode());
     }
     
+    public void testDecisionCache() throws Exception {
+        DefaultDataAccessManager manager = (DefaultDataAccessManager) buildManager("publicRead.properties");
+        assertTrue(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertFalse(manager.decisions.isEmpty());
+        assertTrue(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(rwUser, statesLayer, AccessMode.WRITE));
+        assertFalse(manager.canAccess(roUser, statesLayer, AccessMode.WRITE));
+        
+        // lock down the layer and force a reload, cached decisions must go
+        manager.dao.addRule(new DataAccessRule("topp", "states", AccessMode.READ, "WRITER"));
+        manager.lastLoaded = Long.MIN_VALUE;
+        assertFalse(manager.canAccess(anonymous, statesLayer, AccessMode.READ));
+        assertTrue(manager.canAccess(rwUser, statesLayer, AccessMode.READ));
+    }
+    
 }
@@ -0,0 +1,120 @@
+package org.geoserver.security;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+import junit.framework.TestCase;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.WorkspaceInfoImpl;
+import org.geoserver.platform.GeoServerExtensions;
+import org.springframework.context.support.StaticApplicationContext;
+
+public class FileWatcherServiceTest extends TestCase {
+
+    File file;
+    FileWatcherService service;
+    Properties reloaded;
+
+    @Override
+    protected void setUp() throws Exception {
+        file = File.createTempFile("watched", ".properties");
+        write("foo", "bar");
+        // long interval, the test drives the checks
+        service = new FileWatcherService(Long.MAX_VALUE / 2);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        service.destroy();
+        file.delete();
+    }
+
+    public void testListenerNotified() throws Exception {
+        PropertyFileWatcher watcher = new PropertyFileWatcher(file);
+        assertEquals("bar", watcher.getProperties().get("foo"));
+        watcher.setListener(new PropertyFileWatcher.Listener() {
+            public void fileChanged(PropertyFileWatcher watcher) throws Exception {
+                reloaded = watcher.getProperties();
+            }
+        });
+        service.watch(watcher);
+
+        service.check();
+        assertNull(reloaded);
+
+        write("foo", "baz");
+        file.setLastModified(System.currentTimeMillis() + 10000);
+        service.check();
+        assertNotNull(reloaded);
+        assertEquals("baz", reloaded.get("foo"));
+        assertFalse(watcher.isStale());
+    }
+
+    public void testStaleWithoutListener() throws Exception {
+        PropertyFileWatcher watcher = new PropertyFileWatcher(file);
+        watcher.getProperties();
+        service.watch(watcher);
+
+        file.setLastModified(System.currentTimeMillis() + 10000);
+        service.check();
+        assertTrue(watcher.isStale());
+    }
+
+    public void testWatchedRulesReload() throws Exception {
+        // make the service available to the watchers created by the dao
+        StaticApplicationContext context = new StaticApplicationContext();
+        context.getBeanFactory().registerSingleton("fileWatcher", service);
+        new GeoServerExtensions().setApplicationContext(context);
+        
+        File securityDir = new File(file.getParentFile(), "security-" + System.currentTimeMillis());
+        securityDir.mkdir();
+        File layers = new File(securityDir, "layers.properties");
+        try {
+            Catalog catalog = createNiceMock(Catalog.class);
+            expect(catalog.getWorkspaceByName((String) anyObject())).andReturn(new WorkspaceInfoImpl()).anyTimes();
+            expect(catalog.getLayerByName((String) anyObject())).andReturn(new LayerInfoImpl()).anyTimes();
+            replay(catalog);
+            
+            write(layers, "*.*.r", "*");
+            DataAccessRuleDAO dao = new DataAccessRuleDAO(catalog, securityDir);
+            assertEquals(1, dao.getRules().size());
+            
+            // the change is picked up by the service thread, not by the dao
+            write(layers, "topp.*.w", "ROLE_TW");
+            layers.setLastModified(System.currentTimeMillis() + 10000);
+            long lastModified = dao.getLastModified();
+            service.check();
+            assertFalse(dao.isModified());
+            assertTrue(dao.getLastModified() >= lastModified);
+            assertEquals(1, dao.getRules().size());
+            assertEquals("topp.*.w", dao.getRules().get(0).getKey());
+        } finally {
+            new GeoServerExtensions().setApplicationContext(null);
+            layers.delete();
+            securityDir.delete();
+        }
+    }
+
+    void write(String key, String value) throws Exception {
+        write(file, key, value);
+    }
+
+    void write(File file, String key, String value) throws Exception {
+        Properties p = new Properties();
+        p.put(key, value);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            p.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wcs.responses.coverage;
+
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.geotools.coverage.GridSampleDimension;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.metadata.spatial.PixelOrientation;
+import org.opengis.referencing.operation.MathTransform;
+
+/**
+ * Writes a coverage as an ESRI ASCII grid, walking the image one row of tiles at a time
+ * and formatting the samples straight into a reusable byte buffer, so that the memory used
+ * does not depend on the coverage size and no intermediate strings are created.
+ * <p>
+ * Only north up coverages with square pixels can be encoded, see
+ * {@link #canEncode(GridCoverage2D)}. Floating point samples are written with at most
+ * {@link #getDecimals()} decimals, NaN samples are written as the no data value.
+ * </p>
+ */
+public class ArcGridEncoder {
+
+    /**
+     * The no data value used when the coverage does not declare one
+     */
+    public static final double DEFAULT_NODATA = -9999;
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest number of decimals supported, to keep the scaled values in a long
+     */
+    static final int MAX_DECIMALS = 9;
+
+    static final long[] POWERS = new long[MAX_DECIMALS + 1];
+    static {
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    int decimals = 6;
+
+    byte[] buffer = new byte[BUFFER_SIZE];
+
+    int position;
+
+    OutputStream out;
+
+    /**
+     * The maximum number of decimals used for floating point samples
+     */
+    public int getDecimals() {
+        return decimals;
+    }
+
+    public void setDecimals(int decimals) {
+        this.decimals = Math.max(0, Math.min(MAX_DECIMALS, decimals));
+    }
+
+    /**
+     * Returns true if the coverage is north up and has square pixels, the only geometries
+     * an ASCII grid header can describe
+     */
+    public static boolean canEncode(GridCoverage2D coverage) {
+        AffineTransform at = gridToWorld(coverage);
+        if (at == null || at.getShearX() != 0 || at.getShearY() != 0) {
+            return false;
+        }
+        double dx = at.getScaleX();
+        double dy = -at.getScaleY();
+        return dx > 0 && dy > 0 && Math.abs(dx - dy) <= dx * 1e-6;
+    }
+
+    static AffineTransform gridToWorld(GridCoverage2D coverage) {
+        MathTransform mt = coverage.getGridGeometry().getGridToCRS2D(
+                PixelOrientation.UPPER_LEFT);
+        return mt instanceof AffineTransform ? (AffineTransform) mt : null;
+    }
+
+    /**
+     * Writes the first band of the coverage to the stream, which is not closed
+     */
+    public void encode(GridCoverage2D coverage, OutputStream output) throws IOException {
+        if (!canEncode(coverage)) {
+            throw new IllegalArgumentException("Cannot encode as an ASCII grid a coverage "
+                    + "that is not north up or does not have square pixels");
+        }
+        this.out = output;
+        this.position = 0;
+
+        RenderedImage image = coverage.getRenderedImage();
+        AffineTransform at = gridToWorld(coverage);
+        double cellSize = at.getScaleX();
+        double nodata = noData(coverage);
+
+        // header, the grid origin is the lower left corner of the image, which does not
+        // start at 0, 0 for cropped coverages
+        Point2D lowerLeft = at.transform(new Point2D.Double(image.getMinX(), image.getMinY()
+                + image.getHeight()), null);
+        writeHeader("NCOLS", Integer.toString(image.getWidth()));
+        writeHeader("NROWS", Integer.toString(image.getHeight()));
+        writeHeader("XLLCORNER", Double.toString(lowerLeft.getX()));
+        writeHeader("YLLCORNER", Double.toString(lowerLeft.getY()));
+        writeHeader("CELLSIZE", Double.toString(cellSize));
+        writeHeader("NODATA_VALUE", formatNoData(nodata));
+
+        int dataType = image.getSampleModel().getDataType();
+        boolean integral = dataType == DataBuffer.TYPE_BYTE
+                || dataType == DataBuffer.TYPE_USHORT || dataType == DataBuffer.TYPE_SHORT
+                || dataType == DataBuffer.TYPE_INT;
+        int[] intRow = integral ? new int[image.getTileWidth()] : null;
+        double[] doubleRow = integral ? null : new double[image.getTileWidth()];
+
+        Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+        int tileCols = image.getNumXTiles();
+        Raster[] tiles = new Raster[tileCols];
+        for (int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++) {
+            // only one row of tiles is held in memory at any time
+            for (int i = 0; i < tileCols; i++) {
+                tiles[i] = image.getTile(image.getMinTileX() + i, ty);
+            }
+
+            Rectangle rowBounds = tiles[0].getBounds().intersection(bounds);
+            for (int y = rowBounds.y; y < rowBounds.y + rowBounds.height; y++) {
+                boolean first = true;
+                for (int i = 0; i < tileCols; i++) {
+                    Rectangle tb = tiles[i].getBounds().intersection(bounds);
+                    if (integral) {
+                        tiles[i].getSamples(tb.x, y, tb.width, 1, 0, intRow);
+                        for (int x = 0; x < tb.width; x++) {
+                            if (!first) {
+                                write((byte) ' ');
+                            }
+                            first = false;
+                            formatLong(intRow[x]);
+                        }
+                    } else {
+                        tiles[i].getSamples(tb.x, y, tb.width, 1, 0, doubleRow);
+                        for (int x = 0; x < tb.width; x++) {
+                            if (!first) {
+                                write((byte) ' ');
+                            }
+                            first = false;
+                            double value = doubleRow[x];
+                            formatDouble(Double.isNaN(value) ? nodata : value);
+                        }
+                    }
+                }
+                write((byte) '\n');
+            }
+        }
+        flushBuffer();
+        out.flush();
+    }
+
+    double noData(GridCoverage2D coverage) {
+        GridSampleDimension band = coverage.getSampleDimension(0);
+        double[] values = band.getNoDataValues();
+        if (values != null && values.length > 0 && !Double.isNaN(values[0])) {
+            return values[0];
+        }
+        return DEFAULT_NODATA;
+    }
+
+    String formatNoData(double nodata) {
+        if (nodata == Math.rint(nodata) && Math.abs(nodata) < Long.MAX_VALUE) {
+            return Long.toString((long) nodata);
+        }
+        return Double.toString(nodata);
+    }
+
+    void writeHeader(String key, String value) throws IOException {
+        writeAscii(key);
+        write((byte) ' ');
+        writeAscii(value);
+        write((byte) '\n');
+    }
+
+    void writeAscii(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            write((byte) s.charAt(i));
+        }
+    }
+
+    void write(byte b) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = b;
+    }
+
+    void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    /**
+     * Writes the decimal representation of the value
+     */
+    void formatLong(long value) throws IOException {
+        // a long has at most 20 chars, sign included
+        if (buffer.length - position < 20) {
+            flushBuffer();
+        }
+        if (value == Long.MIN_VALUE) {
+            writeAscii(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value > 0);
+        // digits were written least significant first
+        for (int i = start, j = position - 1; i < j; i++, j--) {
+            byte tmp = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = tmp;
+        }
+    }
+
+    /**
+     * Writes the value rounded to {@link #decimals} decimals, without trailing zeros
+     */
+    void formatDouble(double value) throws IOException {
+        long scale = POWERS[decimals];
+        double abs = Math.abs(value);
+        if (Double.isInfinite(value) || Double.isNaN(value)
+                || abs >= Long.MAX_VALUE / (double) scale) {
+            // out of the fixed precision range, rare enough to use the slow path
+            writeAscii(Double.toString(value));
+            return;
+        }
+
+        long scaled = Math.round(abs * scale);
+        long integer = scaled / scale;
+        long fraction = scaled % scale;
+        if (value < 0 && scaled != 0) {
+            write((byte) '-');
+        }
+        formatLong(integer);
+        if (fraction == 0) {
+            return;
+        }
+
+        // leading zeros are significant, trailing ones are not
+        int digits = decimals;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            digits--;
+        }
+        write((byte) '.');
+        if (buffer.length - position < MAX_DECIMALS) {
+            flushBuffer();
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) ('0' + (fraction % 10));
+            fraction /= 10;
+        }
+        position += digits;
+    }
+}
@@ -15,7 +15,6 @@ import org.geoserver.platform.ServiceException;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.gce.arcgrid.ArcGridWriter;
 import org.opengis.coverage.grid.GridCoverageWriter;
-import org.opengis.parameter.ParameterValueGroup;
 import org.vfny.geoserver.wcs.WcsException;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegate;
 
@@ -106,15 +105,22 @@ public class AscCoverageResponseDelegate implements CoverageResponseDelegate {
         GZIPOutputStream gzipOut = null;
 
         if (compressOutput) {
-            gzipOut = new GZIPOutputStream(output);
+            // compress on the fly as the rows get encoded
+            gzipOut = new GZIPOutputStream(output, ArcGridEncoder.BUFFER_SIZE);
             output = gzipOut;
         }
 
         try {
-            final GridCoverageWriter writer = new ArcGridWriter(output);
-            final ParameterValueGroup params = writer.getFormat().getWriteParameters();
-            //params.parameter("Compressed").setValue(compressOutput);
-            writer.write(sourceCoverage, null);
+            if (ArcGridEncoder.canEncode(sourceCoverage)) {
+                // stream the grid tile row by tile row
+                new ArcGridEncoder().encode(sourceCoverage, output);
+            } else {
+                // let the writer deal with the geometries an ascii grid header cannot
+                // describe (it will complain about them)
+                final GridCoverageWriter writer = new ArcGridWriter(output);
+                writer.write(sourceCoverage, null);
+                writer.dispose();
+            }
 
             if (gzipOut != null) {
                 gzipOut.finish();
@@ -122,7 +128,6 @@ public class AscCoverageResponseDelegate implements CoverageResponseDelegate {
             }
 
             // freeing everything
-            writer.dispose();
             this.sourceCoverage.dispose(false);
             this.sourceCoverage = null;
         } catch (Exception e) {
@@ -4,12 +4,16 @@
  */
 package org.vfny.geoserver.wcs.responses.coverage;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
@@ -19,6 +23,7 @@ import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.opengis.coverage.grid.GridCoverageWriter;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
+import org.springframework.context.ApplicationContext;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegate;
 
 
@@ -34,6 +39,12 @@ public class GeoTIFFCoverageResponseDelegate implements CoverageResponseDelegate
     
     private static final Set<String> FORMATS = new HashSet<String>(Arrays.asList(
             "image/geotiff", "image/tiff;subtype=\"geotiff\""));
+
+    /**
+     * Property controlling the compression of the tiff tiles, LZW by default, NONE disables
+     * compression
+     */
+    static final String COMPRESSION = "WCS_GEOTIFF_COMPRESSION";
     
     /**
      *
@@ -97,9 +108,12 @@ public class GeoTIFFCoverageResponseDelegate implements CoverageResponseDelegate
 
         final GeoTiffFormat format = new GeoTiffFormat();
         final GeoTiffWriteParams wp = new GeoTiffWriteParams();
-        wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
-        wp.setCompressionType("LZW");
-        wp.setCompressionQuality(0.75F);
+        String compression = getCompression();
+        if (!"NONE".equalsIgnoreCase(compression)) {
+            wp.setCompressionMode(GeoTiffWriteParams.MODE_EXPLICIT);
+            wp.setCompressionType(compression);
+            wp.setCompressionQuality(0.75F);
+        }
         wp.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
         wp.setTiling(256, 256);
 
@@ -107,13 +121,40 @@ public class GeoTIFFCoverageResponseDelegate implements CoverageResponseDelegate
         writerParams.parameter(AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.getName().toString())
                     .setValue(wp);
 
-        GridCoverageWriter writer = format.getWriter(output);
-        writer.write(sourceCoverage,
-            (GeneralParameterValue[]) writerParams.values().toArray(new GeneralParameterValue[1]));
-
-        writer.dispose();
+        // the tiff writer seeks back and forth in its output, writing straight to the
+        // output stream would make it cache the whole file in memory. Spool it to disk
+        // instead, tiles are pulled from the coverage and written one at a time
+        File temp = File.createTempFile("wcs", ".tiff");
+        try {
+            GridCoverageWriter writer = format.getWriter(temp);
+            try {
+                writer.write(sourceCoverage, (GeneralParameterValue[]) writerParams.values()
+                        .toArray(new GeneralParameterValue[1]));
+            } finally {
+                writer.dispose();
+            }
+
+            InputStream input = new FileInputStream(temp);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, n);
+                }
+            } finally {
+                input.close();
+            }
+        } finally {
+            temp.delete();
+        }
 
         this.sourceCoverage.dispose(false);
         this.sourceCoverage = null;
     }
+
+    String getCompression() {
+        String compression = GeoServerExtensions.getProperty(COMPRESSION,
+                (ApplicationContext) null);
+        return compression != null ? compression.trim() : "LZW";
+    }
 }
@@ -0,0 +1,104 @@
+package org.vfny.geoserver.wcs.responses.coverage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.coverage.processing.Operations;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+public class ArcGridEncoderTest extends TestCase {
+
+    ArcGridEncoder encoder = new ArcGridEncoder();
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+    public void testFormatLong() throws Exception {
+        assertEquals("0", formatLong(0));
+        assertEquals("7", formatLong(7));
+        assertEquals("-120", formatLong(-120));
+        assertEquals(Long.toString(Long.MAX_VALUE), formatLong(Long.MAX_VALUE));
+        assertEquals(Long.toString(Long.MIN_VALUE), formatLong(Long.MIN_VALUE));
+    }
+
+    public void testFormatDouble() throws Exception {
+        assertEquals("0", formatDouble(0));
+        assertEquals("1.5", formatDouble(1.5));
+        assertEquals("-0.25", formatDouble(-0.25));
+        assertEquals("0.000001", formatDouble(0.000001));
+        assertEquals("3.141593", formatDouble(Math.PI));
+        // rounds to zero, no negative zero
+        assertEquals("0", formatDouble(-0.0000001));
+        assertEquals("1.0E30", formatDouble(1e30));
+
+        encoder.setDecimals(2);
+        assertEquals("2.72", formatDouble(Math.E));
+        assertEquals("10", formatDouble(9.999));
+    }
+
+    public void testEncode() throws Exception {
+        float[][] data = new float[][] { { 1, 2.5f, Float.NaN }, { -4, 5, 6 } };
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", data,
+                new ReferencedEnvelope(10, 13, 20, 22, DefaultGeographicCRS.WGS84));
+        assertTrue(ArcGridEncoder.canEncode(coverage));
+
+        encoder.encode(coverage, bos);
+        String[] lines = bos.toString("ASCII").split("\n");
+        assertEquals(8, lines.length);
+        assertEquals("NCOLS 3", lines[0]);
+        assertEquals("NROWS 2", lines[1]);
+        assertEquals("XLLCORNER 10.0", lines[2]);
+        assertEquals("YLLCORNER 20.0", lines[3]);
+        assertEquals("CELLSIZE 1.0", lines[4]);
+        assertEquals("NODATA_VALUE -9999", lines[5]);
+        assertEquals("1 2.5 -9999", lines[6]);
+        assertEquals("-4 5 6", lines[7]);
+    }
+
+    public void testEncodeCropped() throws Exception {
+        float[][] data = new float[][] { { 1, 2.5f, Float.NaN }, { -4, 5, 6 } };
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", data,
+                new ReferencedEnvelope(10, 13, 20, 22, DefaultGeographicCRS.WGS84));
+        GridCoverage2D cropped = (GridCoverage2D) Operations.DEFAULT.crop(coverage,
+                new ReferencedEnvelope(11, 13, 20, 21, DefaultGeographicCRS.WGS84));
+        // the cropped image keeps the pixel coordinates of the original one
+        assertEquals(1, cropped.getRenderedImage().getMinX());
+        assertEquals(1, cropped.getRenderedImage().getMinY());
+
+        encoder.encode(cropped, bos);
+        String[] lines = bos.toString("ASCII").split("\n");
+        assertEquals(7, lines.length);
+        assertEquals("NCOLS 2", lines[0]);
+        assertEquals("NROWS 1", lines[1]);
+        assertEquals("XLLCORNER 11.0", lines[2]);
+        assertEquals("YLLCORNER 20.0", lines[3]);
+        assertEquals("5 6", lines[6]);
+    }
+
+    public void testNonSquarePixels() throws Exception {
+        float[][] data = new float[][] { { 1, 2 }, { 3, 4 } };
+        GridCoverage2D coverage = new GridCoverageFactory().create("test", data,
+                new ReferencedEnvelope(0, 2, 0, 4, DefaultGeographicCRS.WGS84));
+        assertFalse(ArcGridEncoder.canEncode(coverage));
+    }
+
+    String formatLong(long value) throws IOException {
+        bos.reset();
+        encoder.out = bos;
+        encoder.formatLong(value);
+        encoder.flushBuffer();
+        return bos.toString("ASCII");
+    }
+
+    String formatDouble(double value) throws IOException {
+        bos.reset();
+        encoder.out = bos;
+        encoder.formatDouble(value);
+        encoder.flushBuffer();
+        return bos.toString("ASCII");
+    }
+}
@@ -54,6 +54,8 @@ import org.geotools.util.logging.Logging;
 import org.opengis.coverage.grid.Format;
 import org.opengis.coverage.grid.GridCoverage;
 import org.opengis.geometry.Envelope;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.crs.GeographicCRS;
@@ -75,7 +77,7 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
     private final static Hints HINTS = new Hints(new HashMap());
     static {
         HINTS.add(new Hints(Hints.LENIENT_DATUM_SHIFT, Boolean.TRUE));
-        HINTS.add(new Hints(Hints.OVERVIEW_POLICY, OverviewPolicy.IGNORE));
+        HINTS.add(new Hints(Hints.OVERVIEW_POLICY, OverviewPolicy.QUALITY));
     }
 
     private WCSInfo wcs;
@@ -242,26 +244,10 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
                 gridToCRS = new AffineTransform2D(tx);
             }
 
-            // now we have enough info to read the coverage, grab the parameters
-            // and add the grid geometry info
-            final Map parameters = CoverageUtils.getParametersKVP(reader.getFormat()
-                    .getReadParameters());
-            final GeneralEnvelope intersected = new GeneralEnvelope(destinationEnvelopeInSourceCRS);
-            intersected.intersect(originalEnvelope);
-            final GridGeometry2D destinationGridGeometry =new GridGeometry2D(PixelInCell.CELL_CENTER, gridToCRS, intersected, null);
-            parameters.put(AbstractGridFormat.READ_GRIDGEOMETRY2D.getName().toString(),
-                    destinationGridGeometry);
-            coverage = (GridCoverage2D) reader.read(CoverageUtils.getParameters(reader.getFormat()
-                    .getReadParameters(), parameters, true));
-            if ((coverage == null) || !(coverage instanceof GridCoverage2D)) {
-                throw new IOException("The requested coverage could not be found.");
-            }
-
-            /**
-             * Band Select (works on just one field)
-             */
-            GridCoverage2D bandSelectedCoverage = coverage;
+            // work out the band subset before reading, so that it can be handed
+            // over to the reader along with the read window
             String interpolationType = null;
+            int[] bands = null;
             if (request.getRangeSubset() != null) {
                 if (request.getRangeSubset().getFieldSubset().size() > 1) {
                     throw new WcsException("Multi field coverages are not supported yet");
@@ -289,7 +275,7 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
                     // extract the band indexes
                     AxisSubsetType axisSubset = (AxisSubsetType) field.getAxisSubset().get(0);
                     List keys = axisSubset.getKey();
-                    int[] bands = new int[keys.size()];
+                    bands = new int[keys.size()];
                     for (int j = 0; j < bands.length; j++) {
                         final String key = (String) keys.get(j);
                         Integer index = dimensionMap.get(key);
@@ -299,14 +285,41 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
                                     + axisSubset.getIdentifier() + "/" + key);
                         bands[j] = index;
                     }
+                }
+            }
 
-                    // finally execute the band select
-                    try {
-                        bandSelectedCoverage = (GridCoverage2D) WCSUtils
-                                .bandSelect(coverage, bands);
-                    } catch (WcsException e) {
-                        throw new WcsException(e.getLocalizedMessage());
-                    }
+            // now we have enough info to read the coverage, grab the parameters
+            // and add the grid geometry info. The grid geometry carries both the
+            // crop window and the target resolution, the reader uses the latter
+            // to pick the best overview (see the OVERVIEW_POLICY hint) and to
+            // subsample while decoding
+            final Map parameters = CoverageUtils.getParametersKVP(reader.getFormat()
+                    .getReadParameters());
+            final GeneralEnvelope intersected = new GeneralEnvelope(destinationEnvelopeInSourceCRS);
+            intersected.intersect(originalEnvelope);
+            if (intersected.isEmpty()) {
+                throw new WcsException("The Intersection is null. Check the requested BBOX!");
+            }
+            final GridGeometry2D destinationGridGeometry =new GridGeometry2D(PixelInCell.CELL_CENTER, gridToCRS, intersected, null);
+            parameters.put(AbstractGridFormat.READ_GRIDGEOMETRY2D.getName().toString(),
+                    destinationGridGeometry);
+            final GeneralParameterValue[] readParameters = CoverageUtils.getParameters(reader
+                    .getFormat().getReadParameters(), parameters, true);
+            final boolean bandsRead = bands != null && setBandsParameter(readParameters, bands);
+            coverage = (GridCoverage2D) reader.read(readParameters);
+            if ((coverage == null) || !(coverage instanceof GridCoverage2D)) {
+                throw new IOException("The requested coverage could not be found.");
+            }
+
+            /**
+             * Band Select (works on just one field), unless the reader did it
+             */
+            GridCoverage2D bandSelectedCoverage = coverage;
+            if (bands != null && !(bandsRead && coverage.getNumSampleDimensions() == bands.length)) {
+                try {
+                    bandSelectedCoverage = (GridCoverage2D) WCSUtils.bandSelect(coverage, bands);
+                } catch (WcsException e) {
+                    throw new WcsException(e.getLocalizedMessage());
                 }
             }
 
@@ -324,24 +337,38 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
                 }
             }
 
-            /**
-             * Crop
-             */
-            final GridCoverage2D croppedGridCoverage = WCSUtils.crop(bandSelectedCoverage,
-                    (GeneralEnvelope) coverage.getEnvelope(), nativeCRS,
-                    destinationEnvelopeInSourceCRS, Boolean.TRUE);
-
-            /**
-             * Scale
-             */
-            final GridCoverage2D scaledCoverage = WCSUtils.scale(croppedGridCoverage,
-                    destinationGridGeometry);
+            final GridCoverage2D reprojectedCoverage;
+            if (CRS.equalsIgnoreMetadata(nativeCRS, targetCRS)) {
+                /**
+                 * Crop and scale in one go, resampling onto the destination
+                 * grid geometry also cuts the coverage down to its envelope
+                 */
+                reprojectedCoverage = WCSUtils.scale(bandSelectedCoverage, destinationGridGeometry);
+            } else {
+                /**
+                 * Crop, only if the reader returned more than we asked for
+                 */
+                final GridCoverage2D croppedGridCoverage;
+                if (destinationEnvelopeInSourceCRS.contains(coverage.getEnvelope2D(), true)) {
+                    croppedGridCoverage = bandSelectedCoverage;
+                } else {
+                    croppedGridCoverage = WCSUtils.crop(bandSelectedCoverage,
+                            (GeneralEnvelope) coverage.getEnvelope(), nativeCRS,
+                            destinationEnvelopeInSourceCRS, Boolean.TRUE);
+                }
 
-            /**
-             * Reproject
-             */
-            final GridCoverage2D reprojectedCoverage = WCSUtils.reproject(scaledCoverage,
-                    nativeCRS, targetCRS, interpolation);
+                /**
+                 * Scale
+                 */
+                final GridCoverage2D scaledCoverage = WCSUtils.scale(croppedGridCoverage,
+                        destinationGridGeometry);
+
+                /**
+                 * Reproject
+                 */
+                reprojectedCoverage = WCSUtils.reproject(scaledCoverage, nativeCRS, targetCRS,
+                        interpolation);
+            }
 
             return new GridCoverage[] { reprojectedCoverage };
         } catch (Exception e) {
@@ -353,6 +380,24 @@ public class DefaultWebCoverageService111 implements WebCoverageService111 {
 
     }
 
+    /**
+     * Pushes the band subset down to the reader, for the formats that declare a
+     * "Bands" read parameter.
+     * 
+     * @return true if the reader has been asked to read just the specified bands
+     */
+    private boolean setBandsParameter(GeneralParameterValue[] readParameters, int[] bands) {
+        for (GeneralParameterValue gpv : readParameters) {
+            if (gpv instanceof ParameterValue
+                    && "Bands".equalsIgnoreCase(gpv.getDescriptor().getName().getCode())
+                    && ((ParameterValue) gpv).getDescriptor().getValueClass().isInstance(bands)) {
+                ((ParameterValue) gpv).setValue(bands);
+                return true;
+            }
+        }
+        return false;
+    }
+
     private void checkDomainSubset(CoverageInfo meta, DomainSubsetType domainSubset)
             throws Exception {
         BoundingBoxType bbox = domainSubset.getBoundingBox();
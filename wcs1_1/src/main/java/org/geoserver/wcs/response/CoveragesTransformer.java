@@ -43,6 +43,8 @@ public class CoveragesTransformer extends TransformerBase {
 
     private String coverageLocation;
 
+    private String statusLocation;
+
     /**
      * Creates a new WFSCapsTransformer object to be used when encoding the multipart output
      */
@@ -51,9 +53,19 @@ public class CoveragesTransformer extends TransformerBase {
     }
 
     public CoveragesTransformer(WCSInfo wcs, GetCoverageType request, String coverageLocation) {
+        this(wcs, request, coverageLocation, null);
+    }
+
+    /**
+     * Creates a transformer that also links the status of the job producing the coverage,
+     * used when the coverage is stored asynchronously
+     */
+    public CoveragesTransformer(WCSInfo wcs, GetCoverageType request, String coverageLocation,
+            String statusLocation) {
         this.wcs = wcs;
         this.request = request;
         this.coverageLocation = coverageLocation;
+        this.statusLocation = statusLocation;
         setNamespaceDeclarationEnabled(false);
     }
 
@@ -126,6 +138,12 @@ public class CoveragesTransformer extends TransformerBase {
             element("ows:Title", ci.getTitle());
             element("ows:Abstract", ci.getDescription());
             element("ows:Identifier", ci.getName());
+            if (statusLocation != null) {
+                final AttributesImpl status = new AttributesImpl();
+                status.addAttribute("", "xlink:href", "xlink:href", "", statusLocation);
+                status.addAttribute("", "xlink:title", "xlink:title", "", "status");
+                element("ows:Metadata", "", status);
+            }
             final AttributesImpl attributes = new AttributesImpl();
             attributes.addAttribute("", "xlink:href", "xlink:href", "", coverageLocation);
             element("ows:Reference", "", attributes);
@@ -0,0 +1,151 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wcs.response;
+
+import static org.geoserver.ows.util.ResponseUtils.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.geoserver.ows.URLMangler.URLType;
+import org.geoserver.wcs.response.GetCoverageJobQueue.Job;
+import org.geoserver.wcs.response.GetCoverageJobQueue.Status;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+/**
+ * Publishes the status and the results of the GetCoverage store=true jobs:
+ * <ul>
+ * <li><code>GET wcs-jobs/{id}</code> returns the job status</li>
+ * <li><code>DELETE wcs-jobs/{id}</code>, or <code>GET wcs-jobs/{id}?cancel=true</code>,
+ * cancels the job and returns its status</li>
+ * <li><code>GET wcs-jobs/{id}/{file}</code> returns the stored coverage, or a 503 with a
+ * Retry-After header if the job is still queued or running</li>
+ * </ul>
+ */
+public class GetCoverageJobController extends AbstractController {
+
+    /**
+     * The path the controller is mapped to
+     */
+    public static final String PATH = "wcs-jobs";
+
+    GetCoverageJobQueue queue;
+
+    public GetCoverageJobController(GetCoverageJobQueue queue) {
+        this.queue = queue;
+        setSupportedMethods(new String[] { METHOD_GET, METHOD_HEAD, "DELETE" });
+    }
+
+    /**
+     * Builds the url of the job status document
+     */
+    public static String statusURL(String baseURL, Job job) {
+        return buildURL(baseURL, appendPath(PATH, job.getId()), null, URLType.SERVICE);
+    }
+
+    /**
+     * Builds the url of the job result
+     */
+    public static String resultURL(String baseURL, Job job) {
+        return buildURL(baseURL, appendPath(PATH, job.getId(), job.getFileName()), null,
+                URLType.SERVICE);
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(HttpServletRequest request,
+            HttpServletResponse response) throws Exception {
+        // grab the path after wcs-jobs/
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        int idx = path.indexOf(PATH + "/");
+        String[] parts = idx >= 0 ? path.substring(idx + PATH.length() + 1).split("/")
+                : new String[0];
+        if (parts.length == 0 || parts.length > 2 || parts[0].length() == 0) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return null;
+        }
+
+        Job job;
+        if ("DELETE".equals(request.getMethod())
+                || "true".equalsIgnoreCase(request.getParameter("cancel"))) {
+            job = queue.cancel(parts[0]);
+        } else {
+            job = queue.getJob(parts[0]);
+        }
+        if (job == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Unknown job " + parts[0]);
+            return null;
+        }
+
+        if (parts.length == 1) {
+            writeStatus(job, baseURL(request), response);
+        } else if (!parts[1].equals(job.getFileName())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        } else if (!job.isDone()) {
+            response.setHeader("Retry-After", "5");
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Job " + job.getId()
+                    + " is " + job.getStatus());
+        } else {
+            File file = job.getStatus() == Status.COMPLETED ? queue.getStorage().get(
+                    job.getFileName()) : null;
+            if (file == null || !file.exists()) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            } else {
+                writeFile(job, file, response);
+            }
+        }
+
+        return null;
+    }
+
+    void writeStatus(Job job, String baseURL, HttpServletResponse response) throws Exception {
+        response.setContentType("application/xml");
+        response.setCharacterEncoding("UTF-8");
+        Writer w = new OutputStreamWriter(response.getOutputStream(), "UTF-8");
+        w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        w.write("<GetCoverageJob id=\"" + encodeXML(job.getId()) + "\" status=\""
+                + job.getStatus() + "\">\n");
+        if (job.getStatus() != Status.CANCELLED && job.getStatus() != Status.FAILED) {
+            w.write("  <Reference href=\"" + encodeXML(resultURL(baseURL, job)) + "\"/>\n");
+        }
+        if (job.getMessage() != null) {
+            w.write("  <Message>" + encodeXML(job.getMessage()) + "</Message>\n");
+        }
+        w.write("</GetCoverageJob>\n");
+        w.flush();
+    }
+
+    void writeFile(Job job, File file, HttpServletResponse response) throws Exception {
+        if (job.getMimeType() != null) {
+            response.setContentType(job.getMimeType());
+        }
+        long length = file.length();
+        if (length > 0 && length <= Integer.MAX_VALUE)
+            response.setContentLength((int) length);
+
+        FileInputStream input = null;
+        OutputStream output = null;
+        try {
+            input = new FileInputStream(file);
+            output = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int n = -1;
+            while ((n = input.read(buffer)) != -1) {
+                output.write(buffer, 0, n);
+            }
+        } finally {
+            if (output != null)
+                output.flush();
+            if (input != null)
+                input.close();
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wcs.response;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.jai.ServiceJAI;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.vfny.geoserver.wcs.WcsException;
+import org.vfny.geoserver.wcs.responses.CoverageResponseDelegate;
+
+/**
+ * Runs the encoding of the GetCoverage store=true requests in the background, storing the
+ * results in a {@link WCSStorage}.
+ * <p>
+ * Jobs are run by a fixed number of threads, smaller coverages first, and at most
+ * {@link #getMaxQueued()} jobs can be waiting: past that new submissions are refused. A
+ * bigger coverage is only postponed for a time proportional to its size (see
+ * {@link #getPixelsPerMillisecond()}), jobs submitted later than that run after it, so a
+ * steady flow of small requests cannot starve it. Jobs can be looked up by id to poll their
+ * status, and cancelled while queued or running. A job whose result grows past the storage
+ * quota fails right away, without waiting for it to complete. Finished jobs are forgotten
+ * once their result is no longer in the storage.
+ * </p>
+ */
+public class GetCoverageJobQueue implements DisposableBean {
+    static final Logger LOGGER = Logging.getLogger(GetCoverageJobQueue.class);
+
+    /**
+     * The status of a job
+     */
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    WCSStorage storage;
+
+    int maxQueued = 100;
+
+    long pixelsPerMillisecond = 1000;
+
+    ThreadPoolExecutor executor;
+
+    Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+
+    AtomicLong sequence = new AtomicLong();
+
+    public GetCoverageJobQueue(WCSStorage storage) {
+        this(storage, 2);
+    }
+
+    public GetCoverageJobQueue(WCSStorage storage, int threads) {
+        this.storage = storage;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+                    int count = 0;
+
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "GeoServer WCS store " + (++count));
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+    }
+
+    /**
+     * Queues the encoding of the coverage with the specified delegate, returning the job
+     * tracking it
+     *
+     * @param coverageName
+     *            used to build the name of the stored file
+     * @throws WcsException
+     *             if too many jobs are already waiting
+     */
+    public Job submit(String coverageName, GridCoverage2D coverage,
+            CoverageResponseDelegate delegate, String outputFormat) throws IOException {
+        if (executor.getQueue().size() >= maxQueued) {
+            throw new WcsException("Too many stored coverages are being prepared, "
+                    + "please try again later");
+        }
+
+        File file = storage.newFile(coverageName.replace(':', '_'), delegate.getFileExtension());
+        Job job = new Job(UUID.randomUUID().toString(), coverage, delegate, outputFormat, file);
+        jobs.put(job.getId(), job);
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Returns the job with the specified id, or null if unknown or forgotten
+     */
+    public Job getJob(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancels the specified job. A queued job is removed from the queue, a running one
+     * stops at its next write, a completed one has its result removed from the storage.
+     *
+     * @return the cancelled job, or null if not found
+     */
+    public Job cancel(String id) {
+        Job job = jobs.get(id);
+        if (job == null) {
+            return null;
+        }
+
+        synchronized (job) {
+            if (job.status == Status.QUEUED) {
+                executor.remove(job);
+            } else if (job.status == Status.COMPLETED) {
+                storage.remove(job.getFileName());
+            }
+            if (job.status != Status.FAILED) {
+                job.finish(Status.CANCELLED, null);
+            }
+        }
+        return job;
+    }
+
+    /**
+     * Expires the old results from the storage, and forgets about the finished jobs whose
+     * result is no longer there
+     */
+    public void expire() {
+        storage.expire();
+        long threshold = System.currentTimeMillis() - storage.getExpirationDelay() * 1000;
+        for (Iterator<Job> it = jobs.values().iterator(); it.hasNext();) {
+            Job job = it.next();
+            if (job.isDone() && job.finished < threshold
+                    && (job.status != Status.COMPLETED || !storage.contains(job.getFileName()))) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The number of jobs waiting to be run
+     */
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * The number of jobs being run
+     */
+    public int getRunning() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * The maximum number of jobs that can be waiting to be run
+     */
+    public int getMaxQueued() {
+        return maxQueued;
+    }
+
+    public void setMaxQueued(int maxQueued) {
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * How much a coverage size postpones its job: a job of n pixels runs after the jobs
+     * submitted up to n / pixelsPerMillisecond milliseconds later than itself. The default,
+     * 1000, lets a 10000x10000 coverage wait at most 100 seconds for smaller ones.
+     */
+    public long getPixelsPerMillisecond() {
+        return pixelsPerMillisecond;
+    }
+
+    public void setPixelsPerMillisecond(long pixelsPerMillisecond) {
+        this.pixelsPerMillisecond = pixelsPerMillisecond;
+    }
+
+    public WCSStorage getStorage() {
+        return storage;
+    }
+
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A GetCoverage store=true request being run in the background
+     */
+    public class Job implements Runnable, Comparable<Job> {
+        String id;
+
+        GridCoverage2D coverage;
+
+        CoverageResponseDelegate delegate;
+
+        String outputFormat;
+
+        String mimeType;
+
+        File file;
+
+        long pixels;
+
+        long order = sequence.getAndIncrement();
+
+        /**
+         * The submission time pushed back by the coverage size, fixed at creation so that
+         * the queue ordering never changes
+         */
+        long deadline;
+
+        volatile Status status = Status.QUEUED;
+
+        String message;
+
+        long finished;
+
+        Job(String id, GridCoverage2D coverage, CoverageResponseDelegate delegate,
+                String outputFormat, File file) {
+            this.id = id;
+            this.coverage = coverage;
+            this.delegate = delegate;
+            this.outputFormat = outputFormat;
+            this.mimeType = delegate.getMimeFormatFor(outputFormat);
+            this.file = file;
+            this.pixels = ((long) coverage.getGridGeometry().getGridRange2D().width)
+                    * coverage.getGridGeometry().getGridRange2D().height;
+            this.deadline = System.currentTimeMillis()
+                    + pixels / Math.max(1, pixelsPerMillisecond);
+        }
+
+        public void run() {
+            final GridCoverage2D coverage;
+            final CoverageResponseDelegate delegate;
+            synchronized (this) {
+                if (status != Status.QUEUED) {
+                    return;
+                }
+                status = Status.RUNNING;
+                coverage = this.coverage;
+                delegate = this.delegate;
+            }
+
+            // the encoding computes the tiles, do it with the WCS JAI resources
+            ServiceJAI.enter("wcs");
+            OutputStream os = null;
+            try {
+                os = new CancellableOutputStream(new BufferedOutputStream(new FileOutputStream(
+                        file)), storage.getMaxSize());
+                delegate.prepare(outputFormat, coverage);
+                delegate.encode(os);
+                os.flush();
+                os.close();
+                os = null;
+
+                synchronized (this) {
+                    if (status == Status.RUNNING) {
+                        storage.add(file);
+                        finish(Status.COMPLETED, null);
+                    } else {
+                        file.delete();
+                    }
+                }
+            } catch (Throwable t) {
+                synchronized (this) {
+                    if (status == Status.RUNNING) {
+                        LOGGER.log(Level.WARNING, "Failed to store coverage " + file.getName(),
+                                t);
+                        finish(Status.FAILED, t.getMessage());
+                    }
+                }
+                if (os != null) {
+                    try {
+                        os.close();
+                    } catch (IOException e) {
+                        // we are already failing
+                    }
+                }
+                file.delete();
+            } finally {
+                ServiceJAI.exit();
+            }
+        }
+
+        synchronized void finish(Status status, String message) {
+            this.status = status;
+            this.message = message;
+            this.finished = System.currentTimeMillis();
+            // let the coverage be collected, the job is going to stay around for a while
+            this.coverage = null;
+            this.delegate = null;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public boolean isDone() {
+            return status != Status.QUEUED && status != Status.RUNNING;
+        }
+
+        /**
+         * The reason the job failed, if any
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * The mime type of the result
+         */
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        /**
+         * The name of the result file in the storage
+         */
+        public String getFileName() {
+            return file.getName();
+        }
+
+        public int compareTo(Job other) {
+            // smaller coverages first, as long as they are not submitted much later, then
+            // in submission order
+            if (deadline != other.deadline) {
+                return deadline < other.deadline ? -1 : 1;
+            }
+            return order < other.order ? -1 : (order == other.order ? 0 : 1);
+        }
+
+        /**
+         * Stops the encoding at the first write after the job got cancelled, or once the
+         * output grows bigger than the storage quota
+         */
+        class CancellableOutputStream extends FilterOutputStream {
+            long maxSize;
+
+            long written;
+
+            CancellableOutputStream(OutputStream out, long maxSize) {
+                super(out);
+                this.maxSize = maxSize;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                check(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                check(len);
+                out.write(b, off, len);
+            }
+
+            void check(int len) throws IOException {
+                if (status != Status.RUNNING) {
+                    throw new InterruptedIOException("Job " + id + " has been cancelled");
+                }
+                written += len;
+                if (maxSize > 0 && written > maxSize) {
+                    throw new IOException("The coverage is bigger than the " + maxSize
+                            + " bytes the storage can hold");
+                }
+            }
+        }
+    }
+}
@@ -4,11 +4,6 @@
  */
 package org.geoserver.wcs.response;
 
-import static org.geoserver.ows.util.ResponseUtils.*;
-
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -20,32 +15,38 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Response;
-import org.geoserver.ows.URLMangler.URLType;
-import org.geoserver.ows.util.RequestUtils;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wcs.WCSInfo;
+import org.geoserver.wcs.response.GetCoverageJobQueue.Job;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.coverage.grid.GridCoverage;
-import org.vfny.geoserver.global.GeoserverDataDirectory;
 import org.vfny.geoserver.wcs.WcsException;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegate;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegateFactory;
 
 /**
  * Response object for the store=true path, that is, one that stores the coverage
- * on disk and returns its path thru the Coverages document
+ * on disk and returns its path thru the Coverages document.
+ * <p>
+ * The coverage is encoded in the background by the {@link GetCoverageJobQueue}, the
+ * Coverages document is returned right away and links both the future coverage file
+ * and the job status document (as an ows:Metadata element), see
+ * {@link GetCoverageJobController}
+ * </p>
  * @author Andrea Aime - TOPP
  */
 public class WCSGetCoverageStoreResponse extends Response {
     
     Catalog catalog;
     WCSInfo wcs;
+    GetCoverageJobQueue jobs;
 
-    public WCSGetCoverageStoreResponse(GeoServer gs) {
+    public WCSGetCoverageStoreResponse(GeoServer gs, GetCoverageJobQueue jobs) {
         super(GridCoverage[].class);
         this.wcs = gs.getService(WCSInfo.class);
         this.catalog = gs.getCatalog();
+        this.jobs = jobs;
     }
 
     @Override
@@ -80,45 +81,16 @@ public class WCSGetCoverageStoreResponse extends Response {
         final GridCoverage2D coverage = (GridCoverage2D) coverages[0];
         CoverageInfo coverageInfo = catalog.getCoverageByName(request.getIdentifier().getValue());
         
-        // write the coverage to temporary storage in the data dir
-        File wcsStore = null;
-        try {
-            File temp = GeoserverDataDirectory.findCreateConfigDir("temp");
-            wcsStore = new File(temp, "wcs");
-            if(!wcsStore.exists())
-                wcsStore.mkdir();
-        } catch(Exception e) {
-            throw new WcsException("Could not create the temporary storage directory for WCS");
-        }
-        
-        // Make sure we create a file name that's not already there (even if splitting the same nanosecond
-        // with two requests should not ever happen...)
-        File coverageFile = null;
-        while(true) {
-            // TODO: find a way to get good extensions
-            coverageFile = new File(wcsStore, coverageInfo.getName().replace(':', '_') + "_" + System.nanoTime() + "." + delegate.getFileExtension());
-            if(!coverageFile.exists())
-                break;
-        }
-       
-        // store the coverage
-        OutputStream os = null;
-        try {
-            os = new BufferedOutputStream(new FileOutputStream(coverageFile));
-            delegate.prepare(outputFormat, coverage);
-            delegate.encode(os);
-            os.flush();
-        } finally {
-            if(os != null) os.close();
-        }
-        System.out.println(coverageFile);
+        // queue the encoding, it will end up in the temporary storage in the data dir
+        Job job = jobs.submit(coverageInfo.getName(), coverage, delegate, outputFormat);
         
-        // build the path where the clients will be able to retrieve the coverage files
-        final String coverageLocation = buildURL(request.getBaseUrl(), 
-                appendPath("temp/wcs", coverageFile.getName()), null, URLType.RESOURCE);
+        // build the paths where the clients will be able to follow the job and
+        // retrieve the coverage file once it's ready
+        final String coverageLocation = GetCoverageJobController.resultURL(request.getBaseUrl(), job);
+        final String statusLocation = GetCoverageJobController.statusURL(request.getBaseUrl(), job);
         
         // build the response
-        CoveragesTransformer tx = new CoveragesTransformer(wcs, request, coverageLocation);
+        CoveragesTransformer tx = new CoveragesTransformer(wcs, request, coverageLocation, statusLocation);
         try {
             tx.transform(coverageInfo, output);
         } catch (TransformerException e) {
@@ -4,47 +4,58 @@
  */
 package org.geoserver.wcs.response;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Random;
 
-import javax.activation.DataHandler;
-import javax.mail.BodyPart;
 import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.internet.MimeBodyPart;
-import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
+import javax.xml.transform.TransformerException;
 
 import net.opengis.wcs11.GetCoverageType;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.config.GeoServer;
 import org.geoserver.ows.Response;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
-import org.geoserver.wcs.response.CoveragesHandler.CoveragesData;
+import org.geoserver.wcs.WCSInfo;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.coverage.grid.GridCoverage;
 import org.vfny.geoserver.wcs.WcsException;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegate;
 import org.vfny.geoserver.wcs.responses.CoverageResponseDelegateFactory;
 
+/**
+ * Encodes the GetCoverage response as a mime multipart made of the Coverages document and the
+ * coverage itself.
+ * <p>
+ * The multipart envelope is written by hand and the coverage is base64 encoded on the fly, so
+ * that the coverage is streamed out as the delegate encodes it, without being buffered.
+ * </p>
+ */
 public class WCSMultipartResponse extends Response {
 
-    MimeMultipart multipart;
+    static final String NEWLINE = "\r\n";
 
     Catalog catalog;
 
-    public WCSMultipartResponse(Catalog catalog) {
+    WCSInfo wcs;
+
+    String boundary;
+
+    public WCSMultipartResponse(GeoServer gs) {
         super(GridCoverage[].class);
-        this.catalog = catalog;
-        this.multipart = new MimeMultipart();
+        this.catalog = gs.getCatalog();
+        this.wcs = gs.getService(WCSInfo.class);
+        this.boundary = "----=_Part_" + Long.toHexString(new Random().nextLong());
     }
 
     @Override
     public String getMimeType(Object value, Operation operation) throws ServiceException {
-        // javamail outputs multipart/mixed, but in our case we're producing multipart/related
-        return multipart.getContentType().replace("mixed", "related");
+        return "multipart/related; boundary=\"" + boundary + "\"";
     }
 
     @Override
@@ -82,55 +93,69 @@ public class WCSMultipartResponse extends Response {
         final GridCoverage2D coverage = (GridCoverage2D) coverages[0];
         CoverageInfo coverageInfo = catalog.getCoverageByName(request.getIdentifier().getValue());
 
-        // use javamail classes to actually encode the document
+        // prepare before writing anything, so that encoding problems result in a
+        // service exception rather than a garbled multipart
+        delegate.prepare(outputFormat, coverage);
+
+        // the message headers, so that the response can be parsed as a mime message
+        writeLine(output, "MIME-Version: 1.0");
+        writeLine(output, "Content-Type: " + getMimeType(value, operation));
+        writeLine(output, "");
+
+        // coverages xml structure
+        writeLine(output, "--" + boundary);
+        writeLine(output, "Content-Type: text/xml");
+        writeLine(output, "Content-ID: <urn:ogc:wcs:1.1:coverages>");
+        writeLine(output, "");
+        CoveragesTransformer ct = new CoveragesTransformer(wcs, request);
         try {
-            // coverages xml structure (always set the headers after the data
-            // handlers, setting
-            // the data handlers kills some of them)
-            BodyPart coveragesPart = new MimeBodyPart();
-            final CoveragesData coveragesData = new CoveragesData(coverageInfo, request);
-            coveragesPart.setDataHandler(new DataHandler(coveragesData, "geoserver/coverages"));
-            coveragesPart.setHeader("Content-ID", "<urn:ogc:wcs:1.1:coverages>");
-            coveragesPart.setHeader("Content-Type", "text/xml");
-            multipart.addBodyPart(coveragesPart);
-
-            // the actual coverage
-            BodyPart coveragePart = new MimeBodyPart();
-            delegate.prepare(outputFormat, coverage);
-            coveragePart.setDataHandler(new DataHandler(delegate, "geoserver/coverageDelegate"));
-            coveragePart.setHeader("Content-ID", "<theCoverage>");
-            coveragePart.setHeader("Content-Type", delegate.getContentType());
-            coveragePart.setHeader("Content-Transfer-Encoding", "base64");
-            multipart.addBodyPart(coveragePart);
-
-            // write out the multipart (we need to use mime message trying to
-            // encode directly with multipart or BodyPart does not set properly
-            // the encodings and binary files gets ruined
-            MimeMessage message = new GeoServerMimeMessage();
-            message.setContent(multipart);
-            message.writeTo(output);
-            output.flush();
+            ct.transform(coverageInfo, output);
+        } catch (TransformerException e) {
+            throw new WcsException("Error occurred during wcs:coverage encoding", e);
+        }
+        writeLine(output, "");
+
+        // the actual coverage
+        writeLine(output, "--" + boundary);
+        writeLine(output, "Content-Type: " + delegate.getContentType());
+        writeLine(output, "Content-Transfer-Encoding: base64");
+        writeLine(output, "Content-ID: <theCoverage>");
+        writeLine(output, "");
+        try {
+            OutputStream encoded = MimeUtility.encode(new NonClosingOutputStream(output),
+                    "base64");
+            delegate.encode(encoded);
+            // flushes the last base64 quantum, the output is left open
+            encoded.close();
         } catch (MessagingException e) {
             throw new WcsException("Error occurred while encoding the mime multipart response", e);
         }
+        writeLine(output, "");
+
+        writeLine(output, "--" + boundary + "--");
+        output.flush();
+    }
+
+    void writeLine(OutputStream output, String line) throws IOException {
+        output.write((line + NEWLINE).getBytes("US-ASCII"));
     }
 
     /**
-     * A special mime message that does not set any header other than the
-     * content type
-     * 
-     * @author Andrea Aime - TOPP
+     * Shields the response from the close() of the base64 encoder
      */
-    private static class GeoServerMimeMessage extends MimeMessage {
-        public GeoServerMimeMessage() {
-            super((Session) null);
+    static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
         }
 
         @Override
-        protected void updateMessageID() throws MessagingException {
-            // it's just ugly to see ...
-            removeHeader("Message-ID");
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
         }
-    }
 
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
@@ -0,0 +1,268 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wcs.response;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+import org.vfny.geoserver.global.GeoserverDataDirectory;
+
+/**
+ * The managed storage for the coverages produced by GetCoverage with store=true, that is,
+ * ${GEOSERVER_DATA_DIR}/temp/wcs.
+ * <p>
+ * Stored files are tracked in an index kept in access order, so that the files can be
+ * expired and evicted without scanning the directory:
+ * <ul>
+ * <li>a file that has not been accessed for more than {@link #getExpirationDelay()}
+ * seconds is removed by {@link #expire()}</li>
+ * <li>when the total size of the stored files exceeds {@link #getMaxSize()} the least
+ * recently used ones are removed as new files get added</li>
+ * </ul>
+ * The directory is scanned only once, when the storage is first used, to pick up the
+ * files left behind by a previous run.
+ * </p>
+ */
+public class WCSStorage {
+    static final Logger LOGGER = Logging.getLogger(WCSStorage.class);
+
+    /**
+     * The storage directory, located lazily in the data directory unless provided
+     */
+    File directory;
+
+    /**
+     * The stored files by name, in access order
+     */
+    LinkedHashMap<String, Entry> index = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * The total size of the indexed files
+     */
+    long size;
+
+    long expirationDelay = 300;
+
+    long maxSize = 512 * 1024 * 1024;
+
+    boolean initialized;
+
+    /**
+     * Builds a storage living in ${GEOSERVER_DATA_DIR}/temp/wcs
+     */
+    public WCSStorage() {
+        this(null);
+    }
+
+    /**
+     * Builds a storage living in the specified directory
+     */
+    public WCSStorage(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns a new, not yet existing, file in the storage. The file is not tracked until
+     * it's handed back to {@link #add(File)}
+     */
+    public synchronized File newFile(String prefix, String extension) throws IOException {
+        init();
+
+        // Make sure we create a file name that's not already there (even if splitting the
+        // same nanosecond with two requests should not ever happen...)
+        File file;
+        do {
+            file = new File(directory, prefix + "_" + System.nanoTime() + "." + extension);
+        } while (file.exists());
+        return file;
+    }
+
+    /**
+     * Starts tracking a file created with {@link #newFile(String, String)}, evicting the
+     * least recently used files if the storage gets over its size quota
+     */
+    public synchronized void add(File file) throws IOException {
+        init();
+        track(file, System.currentTimeMillis());
+        evict(file.getName());
+    }
+
+    /**
+     * Returns the stored file with the specified name, or null if it's not there (never
+     * stored, expired or evicted). The file counts as accessed and it's moved to the end of
+     * the eviction queue.
+     */
+    public synchronized File get(String name) {
+        Entry entry = index.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        entry.lastAccess = System.currentTimeMillis();
+        return entry.file;
+    }
+
+    /**
+     * Checks if a file with the specified name is stored, without counting as an access
+     */
+    public synchronized boolean contains(String name) {
+        return index.containsKey(name);
+    }
+
+    /**
+     * Removes the stored file with the specified name, if any
+     */
+    public synchronized void remove(String name) {
+        Entry entry = index.remove(name);
+        if (entry != null) {
+            delete(entry);
+        }
+    }
+
+    /**
+     * Removes the files that have not been accessed for more than
+     * {@link #getExpirationDelay()} seconds
+     */
+    public synchronized void expire() {
+        long threshold = System.currentTimeMillis() - expirationDelay * 1000;
+        for (Iterator<Entry> it = index.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            // access order, all the entries after this one have been accessed later
+            if (entry.lastAccess > threshold) {
+                break;
+            }
+            it.remove();
+            delete(entry);
+        }
+    }
+
+    /**
+     * The total size, in bytes, of the stored files
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * The number of stored files
+     */
+    public synchronized int getCount() {
+        return index.size();
+    }
+
+    /**
+     * The file expiration delay in seconds, a file will be deleted when it has not been
+     * accessed for more than expirationDelay
+     */
+    public long getExpirationDelay() {
+        return expirationDelay;
+    }
+
+    public void setExpirationDelay(long expirationDelay) {
+        this.expirationDelay = expirationDelay;
+    }
+
+    /**
+     * The maximum total size of the stored files, in bytes
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    public void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    void init() throws IOException {
+        if (initialized) {
+            return;
+        }
+
+        if (directory == null) {
+            try {
+                File temp = GeoserverDataDirectory.findCreateConfigDir("temp");
+                directory = new File(temp, "wcs");
+            } catch (Exception e) {
+                throw (IOException) new IOException(
+                        "Could not create the temporary storage directory for WCS").initCause(e);
+            }
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create the temporary storage directory for WCS");
+        }
+
+        // pick up the leftovers of a previous run, they will expire normally
+        File[] files = directory.listFiles();
+        if (files != null) {
+            // the index must be kept in access order
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File f1, File f2) {
+                    long lm1 = f1.lastModified();
+                    long lm2 = f2.lastModified();
+                    return lm1 < lm2 ? -1 : (lm1 == lm2 ? 0 : 1);
+                }
+            });
+            for (File f : files) {
+                if (f.isFile()) {
+                    track(f, f.lastModified());
+                }
+            }
+        }
+        initialized = true;
+    }
+
+    void track(File file, long lastAccess) {
+        Entry entry = new Entry(file, file.length(), lastAccess);
+        Entry previous = index.put(file.getName(), entry);
+        if (previous != null) {
+            size -= previous.size;
+        }
+        size += entry.size;
+    }
+
+    /**
+     * Evicts the least recently used files until the storage is back under quota. The
+     * specified file is never evicted, even if it's bigger than the quota on its own
+     */
+    void evict(String keep) {
+        for (Iterator<Entry> it = index.values().iterator(); size > maxSize && it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.file.getName().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            delete(entry);
+        }
+    }
+
+    void delete(Entry entry) {
+        size -= entry.size;
+        if (entry.file.exists() && !entry.file.delete()) {
+            LOGGER.log(Level.WARNING, "Could not remove " + entry.file
+                    + " from the WCS temporary storage");
+        }
+    }
+
+    static class Entry {
+        File file;
+
+        long size;
+
+        long lastAccess;
+
+        Entry(File file, long size, long lastAccess) {
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
@@ -4,63 +4,53 @@
  */
 package org.geoserver.wcs.response;
 
-import java.io.File;
 import java.util.TimerTask;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geotools.util.logging.Logging;
-import org.vfny.geoserver.global.GeoserverDataDirectory;
 
 /**
  * Cleans up the contents of ${GEOSERVER_DATA_DIR}/temp/wcs, by removing all files that
- * have been in the temp folder for too long
+ * have not been accessed for too long, along with the jobs that produced them. The
+ * expiration delay is configured on the {@link WCSStorage}
  * @author Andrea Aime - TOPP
  *
  */
 public class WCSStorageCleaner extends TimerTask {
     Logger LOGGER = Logging.getLogger(WCSStorageCleaner.class);
 
-    long expirationDelay;
+    GetCoverageJobQueue jobs;
 
-    @Override
-    public void run() {
-        try {
-            // first check that temp/wcs is really there in the data dir
-            File temp = GeoserverDataDirectory.findConfigDir(GeoserverDataDirectory
-                    .getGeoserverDataDirectory(), "temp");
-            if (temp == null || !temp.exists())
-                return;
-
-            File wcsTemp = new File(temp, "wcs");
-            if (!wcsTemp.exists())
-                return;
-
-            // ok, now scan for existing files there and clean up those 
-            // that are too old
-            long now = System.currentTimeMillis();
-            for(File f : wcsTemp.listFiles()) {
-                if(now - f.lastModified() > (expirationDelay * 1000))
-                    f.delete();
-            }
-        } catch (Exception e) {
-            LOGGER.log(Level.WARNING, "Error occurred while trying to clean up "
-                    + "old coverages from temp storage", e);
-        }
+    public WCSStorageCleaner(GetCoverageJobQueue jobs) {
+        this.jobs = jobs;
     }
 
     /**
-     * The file expiration delay in seconds, a file will be deleted when
-     * it's been around more than expirationDelay
-     * 
-     * @return
+     * The file expiration delay in seconds, a file will be deleted when it has not been
+     * accessed for more than expirationDelay
+     *
+     * @deprecated use {@link WCSStorage#getExpirationDelay()}
      */
     public long getExpirationDelay() {
-        return expirationDelay;
+        return jobs.getStorage().getExpirationDelay();
     }
 
+    /**
+     * @deprecated use {@link WCSStorage#setExpirationDelay(long)}
+     */
     public void setExpirationDelay(long expirationDelay) {
-        this.expirationDelay = expirationDelay;
+        jobs.getStorage().setExpirationDelay(expirationDelay);
+    }
+
+    @Override
+    public void run() {
+        try {
+            jobs.expire();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Error occurred while trying to clean up "
+                    + "old coverages from temp storage", e);
+        }
     }
 
 }
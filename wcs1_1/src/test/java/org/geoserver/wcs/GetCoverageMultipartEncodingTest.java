@@ -117,6 +117,22 @@ public class GetCoverageMultipartEncodingTest extends WCSTestSupport {
         reader.read(0);
     }
 
+    public void testGeotiffOutput() throws Exception {
+        String request = "wcs?service=WCS&version=1.1.1&request=GetCoverage" + "&identifier="
+                + layerId(TASMANIA_BM)
+                + "&BoundingBox=-90,-180,90,180,urn:ogc:def:crs:EPSG:4326"
+                + "&GridBaseCRS=urn:ogc:def:crs:EPSG:4326" + "&format=geotiff";
+        MockHttpServletResponse response = getAsServletResponse(request);
+
+        // the coverage streamed out in base64 reads back as a proper geotiff
+        Multipart multipart = getMultipart(response);
+        BodyPart coveragePart = multipart.getBodyPart(1);
+        GridCoverage2D coverage = readCoverage(coveragePart.getInputStream());
+        assertNotNull(coverage.getCoordinateReferenceSystem());
+        assertTrue(coverage.getRenderedImage().getWidth() > 0);
+        coverage.dispose(true);
+    }
+
     public void testPngOutput() throws Exception {
         String request = "wcs?service=WCS&version=1.1.1&request=GetCoverage" + "&identifier="
                 + layerId(TASMANIA_BM)
@@ -232,6 +232,24 @@ public class GetCoverageTest extends WCSTestSupport {
         assertEquals(0.0, flippedTx.getTranslateX(), EPS);
     }
 
+    public void testGridOffsetsThumbnail() throws Exception {
+        Map<String, Object> raw = new HashMap<String, Object>();
+        final String getLayerId = getLayerId(TASMANIA_BM);
+        raw.put("identifier", getLayerId);
+        raw.put("format", "image/geotiff");
+        raw.put("BoundingBox", "-45,146,-42,147,urn:ogc:def:crs:EPSG:6.6:4326");
+        raw.put("GridBaseCRS", "urn:ogc:def:crs:EPSG:6.6:4326");
+        raw.put("GridType", "urn:ogc:def:method:WCS:1.1:2dSimpleGrid");
+        raw.put("GridOffsets", "0.5,0.5");
+        raw.put("rangeSubset", "contents:nearest[Bands[RED_BAND]]");
+        GridCoverage[] coverages = executeGetCoverageKvp(raw);
+        GridCoverage2D coverage = (GridCoverage2D) coverages[0];
+        assertEquals(1, coverage.getNumSampleDimensions());
+        // a 1x3 degrees box at half a degree per pixel
+        assertTrue(coverage.getGridGeometry().getGridRange2D().getSpan(0) <= 7);
+        assertTrue(coverage.getGridGeometry().getGridRange2D().getSpan(1) <= 7);
+    }
+
     /**
      * Tests valid range subset expressions, but with a mix of valid and invalid
      * identifiers
@@ -385,6 +403,19 @@ public class GetCoverageTest extends WCSTestSupport {
         assertXpathEvaluatesTo(TASMANIA_BM.getLocalPart(),
                 "wcs:Coverages/wcs:Coverage/ows:Title", dom);
         
+        // the coverage is stored in the background, wait for the job to complete
+        String status = xpath.evaluate("//ows:Metadata/@xlink:href", dom);
+        String statusPath = status.substring(status.indexOf("geoserver/") + 10);
+        String jobStatus = null;
+        for (int i = 0; i < 100; i++) {
+            Document statusDom = getAsDOM(statusPath);
+            jobStatus = xpath.evaluate("/GetCoverageJob/@status", statusDom);
+            if (!"QUEUED".equals(jobStatus) && !"RUNNING".equals(jobStatus))
+                break;
+            Thread.sleep(100);
+        }
+        assertEquals("COMPLETED", jobStatus);
+        
         // grab the file path on the disk
         String path = xpath.evaluate("//ows:Reference/@xlink:href", dom);
         File temp = new File(getTestData().getDataDirectoryRoot(), "temp");
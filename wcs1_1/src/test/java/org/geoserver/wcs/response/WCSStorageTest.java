@@ -0,0 +1,98 @@
+package org.geoserver.wcs.response;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class WCSStorageTest extends TestCase {
+    File root;
+
+    WCSStorage storage;
+
+    @Override
+    protected void setUp() throws Exception {
+        root = File.createTempFile("wcsStorage", "tmp");
+        root.delete();
+        root.mkdir();
+        storage = new WCSStorage(root);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (File f : root.listFiles()) {
+            f.delete();
+        }
+        root.delete();
+    }
+
+    public void testAddGet() throws Exception {
+        File file = store("test", 10);
+        assertEquals(1, storage.getCount());
+        assertEquals(10, storage.getSize());
+        assertEquals(file, storage.get(file.getName()));
+        assertNull(storage.get("notThere.tif"));
+
+        storage.remove(file.getName());
+        assertEquals(0, storage.getCount());
+        assertEquals(0, storage.getSize());
+        assertFalse(file.exists());
+    }
+
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        storage.setMaxSize(25);
+        File f1 = store("f1", 10);
+        File f2 = store("f2", 10);
+        // touch the first, the second becomes the least recently used
+        storage.get(f1.getName());
+        File f3 = store("f3", 10);
+
+        assertEquals(2, storage.getCount());
+        assertEquals(20, storage.getSize());
+        assertTrue(f1.exists());
+        assertFalse(f2.exists());
+        assertTrue(f3.exists());
+    }
+
+    public void testKeepBiggerThanQuota() throws Exception {
+        storage.setMaxSize(5);
+        File f1 = store("f1", 10);
+        assertTrue(f1.exists());
+        File f2 = store("f2", 10);
+        assertFalse(f1.exists());
+        assertTrue(f2.exists());
+    }
+
+    public void testExpire() throws Exception {
+        File f1 = store("f1", 10);
+        storage.setExpirationDelay(1000);
+        storage.expire();
+        assertTrue(f1.exists());
+
+        storage.setExpirationDelay(0);
+        Thread.sleep(10);
+        storage.expire();
+        assertEquals(0, storage.getCount());
+        assertFalse(f1.exists());
+    }
+
+    public void testPickUpLeftovers() throws Exception {
+        File f1 = store("f1", 10);
+        // the directory is scanned the first time the storage is used
+        WCSStorage other = new WCSStorage(root);
+        other.newFile("f2", "tif");
+        assertEquals(1, other.getCount());
+        assertTrue(other.contains(f1.getName()));
+        assertEquals(10, other.getSize());
+    }
+
+    File store(String prefix, int size) throws IOException {
+        File file = storage.newFile(prefix, "tif");
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write(new byte[size]);
+        fos.close();
+        storage.add(file);
+        return file;
+    }
+}
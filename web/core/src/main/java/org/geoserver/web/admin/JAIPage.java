@@ -45,6 +45,10 @@ public class JAIPage extends ServerAdminPage {
         TextField tilePriority = new TextField("tilePriority");
         tilePriority.add(NumberValidator.POSITIVE);
         form.add(tilePriority);
+        // ... in megabytes, zero disables the cache
+        TextField coverageTileCacheSize = new TextField("coverageTileCacheSize");
+        coverageTileCacheSize.add(NumberValidator.minimum(0));
+        form.add(coverageTileCacheSize);
         form.add(new CheckBox("recycling"));
         form.add(new CheckBox("imageIOCache"));
         form.add(new CheckBox("jpegAcceleration"));
@@ -15,6 +15,8 @@ import org.apache.wicket.markup.html.link.Link;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.config.JAIInfo;
+import org.geoserver.jai.CoverageTileCache;
+import org.geoserver.jai.ServiceJAI;
 import org.geoserver.web.util.MapModel;
 import org.geotools.data.DataAccess;
 import org.geotools.data.DataStore;
@@ -52,6 +54,12 @@ public class StatusPage extends ServerAdminPage {
 
     private static final String KEY_JAI_TILE_THREAD_PRIORITY = "jai_tile_thread_priority";
 
+    private static final String KEY_COVERAGE_TILE_CACHE = "coverage_tile_cache";
+
+    private static final String KEY_COVERAGE_TILE_CACHE_HITS = "coverage_tile_cache_hits";
+
+    private static final String KEY_JAI_SERVICE_TILES = "jai_service_tiles";
+
     public StatusPage() {
         values = new HashMap<String, String>();
         updateModel();
@@ -69,6 +77,9 @@ public class StatusPage extends ServerAdminPage {
         add(new Label("jai.memory.threshold", new MapModel(values, KEY_JAI_MEM_THRESHOLD)));
         add(new Label("jai.tile.threads", new MapModel(values, KEY_JAI_TILE_THREADS)));
         add(new Label("jai.tile.priority", new MapModel(values, KEY_JAI_TILE_THREAD_PRIORITY)));
+        add(new Label("coverage.tile.cache", new MapModel(values, KEY_COVERAGE_TILE_CACHE)));
+        add(new Label("coverage.tile.cache.hits", new MapModel(values, KEY_COVERAGE_TILE_CACHE_HITS)));
+        add(new Label("jai.service.tiles", new MapModel(values, KEY_JAI_SERVICE_TILES)));
 
         add(new Link("free.locks") {
             private static final long serialVersionUID = 1L;
@@ -143,6 +154,31 @@ public class StatusPage extends ServerAdminPage {
         values.put(KEY_JAI_TILE_THREADS, Integer.toString(jai.getTileScheduler().getParallelism()));
         values.put(KEY_JAI_TILE_THREAD_PRIORITY, Integer.toString(jai.getTileScheduler()
                 .getPriority()));
+
+        CoverageTileCache coverageCache = jaiInfo.getCoverageTileCache();
+        if (coverageCache != null) {
+            values.put(KEY_COVERAGE_TILE_CACHE, formatMemory(coverageCache.getSize()) + " / "
+                    + formatMemory(coverageCache.getCapacity()) + ", "
+                    + coverageCache.getCount() + " tiles");
+            values.put(KEY_COVERAGE_TILE_CACHE_HITS, coverageCache.getHits() + " / "
+                    + coverageCache.getMisses());
+        } else {
+            values.put(KEY_COVERAGE_TILE_CACHE, "-");
+            values.put(KEY_COVERAGE_TILE_CACHE_HITS, "-");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (ServiceJAI service : ServiceJAI.getServices()) {
+            if (sb.length() > 0) {
+                sb.append("; ");
+            }
+            long tiles = service.getTiles();
+            sb.append(service.getId()).append(": ").append(tiles).append(" tiles, ");
+            sb.append(tiles > 0 ? service.getComputeTime() / tiles : 0).append(" ms avg, ");
+            sb.append(service.getQueued()).append(" queued (max ");
+            sb.append(service.getMaxQueued()).append(")");
+        }
+        values.put(KEY_JAI_SERVICE_TILES, sb.length() > 0 ? sb.toString() : "-");
     }
 
     boolean isNativeJAIAvailable() {
@@ -19,6 +19,7 @@ import org.geotools.data.FeatureStore;
 import org.geotools.data.FeatureWriter;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
+import org.geotools.feature.FeatureCollection;
 import org.geotools.xml.EMFUtils;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -29,7 +30,9 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
@@ -51,10 +54,23 @@ public class DeleteElementHandler implements TransactionElementHandler {
     
     FilterFactory factory = CommonFactoryFinder.getFilterFactory(null);
 
+    /**
+     * Index of the locks handed out, may be <code>null</code>
+     */
+    FeatureLockIndex lockIndex;
+
     public DeleteElementHandler(GeoServer gs) {
         this.wfs = gs.getService( WFSInfo.class );
     }
 
+    /**
+     * Sets the index used to check the features being deleted are not locked by someone else
+     * before handing them to the data store
+     */
+    public void setLockIndex(FeatureLockIndex lockIndex) {
+        this.lockIndex = lockIndex;
+    }
+
     public Class getElementClass() {
         return DeleteElementType.class;
     }
@@ -119,6 +135,14 @@ public class DeleteElementHandler implements TransactionElementHandler {
                 damaged = store.getFeatures(filter).getBounds();
             }
 
+            // fail fast if another lock holds features in the damaged area, the single
+            // features are looked up in the lock index only then
+            if (lockIndex != null && (damaged == null || damaged.isNull() 
+                    || lockIndex.isLocked(elementName, damaged, request.getLockId()))) {
+                lockIndex.checkAccess(elementName, fids(store.getFeatures(filter)), 
+                        request.getLockId());
+            }
+
             if ((request.getLockId() != null) && store instanceof FeatureLocking
                     && (request.getReleaseAction() == AllSomeType.SOME_LITERAL)) {
                 FeatureLocking<SimpleFeatureType, SimpleFeature> locking;
@@ -162,6 +186,10 @@ public class DeleteElementHandler implements TransactionElementHandler {
                             Set featureIds = new HashSet();
                             featureIds.add(factory.featureId(fid));
                             locking.unLockFeatures(factory.id(featureIds));
+                            if (lockIndex != null) {
+                                lockIndex.unlock(request.getLockId(), elementName, 
+                                        Collections.singleton(fid));
+                            }
                             writer.remove();
                             deleted++;
                         }
@@ -194,4 +222,20 @@ public class DeleteElementHandler implements TransactionElementHandler {
         // update deletion count
         response.getTransactionSummary().setTotalDeleted(BigInteger.valueOf(deleted));
     }
+
+    /**
+     * Collects the ids of the features
+     */
+    Set<String> fids(FeatureCollection<SimpleFeatureType, SimpleFeature> features) {
+        Set<String> fids = new HashSet<String>();
+        Iterator<SimpleFeature> it = features.iterator();
+        try {
+            while (it.hasNext()) {
+                fids.add(it.next().getID());
+            }
+        } finally {
+            features.close(it);
+        }
+        return fids;
+    }
 }
@@ -0,0 +1,870 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.namespace.QName;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInitializer;
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.data.FeatureLock;
+import org.geotools.data.FeatureLockException;
+import org.geotools.data.FeatureLocking;
+import org.geotools.data.FeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.Feature;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.FilterFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.index.quadtree.Quadtree;
+
+/**
+ * GeoServer side manager of the locks handed out by {@link LockFeature}.
+ * <p>
+ * For each lock the index records the data stores, the ids and the bounds of the locked
+ * features, so that:
+ * <ul>
+ * <li>release, refresh and existence checks go straight to the stores involved instead of
+ * connecting to every store in the catalog;</li>
+ * <li>transactions find out who owns a feature with a hash lookup on its id, see
+ * {@link #checkAccess(QName, Collection, String)};</li>
+ * <li>transactions touching an area where no other lock holds features skip the per
+ * feature checks altogether, each lock keeping its features in a spatial index, see
+ * {@link #isLocked(QName, Envelope, String)}.</li>
+ * </ul>
+ * </p>
+ * <p>
+ * Locks are expired by a timer wheel: each lock is put in the slot of the tick it expires
+ * at, and every operation on the index first drains the slots of the ticks elapsed since
+ * the last one, so expiry costs nothing more than the locks actually expiring. Operations on
+ * a lock are guarded by one of {@link #STRIPES} locks picked from the lock id, so requests
+ * working on different locks do not contend.
+ * </p>
+ * <p>
+ * The data stores still own and enforce the locks, the index is what GeoServer knows about
+ * them. When {@link #setPersistent(boolean) persistent} the index is saved in the data
+ * directory, and on startup the locks which have not expired yet are acquired again in the
+ * data stores, so that they survive a restart.
+ * </p>
+ */
+public class FeatureLockIndex implements GeoServerInitializer, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.wfs");
+
+    /**
+     * Name of the file the locks are saved to, in the data directory
+     */
+    static final String LOCKS_FILE = "wfs-locks.txt";
+
+    /**
+     * Resolution of the expiry timer wheel, in milliseconds
+     */
+    static long TICK = 1000;
+
+    /**
+     * Number of slots in the expiry timer wheel, locks expiring further away than a whole
+     * turn stay in their slot until the right turn comes
+     */
+    static int WHEEL_SIZE = 512;
+
+    /**
+     * Number of locks guarding the lock entries
+     */
+    static int STRIPES = 16;
+
+    /**
+     * Minimum amount of time between two saves of the index, in milliseconds
+     */
+    static long SAVE_INTERVAL = 10 * 1000;
+
+    /**
+     * lock id to entry
+     */
+    ConcurrentHashMap<String, Entry> locks = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * type name to feature id to lock id
+     */
+    ConcurrentHashMap<String, ConcurrentHashMap<String, String>> fids =
+        new ConcurrentHashMap<String, ConcurrentHashMap<String, String>>();
+
+    /**
+     * the stripes guarding the entries
+     */
+    ReentrantLock[] stripes;
+
+    /**
+     * the expiry timer wheel, each slot holding the ids of the locks expiring at its ticks
+     */
+    Set<String>[] wheel;
+
+    /**
+     * last tick whose slot has been drained
+     */
+    long tick;
+
+    /**
+     * whether a thread is draining the wheel
+     */
+    AtomicBoolean expiring = new AtomicBoolean();
+
+    GeoServerResourceLoader loader;
+
+    boolean persistent;
+
+    /**
+     * whether the index changed since last saved
+     */
+    volatile boolean dirty;
+
+    volatile long lastSave = System.currentTimeMillis();
+
+    /**
+     * Creates an index which is not saved.
+     */
+    public FeatureLockIndex() {
+        this(null);
+    }
+
+    /**
+     * Creates an index which can be saved in the data directory.
+     */
+    public FeatureLockIndex(GeoServerResourceLoader loader) {
+        this.loader = loader;
+
+        stripes = new ReentrantLock[STRIPES];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        wheel = new Set[WHEEL_SIZE];
+        for (int i = 0; i < wheel.length; i++) {
+            wheel[i] = new HashSet<String>();
+        }
+        tick = System.currentTimeMillis() / TICK;
+    }
+
+    /**
+     * Sets whether the locks are saved in the data directory and acquired again on startup,
+     * false by default.
+     */
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Records that a feature is locked under the specified lock.
+     *
+     * @param lockId The lock authorization.
+     * @param dataStoreId The id of the data store holding the feature.
+     * @param typeName The qualified name of the feature type.
+     * @param fid The feature id.
+     * @param bounds The feature bounds, <code>null</code> or empty if the feature has no
+     * geometry.
+     * @param duration The lock duration in milliseconds, 0 meaning the lock never expires.
+     */
+    public void add(String lockId, String dataStoreId, QName typeName, String fid,
+            Envelope bounds, long duration) {
+        expire();
+
+        String type = typeKey(typeName);
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            Entry entry = locks.get(lockId);
+            if (entry == null) {
+                entry = new Entry(lockId, duration);
+                locks.put(lockId, entry);
+                entry.refresh();
+                schedule(entry);
+            }
+            entry.dataStoreIds.add(dataStoreId);
+            entry.add(type, fid, bounds);
+            fidIndex(type).put(fid, lockId);
+        } finally {
+            stripe.unlock();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Returns the ids of the data stores holding features under the specified lock, or an empty
+     * set if the lock is unknown or expired.
+     */
+    public Set<String> getDataStoreIds(String lockId) {
+        Entry entry = lookup(lockId);
+        if (entry == null) {
+            return new HashSet<String>();
+        }
+
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            return new HashSet<String>(entry.dataStoreIds);
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Returns the ids of the locks in the index.
+     */
+    public Set<String> getLockIds() {
+        expire();
+        return new HashSet<String>(locks.keySet());
+    }
+
+    /**
+     * Returns whether the specified lock is known and not expired.
+     */
+    public boolean contains(String lockId) {
+        return lookup(lockId) != null;
+    }
+
+    /**
+     * Returns the id of the lock holding the specified feature, or <code>null</code> if the
+     * feature is not locked.
+     */
+    public String getLockId(QName typeName, String fid) {
+        ConcurrentHashMap<String, String> index = fids.get(typeKey(typeName));
+        if (index == null) {
+            return null;
+        }
+        String lockId = index.get(fid);
+        if (lockId != null && lookup(lockId) == null) {
+            return null;
+        }
+        return lockId;
+    }
+
+    /**
+     * Returns whether a lock other than the specified one may hold features of the type
+     * within the envelope.
+     *
+     * @param authorization The lock held by the caller, may be <code>null</code>.
+     */
+    public boolean isLocked(QName typeName, Envelope envelope, String authorization) {
+        expire();
+
+        String type = typeKey(typeName);
+        for (Entry entry : locks.values()) {
+            if (entry.lockId.equals(authorization)) {
+                continue;
+            }
+
+            ReentrantLock stripe = stripe(entry.lockId);
+            stripe.lock();
+            try {
+                if (!entry.isExpired(System.currentTimeMillis())
+                        && entry.intersects(type, envelope)) {
+                    return true;
+                }
+            } finally {
+                stripe.unlock();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks that none of the specified features is locked under a lock other than the
+     * specified one.
+     *
+     * @param authorization The lock held by the caller, may be <code>null</code>.
+     * @throws FeatureLockException If one of the features is locked by another lock.
+     */
+    public void checkAccess(QName typeName, Collection<String> featureIds, String authorization)
+            throws FeatureLockException {
+        ConcurrentHashMap<String, String> index = fids.get(typeKey(typeName));
+        if (index == null || index.isEmpty()) {
+            return;
+        }
+
+        for (String fid : featureIds) {
+            String lockId = index.get(fid);
+            if (lockId != null && !lockId.equals(authorization) && lookup(lockId) != null) {
+                throw new FeatureLockException("Feature " + fid + " is locked", fid);
+            }
+        }
+    }
+
+    /**
+     * Removes the specified features from the lock, after they have been unlocked in the
+     * data store.
+     */
+    public void unlock(String lockId, QName typeName, Collection<String> featureIds) {
+        Entry entry = lookup(lockId);
+        if (entry == null) {
+            return;
+        }
+
+        String type = typeKey(typeName);
+        ConcurrentHashMap<String, String> index = fidIndex(type);
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            for (String fid : featureIds) {
+                entry.remove(type, fid);
+                index.remove(fid, lockId);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Restarts the expiry of the specified lock.
+     */
+    public void refresh(String lockId) {
+        Entry entry = lookup(lockId);
+        if (entry == null) {
+            return;
+        }
+
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            unschedule(entry);
+            entry.refresh();
+            schedule(entry);
+        } finally {
+            stripe.unlock();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Removes the specified lock from the index.
+     */
+    public void remove(String lockId) {
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            Entry entry = locks.remove(lockId);
+            if (entry != null) {
+                unschedule(entry);
+                dispose(entry);
+            }
+        } finally {
+            stripe.unlock();
+        }
+        dirty = true;
+    }
+
+    /**
+     * Removes all locks from the index.
+     */
+    public void clear() {
+        for (String lockId : new ArrayList<String>(locks.keySet())) {
+            remove(lockId);
+        }
+    }
+
+    /**
+     * The number of locks in the index, including those which expired since the last tick.
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    /**
+     * Acquires again the locks saved in the data directory.
+     */
+    public void initialize(GeoServer geoServer) throws Exception {
+        if (!persistent || loader == null) {
+            return;
+        }
+
+        File file = loader.find(LOCKS_FILE);
+        if (file == null) {
+            return;
+        }
+
+        try {
+            restore(read(file), geoServer.getCatalog());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not restore the WFS locks from " + file, e);
+        }
+        dirty = false;
+    }
+
+    /**
+     * Saves the locks in the data directory.
+     */
+    public void destroy() throws Exception {
+        if (persistent && loader != null) {
+            save();
+        }
+    }
+
+    Entry lookup(String lockId) {
+        if (lockId == null) {
+            return null;
+        }
+        expire();
+
+        Entry entry = locks.get(lockId);
+        long now = System.currentTimeMillis();
+        if (entry != null && entry.isExpired(now)) {
+            // expired since the last tick
+            expire(lockId, now);
+            return null;
+        }
+        return entry;
+    }
+
+    ReentrantLock stripe(String lockId) {
+        return stripes[(lockId.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    ConcurrentHashMap<String, String> fidIndex(String type) {
+        ConcurrentHashMap<String, String> index = fids.get(type);
+        if (index == null) {
+            index = new ConcurrentHashMap<String, String>();
+            ConcurrentHashMap<String, String> existing = fids.putIfAbsent(type, index);
+            if (existing != null) {
+                index = existing;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drops the features of a removed entry from the feature id index
+     */
+    void dispose(Entry entry) {
+        for (Map.Entry<String, Map<String, Envelope>> e : entry.features.entrySet()) {
+            ConcurrentHashMap<String, String> index = fids.get(e.getKey());
+            if (index != null) {
+                for (String fid : e.getValue().keySet()) {
+                    index.remove(fid, entry.lockId);
+                }
+            }
+        }
+    }
+
+    void schedule(Entry entry) {
+        if (entry.duration <= 0) {
+            return;
+        }
+        Set<String> slot = wheel[slot(entry.expiry / TICK)];
+        synchronized (slot) {
+            slot.add(entry.lockId);
+        }
+    }
+
+    void unschedule(Entry entry) {
+        if (entry.duration <= 0) {
+            return;
+        }
+        Set<String> slot = wheel[slot(entry.expiry / TICK)];
+        synchronized (slot) {
+            slot.remove(entry.lockId);
+        }
+    }
+
+    int slot(long tick) {
+        return (int) (tick % wheel.length);
+    }
+
+    /**
+     * Drains the slots of the ticks elapsed since last called, removing the locks which
+     * expired, and saves the index if needed.
+     */
+    void expire() {
+        long now = System.currentTimeMillis();
+        long current = now / TICK;
+        if (current <= tick || !expiring.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            // a whole turn visits every slot already
+            long from = Math.max(tick + 1, current - wheel.length + 1);
+            for (long t = from; t <= current; t++) {
+                List<String> expired = new ArrayList<String>();
+                Set<String> slot = wheel[slot(t)];
+                synchronized (slot) {
+                    for (Iterator<String> it = slot.iterator(); it.hasNext();) {
+                        Entry entry = locks.get(it.next());
+                        // entries expiring in a later turn stay in the slot
+                        if (entry == null || entry.expiry / TICK <= t) {
+                            it.remove();
+                            if (entry != null) {
+                                expired.add(entry.lockId);
+                            }
+                        }
+                    }
+                }
+                for (String lockId : expired) {
+                    expire(lockId, now);
+                }
+            }
+            tick = current;
+        } finally {
+            expiring.set(false);
+        }
+
+        if (dirty && persistent && loader != null && now - lastSave > SAVE_INTERVAL) {
+            try {
+                save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not save the WFS locks", e);
+            }
+        }
+    }
+
+    void expire(String lockId, long now) {
+        ReentrantLock stripe = stripe(lockId);
+        stripe.lock();
+        try {
+            Entry entry = locks.get(lockId);
+            if (entry == null) {
+                return;
+            }
+            if (entry.isExpired(now)) {
+                locks.remove(lockId);
+                dispose(entry);
+                dirty = true;
+            } else {
+                // refreshed in the meantime, or expiring later in the same tick
+                schedule(entry);
+            }
+        } finally {
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Writes the index in the data directory
+     */
+    synchronized void save() throws IOException {
+        dirty = false;
+        lastSave = System.currentTimeMillis();
+
+        File file = new File(loader.getBaseDirectory(), LOCKS_FILE);
+        File tmp = new File(loader.getBaseDirectory(), LOCKS_FILE + ".tmp");
+        BufferedWriter out = new BufferedWriter(new FileWriter(tmp));
+        try {
+            for (Entry entry : locks.values()) {
+                ReentrantLock stripe = stripe(entry.lockId);
+                stripe.lock();
+                try {
+                    entry.write(out);
+                } finally {
+                    stripe.unlock();
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace " + file);
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads the entries saved in the file.
+     * <p>
+     * The file holds one line per lock, store and feature:
+     * <pre>
+     * lock &lt;id> &lt;duration> &lt;expiry>
+     * store &lt;id>
+     * feature &lt;type name> &lt;fid> [&lt;minx> &lt;miny> &lt;maxx> &lt;maxy>]
+     * </pre>
+     * separated by tabs, the store and feature lines referring to the last lock line.
+     * </p>
+     */
+    List<Entry> read(File file) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            Entry entry = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] tokens = line.split("\t");
+                if ("lock".equals(tokens[0]) && tokens.length == 4) {
+                    entry = new Entry(tokens[1], Long.parseLong(tokens[2]));
+                    entry.expiry = Long.parseLong(tokens[3]);
+                    entries.add(entry);
+                } else if (entry != null && "store".equals(tokens[0]) && tokens.length == 2) {
+                    entry.dataStoreIds.add(tokens[1]);
+                } else if (entry != null && "feature".equals(tokens[0])) {
+                    Envelope bounds = null;
+                    if (tokens.length == 7) {
+                        bounds = new Envelope(Double.parseDouble(tokens[3]),
+                            Double.parseDouble(tokens[5]), Double.parseDouble(tokens[4]),
+                            Double.parseDouble(tokens[6]));
+                    }
+                    entry.add(tokens[1], tokens[2], bounds);
+                } else {
+                    LOGGER.warning("Skipping unrecognized line in " + file + ": " + line);
+                }
+            }
+        } catch (NumberFormatException e) {
+            throw (IOException) new IOException("Invalid lock file " + file).initCause(e);
+        } finally {
+            in.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Acquires again in the data stores the features of the entries which have not expired,
+     * and adds the entries to the index.
+     */
+    void restore(List<Entry> entries, Catalog catalog) {
+        FilterFactory ff = CommonFactoryFinder.getFilterFactory(null);
+        long now = System.currentTimeMillis();
+
+        for (Entry entry : entries) {
+            if (entry.isExpired(now)) {
+                continue;
+            }
+
+            // the lock keeps its expiry time, not its whole duration
+            final String lockId = entry.lockId;
+            final long remaining = entry.duration > 0 ? entry.expiry - now : 0;
+            FeatureLock lock = new FeatureLock() {
+                public String getAuthorization() {
+                    return lockId;
+                }
+
+                public long getDuration() {
+                    return remaining;
+                }
+            };
+
+            for (Map.Entry<String, Map<String, Envelope>> e : entry.features.entrySet()) {
+                QName typeName = QName.valueOf(e.getKey());
+                FeatureTypeInfo info = catalog.getFeatureTypeByName(typeName.getNamespaceURI(),
+                        typeName.getLocalPart());
+                if (info == null) {
+                    LOGGER.warning("Could not restore the lock " + lockId + " on " + typeName
+                            + ", the feature type does not exist anymore");
+                    continue;
+                }
+
+                try {
+                    FeatureSource<? extends FeatureType, ? extends Feature> source =
+                        info.getFeatureSource(null, null);
+                    if (!(source instanceof FeatureLocking)) {
+                        continue;
+                    }
+
+                    Set ids = new HashSet();
+                    for (String fid : e.getValue().keySet()) {
+                        ids.add(ff.featureId(fid));
+                    }
+                    FeatureLocking locking = (FeatureLocking) source;
+                    locking.setFeatureLock(lock);
+                    int locked = locking.lockFeatures(ff.id(ids));
+                    if (locked < ids.size()) {
+                        LOGGER.warning("Could restore only " + locked + " out of " + ids.size()
+                                + " locked features of " + typeName + " for the lock "
+                                + lockId);
+                    }
+                } catch (IOException ex) {
+                    LOGGER.log(Level.WARNING, "Could not restore the lock " + lockId + " on "
+                            + typeName, ex);
+                }
+            }
+
+            ReentrantLock stripe = stripe(lockId);
+            stripe.lock();
+            try {
+                locks.put(lockId, entry);
+                for (Map.Entry<String, Map<String, Envelope>> e : entry.features.entrySet()) {
+                    ConcurrentHashMap<String, String> index = fidIndex(e.getKey());
+                    for (String fid : e.getValue().keySet()) {
+                        index.put(fid, lockId);
+                    }
+                }
+                schedule(entry);
+            } finally {
+                stripe.unlock();
+            }
+        }
+    }
+
+    static String typeKey(QName typeName) {
+        return "{" + (typeName.getNamespaceURI() == null ? "" : typeName.getNamespaceURI())
+                + "}" + typeName.getLocalPart();
+    }
+
+    /**
+     * A lock tracked by the index, guarded by the stripe of its id.
+     */
+    static class Entry {
+
+        String lockId;
+
+        /** lock duration, 0 meaning no expiry */
+        long duration;
+
+        /** time at which the lock expires */
+        volatile long expiry;
+
+        /** stores holding locked features */
+        Set<String> dataStoreIds = new HashSet<String>();
+
+        /** type name to locked feature id to bounds */
+        Map<String, Map<String, Envelope>> features = new HashMap<String, Map<String, Envelope>>();
+
+        /** type name to spatial index of the locked feature bounds */
+        Map<String, Quadtree> spatialIndex = new HashMap<String, Quadtree>();
+
+        /** type names with locked features having no geometry */
+        Set<String> unbounded = new HashSet<String>();
+
+        Entry(String lockId, long duration) {
+            this.lockId = lockId;
+            this.duration = duration;
+        }
+
+        void refresh() {
+            if (duration > 0) {
+                expiry = System.currentTimeMillis() + duration;
+            }
+        }
+
+        boolean isExpired(long now) {
+            return duration > 0 && now > expiry;
+        }
+
+        void add(String type, String fid, Envelope bounds) {
+            Map<String, Envelope> typeFeatures = features.get(type);
+            if (typeFeatures == null) {
+                typeFeatures = new HashMap<String, Envelope>();
+                features.put(type, typeFeatures);
+            }
+            if (typeFeatures.containsKey(fid)) {
+                return;
+            }
+            typeFeatures.put(fid, bounds);
+
+            if (bounds == null || bounds.isNull()) {
+                unbounded.add(type);
+            } else {
+                Quadtree tree = spatialIndex.get(type);
+                if (tree == null) {
+                    tree = new Quadtree();
+                    spatialIndex.put(type, tree);
+                }
+                tree.insert(bounds, new LockedFeature(fid, bounds));
+            }
+        }
+
+        void remove(String type, String fid) {
+            Map<String, Envelope> typeFeatures = features.get(type);
+            if (typeFeatures == null || !typeFeatures.containsKey(fid)) {
+                return;
+            }
+            Envelope bounds = typeFeatures.remove(fid);
+            if (bounds != null && !bounds.isNull()) {
+                spatialIndex.get(type).remove(bounds, new LockedFeature(fid, bounds));
+            }
+        }
+
+        /**
+         * Whether features of the type locked by this entry may lie in the envelope, always
+         * true if some of them have no geometry
+         */
+        boolean intersects(String type, Envelope envelope) {
+            Map<String, Envelope> typeFeatures = features.get(type);
+            if (typeFeatures == null || typeFeatures.isEmpty()) {
+                return false;
+            }
+            if (unbounded.contains(type)) {
+                return true;
+            }
+
+            Quadtree tree = spatialIndex.get(type);
+            for (Object candidate : tree.query(envelope)) {
+                if (((LockedFeature) candidate).bounds.intersects(envelope)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void write(BufferedWriter out) throws IOException {
+            out.write("lock\t" + lockId + "\t" + duration + "\t" + expiry);
+            out.newLine();
+            for (String id : dataStoreIds) {
+                out.write("store\t" + id);
+                out.newLine();
+            }
+            for (Map.Entry<String, Map<String, Envelope>> e : features.entrySet()) {
+                for (Map.Entry<String, Envelope> f : e.getValue().entrySet()) {
+                    out.write("feature\t" + e.getKey() + "\t" + f.getKey());
+                    Envelope b = f.getValue();
+                    if (b != null && !b.isNull()) {
+                        out.write("\t" + b.getMinX() + "\t" + b.getMinY() + "\t" + b.getMaxX()
+                                + "\t" + b.getMaxY());
+                    }
+                    out.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * A feature in the spatial index of a lock
+     */
+    static class LockedFeature {
+        String fid;
+
+        Envelope bounds;
+
+        LockedFeature(String fid, Envelope bounds) {
+            this.fid = fid;
+            this.bounds = bounds;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof LockedFeature && fid.equals(((LockedFeature) obj).fid);
+        }
+
+        @Override
+        public int hashCode() {
+            return fid.hashCode();
+        }
+    }
+}
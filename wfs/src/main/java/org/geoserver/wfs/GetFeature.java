@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.xml.namespace.QName;
@@ -25,6 +26,7 @@ import net.opengis.wfs.QueryType;
 import net.opengis.wfs.WfsFactory;
 import net.opengis.wfs.XlinkPropertyNameType;
 
+import org.geoserver.catalog.AttributeTypeIndex;
 import org.geoserver.catalog.AttributeTypeInfo;
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.FeatureTypeInfo;
@@ -169,11 +171,7 @@ public class GetFeature {
 
                 FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
 
-                List<AttributeTypeInfo> atts = meta.attributes();
-                List attNames = new ArrayList( atts.size() );
-                for ( AttributeTypeInfo att : atts ) {
-                    attNames.add( att.getName() );
-                }
+                AttributeTypeIndex index = catalog.getResourcePool().getAttributeIndex(meta);
 
                 //make sure property names are cool
                 List propNames = query.getPropertyName();
@@ -181,15 +179,15 @@ public class GetFeature {
                 for (Iterator iter = propNames.iterator(); iter.hasNext();) {
                     String propName = (String) iter.next();
 
-                    //HACK: strip off namespace
-                    if (propName.indexOf(':') != -1) {
-                        propName = propName.substring(propName.indexOf(':') + 1);
-                    }
+                    if (index.get(propName) == null) {
+                        //HACK: strip off namespace
+                        if (propName.indexOf(':') != -1) {
+                            propName = propName.substring(propName.indexOf(':') + 1);
+                        }
 
-                    if (!attNames.contains(propName)) {
                         String mesg = "Requested property: " + propName + " is " + "not available "
                             + "for " + query.getTypeName() + ".  " + "The possible propertyName "
-                            + "values are: " + attNames;
+                            + "values are: " + index.getNames();
 
                         throw new WFSException(mesg);
                     }
@@ -200,36 +198,21 @@ public class GetFeature {
                 List extraGeometries = new ArrayList();
                 List properties = new ArrayList();
                 if (propNames.size() != 0) {
-                    Iterator ii = atts.iterator();
-
-                    while (ii.hasNext()) {
-                        AttributeTypeInfo ati = (AttributeTypeInfo) ii.next();
-                        LOGGER.finer("checking to see if " + propNames + " contains" + ati);
-
-                        if (((ati.getMinOccurs() > 0) && (ati.getMaxOccurs() != 0))) {
-                            //mandatory, add it
-                            properties.add(ati.getName());
-
-                            continue;
-                        }
-
-                        //check if it was requested
-                        for (Iterator p = propNames.iterator(); p.hasNext();) {
-                            String propName = (String) p.next();
+                    Set requested = index.resolve(propNames);
+                    
+                    for (AttributeTypeInfo ati : index.getAttributes()) {
+                        String name = ati.getName();
 
-                            if (propName.matches("(\\w+:)?" + ati.getName())) {
-                                properties.add(ati.getName());
-                                break;
-                            }
+                        if (index.isMandatory(name) || requested.contains(name)) {
+                            //mandatory or requested, add it
+                            properties.add(name);
                         }
-                        
-                        // if we need to force feature bounds computation, we have to load 
-                        // all of the geometries, but we'll have to remove them in the 
-                        // returned feature type
-                        if(wfs.isFeatureBounding() && meta.getFeatureType().getDescriptor(ati.getName()) instanceof GeometryDescriptor
-                                && !properties.contains(ati.getName())) {
-                            properties.add(ati.getName());
-                            extraGeometries.add(ati.getName());
+                        else if (wfs.isFeatureBounding() && index.isGeometry(name)) {
+                            // if we need to force feature bounds computation, we have to load 
+                            // all of the geometries, but we'll have to remove them in the 
+                            // returned feature type
+                            properties.add(name);
+                            extraGeometries.add(name);
                         }
                     }
 
@@ -19,6 +19,7 @@ import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.referencing.operation.projection.PointOutsideEnvelopeException;
+import org.geotools.util.Converters;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.opengis.feature.type.AttributeDescriptor;
@@ -35,6 +36,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -54,6 +56,18 @@ public class InsertElementHandler implements TransactionElementHandler {
      * logger
      */
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
+    
+    /**
+     * Key of the wfs metadata entry controlling the size of the batches inserted features are 
+     * written out in
+     */
+    public static final String INSERT_BATCH_SIZE = "insertBatchSize";
+    
+    /**
+     * Default insert batch size
+     */
+    public static final int INSERT_BATCH_SIZE_DEFAULT = 1000;
+    
     private WFSInfo wfs;
     private FilterFactory filterFactory;
 
@@ -79,8 +93,18 @@ public class InsertElementHandler implements TransactionElementHandler {
         long inserted = response.getTransactionSummary().getTotalInserted().longValue();
 
         try {
-            // group features by their schema
-            HashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new HashMap();
+            // group features by their schema, writing them out in batches so that the store
+            // does not have to digest the whole insert in one go
+            final int batchSize = getBatchSize(wfs);
+            LinkedHashMap /* <SimpleFeatureType,FeatureCollection> */ schema2features = new LinkedHashMap();
+
+            // JD: change from set fo list because if inserting
+            // features into different feature stores, they could very well
+            // get given the same id
+            // JD: change from list to map so that the map can later be
+            // processed and we can report the fids back in the same order
+            // as they were supplied
+            HashMap schema2fids = new HashMap();
 
             for (Iterator f = insert.getFeature().iterator(); f.hasNext();) {
                 SimpleFeature feature = (SimpleFeature) f.next();
@@ -94,88 +118,17 @@ public class InsertElementHandler implements TransactionElementHandler {
                 }
 
                 collection.add(feature);
+                
+                if (batchSize > 0 && collection.size() >= batchSize) {
+                    insert(collection, insert, featureStores, schema2fids, listener);
+                    schema2features.remove(schema);
+                }
             }
 
-            // JD: change from set fo list because if inserting
-            // features into different feature stores, they could very well
-            // get given the same id
-            // JD: change from list to map so that the map can later be
-            // processed and we can report the fids back in the same order
-            // as they were supplied
-            HashMap schema2fids = new HashMap();
-
+            // write out whatever is left over
             for (Iterator c = schema2features.values().iterator(); c.hasNext();) {
                 FeatureCollection<SimpleFeatureType, SimpleFeature> collection = (FeatureCollection) c.next();
-                SimpleFeatureType schema = collection.getSchema();
-
-                final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
-                FeatureStore<SimpleFeatureType, SimpleFeature> store;
-                store = (FeatureStore<SimpleFeatureType, SimpleFeature>) featureStores.get(elementName);
-
-                if (store == null) {
-                    throw new WFSException("Could not locate FeatureStore for '" + elementName
-                        + "'");
-                }
-
-                if (collection != null) {
-                    // if we really need to, make sure we are inserting coordinates that do
-                    // match the CRS area of validity
-                    if(wfs.isCiteCompliant()) {
-                        checkFeatureCoordinatesRange(collection);
-                    }
-                    
-                    // reprojection
-                    final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
-                    if(defaultGeometry != null) {
-                        CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
-                        if (target != null) {
-                            collection = new ReprojectingFeatureCollection(collection, target);
-                        }
-                    }
-                    
-                    // Need to use the namespace here for the
-                    // lookup, due to our weird
-                    // prefixed internal typenames. see
-                    // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
-
-                    // Once we get our datastores making features
-                    // with the correct namespaces
-                    // we can do something like this:
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.getFeatureTypeInfo(schema.getTypeName(),
-                    // schema.getNamespace());
-                    // until then (when geos-144 is resolved) we're
-                    // stuck with:
-                    // QName qName = (QName) typeNames.get( i );
-                    // FeatureTypeInfo typeInfo =
-                    // catalog.featureType( qName.getPrefix(),
-                    // qName.getLocalPart() );
-
-                    // this is possible with the insert hack above.
-                    LOGGER.finer("Use featureValidation to check contents of insert");
-
-                    // featureValidation(
-                    // typeInfo.getDataStore().getId(), schema,
-                    // collection );
-                    List fids = (List) schema2fids.get(schema.getTypeName());
-
-                    if (fids == null) {
-                        fids = new LinkedList();
-                        schema2fids.put(schema.getTypeName(), fids);
-                    }
-
-                    //fire pre insert event
-                    TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
-                            elementName, collection);
-                    event.setSource( insert );
-                    
-                    listener.dataStoreChange( event );
-                    fids.addAll(store.addFeatures(collection));
-                    
-                    //fire post insert event
-                    //event = new TransactionEvent(TransactionEventType.POST_INSERT, elementName, collection, insert );
-                    //listener.dataStoreChange( event );
-                }
+                insert(collection, insert, featureStores, schema2fids, listener);
             }
 
             // report back fids, we need to keep the same order the
@@ -209,6 +162,92 @@ public class InsertElementHandler implements TransactionElementHandler {
     }
 
     
+    /**
+     * Returns the maximum number of features handed to a feature store in a single 
+     * {@link FeatureStore#addFeatures(FeatureCollection)} call, a value of zero or less means
+     * all the features of a type in an insert element are written in one go.
+     */
+    public static int getBatchSize(WFSInfo wfs) {
+        Integer batchSize = Converters.convert(wfs.getMetadata().get(INSERT_BATCH_SIZE), Integer.class);
+        return batchSize != null ? batchSize.intValue() : INSERT_BATCH_SIZE_DEFAULT;
+    }
+    
+    /**
+     * Writes out a batch of features sharing the same schema, recording the generated fids
+     * in <tt>schema2fids</tt>.
+     */
+    void insert(FeatureCollection<SimpleFeatureType, SimpleFeature> collection, InsertElementType insert,
+        Map featureStores, Map schema2fids, TransactionListener listener) throws Exception {
+        SimpleFeatureType schema = collection.getSchema();
+
+        final QName elementName = new QName(schema.getName().getNamespaceURI(), schema.getTypeName());
+        FeatureStore<SimpleFeatureType, SimpleFeature> store;
+        store = (FeatureStore<SimpleFeatureType, SimpleFeature>) featureStores.get(elementName);
+
+        if (store == null) {
+            throw new WFSException("Could not locate FeatureStore for '" + elementName
+                + "'");
+        }
+        
+        // if we really need to, make sure we are inserting coordinates that do
+        // match the CRS area of validity
+        if(wfs.isCiteCompliant()) {
+            checkFeatureCoordinatesRange(collection);
+        }
+        
+        // reprojection
+        final GeometryDescriptor defaultGeometry = store.getSchema().getGeometryDescriptor();
+        if(defaultGeometry != null) {
+            CoordinateReferenceSystem target = defaultGeometry.getCoordinateReferenceSystem();
+            if (target != null) {
+                collection = new ReprojectingFeatureCollection(collection, target);
+            }
+        }
+        
+        // Need to use the namespace here for the
+        // lookup, due to our weird
+        // prefixed internal typenames. see
+        // http://jira.codehaus.org/secure/ViewIssue.jspa?key=GEOS-143
+
+        // Once we get our datastores making features
+        // with the correct namespaces
+        // we can do something like this:
+        // FeatureTypeInfo typeInfo =
+        // catalog.getFeatureTypeInfo(schema.getTypeName(),
+        // schema.getNamespace());
+        // until then (when geos-144 is resolved) we're
+        // stuck with:
+        // QName qName = (QName) typeNames.get( i );
+        // FeatureTypeInfo typeInfo =
+        // catalog.featureType( qName.getPrefix(),
+        // qName.getLocalPart() );
+
+        // this is possible with the insert hack above.
+        LOGGER.finer("Use featureValidation to check contents of insert");
+
+        // featureValidation(
+        // typeInfo.getDataStore().getId(), schema,
+        // collection );
+        List fids = (List) schema2fids.get(schema.getTypeName());
+
+        if (fids == null) {
+            fids = new LinkedList();
+            schema2fids.put(schema.getTypeName(), fids);
+        }
+
+        //fire pre insert event
+        TransactionEvent event = new TransactionEvent(TransactionEventType.PRE_INSERT,
+                elementName, collection);
+        event.setSource( insert );
+        
+        listener.dataStoreChange( event );
+        fids.addAll(store.addFeatures(collection));
+        
+        //fire post insert event
+        //event = new TransactionEvent(TransactionEventType.POST_INSERT, elementName, collection, insert );
+        //listener.dataStoreChange( event );
+    }
+    
     /**
      * Checks that all features coordinates are within the expected coordinate range
      * @param collection
@@ -6,6 +6,7 @@ package org.geoserver.wfs;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -25,6 +26,7 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataStoreInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.data.DataAccess;
 import org.geotools.data.DataStore;
 import org.geotools.data.DefaultQuery;
@@ -45,8 +47,11 @@ import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory;
 import org.opengis.filter.Id;
 import org.opengis.filter.identity.FeatureId;
+import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
+import com.vividsolutions.jts.geom.Envelope;
+
 /**
  * Web Feature Service 1.0 LockFeature Operation.
  *
@@ -74,6 +79,11 @@ public class LockFeature {
      */
     FilterFactory filterFactory;
 
+    /**
+     * Index of the locks handed out, may be <code>null</code>
+     */
+    FeatureLockIndex lockIndex;
+
     /**
      *
      * @param wfs
@@ -87,12 +97,21 @@ public class LockFeature {
         this.wfs = wfs;
         this.catalog = catalog;
         this.filterFactory = filterFactory;
+        this.lockIndex = GeoServerExtensions.bean(FeatureLockIndex.class);
     }
 
     public void setFilterFactory(FilterFactory filterFactory) {
         this.filterFactory = filterFactory;
     }
 
+    /**
+     * Sets the index used to track which data stores hold features for a lock. When not set
+     * all the data stores in the catalog are visited to release, refresh or look up a lock.
+     */
+    public void setLockIndex(FeatureLockIndex lockIndex) {
+        this.lockIndex = lockIndex;
+    }
+
     /**
      * Locks features according to the request.
      *
@@ -178,6 +197,7 @@ public class LockFeature {
 
                 Iterator reader = null;
                 int numberLocked = -1;
+                boolean locked = false;
 
                 try {
                     for (reader = features.iterator(); reader.hasNext();) {
@@ -207,6 +227,17 @@ public class LockFeature {
                             numberLocked = ((FeatureLocking<SimpleFeatureType, SimpleFeature>) source)
                                     .lockFeatures(query);
 
+                            if (numberLocked > 0) {
+                                // record the feature straight away so that the locks get
+                                // released should something go wrong
+                                locked = true;
+                                if (lockIndex != null) {
+                                    lockIndex.add(fLock.getAuthorization(), 
+                                        meta.getStore().getId(), typeName, feature.getID(),
+                                        bounds(feature), fLock.getDuration());
+                                }
+                            }
+
                             if (numberLocked == 1) {
                                 LOGGER.fine("Lock " + fid + " (authID:" + fLock.getAuthorization()
                                     + ")");
@@ -241,7 +272,7 @@ public class LockFeature {
                 // to the spec when it says the expiry should start when the
                 // lock
                 // feature response has been totally written
-                if (numberLocked > 0) {
+                if (locked) {
                     Transaction t = new DefaultTransaction();
 
                     try {
@@ -261,6 +292,10 @@ public class LockFeature {
                             throw new WFSException(e);
                         }
                     }
+
+                    if (lockIndex != null) {
+                        lockIndex.refresh(response.getLockId());
+                    }
                 }
             }
 
@@ -309,7 +344,7 @@ public class LockFeature {
         try {
             boolean refresh = false;
 
-            List dataStores = catalog.getDataStores();
+            List dataStores = lockedDataStores(lockId);
 
             for (Iterator i = dataStores.iterator(); i.hasNext();) {
                 DataStoreInfo meta = (DataStoreInfo) i.next();
@@ -353,6 +388,10 @@ public class LockFeature {
                 }
             }
 
+            if (lockIndex != null) {
+                lockIndex.remove(lockId);
+            }
+
             if (!refresh) {
                 // throw exception? or ignore...
             }
@@ -400,6 +439,14 @@ public class LockFeature {
                 // TODO: implement LockingManger.releaseAll()
                 // count += lockingManager.releaseAll();
             }
+
+            // the locks known to the index can be released one by one
+            if (lockIndex != null) {
+                for (String lockId : lockIndex.getLockIds()) {
+                    release(lockId);
+                }
+                lockIndex.clear();
+            }
         } catch (Exception e) {
             throw new WFSException(e);
         }
@@ -407,7 +454,7 @@ public class LockFeature {
 
     public boolean exists(String lockId) throws WFSException {
         try {
-            List dataStores = catalog.getDataStores();
+            List dataStores = lockedDataStores(lockId);
 
             for (Iterator i = dataStores.iterator(); i.hasNext();) {
                 DataStoreInfo meta = (DataStoreInfo) i.next();
@@ -446,7 +493,7 @@ public class LockFeature {
         try {
             boolean refresh = false;
 
-            List dataStores = catalog.getDataStores();
+            List dataStores = lockedDataStores(lockId);
 
             for (Iterator i = dataStores.iterator(); i.hasNext();) {
                 DataStoreInfo meta = (DataStoreInfo) i.next();
@@ -490,14 +537,46 @@ public class LockFeature {
                 }
             }
 
-            if (!refresh) {
-                // throw exception? or ignore...
+            if (refresh && lockIndex != null) {
+                lockIndex.refresh(lockId);
             }
         } catch (Exception e) {
             throw new WFSException(e);
         }
     }
 
+    /**
+     * Returns the data stores which may hold features locked under the specified lock, that is
+     * those recorded in the lock index, or all the data stores of the catalog when there is no
+     * index.
+     */
+    List lockedDataStores(String lockId) {
+        if (lockIndex == null) {
+            return catalog.getDataStores();
+        }
+
+        List dataStores = new ArrayList();
+        for (String id : lockIndex.getDataStoreIds(lockId)) {
+            DataStoreInfo meta = catalog.getDataStore(id);
+            if (meta != null) {
+                dataStores.add(meta);
+            }
+        }
+        return dataStores;
+    }
+
+    /**
+     * The bounds of the feature, or <code>null</code> if it has no geometry
+     */
+    Envelope bounds(SimpleFeature feature) {
+        BoundingBox bounds = feature.getBounds();
+        if (bounds == null || bounds.isEmpty()) {
+            return null;
+        }
+        return new Envelope(bounds.getMinX(), bounds.getMaxX(), bounds.getMinY(),
+            bounds.getMaxY());
+    }
+
     private FeatureId fid(String fid) {
         return filterFactory.featureId(fid);
     }
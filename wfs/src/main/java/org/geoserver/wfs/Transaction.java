@@ -36,6 +36,8 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
+import org.geoserver.wfs.xml.StreamingTransactionReader;
+import org.geoserver.wfs.xml.StreamingTransactionType;
 import org.geotools.data.DefaultTransaction;
 import org.geotools.data.FeatureSource;
 import org.geotools.data.FeatureStore;
@@ -166,7 +168,7 @@ public class Transaction {
         }
 
         // setup the transaction listener multiplexer
-        TransactionListenerMux multiplexer = new TransactionListenerMux();
+        final TransactionListenerMux multiplexer = new TransactionListenerMux();
 
         // the geotools transaction
         transaction = getDatastoreTransaction(request);
@@ -176,140 +178,37 @@ public class Transaction {
         // gathering all the FeatureSources we need
         //
         // Map of required FeatureStores by typeName
-        Map stores = new HashMap();
-
-        // Map of required FeatureStores by typeRef (dataStoreId:typeName)
-        // (This will be added to the contents are harmed)
-        Map stores2 = new HashMap();
+        final Map stores = new HashMap();
 
         // List of type names, maintain this list because of the insert hack
         // described below
         // List typeNames = new ArrayList();
-        Map elementHandlers = gatherElementHandlers(request.getGroup());
-
-        // Gather feature types required by transaction elements and validate
-        // the elements
-        // finally gather FeatureStores required by Transaction Elements
-        // and configure them with our transaction
-        //
-        // (I am using element rather than transaction sub request
-        // to agree with the spec docs)
-        for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-            Map.Entry entry = (Map.Entry) it.next();
-            EObject element = (EObject) entry.getKey();
-            TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-            Map featureTypeInfos = new HashMap();
-
-            QName[] typeNames = handler.getTypeNames(element);
-
-            for (int i = 0; i < typeNames.length; i++) {
-                final QName typeName = typeNames[i];
-                final String name = typeName.getLocalPart();
-                final String namespaceURI;
-
-                if (typeName.getNamespaceURI() != null) {
-                    namespaceURI = typeName.getNamespaceURI();
-                } else {
-                    namespaceURI = catalog.getDefaultNamespace().getURI();
-                }
-
-                LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
-
-                final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
-
-                if (meta == null) {
-                    String msg = "Feature type '" + name + "' is not available: ";
-                    String handle = (String) EMFUtils.get(element, "handle");
-                    throw new WFSTransactionException(msg, (String) null, handle);
-                }
-
-                featureTypeInfos.put(typeName, meta);
-            }
-
-            // check element validity
-            handler.checkValidity(element, featureTypeInfos);
-
-            // go through all feature type infos data objects, and load feature
-            // stores
-            for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
-                FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
-                String typeRef = meta.getStore().getName() + ":" + meta.getName();
-
-                String URI = meta.getNamespace().getURI();
-                QName elementName = new QName(URI, meta.getName(),
-                        meta.getNamespace().getPrefix());
-                QName elementNameDefault = null;
-
-                if (catalog.getDefaultNamespace().getURI().equals(URI)) {
-                    elementNameDefault = new QName(meta.getName());
-                }
-
-                LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
-                    + elementName + "'");
-
-                if (stores.containsKey(elementName)) {
-                    // typeName already loaded
-                    continue;
-                }
-
-                try {
-                    FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
-
-                    if (source instanceof FeatureStore) {
-                        FeatureStore<? extends FeatureType, ? extends Feature> store;
-                        store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
-                        store.setTransaction(transaction);
-                        stores.put(elementName, source);
-
-                        if (elementNameDefault != null) {
-                            stores.put(elementNameDefault, source);
-                        }
-
-                        stores2.put(typeRef, source);
-                    } else {
-                        String msg = elementName + " is read-only";
-                        String handle = (String) EMFUtils.get(element, "handle");
-
-                        throw new WFSTransactionException(msg, (String) null, handle);
-                    }
-                } catch (IOException ioException) {
-                    String msg = elementName + " is not available: "
-                        + ioException.getLocalizedMessage();
-                    String handle = (String) EMFUtils.get(element, "handle");
-                    throw new WFSTransactionException(msg, ioException, handle);
-                }
-            }
-        }
-
-        // provide authorization for transaction
-        // 
-        String authorizationID = request.getLockId();
-
-        if (authorizationID != null) {
-            if (!wfs.getServiceLevel().getOps().contains( WFSInfo.Operation.LOCKFEATURE)) {
-                throw new WFSException("Lock support is not enabled");
-            }
-
-            LOGGER.finer("got lockId: " + authorizationID);
-
-            if (!lockExists(authorizationID)) {
-                String mesg = "Attempting to use a lockID that does not exist"
-                    + ", it has either expired or was entered wrong.";
-                throw new WFSException(mesg, "InvalidParameterValue");
-            }
-
-            try {
-                transaction.addAuthorization(authorizationID);
-            } catch (IOException ioException) {
-                // This is a real failure - not associated with a element
-                //
-                throw new WFSException("Authorization ID '" + authorizationID + "' not useable",
-                    ioException);
+        Map elementHandlers = null;
+        
+        if (!(request instanceof StreamingTransactionType)) {
+            elementHandlers = gatherElementHandlers(request.getGroup());
+    
+            // Gather feature types required by transaction elements and validate
+            // the elements
+            // finally gather FeatureStores required by Transaction Elements
+            // and configure them with our transaction
+            //
+            // (I am using element rather than transaction sub request
+            // to agree with the spec docs)
+            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
+                Map.Entry entry = (Map.Entry) it.next();
+                EObject element = (EObject) entry.getKey();
+                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
+                
+                gatherFeatureStores(element, handler, stores);
             }
+    
+            // provide authorization for transaction
+            authorize(request);
         }
 
         // result
-        TransactionResponseType result = WfsFactory.eINSTANCE.createTransactionResponseType();
+        final TransactionResponseType result = WfsFactory.eINSTANCE.createTransactionResponseType();
         result.setTransactionResults(WfsFactory.eINSTANCE.createTransactionResultsType());
         result.getTransactionResults().setHandle(request.getHandle());
         result.setTransactionSummary(WfsFactory.eINSTANCE.createTransactionSummaryType());
@@ -326,12 +225,34 @@ public class Transaction {
         boolean exception = false;
 
         try {
-            for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
-                Map.Entry entry = (Map.Entry) it.next();
-                EObject element = (EObject) entry.getKey();
-                TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
-
-                handler.execute(element, request, stores, result, multiplexer);
+            if (request instanceof StreamingTransactionType) {
+                // elements are parsed as we go, so they are validated and executed one at a
+                // time, authorization happening once the lock id has been read
+                final TransactionType streaming = request;
+                ((StreamingTransactionType) request).read(new StreamingTransactionReader.Callback() {
+                    boolean authorized = false;
+                    
+                    public void element(EObject element) throws Exception {
+                        TransactionElementHandler handler = findElementHandler(element.getClass());
+                        gatherFeatureStores(element, handler, stores);
+                        
+                        if (!authorized) {
+                            authorize(streaming);
+                            authorized = true;
+                        }
+                        
+                        handler.execute(element, streaming, stores, result, multiplexer);
+                    }
+                });
+            } 
+            else {
+                for (Iterator it = elementHandlers.entrySet().iterator(); it.hasNext();) {
+                    Map.Entry entry = (Map.Entry) it.next();
+                    EObject element = (EObject) entry.getKey();
+                    TransactionElementHandler handler = (TransactionElementHandler) entry.getValue();
+    
+                    handler.execute(element, request, stores, result, multiplexer);
+                }
             }
         } catch (WFSTransactionException e) {
             exception = true;
@@ -447,6 +368,124 @@ public class Transaction {
         // response = build;
     }
 
+    /**
+     * Gathers the feature types required by a transaction element, validates the element, 
+     * and loads the feature stores required by it into <tt>stores</tt>, configuring them
+     * with our transaction.
+     */
+    void gatherFeatureStores(EObject element, TransactionElementHandler handler, Map stores) 
+        throws WFSTransactionException {
+        Map featureTypeInfos = new HashMap();
+
+        QName[] typeNames = handler.getTypeNames(element);
+
+        for (int i = 0; i < typeNames.length; i++) {
+            final QName typeName = typeNames[i];
+            final String name = typeName.getLocalPart();
+            final String namespaceURI;
+
+            if (typeName.getNamespaceURI() != null) {
+                namespaceURI = typeName.getNamespaceURI();
+            } else {
+                namespaceURI = catalog.getDefaultNamespace().getURI();
+            }
+
+            LOGGER.fine("Locating FeatureSource uri:'" + namespaceURI + "' name:'" + name + "'");
+
+            final FeatureTypeInfo meta = catalog.getFeatureTypeByName(namespaceURI, name);
+
+            if (meta == null) {
+                String msg = "Feature type '" + name + "' is not available: ";
+                String handle = (String) EMFUtils.get(element, "handle");
+                throw new WFSTransactionException(msg, (String) null, handle);
+            }
+
+            featureTypeInfos.put(typeName, meta);
+        }
+
+        // check element validity
+        handler.checkValidity(element, featureTypeInfos);
+
+        // go through all feature type infos data objects, and load feature
+        // stores
+        for (Iterator m = featureTypeInfos.values().iterator(); m.hasNext();) {
+            FeatureTypeInfo meta = (FeatureTypeInfo) m.next();
+            String typeRef = meta.getStore().getName() + ":" + meta.getName();
+
+            String URI = meta.getNamespace().getURI();
+            QName elementName = new QName(URI, meta.getName(),
+                    meta.getNamespace().getPrefix());
+            QName elementNameDefault = null;
+
+            if (catalog.getDefaultNamespace().getURI().equals(URI)) {
+                elementNameDefault = new QName(meta.getName());
+            }
+
+            LOGGER.fine("located FeatureType w/ typeRef '" + typeRef + "' and elementName '"
+                + elementName + "'");
+
+            if (stores.containsKey(elementName)) {
+                // typeName already loaded
+                continue;
+            }
+
+            try {
+                FeatureSource<? extends FeatureType, ? extends Feature> source = meta.getFeatureSource(null,null);
+
+                if (source instanceof FeatureStore) {
+                    FeatureStore<? extends FeatureType, ? extends Feature> store;
+                    store = (FeatureStore<? extends FeatureType, ? extends Feature>) source;
+                    store.setTransaction(transaction);
+                    stores.put(elementName, source);
+
+                    if (elementNameDefault != null) {
+                        stores.put(elementNameDefault, source);
+                    }
+                } else {
+                    String msg = elementName + " is read-only";
+                    String handle = (String) EMFUtils.get(element, "handle");
+
+                    throw new WFSTransactionException(msg, (String) null, handle);
+                }
+            } catch (IOException ioException) {
+                String msg = elementName + " is not available: "
+                    + ioException.getLocalizedMessage();
+                String handle = (String) EMFUtils.get(element, "handle");
+                throw new WFSTransactionException(msg, ioException, handle);
+            }
+        }
+    }
+
+    /**
+     * Provides authorization for the transaction, based on the lock id of the request.
+     */
+    void authorize(TransactionType request) throws Exception {
+        String authorizationID = request.getLockId();
+
+        if (authorizationID != null) {
+            if (!wfs.getServiceLevel().getOps().contains( WFSInfo.Operation.LOCKFEATURE)) {
+                throw new WFSException("Lock support is not enabled");
+            }
+
+            LOGGER.finer("got lockId: " + authorizationID);
+
+            if (!lockExists(authorizationID)) {
+                String mesg = "Attempting to use a lockID that does not exist"
+                    + ", it has either expired or was entered wrong.";
+                throw new WFSException(mesg, "InvalidParameterValue");
+            }
+
+            try {
+                transaction.addAuthorization(authorizationID);
+            } catch (IOException ioException) {
+                // This is a real failure - not associated with a element
+                //
+                throw new WFSException("Authorization ID '" + authorizationID + "' not useable",
+                    ioException);
+            }
+        }
+    }
+
     /**
      * Looks up the element handlers to be used for each element
      *
@@ -63,10 +63,23 @@ public class UpdateElementHandler implements TransactionElementHandler {
     static Logger LOGGER = org.geotools.util.logging.Logging.getLogger("org.geoserver.wfs");
     private WFSInfo wfs;
 
+    /**
+     * Index of the locks handed out, may be <code>null</code>
+     */
+    FeatureLockIndex lockIndex;
+
     public UpdateElementHandler(GeoServer gs) {
         this.wfs = gs.getService( WFSInfo.class );
     }
 
+    /**
+     * Sets the index used to check the features being updated are not locked by someone else
+     * before handing them to the data store
+     */
+    public void setLockIndex(FeatureLockIndex lockIndex) {
+        this.lockIndex = lockIndex;
+    }
+
     public void checkValidity(EObject element, Map typeInfos)
         throws WFSTransactionException {
         // check inserts are enabled
@@ -231,6 +244,11 @@ public class UpdateElementHandler implements TransactionElementHandler {
                 features.close(preprocess);
             }
 
+            // fail fast if another lock holds any of the features
+            if (lockIndex != null) {
+                lockIndex.checkAccess(elementName, fids, request.getLockId());
+            }
+
             try {
                 if (types.length == 1) {
                     store.modifyFeatures(types[0], values[0], filter);
@@ -253,6 +271,10 @@ public class UpdateElementHandler implements TransactionElementHandler {
                     FeatureLocking<SimpleFeatureType, SimpleFeature> locking;
                     locking = (FeatureLocking<SimpleFeatureType, SimpleFeature>) store;
                     locking.unLockFeatures(filter);
+
+                    if (lockIndex != null) {
+                        lockIndex.unlock(request.getLockId(), elementName, fids);
+                    }
                 }
             }
 
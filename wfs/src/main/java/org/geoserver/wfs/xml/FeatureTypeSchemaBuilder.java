@@ -90,6 +90,11 @@ public abstract class FeatureTypeSchemaBuilder {
     protected String gmlPrefix;
     protected Configuration xmlConfiguration;
 
+    /**
+     * cache of built schemas, may be null
+     */
+    FeatureTypeSchemaCache schemaCache;
+
     protected FeatureTypeSchemaBuilder(GeoServer gs) {
         this.wfs = gs.getService( WFSInfo.class );
         this.catalog = gs.getCatalog();
@@ -99,12 +104,67 @@ public abstract class FeatureTypeSchemaBuilder {
         profiles.add(new XSProfile());
     }
 
+    /**
+     * Sets the cache used to hold on to built schemas.
+     * <p>
+     * When no cache is set every call to {@link #build(FeatureTypeInfo[], String)} builds the 
+     * schema from scratch.
+     * </p>
+     */
+    public void setSchemaCache(FeatureTypeSchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    public FeatureTypeSchemaCache getSchemaCache() {
+        return schemaCache;
+    }
+
     public XSDSchema build(FeatureTypeInfo featureTypeInfo, String baseUrl)
         throws IOException {
         return build(new FeatureTypeInfo[] { featureTypeInfo }, baseUrl);
     }
 
+    /**
+     * Builds the schema for a set of feature types.
+     * <p>
+     * If a schema cache is set the schema is looked up in the cache first, in which case the 
+     * returned schema is shared and must not be modified.
+     * </p>
+     */
     public XSDSchema build(FeatureTypeInfo[] featureTypeInfos, String baseUrl)
+        throws IOException {
+        return buildEntry(featureTypeInfos, baseUrl).getSchema();
+    }
+
+    /**
+     * Builds the schema for a set of feature types, returning the cache entry for it.
+     * <p>
+     * When no cache is set the returned entry is not cached, but can still be used to hold the
+     * serialized form of the schema for the duration of the request.
+     * </p>
+     */
+    public FeatureTypeSchemaCache.Entry buildEntry(FeatureTypeInfo[] featureTypeInfos, String baseUrl)
+        throws IOException {
+        if (baseUrl == null)
+            baseUrl = wfs.getSchemaBaseURL();
+
+        if (schemaCache == null) {
+            return new FeatureTypeSchemaCache.Entry(featureTypeInfos, 
+                buildSchema(featureTypeInfos, baseUrl));
+        }
+
+        Object key = FeatureTypeSchemaCache.key(getClass(), featureTypeInfos, baseUrl);
+        FeatureTypeSchemaCache.Entry entry = schemaCache.get(key);
+        if (entry == null) {
+            entry = schemaCache.put(key, featureTypeInfos, buildSchema(featureTypeInfos, baseUrl));
+        }
+        return entry;
+    }
+
+    /**
+     * Builds a new schema for a set of feature types, bypassing the schema cache.
+     */
+    protected XSDSchema buildSchema(FeatureTypeInfo[] featureTypeInfos, String baseUrl)
         throws IOException {
         XSDFactory factory = XSDFactory.eINSTANCE;
         XSDSchema schema = factory.createXSDSchema();
@@ -292,8 +352,9 @@ public abstract class FeatureTypeSchemaBuilder {
             if(!meta.enabled())
                 continue;
 
-            //build the schema for the types in the single namespace
-            XSDSchema schema = build(new FeatureTypeInfo[] { meta }, null);
+            //build the schema for the types in the single namespace, not going through the
+            // cache since the types and elements are moved over to the wfs schema
+            XSDSchema schema = buildSchema(new FeatureTypeInfo[] { meta }, wfs.getSchemaBaseURL());
 
             //declare the namespace
             String prefix = meta.getNamespace().getPrefix();
@@ -0,0 +1,224 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.collections.map.LRUMap;
+import org.eclipse.xsd.XSDSchema;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geotools.data.DataAccess;
+import org.opengis.coverage.grid.GridCoverageReader;
+import org.opengis.feature.type.FeatureType;
+
+/**
+ * Cache of application schemas built by {@link FeatureTypeSchemaBuilder}.
+ * <p>
+ * Entries are keyed by the class of the builder, the base url and the ids of the feature
+ * types making up the schema. Along with the {@link XSDSchema} itself each entry can hold the
+ * serialized form of the schema, which is what DescribeFeatureType writes out.
+ * </p>
+ * <p>
+ * Entries are dropped when one of the feature types they were built from is modified or removed,
+ * and the whole cache is flushed when a namespace, workspace or store is modified or the
+ * configuration is reloaded.
+ * </p>
+ * <p>
+ * Schemas handed out by the cache are shared between requests and must be treated as read only.
+ * </p>
+ */
+public class FeatureTypeSchemaCache {
+
+    /**
+     * Default number of schemas to hold on to
+     */
+    static int CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * the cached schemas
+     */
+    LRUMap cache;
+
+    public FeatureTypeSchemaCache(Catalog catalog) {
+        this(catalog, CACHE_SIZE_DEFAULT);
+    }
+
+    public FeatureTypeSchemaCache(Catalog catalog, int size) {
+        cache = new LRUMap(size);
+        catalog.addListener(new CacheClearingListener());
+        catalog.getResourcePool().addListener(new ResourcePoolListener());
+    }
+
+    /**
+     * Returns the cached schema entry for the specified key, or <code>null</code> if no such
+     * entry exists.
+     */
+    public Entry get(Object key) {
+        synchronized (cache) {
+            return (Entry) cache.get(key);
+        }
+    }
+
+    /**
+     * Caches a schema built from the specified feature types under the specified key.
+     *
+     * @return The newly cached entry.
+     */
+    public Entry put(Object key, FeatureTypeInfo[] featureTypes, XSDSchema schema) {
+        Entry entry = new Entry(featureTypes, schema);
+        synchronized (cache) {
+            cache.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Builds the cache key for a set of feature types.
+     * <p>
+     * The GML2 and GML3 builders share the gml namespace, the builder class tells apart the
+     * schemas they build.
+     * </p>
+     *
+     * @param builder The class of the builder the schema is built by.
+     * @param featureTypes The feature types.
+     * @param baseUrl The base url used to build schema locations.
+     */
+    public static Object key(Class builder, FeatureTypeInfo[] featureTypes, String baseUrl) {
+        StringBuffer key = new StringBuffer(builder.getName()).append("|").append(baseUrl);
+        for (int i = 0; i < featureTypes.length; i++) {
+            key.append("|").append(featureTypes[i].getId());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Removes all the entries built from the specified feature type.
+     */
+    public void remove(FeatureTypeInfo featureType) {
+        String id = featureType.getId();
+        synchronized (cache) {
+            for (Iterator e = cache.entrySet().iterator(); e.hasNext();) {
+                Map.Entry entry = (Map.Entry) e.next();
+                if (((Entry) entry.getValue()).featureTypeIds.contains(id)) {
+                    e.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * A cached schema.
+     */
+    public static class Entry {
+
+        Set<String> featureTypeIds;
+        XSDSchema schema;
+        byte[] serialized;
+        String encoding;
+
+        Entry(FeatureTypeInfo[] featureTypes, XSDSchema schema) {
+            this.schema = schema;
+            featureTypeIds = new HashSet<String>();
+            for (int i = 0; i < featureTypes.length; i++) {
+                featureTypeIds.add(featureTypes[i].getId());
+            }
+        }
+
+        /**
+         * The built schema.
+         */
+        public XSDSchema getSchema() {
+            return schema;
+        }
+
+        /**
+         * The serialized schema, or <code>null</code> if the schema has not yet been serialized
+         * with the specified encoding.
+         */
+        public synchronized byte[] getSerialized(String encoding) {
+            if (serialized != null && encoding.equals(this.encoding)) {
+                return serialized;
+            }
+            return null;
+        }
+
+        /**
+         * Sets the serialized form of the schema.
+         */
+        public synchronized void setSerialized(byte[] serialized, String encoding) {
+            this.serialized = serialized;
+            this.encoding = encoding;
+        }
+    }
+
+    class CacheClearingListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            // clear once the change is applied, or a concurrent request could cache the
+            // schema built from the old state again
+            Object source = event.getSource();
+            if (source instanceof FeatureTypeInfo) {
+                remove((FeatureTypeInfo) source);
+            }
+            else if (source instanceof NamespaceInfo || source instanceof WorkspaceInfo ||
+                source instanceof DataStoreInfo) {
+                clear();
+            }
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            if (event.getSource() instanceof FeatureTypeInfo) {
+                remove((FeatureTypeInfo) event.getSource());
+            }
+        }
+
+        public void reloaded() {
+            clear();
+        }
+    }
+
+    class ResourcePoolListener implements ResourcePool.Listener {
+
+        public void disposed(FeatureTypeInfo featureType, FeatureType ft) {
+            remove(featureType);
+        }
+
+        public void disposed(CoverageStoreInfo coverageStore, GridCoverageReader gcr) {
+        }
+
+        public void disposed(DataStoreInfo dataStore, DataAccess da) {
+            clear();
+        }
+    }
+}
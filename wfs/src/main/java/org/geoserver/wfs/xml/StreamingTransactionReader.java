@@ -0,0 +1,426 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import net.opengis.wfs.AllSomeType;
+import net.opengis.wfs.TransactionType;
+
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSInfo;
+import org.geotools.util.Converters;
+import org.geotools.xml.Configuration;
+import org.geotools.xml.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.NamespaceSupport;
+
+/**
+ * Reads a wfs transaction document incrementally, handing the transaction elements over to a
+ * callback as they are parsed.
+ * <p>
+ * The document is scanned with a plain sax parser. Each top level transaction element (Update,
+ * Delete, Native, ...) is buffered and parsed on its own into the regular wfs object model as soon
+ * as it ends. Insert elements are split into chunks of at most <tt>batchSize</tt> features, each
+ * chunk being handed over as a separate insert element carrying the same attributes as the
+ * original one. Memory usage is therefore proportional to a single element or batch rather than
+ * to the whole request.
+ * </p>
+ * <p>
+ * The attributes of the root element, and the LockId element, are copied into the transaction
+ * passed to {@link #read(Reader, TransactionType, Callback)} before the first transaction
+ * element is handed over. They can also be read up front with 
+ * {@link #readHeader(Reader, TransactionType)}.
+ * </p>
+ */
+public class StreamingTransactionReader {
+
+    /**
+     * Key of the wfs metadata entry enabling streaming transactions
+     */
+    public static final String STREAMING_TRANSACTIONS = "streamingTransactions";
+
+    /**
+     * Returns whether transaction requests should be read incrementally.
+     */
+    public static boolean isEnabled(WFSInfo wfs) {
+        Boolean enabled = Converters.convert(wfs.getMetadata().get(STREAMING_TRANSACTIONS),
+                Boolean.class);
+        return enabled != null && enabled.booleanValue();
+    }
+
+    /**
+     * Receives the transaction elements as they are parsed.
+     */
+    public static interface Callback {
+        /**
+         * Handles a single transaction element.
+         */
+        void element(EObject element) throws Exception;
+    }
+
+    /**
+     * Max number of characters read ahead when reading the header
+     */
+    static final int HEADER_LOOKAHEAD = 65536;
+
+    /** xml configuration used to parse elements */
+    Configuration configuration;
+
+    /** catalog, used to inject namespace mappings */
+    Catalog catalog;
+
+    /** max number of features per insert chunk */
+    int batchSize;
+
+    public StreamingTransactionReader(Configuration configuration, Catalog catalog, int batchSize) {
+        this.configuration = configuration;
+        this.catalog = catalog;
+        this.batchSize = batchSize;
+        configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
+    }
+
+    /**
+     * Reads the attributes of the root element, and the lock id, of the transaction document
+     * leaving the input where it was.
+     * <p>
+     * The input must support marking.
+     * </p>
+     *
+     * @param input The transaction document.
+     * @param header The transaction receiving the root element attributes.
+     */
+    public void readHeader(Reader input, TransactionType header) throws Exception {
+        input.mark(HEADER_LOOKAHEAD);
+        try {
+            //make sure the sax parser does not close the input on us
+            Reader unclosable = new FilterReader(input) {
+                public void close() throws IOException {
+                }
+            };
+            parse(unclosable, header, null);
+        } catch (HeaderRead e) {
+            //done
+        } finally {
+            input.reset();
+        }
+    }
+
+    /**
+     * Reads the transaction document.
+     *
+     * @param input The transaction document.
+     * @param header The transaction receiving the root element attributes.
+     * @param callback The callback handling the transaction elements.
+     */
+    public void read(Reader input, TransactionType header, Callback callback) throws Exception {
+        parse(input, header, callback);
+    }
+
+    void parse(Reader input, TransactionType header, Callback callback) throws Exception {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setFeature("http://xml.org/sax/features/namespace-prefixes", true);
+        SAXParser parser = factory.newSAXParser();
+
+        try {
+            parser.parse(new InputSource(input), new TransactionHandler(header, callback));
+        } catch (SAXException e) {
+            //unwrap exceptions thrown by the callback
+            if (e.getException() != null) {
+                throw e.getException();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Parses a single transaction element, wrapped in a transaction document.
+     */
+    void parseElement(String document, Callback callback) throws Exception {
+        Parser parser = new Parser(configuration);
+
+        //"inject" namespace mappings
+        List<NamespaceInfo> namespaces = catalog.getNamespaces();
+        for (NamespaceInfo ns : namespaces) {
+            if (ns.equals(catalog.getDefaultNamespace()))
+                continue;
+
+            parser.getNamespaces().declarePrefix(ns.getPrefix(), ns.getURI());
+        }
+
+        Object parsed = parser.parse(new StringReader(document));
+        if (!(parsed instanceof TransactionType)) {
+            throw new WFSException("Could not parse transaction element");
+        }
+
+        FeatureMap group = ((TransactionType) parsed).getGroup();
+        for (Iterator e = group.iterator(); e.hasNext();) {
+            FeatureMap.Entry entry = (FeatureMap.Entry) e.next();
+            callback.element((EObject) entry.getValue());
+        }
+    }
+
+    /**
+     * Sax handler splitting up the transaction document.
+     */
+    class TransactionHandler extends DefaultHandler {
+
+        TransactionType header;
+        Callback callback;
+
+        /** namespace context */
+        NamespaceSupport namespaces = new NamespaceSupport();
+        boolean contextPushed = false;
+
+        /** depth of the current element, the root element being at depth 1 */
+        int depth = 0;
+
+        /** start tag of the root element, minus namespace declarations */
+        String root;
+        String rootName;
+
+        /** start tag of the current transaction element, and namespace declarations in scope */
+        String element;
+        String elementName;
+        String declarations;
+        boolean insert;
+
+        /** buffered content of the current transaction element */
+        StringBuffer buffer = new StringBuffer();
+
+        /** number of features buffered for the current insert */
+        int features;
+
+        /** number of chunks handed over for the current insert */
+        int chunks;
+
+        /** lock id element text */
+        StringBuffer lockId;
+
+        TransactionHandler(TransactionType header, Callback callback) {
+            this.header = header;
+            this.callback = callback;
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) throws SAXException {
+            if (!contextPushed) {
+                namespaces.pushContext();
+                contextPushed = true;
+            }
+            namespaces.declarePrefix(prefix, uri);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName,
+                Attributes attributes) throws SAXException {
+            if (!contextPushed) {
+                namespaces.pushContext();
+            }
+            contextPushed = false;
+            depth++;
+
+            if (depth == 1) {
+                //root element, copy over the attributes
+                rootName = qName;
+                root = startTag(qName, attributes, false);
+                header(attributes);
+            }
+            else if (depth == 2) {
+                if ("LockId".equals(localName)) {
+                    lockId = new StringBuffer();
+                    return;
+                }
+
+                if (callback == null) {
+                    //only reading the header, stop here
+                    throw new HeaderRead();
+                }
+
+                elementName = qName;
+                element = startTag(qName, attributes, false);
+                declarations = declarations();
+                insert = "Insert".equals(localName);
+                buffer.setLength(0);
+                features = 0;
+                chunks = 0;
+            }
+            else if (lockId == null) {
+                buffer.append(startTag(qName, attributes, true));
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) throws SAXException {
+            if (lockId != null) {
+                lockId.append(ch, start, length);
+            } else if (depth > 2) {
+                escape(ch, start, length, buffer, false);
+            }
+        }
+
+        @Override
+        public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+            characters(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            try {
+                if (depth == 2) {
+                    if (lockId != null) {
+                        header.setLockId(lockId.toString().trim());
+                        lockId = null;
+                    }
+                    else if (!insert || features > 0 || chunks == 0) {
+                        flush();
+                    }
+                }
+                else if (depth > 2 && lockId == null) {
+                    buffer.append("</").append(qName).append(">");
+
+                    if (insert && depth == 3 && ++features == batchSize) {
+                        flush();
+                    }
+                }
+            } finally {
+                depth--;
+                namespaces.popContext();
+            }
+        }
+
+        /**
+         * Parses the buffered transaction element and hands it over to the callback.
+         */
+        void flush() throws SAXException {
+            StringBuffer document = new StringBuffer();
+            document.append(root.substring(0, root.length() - 1)).append(declarations).append(">");
+            document.append(element).append(buffer).append("</").append(elementName).append(">");
+            document.append("</").append(rootName).append(">");
+
+            buffer.setLength(0);
+            features = 0;
+            chunks++;
+
+            try {
+                parseElement(document.toString(), callback);
+            } catch (SAXException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SAXException(e);
+            }
+        }
+
+        /**
+         * Copies the root element attributes over to the transaction.
+         */
+        void header(Attributes attributes) {
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String name = attributes.getLocalName(i);
+                String value = attributes.getValue(i);
+
+                if ("handle".equals(name)) {
+                    header.setHandle(value);
+                } else if ("lockId".equals(name)) {
+                    header.setLockId(value);
+                } else if ("releaseAction".equals(name)) {
+                    header.setReleaseAction(AllSomeType.get(value));
+                } else if ("service".equals(name)) {
+                    header.setService(value);
+                } else if ("version".equals(name)) {
+                    header.setVersion(value);
+                }
+            }
+        }
+
+        /**
+         * Encodes a start tag, namespace declarations are only kept if <tt>xmlns</tt> is set.
+         */
+        String startTag(String qName, Attributes attributes, boolean xmlns) {
+            StringBuffer tag = new StringBuffer("<").append(qName);
+            for (int i = 0; i < attributes.getLength(); i++) {
+                String name = attributes.getQName(i);
+                if (!xmlns && (name.equals("xmlns") || name.startsWith("xmlns:"))) {
+                    continue;
+                }
+
+                tag.append(" ").append(name).append("=\"");
+                String value = attributes.getValue(i);
+                escape(value.toCharArray(), 0, value.length(), tag, true);
+                tag.append("\"");
+            }
+            return tag.append(">").toString();
+        }
+
+        /**
+         * Encodes all the namespace declarations currently in scope.
+         */
+        String declarations() {
+            StringBuffer decls = new StringBuffer();
+            for (Enumeration e = namespaces.getPrefixes(); e.hasMoreElements();) {
+                String prefix = (String) e.nextElement();
+                if ("xml".equals(prefix)) {
+                    continue;
+                }
+                decls.append(" xmlns:").append(prefix).append("=\"")
+                    .append(namespaces.getURI(prefix)).append("\"");
+            }
+
+            String defaultURI = namespaces.getURI("");
+            if (defaultURI != null && !"".equals(defaultURI)) {
+                decls.append(" xmlns=\"").append(defaultURI).append("\"");
+            }
+            return decls.toString();
+        }
+
+        void escape(char[] ch, int start, int length, StringBuffer out, boolean attribute) {
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                switch (c) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append(attribute ? "&quot;" : "\"");
+                    break;
+                default:
+                    out.append(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown to stop parsing once the header has been read.
+     */
+    static class HeaderRead extends SAXException {
+        HeaderRead() {
+            super("header read");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wfs.xml;
+
+import java.io.Reader;
+
+import net.opengis.wfs.impl.TransactionTypeImpl;
+
+/**
+ * Transaction request whose elements have not been parsed yet.
+ * <p>
+ * Only the attributes of the request, and its lock id, are available up front. The transaction
+ * elements are handed over one at a time through {@link #read(StreamingTransactionReader.Callback)}
+ * and are never added to the request.
+ * </p>
+ */
+public class StreamingTransactionType extends TransactionTypeImpl {
+
+    StreamingTransactionReader reader;
+    Reader input;
+
+    /**
+     * Creates the request, reading the root element attributes from the input.
+     *
+     * @param reader The reader used to parse the transaction document.
+     * @param input The transaction document, must support marking.
+     */
+    public StreamingTransactionType(StreamingTransactionReader reader, Reader input) 
+        throws Exception {
+        this.reader = reader;
+        this.input = input;
+        
+        reader.readHeader(input, this);
+    }
+
+    /**
+     * Reads the transaction elements, handing them over to the callback one at a time.
+     * <p>
+     * This method may only be called once.
+     * </p>
+     */
+    public void read(StreamingTransactionReader.Callback callback) throws Exception {
+        if (input == null) {
+            throw new IllegalStateException("Transaction elements have already been read");
+        }
+        try {
+            reader.read(input, this, callback);
+        } finally {
+            input = null;
+        }
+    }
+}
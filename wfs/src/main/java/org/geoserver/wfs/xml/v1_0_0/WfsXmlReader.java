@@ -6,12 +6,18 @@ package org.geoserver.wfs.xml.v1_0_0;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
+import org.geoserver.wfs.InsertElementHandler;
 import org.geoserver.wfs.WFSException;
+import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.StreamingTransactionReader;
+import org.geoserver.wfs.xml.StreamingTransactionType;
 import org.geotools.util.Version;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Parser;
 
+import java.io.BufferedReader;
 import java.io.Reader;
 import java.util.Iterator;
 import java.util.List;
@@ -35,6 +41,10 @@ public class WfsXmlReader extends XmlRequestReader {
      * Catalog, to access namespaces
      */
     Catalog catalog;
+    /**
+     * WFS configuration, may be null
+     */
+    WFSInfo wfs;
 
     public WfsXmlReader(String element, Configuration configuration, Catalog catalog) {
         this(element, configuration, catalog, "wfs");
@@ -46,6 +56,13 @@ public class WfsXmlReader extends XmlRequestReader {
         this.catalog = catalog;
     }
 
+    /**
+     * Sets the geoserver configuration, needed to read transactions incrementally.
+     */
+    public void setGeoServer(GeoServer gs) {
+        this.wfs = gs.getService( WFSInfo.class );
+    }
+
     public Object read(Object request, Reader reader, Map kvp) throws Exception {
         //check the strict flag to determine if we should validate or not
         Boolean strict = (Boolean) kvp.get("strict");
@@ -53,6 +70,16 @@ public class WfsXmlReader extends XmlRequestReader {
             strict = Boolean.FALSE;
         }
         
+        //read transactions incrementally if so configured
+        if ("Transaction".equalsIgnoreCase(getElement().getLocalPart()) && !strict.booleanValue()
+            && wfs != null && StreamingTransactionReader.isEnabled(wfs)) {
+            if (!reader.markSupported()) {
+                reader = new BufferedReader(reader);
+            }
+            return new StreamingTransactionType(new StreamingTransactionReader(configuration,
+                catalog, InsertElementHandler.getBatchSize(wfs)), reader);
+        }
+        
         //create the parser instance
         Parser parser = new Parser(configuration);
         
@@ -8,12 +8,16 @@ import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.XmlRequestReader;
+import org.geoserver.wfs.InsertElementHandler;
 import org.geoserver.wfs.WFSException;
 import org.geoserver.wfs.WFSInfo;
+import org.geoserver.wfs.xml.StreamingTransactionReader;
+import org.geoserver.wfs.xml.StreamingTransactionType;
 import org.geotools.util.Version;
 import org.geotools.xml.Configuration;
 import org.geotools.xml.Parser;
 import org.xml.sax.InputSource;
+import java.io.BufferedReader;
 import java.io.Reader;
 import java.util.Iterator;
 import java.util.List;
@@ -68,6 +72,16 @@ public class WfsXmlReader extends XmlRequestReader {
             strict = Boolean.TRUE;
         }
         
+        //read transactions incrementally if so configured
+        if ("Transaction".equalsIgnoreCase(getElement().getLocalPart()) && !strict.booleanValue()
+            && StreamingTransactionReader.isEnabled(wfs)) {
+            if (!reader.markSupported()) {
+                reader = new BufferedReader(reader);
+            }
+            return new StreamingTransactionType(new StreamingTransactionReader(configuration,
+                catalog, InsertElementHandler.getBatchSize(wfs)), reader);
+        }
+        
         //TODO: make this configurable?
         configuration.getProperties().add(Parser.Properties.PARSE_UNKNOWN_ELEMENTS);
 
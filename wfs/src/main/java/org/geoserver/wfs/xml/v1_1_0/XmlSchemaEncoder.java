@@ -4,6 +4,7 @@
  */
 package org.geoserver.wfs.xml.v1_1_0;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 
@@ -21,6 +22,7 @@ import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.WFSDescribeFeatureTypeOutputFormat;
 import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.xml.FeatureTypeSchemaBuilder;
+import org.geoserver.wfs.xml.FeatureTypeSchemaCache;
 
 
 public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
@@ -57,12 +59,22 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
         GeoServerInfo global = wfs.getGeoServer().getGlobal();
         //create the schema
         DescribeFeatureTypeType req = (DescribeFeatureTypeType)describeFeatureType.getParameters()[0];
-        XSDSchema schema = schemaBuilder.build(featureTypeInfos, req.getBaseUrl());
+        FeatureTypeSchemaCache.Entry entry = schemaBuilder.buildEntry(featureTypeInfos, req.getBaseUrl());
 
-        //serialize
-        schema.updateElement();
+        //serialize, reusing the serialized form of a cached schema if available
         final String encoding = global.getCharset();
-        XSDResourceImpl.serialize(output, schema.getElement(), encoding);
+        byte[] xsd = entry.getSerialized(encoding);
+        if (xsd == null) {
+            XSDSchema schema = entry.getSchema();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            synchronized (schema) {
+                schema.updateElement();
+                XSDResourceImpl.serialize(bytes, schema.getElement(), encoding);
+            }
+            xsd = bytes.toByteArray();
+            entry.setSerialized(xsd, encoding);
+        }
+        output.write(xsd);
     }
     
     public static class V11 extends XmlSchemaEncoder {
@@ -71,6 +83,10 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
             super("text/xml; subtype=gml/3.1.1",gs,new FeatureTypeSchemaBuilder.GML3(gs));
         }
         
+        public V11(GeoServer gs, FeatureTypeSchemaBuilder schemaBuilder) {
+            super("text/xml; subtype=gml/3.1.1",gs,schemaBuilder);
+        }
+        
     }
     
     public static class V10 extends XmlSchemaEncoder {
@@ -79,6 +95,10 @@ public class XmlSchemaEncoder extends WFSDescribeFeatureTypeOutputFormat {
             super("XMLSCHEMA", gs, new FeatureTypeSchemaBuilder.GML2(gs));
         }
         
+        public V10(GeoServer gs, FeatureTypeSchemaBuilder schemaBuilder) {
+            super("XMLSCHEMA", gs, schemaBuilder);
+        }
+        
         @Override
         public String getMimeType(Object arg0, Operation arg1) throws ServiceException {
             return "text/xml";
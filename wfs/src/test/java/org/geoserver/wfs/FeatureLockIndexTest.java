@@ -0,0 +1,141 @@
+package org.geoserver.wfs;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.geoserver.platform.GeoServerResourceLoader;
+import org.geotools.data.FeatureLockException;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class FeatureLockIndexTest extends TestCase {
+
+    static final QName TYPE = new QName("http://www.geoserver.org", "type");
+
+    public void testExpiry() throws Exception {
+        FeatureLockIndex index = new FeatureLockIndex();
+        index.add("expiring", "store", TYPE, "type.1", null, 1);
+        index.add("permanent", "store", TYPE, "type.2", null, 0);
+
+        Thread.sleep(10);
+        assertFalse(index.contains("expiring"));
+        assertTrue(index.getDataStoreIds("expiring").isEmpty());
+        assertNull(index.getLockId(TYPE, "type.1"));
+        assertTrue(index.contains("permanent"));
+        assertEquals("permanent", index.getLockId(TYPE, "type.2"));
+    }
+
+    public void testTimerWheel() throws Exception {
+        long tick = FeatureLockIndex.TICK;
+        FeatureLockIndex.TICK = 10;
+        try {
+            FeatureLockIndex index = new FeatureLockIndex();
+            // expires after more than a whole turn of the wheel
+            long duration = FeatureLockIndex.WHEEL_SIZE * 10 + 50;
+            index.add("lock", "store", TYPE, "type.1", null, duration);
+            index.add("other", "store", TYPE, "type.2", null, 20);
+
+            Thread.sleep(100);
+            index.expire();
+            // swept out without anybody looking it up
+            assertEquals(1, index.size());
+            assertTrue(index.contains("lock"));
+
+            Thread.sleep(duration);
+            index.expire();
+            assertEquals(0, index.size());
+        } finally {
+            FeatureLockIndex.TICK = tick;
+        }
+    }
+
+    public void testCheckAccess() throws Exception {
+        FeatureLockIndex index = new FeatureLockIndex();
+        index.add("lock", "store", TYPE, "type.1", new Envelope(0, 10, 0, 10), 0);
+
+        // the owner, or other features, can be modified
+        index.checkAccess(TYPE, Collections.singleton("type.1"), "lock");
+        index.checkAccess(TYPE, Collections.singleton("type.2"), null);
+        try {
+            index.checkAccess(TYPE, Arrays.asList(new String[] { "type.2", "type.1" }), null);
+            fail("type.1 is locked");
+        } catch (FeatureLockException e) {
+            // fine
+        }
+
+        // other types are not affected
+        index.checkAccess(new QName("http://www.geoserver.org", "other"),
+                Collections.singleton("type.1"), null);
+
+        // released features are not
+        index.unlock("lock", TYPE, Collections.singleton("type.1"));
+        index.checkAccess(TYPE, Collections.singleton("type.1"), null);
+    }
+
+    public void testIsLocked() throws Exception {
+        FeatureLockIndex index = new FeatureLockIndex();
+        index.add("lock", "store", TYPE, "type.1", new Envelope(0, 10, 0, 10), 0);
+        index.add("lock", "store", TYPE, "type.2", new Envelope(100, 110, 100, 110), 0);
+
+        assertTrue(index.isLocked(TYPE, new Envelope(5, 20, 5, 20), null));
+        assertFalse(index.isLocked(TYPE, new Envelope(50, 60, 50, 60), null));
+        // not by somebody else
+        assertFalse(index.isLocked(TYPE, new Envelope(5, 20, 5, 20), "lock"));
+
+        index.unlock("lock", TYPE, Collections.singleton("type.1"));
+        assertFalse(index.isLocked(TYPE, new Envelope(5, 20, 5, 20), null));
+
+        // features without geometry may be anywhere
+        index.add("lock", "store", TYPE, "type.3", null, 0);
+        assertTrue(index.isLocked(TYPE, new Envelope(50, 60, 50, 60), null));
+    }
+
+    public void testClear() throws Exception {
+        FeatureLockIndex index = new FeatureLockIndex();
+        index.add("lock", "store", TYPE, "type.1", new Envelope(0, 10, 0, 10), 0);
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertNull(index.getLockId(TYPE, "type.1"));
+        assertFalse(index.isLocked(TYPE, new Envelope(0, 10, 0, 10), null));
+    }
+
+    public void testSaveAndRead() throws Exception {
+        File dir = File.createTempFile("locks", "dir");
+        dir.delete();
+        dir.mkdirs();
+        try {
+            FeatureLockIndex index = new FeatureLockIndex(new GeoServerResourceLoader(dir));
+            index.setPersistent(true);
+            index.add("lock", "store", TYPE, "type.1", new Envelope(0, 10, 0, 10), 60000);
+            index.add("lock", "store", TYPE, "type.2", null, 60000);
+            index.add("permanent", "other", TYPE, "type.3", null, 0);
+            index.destroy();
+
+            File file = new File(dir, FeatureLockIndex.LOCKS_FILE);
+            assertTrue(file.exists());
+
+            List<FeatureLockIndex.Entry> entries = new FeatureLockIndex().read(file);
+            assertEquals(2, entries.size());
+            for (FeatureLockIndex.Entry entry : entries) {
+                FeatureLockIndex.Entry saved = index.locks.get(entry.lockId);
+                assertNotNull(saved);
+                assertEquals(saved.duration, entry.duration);
+                assertEquals(saved.expiry, entry.expiry);
+                assertEquals(saved.dataStoreIds, entry.dataStoreIds);
+                assertEquals(saved.features, entry.features);
+            }
+        } finally {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.geoserver.wfs;
 
+import org.geoserver.data.test.MockData;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
@@ -169,4 +170,60 @@ public class LockFeatureTest extends WFSTestSupport {
         assertFalse(dom.getElementsByTagName("wfs:SUCCESS").getLength() == 0);
     }
 
-}
+    public void testLockIndex() throws Exception {
+        FeatureLockIndex index = (FeatureLockIndex) applicationContext.getBean("wfsLockIndex");
+
+        String xml = "<wfs:LockFeature" + "  service=\"WFS\"" + "  version=\"1.0.0\""
+                + "  expiry=\"10\""
+                + "  xmlns:cdf=\"http://www.opengis.net/cite/data\""
+                + "  xmlns:ogc=\"http://www.opengis.net/ogc\""
+                + "  xmlns:wfs=\"http://www.opengis.net/wfs\"" + ">"
+                + "  <wfs:Lock typeName=\"cdf:Locks\"/>" + "</wfs:LockFeature>";
+
+        Document dom = postAsDOM("wfs", xml);
+        assertEquals("WFS_LockFeatureResponse", dom.getDocumentElement()
+                .getNodeName());
+
+        String lockId = dom.getElementsByTagName("LockId").item(0)
+                .getFirstChild().getNodeValue();
+
+        // only the store of the locked type is recorded
+        assertTrue(index.contains(lockId));
+        String storeId = getCatalog().getFeatureTypeByName("cdf", "Locks").getStore().getId();
+        assertEquals(1, index.getDataStoreIds(lockId).size());
+        assertTrue(index.getDataStoreIds(lockId).contains(storeId));
+
+        // and the locked features
+        assertEquals(lockId, index.getLockId(MockData.LOCKS, "Locks.1"));
+
+        get("wfs?request=ReleaseLock&lockId=" + lockId);
+        assertFalse(index.contains(lockId));
+        assertNull(index.getLockId(MockData.LOCKS, "Locks.1"));
+    }
+
+    public void testReleaseAll() throws Exception {
+        FeatureLockIndex index = (FeatureLockIndex) applicationContext.getBean("wfsLockIndex");
+
+        String xml = "<wfs:LockFeature" + "  service=\"WFS\"" + "  version=\"1.0.0\""
+                + "  expiry=\"10\""
+                + "  xmlns:cdf=\"http://www.opengis.net/cite/data\""
+                + "  xmlns:ogc=\"http://www.opengis.net/ogc\""
+                + "  xmlns:wfs=\"http://www.opengis.net/wfs\"" + ">"
+                + "  <wfs:Lock typeName=\"cdf:Locks\"/>" + "</wfs:LockFeature>";
+
+        Document dom = postAsDOM("wfs", xml);
+        String lockId = dom.getElementsByTagName("LockId").item(0)
+                .getFirstChild().getNodeValue();
+        assertTrue(index.contains(lockId));
+
+        LockFeature lockFeature = new LockFeature(getWFS(), getCatalog());
+        lockFeature.releaseAll();
+        assertEquals(0, index.size());
+
+        // the data store released the features too, they can be locked again
+        dom = postAsDOM("wfs", xml);
+        assertEquals("WFS_LockFeatureResponse", dom.getDocumentElement().getNodeName());
+        lockId = dom.getElementsByTagName("LockId").item(0).getFirstChild().getNodeValue();
+        get("wfs?request=ReleaseLock&lockId=" + lockId);
+    }
+
@@ -77,6 +77,44 @@ public class TransactionListenerTest extends WFSTestSupport {
         assertEquals(1, listener.features.size());
     }
 
+    public void testInsertBatches() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(InsertElementHandler.INSERT_BATCH_SIZE, 1);
+        getGeoServer().save(wfs);
+        
+        try {
+            String line = "<cgf:Lines>"
+                + "<cgf:lineStringProperty>"
+                + "<gml:LineString>"
+                + "<gml:coordinates decimal=\".\" cs=\",\" ts=\" \">"
+                + "494475.71056415,5433016.8189323 494982.70115662,5435041.95096618"
+                + "</gml:coordinates>" + "</gml:LineString>"
+                + "</cgf:lineStringProperty>" + "<cgf:id>t0002</cgf:id>"
+                + "</cgf:Lines>";
+            String insert = "<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
+                + "xmlns:cgf=\"http://www.opengis.net/cite/geometry\" "
+                + "xmlns:ogc=\"http://www.opengis.net/ogc\" "
+                + "xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + "xmlns:gml=\"http://www.opengis.net/gml\"> "
+                + "<wfs:Insert > " + line + line + "</wfs:Insert>" + "</wfs:Transaction>";
+            
+            postAsDOM("wfs", insert);
+            
+            // one event per batch
+            assertEquals(2, listener.events.size());
+            for (int i = 0; i < 2; i++) {
+                TransactionEvent event = (TransactionEvent) listener.events.get(i);
+                assertEquals(TransactionEventType.PRE_INSERT, event.getType());
+                assertEquals(MockData.LINES, event.getLayerName());
+            }
+            assertEquals(2, listener.features.size());
+        }
+        finally {
+            wfs.getMetadata().remove(InsertElementHandler.INSERT_BATCH_SIZE);
+            getGeoServer().save(wfs);
+        }
+    }
+
     public void testUpdate() throws Exception {
         // perform an update
         String insert = "<wfs:Transaction service=\"WFS\" version=\"1.0.0\" "
@@ -5,7 +5,10 @@ import java.util.Collections;
 import javax.xml.namespace.QName;
 
 import org.geoserver.data.test.MockData;
+import org.geoserver.wfs.InsertElementHandler;
+import org.geoserver.wfs.WFSInfo;
 import org.geoserver.wfs.WFSTestSupport;
+import org.geoserver.wfs.xml.StreamingTransactionReader;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -94,6 +97,39 @@ public class TransactionTest extends WFSTestSupport {
         assertTrue(dom.getElementsByTagName("ogc:FeatureId").getLength() > 0);
     }
 
+    public void testInsertStreaming() throws Exception {
+        WFSInfo wfs = getWFS();
+        wfs.getMetadata().put(StreamingTransactionReader.STREAMING_TRANSACTIONS, true);
+        wfs.getMetadata().put(InsertElementHandler.INSERT_BATCH_SIZE, 1);
+        getGeoServer().save(wfs);
+        
+        try {
+            String point = "<cgf:Points>"
+                + "<cgf:pointProperty>"
+                + "<gml:Point><gml:pos>10 10</gml:pos></gml:Point>"
+                + "</cgf:pointProperty>"
+                + "<cgf:id>t0003</cgf:id>"
+                + "</cgf:Points>";
+            String xml = "<wfs:Transaction service=\"WFS\" version=\"1.1.0\" handle=\"streaming\" "
+                + " xmlns:wfs=\"http://www.opengis.net/wfs\" "
+                + " xmlns:gml=\"http://www.opengis.net/gml\" "
+                + " xmlns:cgf=\"http://www.opengis.net/cite/geometry\">"
+                + "<wfs:Insert handle=\"insert-1\">" + point + point + point + "</wfs:Insert>"
+                + "</wfs:Transaction>";
+            
+            Document dom = postAsDOM("wfs", xml);
+            assertEquals("wfs:TransactionResponse", dom.getDocumentElement().getNodeName());
+            assertEquals("3", getFirstElementByTagName(dom, "wfs:totalInserted").getFirstChild()
+                .getNodeValue());
+            assertEquals(3, dom.getElementsByTagName("ogc:FeatureId").getLength());
+        }
+        finally {
+            wfs.getMetadata().remove(StreamingTransactionReader.STREAMING_TRANSACTIONS);
+            wfs.getMetadata().remove(InsertElementHandler.INSERT_BATCH_SIZE);
+            getGeoServer().save(wfs);
+        }
+    }
+
     	
      public void testInsertWithNoSRS() throws Exception {
         // 1. do a getFeature
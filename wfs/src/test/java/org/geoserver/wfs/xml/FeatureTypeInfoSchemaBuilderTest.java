@@ -4,6 +4,7 @@ import javax.xml.namespace.QName;
 
 import org.eclipse.xsd.XSDComplexTypeDefinition;
 import org.eclipse.xsd.XSDElementDeclaration;
+import org.eclipse.xsd.XSDImport;
 import org.eclipse.xsd.XSDSchema;
 import org.eclipse.xsd.XSDTypeDefinition;
 
@@ -52,4 +53,48 @@ public class FeatureTypeInfoSchemaBuilderTest extends WFSTestSupport {
         assertEquals(GML.GEOMETRYASSOCIATIONTYPE.getLocalPart(),
                 geometryAssociationType.getName());
     }
+
+    public void testSchemaCache() throws Exception {
+        FeatureTypeSchemaBuilder builder = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        builder.setSchemaCache(new FeatureTypeSchemaCache(getCatalog()));
+
+        FeatureTypeInfo lines = getFeatureTypeInfo(MockData.LINES);
+        XSDSchema schema = builder.build(new FeatureTypeInfo[] { lines }, null);
+        assertSame(schema, builder.build(new FeatureTypeInfo[] { lines }, null));
+        assertNotSame(schema, builder.build(new FeatureTypeInfo[] { lines }, "http://foo/geoserver"));
+
+        // modifying the feature type should drop the cached schema
+        lines.setTitle(lines.getTitle() + " modified");
+        getCatalog().save(lines);
+        assertNotSame(schema, builder.build(new FeatureTypeInfo[] { lines }, null));
+    }
+
+    public void testSchemaCacheSharedByGmlVersions() throws Exception {
+        FeatureTypeSchemaCache cache = new FeatureTypeSchemaCache(getCatalog());
+        FeatureTypeSchemaBuilder gml2 = new FeatureTypeSchemaBuilder.GML2(getGeoServer());
+        gml2.setSchemaCache(cache);
+        FeatureTypeSchemaBuilder gml3 = new FeatureTypeSchemaBuilder.GML3(getGeoServer());
+        gml3.setSchemaCache(cache);
+
+        FeatureTypeInfo lines = getFeatureTypeInfo(MockData.LINES);
+        XSDSchema schema2 = gml2.build(new FeatureTypeInfo[] { lines }, null);
+        XSDSchema schema3 = gml3.build(new FeatureTypeInfo[] { lines }, null);
+        assertNotSame(schema2, schema3);
+        assertSame(schema2, gml2.build(new FeatureTypeInfo[] { lines }, null));
+        assertSame(schema3, gml3.build(new FeatureTypeInfo[] { lines }, null));
+
+        // each schema imports its own gml version
+        assertTrue(importsLocation(schema2, "gml/2.1.2/feature.xsd"));
+        assertTrue(importsLocation(schema3, "gml/3.1.1/base/gml.xsd"));
+    }
+
+    boolean importsLocation(XSDSchema schema, String location) {
+        for (Object content : schema.getContents()) {
+            if (content instanceof XSDImport
+                    && ((XSDImport) content).getSchemaLocation().endsWith(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
@@ -10,9 +10,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -30,6 +28,7 @@ import org.geoserver.ows.KvpRequestReader;
 import org.geoserver.ows.util.KvpUtils;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.util.SLDBodyCache;
 import org.geotools.data.DataStore;
 import org.geotools.data.DefaultQuery;
 import org.geotools.data.FeatureReader;
@@ -38,7 +37,6 @@ import org.geotools.data.Query;
 import org.geotools.data.Transaction;
 import org.geotools.data.crs.ForceCoordinateSystemFeatureReader;
 import org.geotools.data.memory.MemoryDataStore;
-import org.geotools.data.wfs.WFSDataStoreFactory;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureTypes;
 import org.geotools.referencing.CRS;
@@ -47,7 +45,6 @@ import org.geotools.styling.FeatureTypeConstraint;
 import org.geotools.styling.NamedLayer;
 import org.geotools.styling.NamedStyle;
 import org.geotools.styling.RemoteOWS;
-import org.geotools.styling.SLDParser;
 import org.geotools.styling.Style;
 import org.geotools.styling.StyleAttributeExtractor;
 import org.geotools.styling.StyleFactory;
@@ -69,6 +66,16 @@ import org.vfny.geoserver.wms.WmsException;
 import org.vfny.geoserver.wms.requests.GetMapRequest;
 
 public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServletRequestAware {
+    /**
+     * remote sld documents, shared among all readers
+     */
+    static RemoteSLDCache remoteSLDCache = new RemoteSLDCache();
+
+    /**
+     * remote wfs stores, shared among all readers
+     */
+    static RemoteWFSPool remoteWFSPool = new RemoteWFSPool();
+
     /**
      * get map
      */
@@ -212,7 +219,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 LOGGER.fine("Getting layers and styles from SLD_BODY");
             }
 
-            if (getMap.getValidateSchema().booleanValue()) {
+            // clients tend to send the same body over and over, parse it once
+            SLDBodyCache cache = SLDBodyCache.getInstance();
+            boolean validate = getMap.getValidateSchema().booleanValue()
+                    && !cache.isValidated(getMap.getSldBody());
+            if (validate) {
                 List errors = validateSld(new ByteArrayInputStream(getMap.getSldBody().getBytes()));
 
                 if (errors.size() != 0) {
@@ -221,8 +232,10 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 }
             }
 
-            StyledLayerDescriptor sld = parseSld(new ByteArrayInputStream(getMap.getSldBody()
-                    .getBytes()));
+            StyledLayerDescriptor sld = cache.getSLD(getMap.getSldBody(), styleFactory);
+            if (validate) {
+                cache.setValidated(getMap.getSldBody());
+            }
             processSld(getMap, requestedLayerInfos, sld, styleNameList);
             
             // set filter in, we'll check consistency later
@@ -255,16 +268,9 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
                 }
             }
 
-            // JD: GEOS-420, Wrap the sldUrl in getINputStream method in order
-            // to do compression
-            InputStream input = Requests.getInputStream(sldUrl);
-
-            try {
-                StyledLayerDescriptor sld = parseSld(input);
-                processSld(getMap, requestedLayerInfos, sld, styleNameList);
-            } finally {
-                input.close();
-            }
+            // JD: GEOS-420, the cache wraps the sldUrl in order to do compression
+            StyledLayerDescriptor sld = remoteSLDCache.get(sldUrl, styleFactory);
+            processSld(getMap, requestedLayerInfos, sld, styleNameList);
             
             // set filter in, we'll check consistency later
             getMap.setFilter(filters);
@@ -444,15 +450,6 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         return validator.validateSLD(input, httpRequest.getSession().getServletContext());
     }
 
-    /**
-     * Parses an sld document.
-     */
-    private StyledLayerDescriptor parseSld(InputStream input) {
-        SLDParser parser = new SLDParser(styleFactory, input);
-
-        return parser.parseSLD();
-    }
-
     private void processSld(final GetMapRequest request, final List<?>requestedLayers, final StyledLayerDescriptor sld,
             final List styleNames) throws WmsException, IOException {
         if (requestedLayers.size() == 0) {
@@ -668,9 +665,9 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         List remoteTypeNames = null;
         try {
             URL url = new URL(service.getOnlineResource());
-            remoteWFS = connectRemoteWFS(url);
-            remoteTypeNames = new ArrayList(Arrays.asList(remoteWFS.getTypeNames()));
-            Collections.sort(remoteTypeNames);
+            RemoteWFSPool.Store store = remoteWFSPool.get(url);
+            remoteWFS = store.dataStore;
+            remoteTypeNames = store.typeNames;
         } catch (MalformedURLException e) {
             throw new WmsException("Invalid online resource url: '" + service.getOnlineResource()
                     + "'");
@@ -1065,11 +1062,11 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
 
         // Grab remote OWS data store if needed
         DataStore remoteWFS = null;
-        final List<String> remoteTypeNames = new ArrayList<String>();
+        List<String> remoteTypeNames = Collections.emptyList();
         if ("WFS".equals(remoteOwsType) && remoteOwsUrl != null) {
-            remoteWFS = connectRemoteWFS(remoteOwsUrl);
-            remoteTypeNames.addAll(Arrays.asList(remoteWFS.getTypeNames()));
-            Collections.sort(remoteTypeNames);
+            RemoteWFSPool.Store store = remoteWFSPool.get(remoteOwsUrl);
+            remoteWFS = store.dataStore;
+            remoteTypeNames = store.typeNames;
         }
 
         // //
@@ -1152,19 +1149,6 @@ public class GetMapKvpRequestReader extends KvpRequestReader implements HttpServ
         return layersOrGroups;
     }
 
-    private static DataStore connectRemoteWFS(URL remoteOwsUrl) throws WmsException {
-        try {
-            WFSDataStoreFactory factory = new WFSDataStoreFactory();
-            Map params = new HashMap(factory.getImplementationHints());
-            params.put(WFSDataStoreFactory.URL.key, remoteOwsUrl
-                    + "&request=GetCapabilities&service=WFS");
-            params.put(WFSDataStoreFactory.TRY_GZIP.key, Boolean.TRUE);
-            return factory.createDataStore(params);
-        } catch (Exception e) {
-            throw new WmsException("Could not connect to remote OWS", "RemoteOWSFailure", e);
-        }
-    }
-
     // pre GEOS-2652:
     // private MapLayerInfo buildMapLayerInfo(String layerName) throws Exception {
     // MapLayerInfo li = new MapLayerInfo();
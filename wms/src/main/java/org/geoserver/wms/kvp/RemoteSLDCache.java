@@ -0,0 +1,236 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.kvp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.geotools.styling.SLDParser;
+import org.geotools.styling.StyleFactory;
+import org.geotools.styling.StyledLayerDescriptor;
+import org.geotools.util.logging.Logging;
+import org.vfny.geoserver.util.Requests;
+
+/**
+ * Cache of the remote SLD documents referenced by the SLD parameter of GetMap requests,
+ * holding the parsed documents.
+ * <p>
+ * Only http(s) documents are cached, following the freshness rules of the HTTP protocol: a
+ * document is reused as is while fresh according to its Cache-Control max-age or Expires
+ * headers, and revalidated against the remote server by ETag or Last-Modified once stale.
+ * Documents served with no-store are never cached. Documents with no explicit freshness are
+ * considered fresh for a tenth of the time since they were last modified, up to
+ * {@link #MAX_HEURISTIC_AGE}.
+ * </p>
+ * <p>
+ * The cache holds at most {@link #MAX_ENTRIES} documents, evicting the least recently used
+ * ones.
+ * </p>
+ */
+class RemoteSLDCache {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.wms");
+
+    /**
+     * Max number of documents held by the cache
+     */
+    static int MAX_ENTRIES = 100;
+
+    /**
+     * Max heuristic freshness of documents with no explicit expiration, in milliseconds
+     */
+    static long MAX_HEURISTIC_AGE = 5 * 60 * 1000;
+
+    /**
+     * Max size of the documents being cached, in bytes
+     */
+    static int MAX_DOCUMENT_SIZE = 1024 * 1024;
+
+    /** url to cached document, in access order */
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Returns the parsed SLD document at the specified url, fetching it only if the cached copy
+     * is missing or stale.
+     */
+    StyledLayerDescriptor get(URL url, StyleFactory styleFactory) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol())
+                && !"https".equalsIgnoreCase(url.getProtocol())) {
+            InputStream input = Requests.getInputStream(url);
+            try {
+                return new SLDParser(styleFactory, input).parseSLD();
+            } finally {
+                input.close();
+            }
+        }
+
+        String key = url.toExternalForm();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+
+        long now = System.currentTimeMillis();
+        if (entry != null && now < entry.expires) {
+            return entry.sld;
+        }
+
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setRequestProperty("Accept-Encoding", "gzip, deflate");
+        if (entry != null) {
+            if (entry.etag != null) {
+                conn.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified > 0) {
+                conn.setIfModifiedSince(entry.lastModified);
+            }
+        }
+        conn.connect();
+
+        try {
+            if (entry != null && conn.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                LOGGER.fine("Remote SLD " + key + " not modified");
+                Entry revalidated = new Entry(entry.sld, entry.etag, entry.lastModified,
+                        getExpires(conn, now, entry.lastModified));
+                put(key, revalidated, conn);
+                return entry.sld;
+            }
+
+            byte[] document = read(conn);
+            StyledLayerDescriptor sld = new SLDParser(styleFactory, new ByteArrayInputStream(
+                    document)).parseSLD();
+            if (document.length <= MAX_DOCUMENT_SIZE) {
+                long lastModified = conn.getLastModified();
+                put(key, new Entry(sld, conn.getHeaderField("ETag"), lastModified, getExpires(
+                        conn, now, lastModified)), conn);
+            }
+            return sld;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    void put(String key, Entry entry, HttpURLConnection conn) {
+        // documents which cannot be reused nor revalidated are not worth keeping
+        boolean useless = entry.etag == null && entry.lastModified <= 0
+                && entry.expires <= System.currentTimeMillis();
+        synchronized (entries) {
+            if (!useless && isCacheable(conn.getHeaderField("Cache-Control"))) {
+                entries.put(key, entry);
+            } else {
+                entries.remove(key);
+            }
+        }
+    }
+
+    byte[] read(HttpURLConnection conn) throws IOException {
+        InputStream input = conn.getInputStream();
+        String encoding = conn.getContentEncoding();
+        if ("gzip".equalsIgnoreCase(encoding)) {
+            input = new GZIPInputStream(input);
+        } else if ("deflate".equalsIgnoreCase(encoding)) {
+            input = new InflaterInputStream(input, new Inflater(true));
+        }
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = input.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } finally {
+            input.close();
+        }
+    }
+
+    long getExpires(HttpURLConnection conn, long now, long lastModified) {
+        return getExpires(conn.getHeaderField("Cache-Control"), conn.getExpiration(), now,
+                lastModified);
+    }
+
+    /**
+     * Computes the time a document stops being fresh, according to its response headers.
+     *
+     * @param cacheControl The Cache-Control header, may be null.
+     * @param expires The Expires header, 0 if missing.
+     * @param now The time the document was requested.
+     * @param lastModified The Last-Modified header, 0 if missing.
+     */
+    static long getExpires(String cacheControl, long expires, long now, long lastModified) {
+        if (cacheControl != null) {
+            long maxAge = -1;
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase();
+                if (directive.equals("no-cache")) {
+                    return 0;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring(8).trim());
+                    } catch (NumberFormatException e) {
+                        return 0;
+                    }
+                }
+            }
+            if (maxAge >= 0) {
+                return now + maxAge * 1000;
+            }
+        }
+        if (expires > 0) {
+            return expires;
+        }
+        if (lastModified > 0 && lastModified < now) {
+            return now + Math.min((now - lastModified) / 10, MAX_HEURISTIC_AGE);
+        }
+        return 0;
+    }
+
+    static boolean isCacheable(String cacheControl) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                if (directive.trim().equalsIgnoreCase("no-store")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A cached document along with its validators
+     */
+    static class Entry {
+        StyledLayerDescriptor sld;
+
+        String etag;
+
+        long lastModified;
+
+        long expires;
+
+        Entry(StyledLayerDescriptor sld, String etag, long lastModified, long expires) {
+            this.sld = sld;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.kvp;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.data.DataStore;
+import org.geotools.data.wfs.WFSDataStoreFactory;
+import org.vfny.geoserver.wms.WmsException;
+
+/**
+ * Pool of the remote WFS data stores used by GetMap requests through REMOTE_OWS_URL or
+ * user layers, so that the capabilities of the remote servers are not requested over and
+ * over again.
+ * <p>
+ * Stores are kept along with their sorted type names for {@link #CAPABILITIES_TTL}
+ * milliseconds, after which the remote server is contacted again. At most {@link #MAX_STORES}
+ * stores are kept, evicting the least recently used ones.
+ * </p>
+ */
+class RemoteWFSPool {
+
+    /**
+     * Max number of stores held by the pool
+     */
+    static int MAX_STORES = 32;
+
+    /**
+     * Time a store and its capabilities are reused for, in milliseconds
+     */
+    static long CAPABILITIES_TTL = 10 * 60 * 1000;
+
+    /** url to store, in access order */
+    Map<String, Store> stores = new LinkedHashMap<String, Store>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Store> eldest) {
+            return size() > MAX_STORES;
+        }
+    };
+
+    /**
+     * Returns the store connected to the specified remote WFS, connecting to it if need be.
+     */
+    Store get(URL url) throws WmsException {
+        String key = url.toExternalForm();
+        Store store;
+        synchronized (stores) {
+            store = stores.get(key);
+            if (store == null || store.isExpired()) {
+                // expired stores are not disposed, requests may still be using them
+                store = new Store(url);
+                stores.put(key, store);
+            }
+        }
+
+        try {
+            store.connect();
+        } catch (WmsException e) {
+            synchronized (stores) {
+                if (stores.get(key) == store) {
+                    stores.remove(key);
+                }
+            }
+            throw e;
+        }
+        return store;
+    }
+
+    /**
+     * A remote WFS data store along with its type names
+     */
+    static class Store {
+        URL url;
+
+        long created = System.currentTimeMillis();
+
+        DataStore dataStore;
+
+        /** sorted type names of the store */
+        List<String> typeNames;
+
+        Store(URL url) {
+            this.url = url;
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() - created > CAPABILITIES_TTL;
+        }
+
+        /**
+         * Connects to the remote server, once, concurrent callers wait for the connection.
+         */
+        synchronized void connect() throws WmsException {
+            if (dataStore != null) {
+                return;
+            }
+
+            try {
+                WFSDataStoreFactory factory = new WFSDataStoreFactory();
+                Map params = new HashMap(factory.getImplementationHints());
+                params.put(WFSDataStoreFactory.URL.key, url
+                        + "&request=GetCapabilities&service=WFS");
+                params.put(WFSDataStoreFactory.TRY_GZIP.key, Boolean.TRUE);
+                DataStore dataStore = factory.createDataStore(params);
+
+                List<String> typeNames = new ArrayList<String>(Arrays.asList(dataStore
+                        .getTypeNames()));
+                Collections.sort(typeNames);
+                this.typeNames = Collections.unmodifiableList(typeNames);
+                this.dataStore = dataStore;
+            } catch (Exception e) {
+                throw new WmsException("Could not connect to remote OWS", "RemoteOWSFailure", e);
+            }
+        }
+    }
+}
@@ -13,8 +13,10 @@ import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
@@ -49,6 +51,7 @@ import org.opengis.feature.type.PropertyDescriptor;
 import org.opengis.feature.type.PropertyType;
 import org.vfny.geoserver.wms.WMSMapContext;
 import org.vfny.geoserver.wms.WmsException;
+import org.vfny.geoserver.wms.responses.LegendCache;
 import org.vfny.geoserver.wms.responses.LegendUtils;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -180,12 +183,15 @@ public class LegendDecoration implements MapDecoration {
                     g2d.setFont(g2d.getFont().deriveFont(Font.BOLD));
                     g2d.drawString(findTitle(layer, catalog), TITLE_INDENT, 0 - metrics.getDescent());
                     g2d.setFont(g2d.getFont().deriveFont(Font.PLAIN));
-                    Dimension dim = drawLegend(
+                    Dimension dim = getLegendSize(
                             type,
                             layer.getStyle(),
                             scaleDenominator,
                             g2d
                             );
+                    g2d.drawImage(
+                            getLegendImage(type, layer.getStyle(), scaleDenominator, dim, g2d),
+                            0, 0, null);
                     g2d.translate(0, dim.getHeight()); 
                 } catch (Exception e) {
                     LOGGER.log(Level.WARNING, "Couldn't make a legend for " + type.getName(), e);
@@ -265,6 +271,44 @@ public class LegendDecoration implements MapDecoration {
         return new Dimension((int)totalWidth, (int)totalHeight);
     }
 
+    /**
+     * Returns the legend of the layer as an image, rendering it only if not found in the
+     * {@link LegendCache}
+     */
+    BufferedImage getLegendImage(
+            final SimpleFeatureType layer,
+            final Style style,
+            final double scaleDenominator,
+            final Dimension size,
+            Graphics2D g2d) throws WmsException {
+        final Font font = g2d.getFont();
+        // the hints (antialiasing, ...) change the way the legend is drawn as well
+        final RenderingHints hints = (RenderingHints) g2d.getRenderingHints().clone();
+        final LegendCache.Key key = new LegendCache.Key(style, LegendDecoration.class, layer,
+                scaleDenominator, font, hints);
+        final LegendCache cache = LegendCache.getInstance();
+        BufferedImage legend = cache.get(key);
+        if (legend == null) {
+            // leave room for the descent of the last label
+            FontMetrics metrics = g2d.getFontMetrics();
+            legend = new BufferedImage(
+                    Math.max(1, size.width), 
+                    Math.max(1, size.height + metrics.getDescent()), 
+                    BufferedImage.TYPE_INT_ARGB
+                    );
+            Graphics2D legendGraphics = legend.createGraphics();
+            legendGraphics.setRenderingHints(hints);
+            legendGraphics.setFont(font);
+            try {
+                drawLegend(layer, style, scaleDenominator, legendGraphics);
+            } finally {
+                legendGraphics.dispose();
+            }
+            cache.put(key, legend);
+        }
+        return legend;
+    }
+
     public Dimension drawLegend(
             final SimpleFeatureType layer,
             final Style style,
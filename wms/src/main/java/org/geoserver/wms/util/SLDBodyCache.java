@@ -0,0 +1,180 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.geoserver.wms.util;
+
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geotools.styling.SLDParser;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.geotools.styling.StyledLayerDescriptor;
+
+/**
+ * Cache of the parsed SLD_BODY documents, keyed by the hash of their content, shared by all
+ * the WMS operations accepting SLD_BODY.
+ * <p>
+ * Clients tend to send the very same document over and over, with every tile they request.
+ * Cached documents are shared among requests and must not be modified, code needing to alter
+ * a style must work on a copy.
+ * </p>
+ * <p>
+ * The cache holds at most {@link #MAX_ENTRIES} documents of up to {@link #MAX_BODY_SIZE}
+ * characters, evicting the least recently used ones.
+ * </p>
+ */
+public class SLDBodyCache {
+
+    /**
+     * Max number of documents held by the cache
+     */
+    static int MAX_ENTRIES = 200;
+
+    /**
+     * Max size of the documents being cached, in characters
+     */
+    static int MAX_BODY_SIZE = 1024 * 1024;
+
+    static final SLDBodyCache INSTANCE = new SLDBodyCache();
+
+    /**
+     * The cache shared by all the WMS operations.
+     */
+    public static SLDBodyCache getInstance() {
+        return INSTANCE;
+    }
+
+    /** content hash to parsed document, in access order */
+    Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    AtomicLong hits = new AtomicLong();
+
+    AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the parsed SLD document, as parsed by {@link SLDParser#parseSLD()}.
+     */
+    public StyledLayerDescriptor getSLD(String body, StyleFactory styleFactory) {
+        Entry entry = getEntry(body);
+        synchronized (entry) {
+            if (entry.sld == null) {
+                misses.incrementAndGet();
+                entry.sld = new SLDParser(styleFactory, new StringReader(body)).parseSLD();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.sld;
+        }
+    }
+
+    /**
+     * Returns the styles of the SLD document, as parsed by {@link SLDParser#readXML()}.
+     */
+    public Style[] getStyles(String body, StyleFactory styleFactory) {
+        Entry entry = getEntry(body);
+        synchronized (entry) {
+            if (entry.styles == null) {
+                misses.incrementAndGet();
+                entry.styles = new SLDParser(styleFactory, new StringReader(body)).readXML();
+            } else {
+                hits.incrementAndGet();
+            }
+            return entry.styles;
+        }
+    }
+
+    /**
+     * Whether the document has already been validated against the SLD schema.
+     */
+    public boolean isValidated(String body) {
+        return getEntry(body).validated;
+    }
+
+    /**
+     * Records that the document is valid according to the SLD schema.
+     */
+    public void setValidated(String body) {
+        getEntry(body).validated = true;
+    }
+
+    /**
+     * Number of documents served from the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of documents that had to be parsed.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Empties the cache, resetting the hit and miss counts.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    Entry getEntry(String body) {
+        if (body.length() > MAX_BODY_SIZE) {
+            // too big to keep around, use a throw away entry
+            return new Entry();
+        }
+
+        String key = hash(body);
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    static String hash(String body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(body.getBytes("UTF-8"));
+            StringBuffer sb = new StringBuffer(digest.length * 2 + 12);
+            for (int i = 0; i < digest.length; i++) {
+                sb.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            // length too, so that a collision also needs equally long documents
+            return sb.append(':').append(body.length()).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A cached document, parsed on demand in the forms requested so far
+     */
+    static class Entry {
+        StyledLayerDescriptor sld;
+
+        Style[] styles;
+
+        volatile boolean validated;
+    }
+}
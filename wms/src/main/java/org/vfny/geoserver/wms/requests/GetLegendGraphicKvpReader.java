@@ -8,7 +8,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Map;
@@ -24,6 +23,7 @@ import org.geoserver.catalog.LayerInfo.Type;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.MapLayerInfo;
 import org.geoserver.wms.WMS;
+import org.geoserver.wms.util.SLDBodyCache;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.factory.GeoTools;
 import org.geotools.feature.FeatureCollection;
@@ -391,8 +391,20 @@ public class GetLegendGraphicKvpReader extends WmsKvpRequestReader {
      *             if a parsing error occurs.
      */
     private Style[] parseSldBody(String sldBody) throws WmsException {
-        // return parseSld(new StringBufferInputStream(sldBody));
-        return parseSld(new StringReader(sldBody));
+        // clients tend to send the same body over and over, parse it once
+        Style[] styles = null;
+
+        try {
+            styles = SLDBodyCache.getInstance().getStyles(sldBody, styleFactory);
+        } catch (RuntimeException e) {
+            throw new WmsException(e);
+        }
+
+        if ((styles == null) || (styles.length == 0)) {
+            throw new WmsException("Document contains no styles");
+        }
+
+        return styles;
     }
 
     /**
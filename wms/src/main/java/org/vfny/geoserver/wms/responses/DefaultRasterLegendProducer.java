@@ -153,13 +153,33 @@ public abstract class DefaultRasterLegendProducer implements GetLegendGraphicPro
      */
     public void produceLegendGraphic(GetLegendGraphicRequest request)
         throws WmsException {
+        // legends almost never change, see if we already rendered this one. The output
+        // format is not part of the key, the same image is encoded in any format
+        final Map legendOptions = request.getLegendOptions() != null ? new HashMap(request
+                .getLegendOptions()) : null;
+        final LegendCache.Key key = new LegendCache.Key(request.getStyle(), request.getRule(),
+                request.getLayer(), request.getWidth(), request.getHeight(), request
+                        .isTransparent(), legendOptions, request.getScale());
+        final LegendCache cache = LegendCache.getInstance();
+        BufferedImage legend = cache.get(key);
+        if (legend == null) {
+            legend = renderLegendGraphic(request);
+            cache.put(key, legend);
+        }
+        this.legendGraphic = legend;
+    }
+
+    /**
+     * Renders the legend graphic for the request
+     */
+    BufferedImage renderLegendGraphic(GetLegendGraphicRequest request)
+        throws WmsException {
     	
         final FeatureType layer=request.getLayer();
         if(LegendUtils.checkGridLayer(layer))
         {
         	final RasterLayerLegendHelper rasterLegendHelper= new RasterLayerLegendHelper(request);
-        	this.legendGraphic= rasterLegendHelper.getLegend();
-        	return;
+        	return rasterLegendHelper.getLegend();
         	
         }
 		final Feature temp = createSampleFeature(layer);
@@ -221,7 +241,7 @@ public abstract class DefaultRasterLegendProducer implements GetLegendGraphicPro
 
         //JD: changed legend behavior, see GEOS-812
         //this.legendGraphic = scaleImage(mergeLegends(legendsStack), request);
-        this.legendGraphic = mergeLegends(legendsStack, applicableRules, request);
+        return mergeLegends(legendsStack, applicableRules, request);
     }
 
    /**
@@ -0,0 +1,193 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInitializer;
+import org.geotools.styling.Style;
+
+/**
+ * Caches the legend images rendered for GetLegendGraphic requests and for the legend map
+ * decoration, legends almost never change while rendering them is not cheap.
+ * <p>
+ * Images are cached against the {@link Style} object they have been rendered from, along
+ * with whatever else changes their look. The styles coming from the catalog are cached by
+ * the {@link ResourcePool} and named after their {@link StyleInfo}, when a style is
+ * modified or removed from the catalog the legends of that style name are dropped. The
+ * cached images are shared, they must not be modified.
+ * </p>
+ */
+public class LegendCache implements GeoServerInitializer {
+
+    /**
+     * Default number of cached legends
+     */
+    public static int CACHE_SIZE_DEFAULT = 500;
+
+    static final LegendCache INSTANCE = new LegendCache(CACHE_SIZE_DEFAULT);
+
+    /**
+     * Returns the legend cache shared by all the legend producers
+     */
+    public static LegendCache getInstance() {
+        return INSTANCE;
+    }
+
+    Map<Key, BufferedImage> legends;
+
+    long hits;
+
+    long misses;
+
+    LegendCache(final int cacheSize) {
+        legends = new LinkedHashMap<Key, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Drops the legends of the styles modified or removed from the catalog
+     */
+    public void initialize(GeoServer geoServer) throws Exception {
+        geoServer.getCatalog().addListener(new CacheClearingListener());
+    }
+
+    /**
+     * Returns the cached legend, or null if not found
+     */
+    public synchronized BufferedImage get(Key key) {
+        BufferedImage legend = legends.get(key);
+        if (legend != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return legend;
+    }
+
+    public synchronized void put(Key key, BufferedImage legend) {
+        legends.put(key, legend);
+    }
+
+    /**
+     * Drops the legends rendered from the style
+     */
+    public synchronized void clear(Style style) {
+        for (Iterator<Key> it = legends.keySet().iterator(); it.hasNext();) {
+            if (it.next().style == style) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops the legends rendered from the styles with the specified name
+     */
+    public synchronized void clear(String styleName) {
+        for (Iterator<Key> it = legends.keySet().iterator(); it.hasNext();) {
+            Style style = it.next().style;
+            if (style != null && styleName.equals(style.getName())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Drops all the cached legends
+     */
+    public synchronized void clear() {
+        legends.clear();
+    }
+
+    /**
+     * The number of legends found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * The number of legends that had to be rendered
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Identifies a legend: the style, compared by identity, and the other parameters
+     * affecting the legend look, compared by value
+     */
+    public static class Key {
+        Style style;
+
+        Object[] params;
+
+        public Key(Style style, Object... params) {
+            this.style = style;
+            this.params = params;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return style == other.style && Arrays.deepEquals(params, other.params);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(style) * 31 + Arrays.deepHashCode(params);
+        }
+    }
+
+    class CacheClearingListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+            // the style might be renamed, drop the legends under the old name
+            if (event.getSource() instanceof StyleInfo) {
+                clear(((StyleInfo) event.getSource()).getName());
+            }
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            // clear once the change is applied as well, or a concurrent request could cache
+            // the legend of the old style again
+            if (event.getSource() instanceof StyleInfo) {
+                clear(((StyleInfo) event.getSource()).getName());
+            }
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            if (event.getSource() instanceof StyleInfo) {
+                clear(((StyleInfo) event.getSource()).getName());
+            }
+        }
+
+        public void reloaded() {
+            clear();
+        }
+    }
+}
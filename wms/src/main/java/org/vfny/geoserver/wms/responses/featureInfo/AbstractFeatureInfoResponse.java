@@ -4,11 +4,9 @@
  */
 package org.vfny.geoserver.wms.responses.featureInfo;
 
-import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.NoninvertibleTransformException;
 import java.awt.geom.Point2D;
-import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -16,21 +14,27 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoveragePointReader;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.data.util.CoverageUtils;
+import org.geoserver.jai.ServiceJAI;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.MapLayerInfo;
 import org.geotools.coverage.GridSampleDimension;
-import org.geotools.coverage.grid.GridCoverage2D;
-import org.geotools.coverage.grid.GridEnvelope2D;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
-import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.data.DataUtilities;
 import org.geotools.data.DefaultQuery;
 import org.geotools.data.FeatureSource;
@@ -40,27 +44,22 @@ import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.factory.GeoTools;
 import org.geotools.factory.Hints;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
 import org.geotools.feature.SchemaException;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.geotools.filter.IllegalFilterException;
-import org.geotools.filter.visitor.SimplifyingFilterVisitor;
 import org.geotools.geometry.DirectPosition2D;
 import org.geotools.geometry.TransformedDirectPosition;
 import org.geotools.geometry.jts.JTS;
 import org.geotools.geometry.jts.ReferencedEnvelope;
-import org.geotools.parameter.Parameter;
 import org.geotools.referencing.CRS;
-import org.geotools.renderer.lite.MetaBufferEstimator;
 import org.geotools.renderer.lite.RendererUtilities;
-import org.geotools.resources.geometry.XRectangle2D;
 import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
 import org.geotools.util.NullProgressListener;
 import org.opengis.coverage.CannotEvaluateException;
-import org.opengis.coverage.PointOutsideCoverageException;
-import org.opengis.coverage.grid.GridEnvelope;
 import org.opengis.feature.Feature;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -69,14 +68,12 @@ import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.feature.type.Name;
 import org.opengis.filter.Filter;
 import org.opengis.filter.FilterFactory2;
-import org.opengis.filter.Or;
 import org.opengis.geometry.DirectPosition;
 import org.opengis.geometry.MismatchedDimensionException;
 import org.opengis.parameter.GeneralParameterValue;
 import org.opengis.parameter.ParameterValueGroup;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.opengis.referencing.datum.PixelInCell;
 import org.opengis.referencing.operation.MathTransform;
 import org.opengis.referencing.operation.TransformException;
 import org.vfny.geoserver.Response;
@@ -128,6 +125,20 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
      */
     protected String format = null;
 
+    /**
+     * Runs the layer queries of the requests hitting more than one layer, shared among all
+     * requests. The threads mostly wait on the data stores, thus there are more of them than
+     * processors
+     */
+    static final ExecutorService LAYER_QUERIES = Executors.newFixedThreadPool(Runtime
+            .getRuntime().availableProcessors() * 2, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServer GetFeatureInfo layer query");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     /**
      * Creates a new GetMapDelegate object.
      */
@@ -214,6 +225,10 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
 
     /**
      * Performs the execute request using geotools rendering.
+     * <p>
+     * The layer queries are prepared in the request thread and, when more than one layer
+     * is queried, run in parallel, the results are returned in layer order anyways.
+     * </p>
      *
      * @param requestedLayers The information on the types requested.
      * @param queries The results of the queries to generate maps with.
@@ -245,6 +260,9 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
         metas = new ArrayList<MapLayerInfo>(layerCount);
         
         try {
+            // the catalog and security wrappers are meant to be used in the request thread,
+            // only the actual data access is moved to the query threads
+            List<LayerQuery> queries = new ArrayList<LayerQuery>(layerCount);
             for (int i = 0; i < layerCount; i++) {
                 List<Rule> rules = getActiveRules(styles[i], scaleDenominator);
                 if(rules.size() == 0)
@@ -253,19 +271,19 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
                 if (layerInfo.getType() == MapLayerInfo.TYPE_VECTOR) {
                     CoordinateReferenceSystem dataCRS = layerInfo.getCoordinateReferenceSystem();
 
+                    // the rules filter and the symbol size depend only on the style and
+                    // the active rules, they are compiled once per scale range
+                    RulesFilterCache.CompiledRules compiled = RulesFilterCache.INSTANCE.get(
+                            styles[i], rules, ff);
+
                     // compute the request radius
                     double radius;
                     if(buffer <= 0) {
                         // estimate the radius given the currently active rules
-                        MetaBufferEstimator estimator = new MetaBufferEstimator();
-                        for (Rule rule : rules) {
-                            rule.accept(estimator);
-                        }
-                        
-                        if(estimator.getBuffer() < 6.0 || !estimator.isEstimateAccurate()) {
+                        if(compiled.buffer < 6.0 || !compiled.bufferAccurate) {
                             radius = 3.0;
                         } else {
-                            radius =  estimator.getBuffer() / 2.0;
+                            radius =  compiled.buffer / 2.0;
                         }
                     } else {
                         radius = buffer;
@@ -309,33 +327,24 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
                         getFInfoFilter = ff.and(getFInfoFilter, filters[i]);
                     }
                     
-                    // see if we can include the rule filters as well, if too many we'll do them in memory
-                    Filter postFilter = Filter.INCLUDE;
-                    Filter rulesFilters = buildRulesFilter(ff, rules);
-                    if(!(rulesFilters instanceof Or) ||
-                        (rulesFilters instanceof Or && ((Or) rulesFilters).getChildren().size() <= 20)) {
-                        getFInfoFilter = ff.and(getFInfoFilter, rulesFilters);
-                    } else {
-                        postFilter = rulesFilters;
+                    // include the rule filters as well, unless there are too many of them,
+                    // in that case they are evaluated in memory
+                    if(Filter.INCLUDE.equals(compiled.postFilter)) {
+                        getFInfoFilter = ff.and(getFInfoFilter, compiled.filter);
                     }
 
                     String typeName = schema.getName().getLocalPart();
                     Query q = new DefaultQuery(typeName, null, getFInfoFilter, request.getFeatureCount(), Query.ALL_NAMES, null);
-                    
-                    FeatureCollection<? extends FeatureType, ? extends Feature> match;
-                    match = featureSource.getFeatures(q);
-                    
-                    // if we could not include the rules filter into the query, post process in memory
-                    if(!Filter.INCLUDE.equals(postFilter))
-                        match = new FilteringFeatureCollection(match, postFilter);
 
-                    //this was crashing Gml2FeatureResponseDelegate due to not setting
-                    //the featureresults, thus not being able of querying the SRS
-                    //if (match.getCount() > 0) {
-                    results.add(match);
-                    metas.add(layerInfo);
+                    // small layers can be kept in memory, if the admin asked for it
+                    FeatureInfoIndex.LayerIndex index = null;
+                    FeatureTypeInfo typeInfo = layerInfo.getFeature();
+                    if (FeatureInfoIndex.isEnabled(typeInfo)) {
+                        index = FeatureInfoIndex.INSTANCE.getIndex(typeInfo, featureSource);
+                    }
 
-                    //}
+                    queries.add(new VectorQuery(layerInfo, featureSource, q, compiled.postFilter,
+                            index, pixelRect.getEnvelopeInternal(), ff));
                 } else {
                     final CoverageInfo cinfo = requestedLayers[i].getCoverage();
                     final AbstractGridCoverage2DReader reader=(AbstractGridCoverage2DReader) cinfo.getGridCoverageReader(new NullProgressListener(),GeoTools.getDefaultHints());
@@ -361,63 +370,22 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
                         }
                         position=arbitraryToInternal;
                     }
-                    //check that the provided point is inside the bbox for this coverage
-                    if(!reader.getOriginalEnvelope().contains(position)) {
-                        continue;
-                    }
-                    
-                    //now get the position in raster space using the world to grid related to corner
-                    final MathTransform worldToGrid=reader.getOriginalGridToWorld(PixelInCell.CELL_CORNER).inverse();
-                    final DirectPosition rasterMid = worldToGrid.transform(position,null);
-                    // create a 20X20 rectangle aruond the mid point and then intersect with the original range
-                    final Rectangle2D.Double rasterArea= new Rectangle2D.Double();
-                    rasterArea.setFrameFromCenter(rasterMid.getOrdinate(0), rasterMid.getOrdinate(1), rasterMid.getOrdinate(0)+10, rasterMid.getOrdinate(1)+10);
-                    final Rectangle integerRasterArea=rasterArea.getBounds();
-                    final GridEnvelope gridEnvelope=reader.getOriginalGridRange();
-                    final Rectangle originalArea=
-                    	(gridEnvelope instanceof GridEnvelope2D)?
-                    			(GridEnvelope2D)gridEnvelope:
-                    			new Rectangle();
-                    XRectangle2D.intersect(integerRasterArea, originalArea, integerRasterArea);
-                    //paranoiac check, did we fall outside the coverage raster area? This should never really happne if the request is well formed.
-                    if(integerRasterArea.isEmpty())
-                    	return;
-                    // now set the grid geometry for this request
-                    for(int k=0;k<parameters.length;k++){
-                    	if(!(parameters[k] instanceof Parameter<?>))
-                    		continue;
-                    	
-                    	final Parameter<?> parameter = (Parameter<?>) parameters[k];
-                    	if(parameter.getDescriptor().getName().equals(AbstractGridFormat.READ_GRIDGEOMETRY2D.getName()))
-                    	{
-                    		//
-                    		//create a suitable geometry for this request reusing the getmap (we could probably optimize)
-                    		//
-                    		parameter.setValue(new GridGeometry2D(
-                    				new GridEnvelope2D(integerRasterArea),
-                    				reader.getOriginalGridToWorld(PixelInCell.CELL_CENTER),
-                    				reader.getCrs()
-                    				));
-                    	}
-                    	
-                    }
-                    final GridCoverage2D coverage=(GridCoverage2D) reader.read(parameters);
-                    if(coverage==null)
-                    {
-                    	if(LOGGER.isLoggable(Level.FINE))
-                    		LOGGER.fine("Unable to load raster data for this request.");
-                    	return;
-                    }
+                    final CoveragePointReader pointReader = cinfo.getCatalog().getResourcePool()
+                            .getCoveragePointReader();
+                    queries.add(new RasterQuery(layerInfo, pointReader, reader, parameters,
+                            position, cinfo.getQualifiedName()));
+                }
+            }
 
-                    try {
-                        final double[] pixelValues = coverage.evaluate(position,(double[]) null);
-                        final FeatureCollection<SimpleFeatureType, SimpleFeature> pixel;
-                        pixel = wrapPixelInFeatureCollection(coverage, pixelValues, cinfo.getQualifiedName());
-                        metas.add(requestedLayers[i]);
-                        results.add(pixel);
-                    } catch(PointOutsideCoverageException e) {
-                        // it's fine, users might legitimately query point outside, we just don't return anything
-                    }
+            List<FeatureCollection<? extends FeatureType, ? extends Feature>> collections;
+            collections = runQueries(queries);
+            for (int i = 0; i < collections.size(); i++) {
+                //this was crashing Gml2FeatureResponseDelegate due to not setting
+                //the featureresults, thus not being able of querying the SRS,
+                //empty vector results are kept, only rasters queried outside are skipped
+                if (collections.get(i) != null) {
+                    results.add(collections.get(i));
+                    metas.add(queries.get(i).layer);
                 }
             }
         } catch (Exception e) {
@@ -425,19 +393,48 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
         } 
     }
 
-    private Filter buildRulesFilter(org.opengis.filter.FilterFactory ff, List<Rule> rules) {
-        // build up a or of all the rule filters
-        List<Filter> filters = new ArrayList<Filter>();
-        for (Rule rule : rules) {
-            if(rule.getFilter() == null)
-                return Filter.INCLUDE;
-            filters.add(rule.getFilter());
+    /**
+     * Runs the queries, in parallel if more than one, and returns their results in the same
+     * order
+     */
+    List<FeatureCollection<? extends FeatureType, ? extends Feature>> runQueries(
+            List<LayerQuery> queries) throws Exception {
+        List<FeatureCollection<? extends FeatureType, ? extends Feature>> collections;
+        collections = new ArrayList<FeatureCollection<? extends FeatureType, ? extends Feature>>(
+                queries.size());
+        if (queries.size() <= 1) {
+            // nothing to gain running a single query in another thread
+            for (LayerQuery query : queries) {
+                collections.add(query.call());
+            }
+            return collections;
+        }
+
+        List<Future<FeatureCollection<? extends FeatureType, ? extends Feature>>> futures;
+        futures = new ArrayList<Future<FeatureCollection<? extends FeatureType, ? extends Feature>>>(
+                queries.size());
+        try {
+            for (LayerQuery query : queries) {
+                // the results have to be read in the query thread, not lazily afterwards
+                query.materialize = true;
+                futures.add(LAYER_QUERIES.submit(query));
+            }
+            for (Future<FeatureCollection<? extends FeatureType, ? extends Feature>> future : futures) {
+                collections.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw new WmsException(cause);
+        } finally {
+            // does nothing if all went fine, otherwise stops the queries still running
+            for (Future<FeatureCollection<? extends FeatureType, ? extends Feature>> future : futures) {
+                future.cancel(true);
+            }
         }
-        // not or and and simplify (if there is any include/exclude we'll get 
-        // a very simple result ;-)
-        Filter or = ff.or(filters);
-        SimplifyingFilterVisitor simplifier = new SimplifyingFilterVisitor();
-        return (Filter) or.accept(simplifier, null);
+        return collections;
     }
 
     /**
@@ -477,12 +474,10 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
         return pixelRect;
     }
 
-    private FeatureCollection<SimpleFeatureType, SimpleFeature> wrapPixelInFeatureCollection(
-            GridCoverage2D coverage, double[] pixelValues, Name coverageName)
+    private static FeatureCollection<SimpleFeatureType, SimpleFeature> wrapPixelInFeatureCollection(
+            GridSampleDimension[] sampleDimensions, double[] pixelValues, Name coverageName)
             throws SchemaException {
         
-        GridSampleDimension[] sampleDimensions = coverage.getSampleDimensions();
-        
         SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
         builder.setName(coverageName);
         final Set<String> bandNames=new HashSet<String>();
@@ -557,4 +552,140 @@ public abstract class AbstractFeatureInfoResponse extends GetFeatureInfoDelegate
 
         return at;
     }
+
+    /**
+     * A query against a single layer, returning the features found, or null if the layer
+     * should not be part of the response
+     */
+    static abstract class LayerQuery implements
+            Callable<FeatureCollection<? extends FeatureType, ? extends Feature>> {
+        MapLayerInfo layer;
+
+        /**
+         * The service the request thread is working for, the JAI operations run in the query
+         * threads are accounted to it
+         */
+        ServiceJAI jai = ServiceJAI.getCurrent();
+
+        /**
+         * Whether the results should be loaded in memory before returning them
+         */
+        boolean materialize;
+
+        LayerQuery(MapLayerInfo layer) {
+            this.layer = layer;
+        }
+
+        public FeatureCollection<? extends FeatureType, ? extends Feature> call()
+                throws Exception {
+            boolean bind = jai != null && ServiceJAI.getCurrent() == null;
+            if (bind) {
+                ServiceJAI.enter(jai.getId());
+            }
+            try {
+                return query();
+            } finally {
+                if (bind) {
+                    ServiceJAI.exit();
+                }
+            }
+        }
+
+        abstract FeatureCollection<? extends FeatureType, ? extends Feature> query()
+                throws Exception;
+    }
+
+    static class VectorQuery extends LayerQuery {
+        FeatureSource<? extends FeatureType, ? extends Feature> source;
+
+        Query query;
+
+        Filter postFilter;
+
+        FeatureInfoIndex.LayerIndex index;
+
+        Envelope envelope;
+
+        FilterFactory2 ff;
+
+        VectorQuery(MapLayerInfo layer, FeatureSource<? extends FeatureType, ? extends Feature> source,
+                Query query, Filter postFilter, FeatureInfoIndex.LayerIndex index,
+                Envelope envelope, FilterFactory2 ff) {
+            super(layer);
+            this.source = source;
+            this.query = query;
+            this.postFilter = postFilter;
+            this.index = index;
+            this.envelope = envelope;
+            this.ff = ff;
+        }
+
+        @SuppressWarnings("unchecked")
+        FeatureCollection<? extends FeatureType, ? extends Feature> query() throws Exception {
+            if (index != null) {
+                Filter filter = query.getFilter();
+                if (!Filter.INCLUDE.equals(postFilter))
+                    filter = ff.and(filter, postFilter);
+                return index.query(envelope, filter, query.getMaxFeatures());
+            }
+
+            FeatureCollection match = source.getFeatures(query);
+
+            // if we could not include the rules filter into the query, post process in memory
+            if(!Filter.INCLUDE.equals(postFilter))
+                match = new FilteringFeatureCollection(match, postFilter);
+
+            if (materialize && match.getSchema() instanceof SimpleFeatureType) {
+                ListFeatureCollection features = new ListFeatureCollection(
+                        (SimpleFeatureType) match.getSchema());
+                FeatureIterator<SimpleFeature> fi = match.features();
+                try {
+                    while (fi.hasNext()) {
+                        features.add(fi.next());
+                    }
+                } finally {
+                    match.close(fi);
+                }
+                return features;
+            }
+            return match;
+        }
+    }
+
+    static class RasterQuery extends LayerQuery {
+        CoveragePointReader pointReader;
+
+        AbstractGridCoverage2DReader reader;
+
+        GeneralParameterValue[] parameters;
+
+        DirectPosition position;
+
+        Name coverageName;
+
+        RasterQuery(MapLayerInfo layer, CoveragePointReader pointReader,
+                AbstractGridCoverage2DReader reader, GeneralParameterValue[] parameters,
+                DirectPosition position, Name coverageName) {
+            super(layer);
+            this.pointReader = pointReader;
+            this.reader = reader;
+            this.parameters = parameters;
+            this.position = position;
+            this.coverageName = coverageName;
+        }
+
+        FeatureCollection<? extends FeatureType, ? extends Feature> query() throws Exception {
+            // read just the pixel under the position, points outside of the coverage
+            // are fine, users might legitimately query them, we just don't return anything
+            final CoveragePointReader.PixelValue pixelValue = pointReader.read(reader,
+                    parameters, position);
+            if (pixelValue == null) {
+                if(LOGGER.isLoggable(Level.FINE))
+                    LOGGER.fine("No raster data found for this request.");
+                return null;
+            }
+            return wrapPixelInFeatureCollection(pixelValue.getSampleDimensions(), pixelValue
+                    .getValues(), coverageName);
+        }
+    }
 }
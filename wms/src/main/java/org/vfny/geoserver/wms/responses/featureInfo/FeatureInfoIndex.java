@@ -0,0 +1,311 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.featureInfo;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.config.GeoServer;
+import org.geoserver.config.GeoServerInitializer;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.opengis.feature.Feature;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.FeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.index.strtree.STRtree;
+
+/**
+ * Keeps in memory, indexed by an STR tree, the features of the layers GetFeatureInfo is
+ * most often run against, so that a click is answered without hitting the data store.
+ * <p>
+ * The index is opt in, it is built only for the feature types having the
+ * {@link #INDEX_KEY} metadata set to true, and only if they have no more than
+ * {@link #MAX_FEATURES} features. It is meant for small layers whose data does not change
+ * often: the index is rebuilt in the background {@link #EXPIRY} milliseconds after being
+ * loaded, the old one keeps on answering meanwhile, and changes made to the data in the
+ * meantime are not seen. The index of a feature type is dropped when the feature type is
+ * modified or removed from the catalog.
+ * </p>
+ */
+public class FeatureInfoIndex implements GeoServerInitializer {
+
+    static final Logger LOGGER = org.geotools.util.logging.Logging
+            .getLogger("org.vfny.geoserver.responses.wms.featureinfo");
+
+    /**
+     * Feature type metadata key enabling the index
+     */
+    public static final String INDEX_KEY = "featureInfo.index";
+
+    /**
+     * Layers with more features than this are not indexed
+     */
+    static int MAX_FEATURES = 10000;
+
+    /**
+     * Time after which an index is rebuilt, in milliseconds
+     */
+    static long EXPIRY = 60 * 1000;
+
+    static final FeatureInfoIndex INSTANCE = new FeatureInfoIndex();
+
+    /**
+     * Rebuilds the expired indexes, one at a time
+     */
+    static final ExecutorService REBUILDS = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServer GetFeatureInfo index rebuild");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * Returns the index shared by all the GetFeatureInfo requests
+     */
+    public static FeatureInfoIndex getInstance() {
+        return INSTANCE;
+    }
+
+    Map<String, Entry> indexes = new HashMap<String, Entry>();
+
+    long hits;
+
+    /**
+     * Drops the indexes of the feature types modified or removed from the catalog
+     */
+    public void initialize(GeoServer geoServer) throws Exception {
+        geoServer.getCatalog().addListener(new IndexClearingListener());
+    }
+
+    /**
+     * The number of times an in memory index has been used to answer a query
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns true if the feature type asks for an in memory index
+     */
+    static boolean isEnabled(FeatureTypeInfo info) {
+        if (info == null) {
+            return false;
+        }
+        Boolean enabled = info.getMetadata().get(INDEX_KEY, Boolean.class);
+        return enabled != null && enabled.booleanValue();
+    }
+
+    /**
+     * Returns the index of the feature type, loading it from the source if needed, or null
+     * if the features cannot be indexed
+     */
+    LayerIndex getIndex(FeatureTypeInfo info,
+            FeatureSource<? extends FeatureType, ? extends Feature> source) throws IOException {
+        Entry entry;
+        synchronized (indexes) {
+            entry = indexes.get(info.getId());
+            if (entry == null) {
+                entry = new Entry(info.getName());
+                indexes.put(info.getId(), entry);
+            }
+        }
+        // loading happens out of the map lock, other layers are not blocked meanwhile
+        LayerIndex index = entry.load(source);
+        if (index != null) {
+            synchronized (this) {
+                hits++;
+            }
+        }
+        return index;
+    }
+
+    void remove(FeatureTypeInfo info) {
+        synchronized (indexes) {
+            indexes.remove(info.getId());
+        }
+    }
+
+    void clear() {
+        synchronized (indexes) {
+            indexes.clear();
+        }
+    }
+
+    /**
+     * Holds the current index of a layer and loads it again once expired
+     */
+    static class Entry {
+        String name;
+
+        LayerIndex index;
+
+        long loaded;
+
+        boolean rebuilding;
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        synchronized LayerIndex load(
+                final FeatureSource<? extends FeatureType, ? extends Feature> source)
+                throws IOException {
+            long now = System.currentTimeMillis();
+            if (loaded == 0) {
+                // nothing to answer with yet, the first request waits for the index
+                index = build(source);
+                loaded = now;
+            } else if (!rebuilding && now - loaded > EXPIRY) {
+                // a layer too big to index is checked again only once expired as well
+                rebuilding = true;
+                REBUILDS.execute(new Runnable() {
+                    public void run() {
+                        rebuild(source);
+                    }
+                });
+            }
+            return index;
+        }
+
+        void rebuild(FeatureSource<? extends FeatureType, ? extends Feature> source) {
+            LayerIndex rebuilt = null;
+            boolean built = false;
+            try {
+                rebuilt = build(source);
+                built = true;
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to rebuild the GetFeatureInfo index of "
+                        + name + ", keeping the old one", e);
+            } finally {
+                synchronized (this) {
+                    if (built) {
+                        index = rebuilt;
+                    }
+                    // on failure try again once expired
+                    loaded = System.currentTimeMillis();
+                    rebuilding = false;
+                }
+            }
+        }
+
+        LayerIndex build(FeatureSource<? extends FeatureType, ? extends Feature> source)
+                throws IOException {
+            if (!(source.getSchema() instanceof SimpleFeatureType)) {
+                return null;
+            }
+
+            STRtree tree = new STRtree();
+            int count = 0;
+            FeatureIterator<? extends Feature> fi = source.getFeatures().features();
+            try {
+                while (fi.hasNext()) {
+                    SimpleFeature feature = (SimpleFeature) fi.next();
+                    Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                    if (geometry == null) {
+                        continue;
+                    }
+                    if (++count > MAX_FEATURES) {
+                        if (LOGGER.isLoggable(Level.FINE)) {
+                            LOGGER.fine("Layer " + name + " has more than " + MAX_FEATURES
+                                    + " features, not indexing it");
+                        }
+                        return null;
+                    }
+                    tree.insert(geometry.getEnvelopeInternal(), feature);
+                }
+            } finally {
+                fi.close();
+            }
+            // build now, the tree is queried concurrently afterwards
+            tree.build();
+            return new LayerIndex(tree, (SimpleFeatureType) source.getSchema());
+        }
+    }
+
+    /**
+     * An immutable snapshot of the features of a layer
+     */
+    static class LayerIndex {
+        STRtree tree;
+
+        SimpleFeatureType schema;
+
+        LayerIndex(STRtree tree, SimpleFeatureType schema) {
+            this.tree = tree;
+            this.schema = schema;
+        }
+
+        /**
+         * Returns the indexed features whose bounds intersect the envelope and matching the
+         * filter, up to maxFeatures when positive
+         */
+        FeatureCollection<SimpleFeatureType, SimpleFeature> query(Envelope envelope,
+                Filter filter, int maxFeatures) {
+            ListFeatureCollection result = new ListFeatureCollection(schema);
+            List candidates = tree.query(envelope);
+            for (Object candidate : candidates) {
+                SimpleFeature feature = (SimpleFeature) candidate;
+                if (filter.evaluate(feature)) {
+                    result.add(feature);
+                    if (maxFeatures > 0 && result.size() >= maxFeatures) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    class IndexClearingListener implements CatalogListener {
+
+        public void handleAddEvent(CatalogAddEvent event) {
+        }
+
+        public void handleModifyEvent(CatalogModifyEvent event) {
+        }
+
+        public void handlePostModifyEvent(CatalogPostModifyEvent event) {
+            // drop once the change is applied, or a concurrent request could index the
+            // features of the old configuration again
+            Object source = event.getSource();
+            if (source instanceof FeatureTypeInfo) {
+                remove((FeatureTypeInfo) source);
+            } else if (source instanceof DataStoreInfo) {
+                clear();
+            }
+        }
+
+        public void handleRemoveEvent(CatalogRemoveEvent event) {
+            if (event.getSource() instanceof FeatureTypeInfo) {
+                remove((FeatureTypeInfo) event.getSource());
+            }
+        }
+
+        public void reloaded() {
+            clear();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.featureInfo;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geotools.feature.collection.AbstractFeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+/**
+ * A feature collection backed by a list, returning the features in the order they have
+ * been added. Unlike DefaultFeatureCollection it does not sort them by id, so it keeps the
+ * order the data store or the index returned them in, and adding a feature is cheap.
+ */
+class ListFeatureCollection extends AbstractFeatureCollection {
+
+    List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+
+    ListFeatureCollection(SimpleFeatureType schema) {
+        super(schema);
+    }
+
+    public boolean add(SimpleFeature feature) {
+        return features.add(feature);
+    }
+
+    @Override
+    protected Iterator openIterator() {
+        return features.iterator();
+    }
+
+    @Override
+    protected void closeIterator(Iterator close) {
+        // nothing to release
+    }
+
+    @Override
+    public int size() {
+        return features.size();
+    }
+
+    @Override
+    public ReferencedEnvelope getBounds() {
+        ReferencedEnvelope bounds = new ReferencedEnvelope(getSchema()
+                .getCoordinateReferenceSystem());
+        for (SimpleFeature feature : features) {
+            ReferencedEnvelope fb = new ReferencedEnvelope(feature.getBounds());
+            if (!fb.isNull()) {
+                bounds.expandToInclude(fb);
+            }
+        }
+        return bounds;
+    }
+}
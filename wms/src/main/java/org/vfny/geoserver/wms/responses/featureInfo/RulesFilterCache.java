@@ -0,0 +1,163 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org.  All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.featureInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geotools.filter.visitor.SimplifyingFilterVisitor;
+import org.geotools.renderer.lite.MetaBufferEstimator;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory;
+import org.opengis.filter.Or;
+
+/**
+ * Caches, for a style and the set of its rules active at the requested scale, what
+ * GetFeatureInfo derives from the rules: the simplified "or" of the rule filters, whether
+ * it can be sent to the data store or has to be evaluated in memory, and the size of the
+ * symbols. Requests against the same layers at the same zoom level, the most common case
+ * by far, compile them only once.
+ * <p>
+ * Styles and rules are compared by identity, the styles cached by the resource pool are
+ * replaced by new objects when modified.
+ * </p>
+ */
+class RulesFilterCache {
+
+    /**
+     * Above this number of "or"-ed rule filters the data stores are not trusted to handle
+     * them efficiently and the filter is evaluated in memory
+     */
+    static final int MAX_PUSHED_RULES = 20;
+
+    static final int CACHE_SIZE = 100;
+
+    static final RulesFilterCache INSTANCE = new RulesFilterCache();
+
+    Map<Key, CompiledRules> cache = new LinkedHashMap<Key, CompiledRules>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, CompiledRules> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Returns the compiled rules, building them if not cached yet
+     */
+    CompiledRules get(Style style, List<Rule> activeRules, FilterFactory ff) {
+        Key key = new Key(style, activeRules);
+        synchronized (cache) {
+            CompiledRules compiled = cache.get(key);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+
+        // compile outside of the lock, it's fine if two threads do it at the same time
+        CompiledRules compiled = new CompiledRules(activeRules, ff);
+        synchronized (cache) {
+            cache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    static class CompiledRules {
+        /**
+         * The filter to send to the data store along with the spatial one
+         */
+        Filter filter = Filter.INCLUDE;
+
+        /**
+         * The filter to be evaluated in memory
+         */
+        Filter postFilter = Filter.INCLUDE;
+
+        /**
+         * The buffer estimated from the symbolizers, in pixels
+         */
+        double buffer;
+
+        boolean bufferAccurate;
+
+        CompiledRules(List<Rule> rules, FilterFactory ff) {
+            Filter rulesFilter = buildRulesFilter(ff, rules);
+            if (!(rulesFilter instanceof Or)
+                    || ((Or) rulesFilter).getChildren().size() <= MAX_PUSHED_RULES) {
+                filter = rulesFilter;
+            } else {
+                postFilter = rulesFilter;
+            }
+
+            MetaBufferEstimator estimator = new MetaBufferEstimator();
+            for (Rule rule : rules) {
+                rule.accept(estimator);
+            }
+            buffer = estimator.getBuffer();
+            bufferAccurate = estimator.isEstimateAccurate();
+        }
+
+        Filter buildRulesFilter(FilterFactory ff, List<Rule> rules) {
+            // build up a or of all the rule filters
+            List<Filter> filters = new ArrayList<Filter>();
+            for (Rule rule : rules) {
+                if (rule.getFilter() == null)
+                    return Filter.INCLUDE;
+                filters.add(rule.getFilter());
+            }
+            // not or and and simplify (if there is any include/exclude we'll get
+            // a very simple result ;-)
+            Filter or = ff.or(filters);
+            SimplifyingFilterVisitor simplifier = new SimplifyingFilterVisitor();
+            return (Filter) or.accept(simplifier, null);
+        }
+    }
+
+    static class Key {
+        Style style;
+
+        List<Rule> rules;
+
+        Key(Style style, List<Rule> rules) {
+            this.style = style;
+            this.rules = rules;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            if (style != other.style || rules.size() != other.rules.size()) {
+                return false;
+            }
+            for (int i = 0; i < rules.size(); i++) {
+                if (rules.get(i) != other.rules.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(style);
+            for (Rule rule : rules) {
+                hash = hash * 31 + System.identityHashCode(rule);
+            }
+            return hash;
+        }
+    }
+}
@@ -4,6 +4,8 @@
  */
 package org.vfny.geoserver.wms.responses.map.kml;
 
+import java.io.IOException;
+
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.config.GeoServer;
@@ -49,6 +51,19 @@ public class BestGuessRegionatingStrategy implements RegionatingStrategy {
         return new GeometryRegionatingStrategy(gs).getFilter(context, layer);
     }
 
+    /**
+     * Returns the strategy the best guess boils down to for the specified layer.
+     */
+    public CachedHierarchyRegionatingStrategy getStrategy(FeatureTypeInfo cfg)
+            throws IOException {
+        Class geomtype = cfg.getFeatureType().getGeometryDescriptor().getType().getBinding();
+
+        if (Point.class.isAssignableFrom(geomtype))
+            return new RandomRegionatingStrategy(gs);
+
+        return new GeometryRegionatingStrategy(gs);
+    }
+
     public void clearCache(FeatureTypeInfo cfg){
         new GeometryRegionatingStrategy(gs).clearCache(cfg);
     }
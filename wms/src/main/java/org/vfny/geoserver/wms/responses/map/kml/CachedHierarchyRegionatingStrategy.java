@@ -5,14 +5,13 @@
 package org.vfny.geoserver.wms.responses.map.kml;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -22,6 +21,7 @@ import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.ows.HttpErrorCodeException;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
 import org.geotools.data.jdbc.JDBCUtils;
 import org.geotools.factory.CommonFactoryFinder;
 import org.geotools.feature.FeatureIterator;
@@ -29,7 +29,7 @@ import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.MapLayer;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.operation.projection.ProjectionException;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.NullProgressListener;
 import org.geotools.util.logging.Logging;
 import org.h2.tools.DeleteDbFiles;
 import org.opengis.feature.simple.SimpleFeature;
@@ -40,9 +40,11 @@ import org.opengis.filter.identity.FeatureId;
 import org.opengis.geometry.BoundingBox;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.opengis.util.ProgressListener;
 import org.vfny.geoserver.global.GeoserverDataDirectory;
 import org.vfny.geoserver.wms.WMSMapContext;
 import org.vfny.geoserver.wms.WmsException;
+import org.vfny.geoserver.wms.responses.map.kml.TileCacheDatabase.TileCacheConnection;
 
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
@@ -75,12 +77,9 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     static final Set<String> NO_FIDS = Collections.emptySet();
 
     /**
-     * This structure is used to make sure that multiple threads end up using
-     * the same table name object, so that we can use it as a synchonization
-     * token
+     * Max number of levels below the root tiles of a precomputed hierarchy
      */
-    static CanonicalSet<String> canonicalizer = CanonicalSet
-            .newInstance(String.class);
+    static final int MAX_DEPTH = 24;
 
     static {
         try {
@@ -124,6 +123,12 @@ public abstract class CachedHierarchyRegionatingStrategy implements
      * geoserver configuration
      */
     protected GeoServer gs;
+
+    /**
+     * The fid to tile cache db, and the connection to it used by the current request
+     */
+    TileCacheDatabase database;
+    TileCacheConnection cacheConnection;
     
     protected CachedHierarchyRegionatingStrategy(GeoServer gs) {
         this.gs = gs;
@@ -140,13 +145,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             
             String dataDir = catalog.getResourceLoader().getBaseDirectory().getCanonicalPath();
             tableName = getDatabaseName(context, layer);
-
-            // grab the features per tile, use a default if user did not
-            // provide a decent value. The default should fill up the
-            // tile when it shows up.
-            featuresPerTile = featureType.getMetadata().get( "kml.regionateFeatureLimit",Integer.class );
-            if (featuresPerTile == null || featuresPerTile.intValue() <= 1)
-                featuresPerTile = 64;
+            featuresPerTile = getFeaturesPerTile(featureType);
 
             // sanity check, the layer is not geometryless
             if (featureType.getFeatureType().getGeometryDescriptor() == null)
@@ -195,13 +194,204 @@ public abstract class CachedHierarchyRegionatingStrategy implements
         }
     }
 
+    /**
+     * Sets up the strategy to regionate the specified layer with its default options, outside
+     * of a map request. Subclasses needing more state than the base class should override,
+     * making sure to call the super method.
+     */
+    protected void setup(FeatureTypeInfo cfg) throws Exception {
+        featureType = cfg;
+        tableName = getDatabaseName(cfg);
+        featuresPerTile = getFeaturesPerTile(cfg);
+        dataEnvelope = cfg.getLatLonBoundingBox();
+
+        if (cfg.getFeatureType().getGeometryDescriptor() == null)
+            throw new WmsException(cfg.getName()
+                    + " is geometryless, cannot generate KML!");
+    }
+
+    /**
+     * Grabs the features per tile, using a default if user did not
+     * provide a decent value. The default should fill up the
+     * tile when it shows up.
+     */
+    Integer getFeaturesPerTile(FeatureTypeInfo cfg) {
+        Integer featuresPerTile = cfg.getMetadata().get( "kml.regionateFeatureLimit",Integer.class );
+        if (featuresPerTile == null || featuresPerTile.intValue() <= 1)
+            featuresPerTile = 64;
+        return featuresPerTile;
+    }
+
+    /**
+     * Computes the whole tile hierarchy of a layer and stores it in the fid to tile
+     * cache, replacing the tiles computed so far.
+     * <p>
+     * Instead of computing each tile on its own, the features are scanned once, sorted
+     * according to the regionating priority. Each feature is assigned to the first tile that is
+     * not full yet, walking down from the root tile containing its centroid, which is the
+     * same assignment tile by tile computation ends up with. The new hierarchy is written to
+     * the side in bulk and swapped in at the end, so tile requests can be served from the
+     * old one in the meantime.
+     * </p>
+     *
+     * @param cfg The layer to regionate, using its default regionating options.
+     * @param listener Progress listener, may be <code>null</code>. The computation stops
+     *            leaving the current hierarchy untouched if the listener is canceled.
+     */
+    public void buildHierarchy(FeatureTypeInfo cfg, ProgressListener listener)
+            throws Exception {
+        if (listener == null)
+            listener = new NullProgressListener();
+        listener.started();
+
+        setup(cfg);
+        String dataDir = gs.getCatalog().getResourceLoader().getBaseDirectory().getCanonicalPath();
+        database = TileCacheDatabase.get(dataDir + "/geosearch/h2cache_" + tableName);
+        cacheConnection = database.acquire();
+
+        boolean broken = true;
+        try {
+            Connection conn = cacheConnection.getConnection();
+            clearIndex(conn);
+            database.createCacheTable(cacheConnection, "TILECACHE_BUILD");
+
+            assignFids(conn, listener);
+            if (!listener.isCanceled()) {
+                database.replaceCache(cacheConnection, "TILECACHE_BUILD");
+                listener.complete();
+            }
+            broken = false;
+        } finally {
+            database.release(cacheConnection, broken);
+            cacheConnection = null;
+        }
+    }
+
+    /**
+     * Scans the features in priority order and stores them in the build table, along with the
+     * empty tile markers.
+     */
+    void assignFids(Connection conn, ProgressListener listener)
+            throws Exception {
+        // the root tiles are the ones at the deepest level where a single tile still
+        // contains all the data, that's where tile by tile computation stops going up
+        int rootZ = 0;
+        for (int z = 0; z < MAX_DEPTH; z++) {
+            TileKey key = getTileKey(dataEnvelope.getMinX(), dataEnvelope.getMinY(), z);
+            Tile tile = new Tile(key.x, key.y, key.z);
+            if (!tile.getEnvelope().contains((BoundingBox) dataEnvelope))
+                break;
+            rootZ = z;
+        }
+
+        FeatureSource fs = featureType.getFeatureSource(null, null);
+        GeometryDescriptor geom = fs.getSchema().getGeometryDescriptor();
+        CoordinateReferenceSystem nativeCrs = geom.getCoordinateReferenceSystem();
+        ReferencedEnvelope nativeEnvelope = dataEnvelope;
+        if (nativeCrs != null && !CRS.equalsIgnoreMetadata(WGS84, nativeCrs))
+            nativeEnvelope = dataEnvelope.transform(nativeCrs, true);
+        MathTransform tx = null;
+        if (nativeCrs != null && !CRS.equalsIgnoreMetadata(WGS84, nativeCrs))
+            tx = CRS.findMathTransform(nativeCrs, WGS84, true);
+        int total = fs.getCount(Query.ALL);
+
+        Map<TileKey, Integer> counts = new HashMap<TileKey, Integer>();
+        PreparedStatement ps = conn.prepareStatement("INSERT INTO TILECACHE_BUILD VALUES (?, ?, ?, ?)");
+        FeatureIterator fi = null;
+        try {
+            // grab the features first, strategies may have to build
+            // their own index using the same connection
+            fi = getSortedFeatures(geom, dataEnvelope, nativeEnvelope, conn);
+            conn.setAutoCommit(false);
+            double[] coords = new double[2];
+            int scanned = 0;
+            while (fi.hasNext() && !listener.isCanceled()) {
+                SimpleFeature f = (SimpleFeature) fi.next();
+                Point p = ((Geometry) f.getDefaultGeometry()).getCentroid();
+                coords[0] = p.getX();
+                coords[1] = p.getY();
+                if (tx != null)
+                    tx.transform(coords, 0, coords, 0, 1);
+
+                // walk down until we find a tile with some room left
+                for (int z = rootZ; z <= rootZ + MAX_DEPTH; z++) {
+                    TileKey key = getTileKey(coords[0], coords[1], z);
+                    Integer count = counts.get(key);
+                    if (count == null || count < featuresPerTile) {
+                        counts.put(key, count == null ? 1 : count + 1);
+                        insertFid(ps, key, f.getID());
+                        break;
+                    }
+                }
+
+                if (++scanned % 1000 == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                    if (total > 0)
+                        listener.progress(Math.min(99f, 100f * scanned / total));
+                }
+            }
+
+            // mark the empty children of the tiles we filled, so that they don't get
+            // computed again
+            for (TileKey key : counts.keySet()) {
+                for (TileKey child : key.getChildren()) {
+                    if (!counts.containsKey(child))
+                        insertFid(ps, child, null);
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        } finally {
+            if (fi != null)
+                fi.close();
+            JDBCUtils.close(ps);
+            conn.setAutoCommit(true);
+        }
+    }
+
+    void insertFid(PreparedStatement ps, TileKey key, String fid) throws SQLException {
+        ps.setLong(1, key.x);
+        ps.setLong(2, key.y);
+        ps.setLong(3, key.z);
+        ps.setString(4, fid);
+        ps.addBatch();
+    }
+
+    /**
+     * Returns the key of the tile containing the specified point at the specified level,
+     * following the same border rules as {@link Tile#contains(double, double)}
+     */
+    TileKey getTileKey(double x, double y, long z) {
+        double tileSize = MAX_TILE_WIDTH / Math.pow(2, z);
+        long tx = (long) Math.floor((x - WORLD_BOUNDS.getMinX()) / tileSize);
+        long ty = (long) Math.floor((y - WORLD_BOUNDS.getMinY()) / tileSize);
+
+        // points on the east and north border of the data belong to the tile on their left
+        if (tx > 0 && x >= dataEnvelope.getMaxX()
+                && tx * tileSize + WORLD_BOUNDS.getMinX() == x)
+            tx--;
+        if (ty > 0 && y >= dataEnvelope.getMaxY()
+                && ty * tileSize + WORLD_BOUNDS.getMinY() == y)
+            ty--;
+        return new TileKey(tx, ty, z);
+    }
+
+    /**
+     * Drops the auxiliary structures, if any, the strategy keeps in the cache database, so
+     * that they get rebuilt out of the current data. Called before building the hierarchy.
+     */
+    protected void clearIndex(Connection conn) throws Exception {
+    }
+
     public void clearCache(FeatureTypeInfo cfg){
         try{
-            DeleteDbFiles.execute(
-                GeoserverDataDirectory.findCreateConfigDir("geosearch").getCanonicalPath(),
-                "h2cache_" + getDatabaseName(cfg),
-                true
-                );
+            String dir = GeoserverDataDirectory.findCreateConfigDir("geosearch").getCanonicalPath();
+            String name = "h2cache_" + getDatabaseName(cfg);
+
+            // make sure the pooled connections are closed before removing the files
+            TileCacheDatabase.close(dir + "/" + name);
+            DeleteDbFiles.execute(dir, name, true);
         } catch (Exception ioe) {
             LOGGER.severe("Couldn't clear out config dir due to: " + ioe);
         }
@@ -244,36 +434,26 @@ public abstract class CachedHierarchyRegionatingStrategy implements
      */
     private Set<String> getFeaturesForTile(String dataDir, Tile tile)
             throws Exception {
-        Connection conn = null;
-        Statement st = null;
-
-        // build the synchonization token
-        canonicalizer.add(tableName);
-        tableName = canonicalizer.get(tableName);
+        // get a hold to the database that contains the cache (this will
+        // eventually create the db), and borrow one of its connections
+        database = TileCacheDatabase.get(dataDir + "/geosearch/h2cache_" + tableName);
+        cacheConnection = database.acquire();
 
+        boolean broken = true;
+        database.getCacheLock().readLock().lock();
         try {
-            // make sure no two thread in parallel can build the same db
-            synchronized (tableName) {
-                // get a hold to the database that contains the cache (this will
-                // eventually create the db)
-                conn = DriverManager.getConnection("jdbc:h2:file:" + dataDir
-                        + "/geosearch/h2cache_" + tableName, "geoserver",
-                        "geopass");
-
-                // try to create the table, if it's already there this will fail
-                st = conn.createStatement();
-                st.execute("CREATE TABLE IF NOT EXISTS TILECACHE( " //
-                        + "x BIGINT, " //
-                        + "y BIGINT, " //
-                        + "z INT, " //
-                        + "fid varchar (64))");
-                st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
-            }
-
-            return readFeaturesForTile(tile, conn);
+            Set<String> fids = readFeaturesForTile(tile, cacheConnection.getConnection());
+            broken = false;
+            return fids;
         } finally {
-            JDBCUtils.close(st);
-            JDBCUtils.close(conn, null, null);
+            // give back the connection while still holding the read lock, replaceCache
+            // goes over the idle connections under the write lock
+            try {
+                database.release(cacheConnection, broken);
+                cacheConnection = null;
+            } finally {
+                database.getCacheLock().readLock().unlock();
+            }
         }
     }
 
@@ -294,12 +474,7 @@ public abstract class CachedHierarchyRegionatingStrategy implements
         if (fids != null) {
             return fids;
         } else {
-            // build the synchronization token
-            String tileKey = tableName + tile.x + "-" + tile.y + "-" + tile.z;
-            canonicalizer.add(tileKey);
-            tileKey = canonicalizer.get(tileKey);
-
-            synchronized (tileKey) {
+            synchronized (database.getTileLock(tile.x, tile.y, tile.z)) {
                 // might have been built while we were waiting
                 fids = readCachedTileFids(tile, conn);
                 if (fids != null)
@@ -330,31 +505,31 @@ public abstract class CachedHierarchyRegionatingStrategy implements
      */
     private void storeFids(Tile t, Set<String> fids, Connection conn)
             throws SQLException {
-        PreparedStatement ps = null;
+        // we are going to execute this one many times, use the statement
+        // cached along with the connection so that the db engine does
+        // not have to parse it at every call
+        PreparedStatement ps = getCacheConnection(conn).getInsertStatement();
         try {
-            // we are going to execute this one many times, 
-            // let's prepare it so that the db engine does 
-            // not have to parse it at every call
-            String stmt = "INSERT INTO TILECACHE VALUES (" + t.x + ", " + t.y
-                    + ", " + t.z + ", ?)";
-            ps = conn.prepareStatement(stmt);
-
+            ps.setLong(1, t.x);
+            ps.setLong(2, t.y);
+            ps.setLong(3, t.z);
             if (fids.size() == 0) {
                 // we just have to mark the tile as empty
-                ps.setString(1, null);
+                ps.setString(4, null);
                 ps.execute();
             } else {
                 // store all the fids
                 conn.setAutoCommit(false);
                 for (String fid : fids) {
-                    ps.setString(1, fid);
-                    ps.execute();
+                    ps.setString(4, fid);
+                    ps.addBatch();
                 }
+                ps.executeBatch();
                 conn.commit();
             }
         } finally {
             conn.setAutoCommit(true);
-            JDBCUtils.close(ps);
+            ps.clearParameters();
         }
     }
 
@@ -507,12 +682,13 @@ public abstract class CachedHierarchyRegionatingStrategy implements
     protected Set<String> readCachedTileFids(Tile tile, Connection conn)
             throws SQLException {
         Set<String> fids = null;
-        Statement st = null;
         ResultSet rs = null;
         try {
-            st = conn.createStatement();
-            rs = st.executeQuery("SELECT fid FROM TILECACHE where x = "
-                    + tile.x + " AND y = " + tile.y + " and z = " + tile.z);
+            PreparedStatement ps = getCacheConnection(conn).getSelectStatement();
+            ps.setLong(1, tile.x);
+            ps.setLong(2, tile.y);
+            ps.setLong(3, tile.z);
+            rs = ps.executeQuery();
             // decide whether we have to collect the fids or just to
             // return that the tile was empty
             if (rs.next()) {
@@ -530,12 +706,22 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             }
         } finally {
             JDBCUtils.close(rs);
-            JDBCUtils.close(st);
         }
 
         return fids;
     }
 
+    /**
+     * Returns the pooled connection wrapping the specified connection, so that its prepared
+     * statements can be reused. Connections not coming from the pool get wrapped on the fly.
+     */
+    TileCacheConnection getCacheConnection(Connection conn) {
+        if (cacheConnection != null && cacheConnection.getConnection() == conn) {
+            return cacheConnection;
+        }
+        return new TileCacheConnection(conn);
+    }
+
     /**
      * Returns the name to be used for the database. Should be unique for this
      * specific regionated layer.
@@ -546,8 +732,9 @@ public abstract class CachedHierarchyRegionatingStrategy implements
      */
     protected String getDatabaseName(WMSMapContext con, MapLayer layer)
         throws Exception {
-            int index = Arrays.asList(con.getLayers()).indexOf(layer);
-            return getDatabaseName(featureType);
+            // not delegating to getDatabaseName(FeatureTypeInfo), subclasses
+            // add their own suffix to both
+            return featureType.getNamespace().getPrefix() + "_" + featureType.getName();
     }
 
     protected String getDatabaseName(FeatureTypeInfo cfg)
@@ -555,6 +742,44 @@ public abstract class CachedHierarchyRegionatingStrategy implements
             return cfg.getNamespace().getPrefix() + "_" + cfg.getName();
     }
 
+    /**
+     * Lightweight tile coordinates, used as map keys
+     */
+    static class TileKey {
+        long x;
+
+        long y;
+
+        long z;
+
+        TileKey(long x, long y, long z) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        TileKey[] getChildren() {
+            return new TileKey[] { new TileKey(x * 2, y * 2, z + 1),
+                    new TileKey(x * 2 + 1, y * 2, z + 1),
+                    new TileKey(x * 2, y * 2 + 1, z + 1),
+                    new TileKey(x * 2 + 1, y * 2 + 1, z + 1) };
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof TileKey))
+                return false;
+            TileKey other = (TileKey) obj;
+            return x == other.x && y == other.y && z == other.z;
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = (x * 31 + y) * 31 + z;
+            return (int) (hash ^ (hash >>> 32));
+        }
+    }
+
     /**
      * A regionating tile identified by its coordinates
      * 
@@ -14,6 +14,7 @@ import java.util.NoSuchElementException;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.config.GeoServer;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.MapLayerInfo;
 import org.geotools.data.DefaultQuery;
 import org.geotools.data.FeatureSource;
@@ -32,6 +33,7 @@ import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.GeometryDescriptor;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.opengis.referencing.operation.MathTransform;
+import org.springframework.context.ApplicationContext;
 import org.vfny.geoserver.wms.WMSMapContext;
 import org.vfny.geoserver.wms.WmsException;
 
@@ -40,9 +42,31 @@ import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
 
+/**
+ * An attribute based regionating strategy for data stores that cannot sort natively. The
+ * feature centroids are sorted on the regionating attribute up front, with an external
+ * merge sort, and stored along with their rank in an index table sitting in the fid to tile
+ * cache database.
+ * <p>
+ * The memory and threads used by the sort can be set with the
+ * {@link #SORT_MEMORY REGIONATE_SORT_MEMORY} (in megabytes) and
+ * {@link #SORT_THREADS REGIONATE_SORT_THREADS} system properties, servlet context parameters
+ * or environment variables.
+ * </p>
+ */
 public class ExternalSortRegionatingStrategy extends
         CachedHierarchyRegionatingStrategy {
 
+    /**
+     * Property setting the memory used to sort the index, in megabytes
+     */
+    public static final String SORT_MEMORY = "REGIONATE_SORT_MEMORY";
+
+    /**
+     * Property setting the number of threads used to sort the index
+     */
+    public static final String SORT_THREADS = "REGIONATE_SORT_THREADS";
+
     /**
      * The feature type for the features that we'll return back from the index
      */
@@ -132,21 +156,61 @@ public class ExternalSortRegionatingStrategy extends
         return MapLayerInfo.getRegionateAttribute(cfg); 
     }
 
+    @Override
+    protected void setup(FeatureTypeInfo cfg) throws Exception {
+        super.setup(cfg);
+        fs = cfg.getFeatureSource(null, null);
+        attribute = checkAttribute(cfg);
+        if (attribute == null)
+            throw new WmsException(
+                    "Regionating attribute has not been specified");
+
+        AttributeDescriptor ad = ((SimpleFeatureType) fs.getSchema()).getDescriptor(attribute);
+        if (ad == null) {
+            throw new WmsException("Could not find regionating attribute "
+                    + attribute + " in layer " + featureType.getName());
+        }
+        h2Type = getH2DataType(ad);
+        if (h2Type == null)
+            throw new WmsException("Attribute type " + ad.getType()
+                    + " is not " + "supported for external sorting on "
+                    + featureType.getName() + "#" + attribute);
+    }
+
+    @Override
+    protected void clearIndex(Connection conn) throws Exception {
+        // the index is built out of the data, rebuild it along with the hierarchy
+        synchronized (database.getIndexLock()) {
+            Statement st = null;
+            try {
+                st = conn.createStatement();
+                st.execute("DROP TABLE IF EXISTS FEATUREIDX");
+            } finally {
+                JDBCUtils.close(st);
+            }
+        }
+    }
+
     @Override
     public FeatureIterator getSortedFeatures(GeometryDescriptor geom, 
             ReferencedEnvelope latLongEnvelope, ReferencedEnvelope nativeEnvelope, 
             Connection cacheConn) throws Exception {
-        // first of all, let's check if the geometry index table is there
-        Statement st = null;
-        try {
-            st = cacheConn.createStatement();
+        // first of all, let's check if the geometry index table is there, making
+        // sure only one thread builds it
+        synchronized (database.getIndexLock()) {
+            Statement st = null;
             try {
-                st.executeQuery("SELECT * FROM FEATUREIDX LIMIT 1");
-            } catch (SQLException e) {
-                buildIndex(cacheConn);
+                st = cacheConn.createStatement();
+                try {
+                    st.executeQuery("SELECT RANK FROM FEATUREIDX LIMIT 1");
+                } catch (SQLException e) {
+                    // missing, or built by an older version without the rank column
+                    st.execute("DROP TABLE IF EXISTS FEATUREIDX");
+                    buildIndex(cacheConn);
+                }
+            } finally {
+                JDBCUtils.close(st);
             }
-        } finally {
-            JDBCUtils.close(st);
         }
 
         return new IndexFeatureIterator(cacheConn, latLongEnvelope);
@@ -167,20 +231,19 @@ public class ExternalSortRegionatingStrategy extends
         Statement st = null;
         PreparedStatement ps = null;
         FeatureIterator fi = null;
+        FeatureIndexSorter sorter = new FeatureIndexSorter(getSortMemory(), getSortThreads());
         try {
             st = conn.createStatement();
             st.execute("CREATE TABLE FEATUREIDX(" //
                     + "X NUMBER, " //
                     + "Y NUMBER, " //
                     + "FID VARCHAR(64), " //
-                    + "ORDER_FIELD " + h2Type + ")");
-            st.execute("CREATE INDEX FEATUREIDX_COORDS ON FEATUREIDX(X, Y)");
-            st.execute("CREATE INDEX FEATUREIDX_ORDER_FIELD ON FEATUREIDX(ORDER_FIELD)");
+                    + "RANK BIGINT)");
 
             // prepare this statement so that the sql parser has to deal
             // with it just once
             ps = conn.prepareStatement("INSERT INTO "
-                    + "FEATUREIDX(X, Y, FID, ORDER_FIELD) VALUES (?, ?, ?, ?)");
+                    + "FEATUREIDX(X, Y, FID, RANK) VALUES (?, ?, ?, ?)");
 
             // build an optimized query, loading only the necessary attributes
             GeometryDescriptor geom = fs.getSchema()
@@ -201,11 +264,8 @@ public class ExternalSortRegionatingStrategy extends
             if (!CRS.equalsIgnoreMetadata(nativeCrs, WGS84))
                 tx = CRS.findMathTransform(nativeCrs, WGS84, true);
 
-            // read all the features and fill the index table
-            // make it so the insertion is a single big transaction, should
-            // be faster,
-            // provided it does not kill H2...
-            conn.setAutoCommit(false);
+            // read all the features and sort them, sorted runs get written out
+            // in parallel while we keep on reading
             fi = fs.getFeatures(q).features();
             while (fi.hasNext()) {
                 // grab the centroid and transform it in 4326 if necessary
@@ -224,25 +284,79 @@ public class ExternalSortRegionatingStrategy extends
                 if (tx != null)
                     tx.transform(coords, 0, coords, 0, 1);
 
-                // insert
-                ps.setDouble(1, coords[0]);
-                ps.setDouble(2, coords[1]);
-                ps.setString(3, f.getID());
-                ps.setObject(4, getSortAttributeValue(f));
-                ps.execute();
+                sorter.add(coords[0], coords[1], f.getID(), getSortAttributeValue(f));
             }
-            // todo: commit every 1000 features or so. No transaction is
-            // slower, but too big transaction imposes a big overhead on the db
+            fi.close();
+            fi = null;
+
+            // fill the index table in rank order, committing every now and then
+            // since a single huge transaction imposes a big overhead on the db
+            conn.setAutoCommit(false);
+            FeatureIndexSorter.Cursor sorted = sorter.sort();
+            long rank = 0;
+            while (sorted.next()) {
+                ps.setDouble(1, sorted.getX());
+                ps.setDouble(2, sorted.getY());
+                ps.setString(3, sorted.getFid());
+                ps.setLong(4, rank++);
+                ps.addBatch();
+                if (rank % 1000 == 0) {
+                    ps.executeBatch();
+                    conn.commit();
+                }
+            }
+            ps.executeBatch();
             conn.commit();
-            
-            // hum, shall we kick H2 so that it updates the statistics?
+
+            // indexes are faster to build once the data is there
+            st.execute("CREATE INDEX FEATUREIDX_COORDS ON FEATUREIDX(X, Y)");
+            st.execute("CREATE INDEX FEATUREIDX_RANK ON FEATUREIDX(RANK)");
+        } catch (Exception e) {
+            // don't leave a half built index around
+            if (st != null) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+                st.execute("DROP TABLE IF EXISTS FEATUREIDX");
+            }
+            throw e;
         } finally {
             conn.setAutoCommit(true);
             JDBCUtils.close(st);
             JDBCUtils.close(ps);
             if (fi != null)
                 fi.close();
+            sorter.dispose();
+        }
+    }
+
+    /**
+     * The memory used by the index sort, in bytes
+     */
+    static long getSortMemory() {
+        String memory = GeoServerExtensions.getProperty(SORT_MEMORY, (ApplicationContext) null);
+        if (memory != null) {
+            try {
+                return Long.parseLong(memory) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + SORT_MEMORY + " value " + memory);
+            }
+        }
+        return 64 * 1024 * 1024;
+    }
+
+    /**
+     * The number of threads used by the index sort
+     */
+    static int getSortThreads() {
+        String threads = GeoServerExtensions.getProperty(SORT_THREADS, (ApplicationContext) null);
+        if (threads != null) {
+            try {
+                return Math.max(1, Integer.parseInt(threads));
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + SORT_THREADS + " value " + threads);
+            }
         }
+        return Runtime.getRuntime().availableProcessors();
     }
 
     /**
@@ -279,7 +393,7 @@ public class ExternalSortRegionatingStrategy extends
                         + "AND X <= " + envelope.getMaxX() + "\n"
                         + "AND Y >= " + envelope.getMinY() + "\n"
                         + "AND Y <= " + envelope.getMaxY() + "\n"
-                        + "ORDER BY ORDER_FIELD DESC";
+                        + "ORDER BY RANK";
                 rs = st.executeQuery(sql);
                 // make sure everything is properly closed in case of
                 // exception
@@ -0,0 +1,415 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geotools.data.DefaultQuery;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureIterator;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+
+/**
+ * Estimates the number of features of a layer falling in a bounding box, so that the kmscore
+ * vector/raster decision does not need a full count of the features being requested.
+ * <p>
+ * The estimate is based on a grid histogram of the feature bounds, built in the background
+ * the first time a layer is asked for. WFS transactions update the histogram of the layers
+ * they modify with the bounds of the features inserted, updated and deleted, and a full
+ * rebuild is scheduled at most once every {@link #RESYNC_DELAY} milliseconds to correct the
+ * drift caused by rolled back transactions. Until the histogram of a layer is available no
+ * estimate is given, layers whose histogram could not be built are tried again after
+ * {@link #RETRY_DELAY} milliseconds.
+ * </p>
+ * <p>
+ * Estimates are rough, callers needing an exact answer close to some threshold should count
+ * the features.
+ * </p>
+ */
+public class FeatureCountEstimator implements TransactionListener, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.kml");
+
+    /**
+     * Number of rows and columns of the histograms
+     */
+    static int GRID_SIZE = 64;
+
+    /**
+     * Delay between a transaction on a layer and the full rebuild of its histogram, in
+     * milliseconds
+     */
+    static long RESYNC_DELAY = 60 * 60 * 1000;
+
+    /**
+     * Delay after which the histogram of a layer which could not be built is tried again, in
+     * milliseconds
+     */
+    static long RETRY_DELAY = 10 * 60 * 1000;
+
+    GeoServer gs;
+
+    /** the histogram builder thread */
+    ScheduledExecutorService executor;
+
+    /** feature type id to histogram */
+    Map<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    /** feature type ids whose histogram is scheduled for building */
+    Set<String> scheduled = new HashSet<String>();
+
+    public FeatureCountEstimator(GeoServer gs) {
+        this.gs = gs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServer feature count estimator");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Estimates the number of features of the layer intersecting the specified bounding box.
+     *
+     * @return The estimate, or -1 if no estimate is available for the layer yet.
+     */
+    public int estimate(FeatureTypeInfo featureType, ReferencedEnvelope bbox) {
+        Histogram histogram = histograms.get(featureType.getId());
+        if (histogram == null || (histogram.isUnavailable()
+                && System.currentTimeMillis() - histogram.created > RETRY_DELAY)) {
+            schedule(featureType.getId(), 0);
+        }
+        if (histogram == null) {
+            return -1;
+        }
+        return histogram.estimate(bbox);
+    }
+
+    /**
+     * Updates the histograms of the layers modified by the transaction with the bounds of the
+     * features affected.
+     */
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        FeatureTypeInfo featureType = gs.getCatalog().getFeatureTypeByName(
+                event.getLayerName().getNamespaceURI(), event.getLayerName().getLocalPart());
+        if (featureType == null) {
+            return;
+        }
+        Histogram histogram = histograms.get(featureType.getId());
+        if (histogram == null || histogram.isUnavailable()) {
+            return;
+        }
+
+        TransactionEventType type = event.getType();
+        boolean added = type == TransactionEventType.PRE_INSERT
+                || type == TransactionEventType.POST_UPDATE;
+        boolean removed = type == TransactionEventType.PRE_UPDATE
+                || type == TransactionEventType.PRE_DELETE;
+        if (!added && !removed) {
+            return;
+        }
+
+        try {
+            FeatureCollection<SimpleFeatureType, SimpleFeature> features = event
+                    .getAffectedFeatures();
+            FeatureIterator<SimpleFeature> it = features.features();
+            try {
+                while (it.hasNext()) {
+                    Geometry g = (Geometry) it.next().getDefaultGeometry();
+                    if (g == null || g.isEmpty()) {
+                        continue;
+                    }
+                    if (added) {
+                        histogram.add(g.getEnvelopeInternal());
+                    } else {
+                        histogram.remove(g.getEnvelopeInternal());
+                    }
+                }
+            } finally {
+                features.close(it);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not update the feature count histogram of "
+                    + featureType.getName(), e);
+            schedule(featureType.getId(), 0);
+            return;
+        }
+
+        // rolled back transactions are not seen, resync eventually
+        schedule(featureType.getId(), RESYNC_DELAY);
+    }
+
+    void schedule(final String featureTypeId, long delay) {
+        synchronized (scheduled) {
+            if (!scheduled.add(featureTypeId)) {
+                // will pick up the changes anyways
+                return;
+            }
+        }
+        executor.schedule(new Runnable() {
+            public void run() {
+                synchronized (scheduled) {
+                    // changes from now on require another build
+                    scheduled.remove(featureTypeId);
+                }
+
+                FeatureTypeInfo featureType = gs.getCatalog().getFeatureType(featureTypeId);
+                if (featureType == null) {
+                    histograms.remove(featureTypeId);
+                    return;
+                }
+                try {
+                    histograms.put(featureTypeId, build(featureType));
+                } catch (Throwable t) {
+                    LOGGER.log(Level.WARNING, "Failed to build the feature count histogram of "
+                            + featureType.getName(), t);
+                    histograms.put(featureTypeId, Histogram.unavailable());
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Builds the histogram of a layer, scanning the geometries of all of its features.
+     */
+    @SuppressWarnings("unchecked")
+    Histogram build(FeatureTypeInfo featureType) throws IOException {
+        FeatureSource<SimpleFeatureType, SimpleFeature> source =
+            (FeatureSource<SimpleFeatureType, SimpleFeature>) featureType.getFeatureSource(null, null);
+        SimpleFeatureType schema = source.getSchema();
+        GeometryDescriptor geometry = schema.getGeometryDescriptor();
+        if (geometry == null) {
+            return Histogram.unavailable();
+        }
+
+        // prefer the configured bounds, computing them may take as long as building
+        // the histogram itself
+        ReferencedEnvelope bounds = featureType.getNativeBoundingBox();
+        if (bounds == null || bounds.isNull()) {
+            bounds = source.getBounds();
+        }
+        if (bounds == null || bounds.isNull()) {
+            LOGGER.fine("Bounds of " + featureType.getName() + " unknown, not estimating counts");
+            return Histogram.unavailable();
+        }
+        if (bounds.getCoordinateReferenceSystem() == null) {
+            bounds = new ReferencedEnvelope(bounds, schema.getCoordinateReferenceSystem());
+        }
+
+        Histogram histogram = new Histogram(bounds, GRID_SIZE);
+        DefaultQuery q = new DefaultQuery(schema.getTypeName(), Filter.INCLUDE,
+                new String[] { geometry.getLocalName() });
+        FeatureCollection<SimpleFeatureType, SimpleFeature> features = source.getFeatures(q);
+        FeatureIterator<SimpleFeature> it = features.features();
+        try {
+            while (it.hasNext()) {
+                Geometry g = (Geometry) it.next().getDefaultGeometry();
+                if (g != null && !g.isEmpty()) {
+                    histogram.add(g.getEnvelopeInternal());
+                }
+            }
+        } finally {
+            features.close(it);
+        }
+
+        LOGGER.fine("Built the feature count histogram of " + featureType.getName() + ", "
+                + histogram.total + " features");
+        return histogram;
+    }
+
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Grid histogram of the feature bounds covering the bounds of a layer, counting the
+     * features intersecting a box at the resolution of the grid cells. Features falling
+     * outside of the bounds are counted in the closest cells.
+     * <p>
+     * Each feature is recorded by the cells holding the corners of its bounds, in four grids.
+     * The features intersecting a box are then all the features but those lying entirely to
+     * the left, right, bottom or top of it, the features lying in two of those areas at once
+     * being added back.
+     * </p>
+     */
+    static class Histogram {
+
+        /**
+         * Returns a histogram for a layer for which no estimate can be made
+         */
+        static Histogram unavailable() {
+            return new Histogram(null, 0);
+        }
+
+        ReferencedEnvelope bounds;
+
+        int size;
+
+        /** counts by the column and row of the max, max corner */
+        int[] maxMax;
+
+        /** counts by the column and row of the min, min corner */
+        int[] minMin;
+
+        /** counts by the column of the max x and the row of the min y */
+        int[] maxMin;
+
+        /** counts by the column of the min x and the row of the max y */
+        int[] minMax;
+
+        int total;
+
+        long created = System.currentTimeMillis();
+
+        Histogram(ReferencedEnvelope bounds, int size) {
+            this.bounds = bounds;
+            this.size = size;
+            this.maxMax = new int[size * size];
+            this.minMin = new int[size * size];
+            this.maxMin = new int[size * size];
+            this.minMax = new int[size * size];
+        }
+
+        boolean isUnavailable() {
+            return bounds == null;
+        }
+
+        synchronized void add(Envelope envelope) {
+            update(envelope, 1);
+        }
+
+        synchronized void remove(Envelope envelope) {
+            int c1 = col(envelope.getMaxX());
+            int r1 = row(envelope.getMaxY());
+            if (maxMax[c1 * size + r1] > 0) {
+                update(envelope, -1);
+            }
+        }
+
+        void update(Envelope envelope, int delta) {
+            int c0 = col(envelope.getMinX());
+            int c1 = col(envelope.getMaxX());
+            int r0 = row(envelope.getMinY());
+            int r1 = row(envelope.getMaxY());
+            maxMax[c1 * size + r1] += delta;
+            minMin[c0 * size + r0] += delta;
+            maxMin[c1 * size + r0] += delta;
+            minMax[c0 * size + r1] += delta;
+            total += delta;
+        }
+
+        int col(double x) {
+            return cell(x, bounds.getMinX(), bounds.getWidth());
+        }
+
+        int row(double y) {
+            return cell(y, bounds.getMinY(), bounds.getHeight());
+        }
+
+        int cell(double ordinate, double min, double span) {
+            if (span <= 0) {
+                return 0;
+            }
+            int cell = (int) ((ordinate - min) / span * size);
+            return Math.max(0, Math.min(size - 1, cell));
+        }
+
+        /**
+         * Estimates the features intersecting the specified bounding box, counting all the
+         * features of the cells the box touches.
+         */
+        synchronized int estimate(ReferencedEnvelope bbox) {
+            if (bounds == null) {
+                return -1;
+            }
+
+            try {
+                if (bbox.getCoordinateReferenceSystem() != null
+                        && bounds.getCoordinateReferenceSystem() != null
+                        && !CRS.equalsIgnoreMetadata(bbox.getCoordinateReferenceSystem(), bounds
+                                .getCoordinateReferenceSystem())) {
+                    bbox = bbox.transform(bounds.getCoordinateReferenceSystem(), true);
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Could not reproject " + bbox, e);
+                return -1;
+            }
+
+            if (bbox.contains((Envelope) bounds)) {
+                return total;
+            }
+            if (!bbox.intersects((Envelope) bounds)) {
+                return 0;
+            }
+
+            int qc0 = col(bbox.getMinX());
+            int qc1 = col(bbox.getMaxX());
+            int qr0 = row(bbox.getMinY());
+            int qr1 = row(bbox.getMaxY());
+
+            int left = 0, right = 0, below = 0, above = 0;
+            int leftBelow = 0, leftAbove = 0, rightBelow = 0, rightAbove = 0;
+            for (int c = 0; c < size; c++) {
+                for (int r = 0; r < size; r++) {
+                    int i = c * size + r;
+                    if (c < qc0) {
+                        left += maxMax[i];
+                        if (r < qr0) {
+                            leftBelow += maxMax[i];
+                        }
+                        if (r > qr1) {
+                            leftAbove += maxMin[i];
+                        }
+                    }
+                    if (c > qc1) {
+                        right += minMin[i];
+                        if (r > qr1) {
+                            rightAbove += minMin[i];
+                        }
+                        if (r < qr0) {
+                            rightBelow += minMax[i];
+                        }
+                    }
+                    if (r < qr0) {
+                        below += maxMax[i];
+                    }
+                    if (r > qr1) {
+                        above += minMin[i];
+                    }
+                }
+            }
+            return total - left - right - below - above + leftBelow + leftAbove + rightBelow
+                    + rightAbove;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * External merge sort of the feature centroids making up the
+ * {@link ExternalSortRegionatingStrategy} index, sorting them by descending value of the
+ * regionating attribute.
+ * <p>
+ * Records are accumulated in memory until the memory budget of a run is exhausted. The run is
+ * then sorted and written to a temporary file by a pool of worker threads while the caller
+ * keeps on adding records. Once all records have been added the runs are merged back. Data
+ * sets fitting in a single run are sorted in memory, without touching the disk.
+ * </p>
+ * <p>
+ * Sort values must be mutually comparable, null values sort last.
+ * </p>
+ */
+class FeatureIndexSorter {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.geosearch");
+
+    /**
+     * Sorts records by descending value, nulls last
+     */
+    static final Comparator<Record> DESCENDING = new Comparator<Record>() {
+        public int compare(Record r1, Record r2) {
+            if (r1.value == null) {
+                return r2.value == null ? 0 : 1;
+            }
+            if (r2.value == null) {
+                return -1;
+            }
+            return r2.value.compareTo(r1.value);
+        }
+    };
+
+    /** memory budget of a single run, in bytes */
+    long runMemory;
+
+    /** the current run */
+    List<Record> run = new ArrayList<Record>();
+
+    /** estimated size of the current run */
+    long runSize;
+
+    /** the runs written to disk */
+    List<File> files = new ArrayList<File>();
+
+    /** the runs being written */
+    List<Future<File>> pending = new ArrayList<Future<File>>();
+
+    /** bounds the number of runs held in memory while waiting to be written */
+    Semaphore permits;
+
+    ExecutorService executor;
+
+    List<RunReader> readers = new ArrayList<RunReader>();
+
+    /**
+     * @param maxMemory The max amount of memory used by the sort, in bytes.
+     * @param threads The number of threads sorting and writing runs.
+     */
+    FeatureIndexSorter(long maxMemory, int threads) {
+        // the run being filled, plus one per thread being sorted and written
+        runMemory = Math.max(1, maxMemory / (threads + 1));
+        permits = new Semaphore(threads);
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServer regionating sorter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Adds a record to the sort.
+     *
+     * @param value The sort value, must be one of the types supported by the
+     *            {@link ExternalSortRegionatingStrategy}.
+     */
+    void add(double x, double y, String fid, Object value) throws IOException {
+        Record record = new Record(x, y, fid, normalize(value));
+        run.add(record);
+        runSize += record.size();
+        if (runSize >= runMemory) {
+            flush();
+        }
+    }
+
+    /**
+     * Sorts the records added so far. The returned cursor is valid until the sorter is
+     * disposed.
+     */
+    Cursor sort() throws IOException {
+        if (files.isEmpty() && pending.isEmpty()) {
+            // everything fit in memory
+            Collections.sort(run, DESCENDING);
+            return new ListCursor(run);
+        }
+
+        flush();
+        for (Future<File> future : pending) {
+            files.add(get(future));
+        }
+        pending.clear();
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>(files.size(),
+                new Comparator<RunReader>() {
+                    public int compare(RunReader r1, RunReader r2) {
+                        return DESCENDING.compare(r1.current, r2.current);
+                    }
+                });
+        for (File file : files) {
+            RunReader reader = new RunReader(file);
+            readers.add(reader);
+            if (reader.next()) {
+                queue.add(reader);
+            }
+        }
+        return new MergeCursor(queue);
+    }
+
+    /**
+     * Releases the resources used by the sort, deleting the temporary files.
+     */
+    void dispose() {
+        executor.shutdownNow();
+        for (RunReader reader : readers) {
+            reader.close();
+        }
+        for (Future<File> future : pending) {
+            future.cancel(true);
+            if (future.isDone() && !future.isCancelled()) {
+                try {
+                    files.add(future.get());
+                } catch (Exception e) {
+                    // the error has been reported already, or will never be
+                }
+            }
+        }
+        for (File file : files) {
+            if (!file.delete()) {
+                LOGGER.fine("Could not delete " + file.getPath());
+            }
+        }
+        run = null;
+    }
+
+    /**
+     * Hands the current run over to the workers.
+     */
+    void flush() throws IOException {
+        if (run.isEmpty()) {
+            return;
+        }
+
+        // collect the runs already written, surfacing write errors early
+        for (int i = 0; i < pending.size();) {
+            if (pending.get(i).isDone()) {
+                files.add(get(pending.remove(i)));
+            } else {
+                i++;
+            }
+        }
+
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while sorting").initCause(e);
+        }
+
+        final List<Record> records = run;
+        pending.add(executor.submit(new Callable<File>() {
+            public File call() throws Exception {
+                try {
+                    Collections.sort(records, DESCENDING);
+                    return write(records);
+                } finally {
+                    permits.release();
+                }
+            }
+        }));
+        run = new ArrayList<Record>();
+        runSize = 0;
+    }
+
+    File get(Future<File> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw (IOException) new IOException("Interrupted while sorting").initCause(e);
+        } catch (ExecutionException e) {
+            throw (IOException) new IOException("Failed to write sort run").initCause(e
+                    .getCause());
+        }
+    }
+
+    File write(List<Record> records) throws IOException {
+        File file = File.createTempFile("regionate", ".run");
+        file.deleteOnExit();
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file), 64 * 1024));
+        try {
+            for (Record record : records) {
+                out.writeDouble(record.x);
+                out.writeDouble(record.y);
+                out.writeUTF(record.fid);
+                writeValue(out, record.value);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Turns the attribute values into a small set of types that can be written to disk and
+     * read back.
+     */
+    static Comparable normalize(Object value) {
+        if (value == null || value instanceof Double || value instanceof Long
+                || value instanceof String || value instanceof BigDecimal
+                || value instanceof Boolean) {
+            return (Comparable) value;
+        }
+        if (value instanceof Float) {
+            return Double.valueOf(((Float) value).doubleValue());
+        }
+        if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        }
+        if (value instanceof Number) {
+            return Long.valueOf(((Number) value).longValue());
+        }
+        if (value instanceof Date) {
+            return Long.valueOf(((Date) value).getTime());
+        }
+        if (value instanceof Character) {
+            return value.toString();
+        }
+        throw new IllegalArgumentException("Cannot sort on values of type "
+                + value.getClass().getName());
+    }
+
+    static void writeValue(DataOutputStream out, Comparable value) throws IOException {
+        if (value == null) {
+            out.writeByte('N');
+        } else if (value instanceof Double) {
+            out.writeByte('D');
+            out.writeDouble((Double) value);
+        } else if (value instanceof Long) {
+            out.writeByte('L');
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte('Z');
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof BigDecimal) {
+            out.writeByte('B');
+            out.writeUTF(value.toString());
+        } else {
+            // strings, which may be longer than writeUTF allows
+            String s = (String) value;
+            out.writeByte('S');
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+    }
+
+    static Comparable readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+        case 'N':
+            return null;
+        case 'D':
+            return in.readDouble();
+        case 'L':
+            return in.readLong();
+        case 'Z':
+            return in.readBoolean();
+        case 'B':
+            return new BigDecimal(in.readUTF());
+        default:
+            char[] chars = new char[in.readInt()];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = in.readChar();
+            }
+            return new String(chars);
+        }
+    }
+
+    /**
+     * A feature centroid along with its sort value
+     */
+    static class Record {
+        double x;
+
+        double y;
+
+        String fid;
+
+        Comparable value;
+
+        Record(double x, double y, String fid, Comparable value) {
+            this.x = x;
+            this.y = y;
+            this.fid = fid;
+            this.value = value;
+        }
+
+        /**
+         * Rough estimate of the memory used by the record
+         */
+        long size() {
+            long size = 64 + 2 * fid.length();
+            if (value instanceof String) {
+                size += 40 + 2 * ((String) value).length();
+            } else if (value != null) {
+                size += 24;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Iterates over the sorted records.
+     */
+    static abstract class Cursor {
+        Record current;
+
+        /**
+         * Moves to the next record, returning false if there are no more records.
+         */
+        abstract boolean next() throws IOException;
+
+        double getX() {
+            return current.x;
+        }
+
+        double getY() {
+            return current.y;
+        }
+
+        String getFid() {
+            return current.fid;
+        }
+    }
+
+    static class ListCursor extends Cursor {
+        List<Record> records;
+
+        int index;
+
+        ListCursor(List<Record> records) {
+            this.records = records;
+        }
+
+        boolean next() {
+            if (index >= records.size()) {
+                return false;
+            }
+            current = records.get(index++);
+            return true;
+        }
+    }
+
+    static class MergeCursor extends Cursor {
+        PriorityQueue<RunReader> queue;
+
+        MergeCursor(PriorityQueue<RunReader> queue) {
+            this.queue = queue;
+        }
+
+        boolean next() throws IOException {
+            RunReader reader = queue.poll();
+            if (reader == null) {
+                return false;
+            }
+            current = reader.current;
+            if (reader.next()) {
+                queue.add(reader);
+            } else {
+                reader.close();
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads back a sorted run
+     */
+    static class RunReader {
+        DataInputStream in;
+
+        Record current;
+
+        RunReader(File file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    64 * 1024));
+        }
+
+        boolean next() throws IOException {
+            double x;
+            try {
+                x = in.readDouble();
+            } catch (EOFException e) {
+                current = null;
+                return false;
+            }
+            current = new Record(x, in.readDouble(), in.readUTF(), readValue(in));
+            return true;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Error closing sort run", e);
+            }
+        }
+    }
+}
@@ -13,6 +13,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.wms.MapLayerInfo;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
 import org.opengis.feature.type.AttributeType;
 import org.opengis.feature.type.FeatureType;
 import org.vfny.geoserver.wms.WMSMapContext;
@@ -77,6 +78,12 @@ public class GeometryRegionatingStrategy extends
         }
     }
 
+    @Override
+    protected String getH2DataType(AttributeDescriptor ad) {
+        // geometry size is a double
+        return "DOUBLE";
+    }
+
     @Override
     protected Double getSortAttributeValue(SimpleFeature f) {
         Geometry g = (Geometry) f.getAttribute(attribute);
@@ -9,15 +9,19 @@ import java.awt.geom.AffineTransform;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.wms.MapLayerInfo;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.map.MapLayer;
 import org.geotools.renderer.lite.RendererUtilities;
 import org.geotools.xml.transform.TransformerBase;
 import org.geotools.xml.transform.Translator;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
 import org.vfny.geoserver.wms.WMSMapContext;
 import org.vfny.geoserver.wms.requests.GetMapRequest;
 import org.xml.sax.ContentHandler;
@@ -62,6 +66,11 @@ public class KMLTransformer extends TransformerBase {
         
         static final int RULES = 0;
         static final int ELSE_RULES = 1;
+
+        /**
+         * How far off the kmscore threshold a feature count estimate must be to be trusted
+         */
+        static final double ESTIMATE_TOLERANCE = 2;
     	
         private double scaleDenominator;
 
@@ -172,7 +181,7 @@ public class KMLTransformer extends TransformerBase {
                 //calculate kmscore to determine if we shoud write as vectors
                 // or pre-render
                 int kmscore = mapContext.getRequest().getKMScore();
-                boolean useVector = useVectorOutput(kmscore, features.size());
+                boolean useVector = useVectorOutput(kmscore, mapContext, layer, features);
 
                 if (useVector) {
                     //encode
@@ -268,6 +277,62 @@ public class KMLTransformer extends TransformerBase {
             }
         }
 
+        /**
+         * Determines whether to return a vector (KML) result of the data or to return an image
+         * instead, avoiding to count the features unless necessary.
+         * <p>
+         * When a {@link FeatureCountEstimator} is available the number of features is estimated,
+         * and only counted exactly when the estimate is close to the kmscore threshold.
+         * </p>
+         */
+        boolean useVectorOutput(int kmscore, WMSMapContext mapContext, MapLayer layer,
+                FeatureCollection<SimpleFeatureType, SimpleFeature> features) {
+            if (kmscore == 100 || kmscore == 0) {
+                // the number of features does not matter
+                return useVectorOutput(kmscore, 0);
+            }
+
+            int estimate = estimateFeatures(mapContext, layer);
+            if (estimate >= 0) {
+                double threshold = vectorThreshold(kmscore);
+                if (estimate > threshold * ESTIMATE_TOLERANCE
+                        || estimate < threshold / ESTIMATE_TOLERANCE) {
+                    return useVectorOutput(kmscore, estimate);
+                }
+            }
+            return useVectorOutput(kmscore, features.size());
+        }
+
+        /**
+         * Estimates the number of features of the layer in the requested area, returning -1 if
+         * no estimate is available.
+         */
+        int estimateFeatures(WMSMapContext mapContext, MapLayer layer) {
+            FeatureCountEstimator estimator = GeoServerExtensions.bean(FeatureCountEstimator.class);
+            if (estimator == null) {
+                return -1;
+            }
+
+            // the estimates know nothing about filters and regionating
+            Query query = layer.getQuery();
+            if ((query.getFilter() != null && !Filter.INCLUDE.equals(query.getFilter()))
+                    || query.getMaxFeatures() != Query.DEFAULT_MAX
+                    || query.getStartIndex() != null || query.getVersion() != null
+                    || mapContext.getRequest().getFormatOptions().get("regionateBy") != null) {
+                return -1;
+            }
+
+            int index = mapContext.indexOf(layer);
+            MapLayerInfo layerInfo = mapContext.getRequest().getLayers()[index];
+            if (layerInfo.getFeature() == null) {
+                return -1;
+            }
+
+            ReferencedEnvelope aoi = new ReferencedEnvelope(mapContext.getAreaOfInterest(),
+                    mapContext.getCoordinateReferenceSystem());
+            return estimator.estimate(layerInfo.getFeature(), aoi);
+        }
+
         /**
          * Determines whether to return a vector (KML) result of the data or to
          * return an image instead.
@@ -303,7 +368,7 @@ public class KMLTransformer extends TransformerBase {
             // The lowest bound is 1 feature and the highest bound is 3.98 million features
             // The most useful kmscore values are between 20 and 70 (21 and 46000 features respectively)
             // A good default kmscore value is around 40 (464 features)
-            double magic = Math.pow(10, kmscore / 15);
+            double magic = vectorThreshold(kmscore);
 
             if (numFeatures > magic) {
                 return false; // return raster
@@ -311,5 +376,12 @@ public class KMLTransformer extends TransformerBase {
                 return true; // return vector
             }
         }
+
+        /**
+         * The number of features above which the kmscore calls for raster output.
+         */
+        double vectorThreshold(int kmscore) {
+            return Math.pow(10, kmscore / 15);
+        }
     }
 }
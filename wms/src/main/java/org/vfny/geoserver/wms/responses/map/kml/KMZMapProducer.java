@@ -4,9 +4,18 @@
  */
 package org.vfny.geoserver.wms.responses.map.kml;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Logger;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -54,9 +63,23 @@ public class KMZMapProducer extends AbstractGetMapProducer implements GetMapProd
     };
 
     /**
-	 * delegating producer for rendering.
-	 */
-	PNGMapProducer mapProducer;
+     * Renders the layer images while the kml is being encoded, shared among all requests
+     */
+    static final ExecutorService RENDERER = Executors.newFixedThreadPool(Runtime.getRuntime()
+            .availableProcessors(), new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "GeoServer KMZ renderer");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    WMS wms;
+
+    /**
+     * the layer images being rendered, in layer order
+     */
+    List<Future<byte[]>> images;
 
 	/**
 	 * transformer for creating kml
@@ -65,13 +88,13 @@ public class KMZMapProducer extends AbstractGetMapProducer implements GetMapProd
 
 	public KMZMapProducer(WMS wms) {
 		super(MIME_TYPE, OUTPUT_FORMATS);
-		mapProducer = new PNGMapProducer(wms);
+		this.wms = wms;
 	}
 
 	public void abort() {
 		LOGGER.fine("aborting KMZ map response");
+		cancelImages();
 		mapContext = null;
-		mapProducer = null;
 		transformer = null;
 	}
 
@@ -124,51 +147,110 @@ public class KMZMapProducer extends AbstractGetMapProducer implements GetMapProd
      *
      */
 	public void writeTo(OutputStream out) throws ServiceException, IOException {
-		// wrap the output stream in a zipped one
-		ZipOutputStream zip = new ZipOutputStream(out);
-
-		// first create an entry for the kml
-		ZipEntry entry = new ZipEntry("wms.kml");
-		zip.putNextEntry(entry);
+		// start rendering the images, they are encoded in parallel with the
+		// kml and appended once the kml is written out
+		images = new ArrayList<Future<byte[]>>();
+		for (int i = 0; i < mapContext.getLayerCount(); i++) {
+			final WMSMapContext layerContext = createLayerContext(mapContext.getLayer(i));
+			images.add(RENDERER.submit(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					return renderImage(layerContext);
+				}
+			}));
+		}
 
 		try {
-			transformer.transform(mapContext, zip);
-			zip.closeEntry();
-		} catch (TransformerException e) {
-			throw (IOException) new IOException().initCause(e);
-		}
+			// wrap the output stream in a zipped one
+			ZipOutputStream zip = new ZipOutputStream(out);
 
-		// write the images
-		for (int i = 0; i < mapContext.getLayerCount(); i++) {
-			MapLayer mapLayer = mapContext.getLayer(i);
-
-			// create a context for this single layer
-			WMSMapContext mapContext = new WMSMapContext();
-			mapContext.addLayer(mapLayer);
-			mapContext.setRequest(this.mapContext.getRequest());
-			mapContext.setMapHeight(this.mapContext.getMapHeight());
-			mapContext.setMapWidth(this.mapContext.getMapWidth());
-			mapContext.setAreaOfInterest(this.mapContext.getAreaOfInterest());
-			mapContext.setBgColor(this.mapContext.getBgColor());
-			mapContext.setBuffer(this.mapContext.getBuffer());
-			mapContext.setContactInformation(this.mapContext
-					.getContactInformation());
-			mapContext.setKeywords(this.mapContext.getKeywords());
-			mapContext.setAbstract(this.mapContext.getAbstract());
-			mapContext.setTransparent(true);
-
-			// render the map
-			mapProducer.setMapContext(mapContext);
-			mapProducer.produceMap();
-
-			// write it to the zip stream
-			entry = new ZipEntry("layer_" + i + ".png");
+			// first create an entry for the kml, placemarks are streamed into
+			// it as the features are read
+			ZipEntry entry = new ZipEntry("wms.kml");
 			zip.putNextEntry(entry);
-			mapProducer.writeTo(zip);
-			zip.closeEntry();
+
+			try {
+				transformer.transform(mapContext, zip);
+				zip.closeEntry();
+			} catch (TransformerException e) {
+				throw (IOException) new IOException().initCause(e);
+			}
+
+			// write the images
+			for (int i = 0; i < images.size(); i++) {
+				byte[] image = getImage(images.get(i));
+
+				entry = new ZipEntry("layer_" + i + ".png");
+				zip.putNextEntry(entry);
+				zip.write(image);
+				zip.closeEntry();
+			}
+
+			zip.finish();
+			zip.flush();
+		} finally {
+			// don't keep on rendering if the kml failed
+			cancelImages();
 		}
+	}
+
+	/**
+	 * Creates a context for rendering a single layer.
+	 */
+	WMSMapContext createLayerContext(MapLayer mapLayer) {
+		WMSMapContext mapContext = new WMSMapContext();
+		mapContext.addLayer(mapLayer);
+		mapContext.setRequest(this.mapContext.getRequest());
+		mapContext.setMapHeight(this.mapContext.getMapHeight());
+		mapContext.setMapWidth(this.mapContext.getMapWidth());
+		mapContext.setAreaOfInterest(this.mapContext.getAreaOfInterest());
+		mapContext.setBgColor(this.mapContext.getBgColor());
+		mapContext.setBuffer(this.mapContext.getBuffer());
+		mapContext.setContactInformation(this.mapContext
+				.getContactInformation());
+		mapContext.setKeywords(this.mapContext.getKeywords());
+		mapContext.setAbstract(this.mapContext.getAbstract());
+		mapContext.setTransparent(true);
+		return mapContext;
+	}
+
+	/**
+	 * Renders a single layer to png. Uses a producer of its own since producers
+	 * are not thread safe.
+	 */
+	byte[] renderImage(WMSMapContext layerContext) throws ServiceException, IOException {
+		PNGMapProducer mapProducer = new PNGMapProducer(wms);
+		mapProducer.setMapContext(layerContext);
+		mapProducer.produceMap();
 
-		zip.finish();
-		zip.flush();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		mapProducer.writeTo(bytes);
+		return bytes.toByteArray();
+	}
+
+	byte[] getImage(Future<byte[]> image) throws ServiceException, IOException {
+		try {
+			return image.get();
+		} catch (InterruptedException e) {
+			throw (IOException) new IOException("Interrupted while rendering layer")
+					.initCause(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof ServiceException) {
+				throw (ServiceException) cause;
+			}
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new WmsException(cause);
+		}
+	}
+
+	void cancelImages() {
+		List<Future<byte[]>> images = this.images;
+		if (images != null) {
+			for (Future<byte[]> image : images) {
+				image.cancel(true);
+			}
+		}
 	}
 }
@@ -79,6 +79,15 @@ public class NativeSortRegionatingStrategy extends
         return super.getDatabaseName(con, layer) + "_" + attribute;
     }
 
+    @Override
+    protected void setup(FeatureTypeInfo cfg) throws Exception {
+        super.setup(cfg);
+        fs = cfg.getFeatureSource(null, null);
+        attribute = MapLayerInfo.getRegionateAttribute(cfg);
+        if (attribute == null)
+            throw new WmsException("Regionating attribute has not been specified");
+    }
+
     @Override
     protected String getDatabaseName(FeatureTypeInfo cfg) throws Exception {
         return super.getDatabaseName(cfg) + "_" +  MapLayerInfo.getRegionateAttribute(cfg);
@@ -0,0 +1,269 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.config.GeoServer;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionListener;
+import org.geoserver.wfs.WFSException;
+import org.geotools.util.NullProgressListener;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+import org.vfny.geoserver.wms.WmsException;
+
+/**
+ * Precomputes the KML regionating hierarchy of layers in the background, so that the first
+ * users browsing a super overlay do not have to wait for the tiles to be computed one by one.
+ * <p>
+ * Layers are built on demand through {@link #build(FeatureTypeInfo)}, and then rebuilt
+ * whenever a WFS transaction modifies them. Rebuilds are delayed a bit so that a burst of
+ * transactions results in a single rebuild, and tiles keep being served off the previous
+ * hierarchy until the new one is ready.
+ * </p>
+ * <p>
+ * Layers are built one at a time, by a single background thread.
+ * </p>
+ */
+public class RegionatingHierarchyBuilder implements TransactionListener, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.geosearch");
+
+    /**
+     * Delay between a change to a layer and the rebuild of its hierarchy, in milliseconds
+     */
+    static long REBUILD_DELAY = 10 * 1000;
+
+    /**
+     * The state of a build job
+     */
+    public static enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELED
+    }
+
+    GeoServer gs;
+
+    /** the builder thread */
+    ScheduledExecutorService executor;
+
+    /** feature type id to job, for all the layers built so far */
+    Map<String, Job> jobs = new HashMap<String, Job>();
+
+    public RegionatingHierarchyBuilder(GeoServer gs) {
+        this.gs = gs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "GeoServer regionating hierarchy builder");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Schedules the build of the hierarchy of the specified layer, using its default
+     * regionating strategy. If a build is already scheduled or running the current job is
+     * returned.
+     */
+    public Job build(FeatureTypeInfo featureType) {
+        Job job;
+        synchronized (jobs) {
+            job = jobs.get(featureType.getId());
+            if (job == null) {
+                job = new Job(featureType.getId());
+                jobs.put(featureType.getId(), job);
+            }
+        }
+        schedule(job, 0);
+        return job;
+    }
+
+    /**
+     * Returns the last job building the specified layer, or <code>null</code> if the layer
+     * hierarchy was never built.
+     */
+    public Job getJob(FeatureTypeInfo featureType) {
+        synchronized (jobs) {
+            return jobs.get(featureType.getId());
+        }
+    }
+
+    /**
+     * Rebuilds the hierarchy of the layers modified by the transaction, if they have been built
+     * before.
+     */
+    public void dataStoreChange(TransactionEvent event) throws WFSException {
+        FeatureTypeInfo featureType = gs.getCatalog().getFeatureTypeByName(
+                event.getLayerName().getNamespaceURI(), event.getLayerName().getLocalPart());
+        if (featureType == null) {
+            return;
+        }
+
+        Job job = getJob(featureType);
+        if (job != null) {
+            schedule(job, REBUILD_DELAY);
+        }
+    }
+
+    void schedule(Job job, long delay) {
+        synchronized (job) {
+            if (job.state == State.QUEUED) {
+                // will pick up the changes anyways, unless canceled in the meantime
+                job.canceled = false;
+                return;
+            }
+            if (job.state == State.RUNNING) {
+                // run again when done, the current run may have missed the changes
+                job.dirty = true;
+                return;
+            }
+
+            job.state = State.QUEUED;
+            job.progress = 0;
+            job.error = null;
+            job.canceled = false;
+        }
+        executor.schedule(job, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks up the strategy to be used to build the hierarchy of the specified layer.
+     */
+    CachedHierarchyRegionatingStrategy getStrategy(FeatureTypeInfo featureType)
+            throws Exception {
+        String name = featureType.getMetadata().get("kml.regionateStrategy", String.class);
+        if (name == null || "".equals(name)) {
+            name = "best_guess";
+        }
+
+        RegionatingStrategy strategy = KMLUtils.findStrategyByName(name);
+        if (strategy instanceof BestGuessRegionatingStrategy) {
+            strategy = ((BestGuessRegionatingStrategy) strategy).getStrategy(featureType);
+        }
+        if (!(strategy instanceof CachedHierarchyRegionatingStrategy)) {
+            throw new WmsException("Regionating strategy " + name
+                    + " does not support precomputing the tile hierarchy");
+        }
+        return (CachedHierarchyRegionatingStrategy) strategy;
+    }
+
+    public void destroy() throws Exception {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A job building the hierarchy of a layer, reporting its progress.
+     */
+    public class Job extends NullProgressListener implements Runnable {
+
+        String featureTypeId;
+
+        volatile State state;
+
+        volatile float progress;
+
+        volatile Throwable error;
+
+        volatile boolean canceled;
+
+        /** whether the layer changed while the job was running */
+        boolean dirty;
+
+        Job(String featureTypeId) {
+            this.featureTypeId = featureTypeId;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * The progress of the build, as a percentage.
+         */
+        public float getProgress() {
+            return progress;
+        }
+
+        /**
+         * The error which made the job fail, if any.
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        @Override
+        public void progress(float percent) {
+            progress = percent;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return canceled;
+        }
+
+        @Override
+        public void setCanceled(boolean canceled) {
+            synchronized (this) {
+                this.canceled = canceled;
+                if (canceled) {
+                    // changes made from now on will run the job again
+                    dirty = false;
+                }
+            }
+        }
+
+        public void run() {
+            synchronized (this) {
+                if (canceled) {
+                    state = State.CANCELED;
+                    return;
+                }
+                state = State.RUNNING;
+                dirty = false;
+            }
+
+            State result;
+            try {
+                Catalog catalog = gs.getCatalog();
+                FeatureTypeInfo featureType = catalog.getFeatureType(featureTypeId);
+                if (featureType == null) {
+                    throw new WmsException("Layer " + featureTypeId + " no longer exists");
+                }
+
+                LOGGER.info("Building the regionating hierarchy of " + featureType.getName());
+                getStrategy(featureType).buildHierarchy(featureType, this);
+                if (canceled) {
+                    result = State.CANCELED;
+                } else {
+                    progress = 100;
+                    result = State.COMPLETED;
+                }
+            } catch (Throwable t) {
+                LOGGER.log(Level.WARNING, "Failed to build the regionating hierarchy", t);
+                error = t;
+                result = State.FAILED;
+            }
+
+            boolean rerun;
+            synchronized (this) {
+                state = result;
+                rerun = dirty;
+            }
+            if (rerun) {
+                schedule(this, REBUILD_DELAY);
+            }
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/* Copyright (c) 2001 - 2007 TOPP - www.openplans.org. All rights reserved.
+ * This code is licensed under the GPL 2.0 license, availible at the root
+ * application directory.
+ */
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geotools.data.jdbc.JDBCUtils;
+import org.geotools.util.logging.Logging;
+
+/**
+ * The H2 database caching the fid to tile assignments of a regionated layer.
+ * <p>
+ * Databases are shared among all the requests regionating the same layer and keep a small
+ * pool of open connections, each with its own prepared statements, so that tile requests do
+ * not have to open the database and parse the same queries over and over.
+ * </p>
+ * <p>
+ * The database also hands out the locks used to make sure a tile is computed by a single
+ * thread. Locks are striped by zoom level, and since a tile computation only ever locks the
+ * parents of the tile, locks are always acquired by decreasing zoom level, which rules out
+ * deadlocks between tiles sharing a stripe.
+ * </p>
+ * <p>
+ * Requests reading or computing tiles hold the read side of the {@link #getCacheLock() cache
+ * lock}, a precomputed hierarchy is swapped in under the write side.
+ * </p>
+ */
+class TileCacheDatabase {
+
+    static final Logger LOGGER = Logging.getLogger("org.geoserver.geosearch");
+
+    /**
+     * Max number of idle connections kept open for each database
+     */
+    static int MAX_IDLE = 8;
+
+    /**
+     * Number of locks per zoom level
+     */
+    static final int STRIPES = 64;
+
+    /**
+     * the open databases, by url
+     */
+    static ConcurrentHashMap<String, TileCacheDatabase> databases = new ConcurrentHashMap<String, TileCacheDatabase>();
+
+    /**
+     * Returns the database stored in the specified file, opening it if necessary.
+     *
+     * @param path The path of the database, without extension.
+     */
+    static TileCacheDatabase get(String path) throws SQLException {
+        String url = "jdbc:h2:file:" + path;
+        TileCacheDatabase db = databases.get(url);
+        if (db == null) {
+            synchronized (databases) {
+                db = databases.get(url);
+                if (db == null) {
+                    db = new TileCacheDatabase(url);
+                    databases.put(url, db);
+                }
+            }
+        }
+        return db;
+    }
+
+    /**
+     * Closes the database stored in the specified file, if open. Connections in use are closed
+     * as they are released.
+     */
+    static void close(String path) {
+        TileCacheDatabase db = databases.remove("jdbc:h2:file:" + path);
+        if (db != null) {
+            db.dispose();
+        }
+    }
+
+    String url;
+
+    /** idle connections */
+    LinkedList<TileCacheConnection> idle = new LinkedList<TileCacheConnection>();
+
+    /** zoom level to tile locks */
+    ConcurrentHashMap<Long, Object[]> locks = new ConcurrentHashMap<Long, Object[]>();
+
+    /** guards the replacement of the cache table */
+    ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
+
+    /** guards the construction of auxiliary indexes */
+    Object indexLock = new Object();
+
+    boolean disposed;
+
+    TileCacheDatabase(String url) throws SQLException {
+        this.url = url;
+
+        // create the cache table on the first connection, and keep it for later
+        TileCacheConnection cx = new TileCacheConnection(DriverManager.getConnection(url,
+                "geoserver", "geopass"));
+        Statement st = null;
+        try {
+            st = cx.getConnection().createStatement();
+            st.execute("CREATE TABLE IF NOT EXISTS TILECACHE( " //
+                    + "x BIGINT, " //
+                    + "y BIGINT, " //
+                    + "z INT, " //
+                    + "fid varchar (64))");
+            st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
+        } catch (SQLException e) {
+            cx.close();
+            throw e;
+        } finally {
+            JDBCUtils.close(st);
+        }
+        idle.add(cx);
+    }
+
+    /**
+     * Grabs a connection from the pool, or opens a new one if none is idle. The connection must
+     * be handed back with {@link #release(TileCacheConnection, boolean)}.
+     */
+    TileCacheConnection acquire() throws SQLException {
+        synchronized (this) {
+            if (!idle.isEmpty()) {
+                return idle.removeFirst();
+            }
+        }
+        return new TileCacheConnection(DriverManager.getConnection(url, "geoserver", "geopass"));
+    }
+
+    /**
+     * Returns a connection to the pool.
+     *
+     * @param broken Whether an error occurred while using the connection, in which case the
+     *            connection is closed instead of being pooled.
+     */
+    void release(TileCacheConnection cx, boolean broken) {
+        if (!broken) {
+            try {
+                cx.getConnection().setAutoCommit(true);
+            } catch (SQLException e) {
+                broken = true;
+            }
+        }
+
+        synchronized (this) {
+            if (!broken && !disposed && idle.size() < MAX_IDLE) {
+                idle.addFirst(cx);
+                return;
+            }
+        }
+        cx.close();
+    }
+
+    /**
+     * Returns the lock guarding the computation of the specified tile.
+     */
+    Object getTileLock(long x, long y, long z) {
+        Object[] level = locks.get(z);
+        if (level == null) {
+            level = new Object[STRIPES];
+            for (int i = 0; i < STRIPES; i++) {
+                level[i] = new Object();
+            }
+            Object[] existing = locks.putIfAbsent(z, level);
+            if (existing != null) {
+                level = existing;
+            }
+        }
+
+        long hash = x * 31 + y;
+        return level[(int) ((hash ^ (hash >>> 32)) & (STRIPES - 1))];
+    }
+
+    /**
+     * Returns the lock strategies should hold while building or dropping auxiliary structures
+     * stored in the database.
+     */
+    Object getIndexLock() {
+        return indexLock;
+    }
+
+    /**
+     * Returns the lock guarding the cache table as a whole.
+     */
+    ReadWriteLock getCacheLock() {
+        return cacheLock;
+    }
+
+    /**
+     * Creates a table with the same structure as the cache, to be filled by the caller and then
+     * swapped in with {@link #replaceCache(TileCacheConnection, String)}. Any leftover table
+     * with the same name is dropped.
+     */
+    void createCacheTable(TileCacheConnection cx, String table) throws SQLException {
+        Statement st = null;
+        try {
+            st = cx.getConnection().createStatement();
+            st.execute("DROP TABLE IF EXISTS " + table);
+            st.execute("CREATE TABLE " + table + "( " //
+                    + "x BIGINT, " //
+                    + "y BIGINT, " //
+                    + "z INT, " //
+                    + "fid varchar (64))");
+        } finally {
+            JDBCUtils.close(st);
+        }
+    }
+
+    /**
+     * Replaces the cache table with the specified one, waiting for the requests using the
+     * current cache to complete.
+     */
+    void replaceCache(TileCacheConnection cx, String table) throws SQLException {
+        cacheLock.writeLock().lock();
+        try {
+            Statement st = null;
+            try {
+                st = cx.getConnection().createStatement();
+                st.execute("DROP TABLE IF EXISTS TILECACHE");
+                st.execute("ALTER TABLE " + table + " RENAME TO TILECACHE");
+                st.execute("CREATE INDEX IF NOT EXISTS IDX_TILECACHE ON TILECACHE(x, y, z)");
+            } finally {
+                JDBCUtils.close(st);
+            }
+
+            // statements prepared against the old table are no good anymore
+            cx.closeStatements();
+            synchronized (this) {
+                for (TileCacheConnection idleCx : idle) {
+                    idleCx.closeStatements();
+                }
+            }
+        } finally {
+            cacheLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes all the idle connections.
+     */
+    synchronized void dispose() {
+        disposed = true;
+        for (TileCacheConnection cx : idle) {
+            cx.close();
+        }
+        idle.clear();
+    }
+
+    /**
+     * A pooled connection along with its prepared statements.
+     */
+    static class TileCacheConnection {
+
+        Connection connection;
+
+        PreparedStatement select;
+
+        PreparedStatement insert;
+
+        TileCacheConnection(Connection connection) {
+            this.connection = connection;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        /**
+         * Statement selecting the fids of a tile, parameters are x, y, z.
+         */
+        PreparedStatement getSelectStatement() throws SQLException {
+            if (select == null) {
+                select = connection
+                        .prepareStatement("SELECT fid FROM TILECACHE WHERE x = ? AND y = ? AND z = ?");
+            }
+            return select;
+        }
+
+        /**
+         * Statement storing a fid in a tile, parameters are x, y, z and fid.
+         */
+        PreparedStatement getInsertStatement() throws SQLException {
+            if (insert == null) {
+                insert = connection.prepareStatement("INSERT INTO TILECACHE VALUES (?, ?, ?, ?)");
+            }
+            return insert;
+        }
+
+        void closeStatements() {
+            JDBCUtils.close(select);
+            JDBCUtils.close(insert);
+            select = null;
+            insert = null;
+        }
+
+        void close() {
+            closeStatements();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.FINE, "Error closing tile cache connection", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.geoserver.wms.kvp;
+
+import junit.framework.TestCase;
+
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.StyledLayerDescriptor;
+
+public class RemoteSLDCacheTest extends TestCase {
+
+    public void testExpires() {
+        long now = 1000000000L;
+
+        // explicit freshness
+        assertEquals(now + 60000, RemoteSLDCache.getExpires("public, max-age=60", 0, now, 0));
+        assertEquals(now + 5000, RemoteSLDCache.getExpires(null, now + 5000, now, 0));
+        // max-age wins over expires
+        assertEquals(now + 60000, RemoteSLDCache.getExpires("max-age=60", now + 5000, now, 0));
+
+        // always revalidate
+        assertEquals(0, RemoteSLDCache.getExpires("max-age=60, no-cache", 0, now, 0));
+        assertEquals(0, RemoteSLDCache.getExpires("max-age=abc", 0, now, 0));
+        assertEquals(0, RemoteSLDCache.getExpires(null, 0, now, 0));
+
+        // heuristic freshness
+        assertEquals(now + 1000, RemoteSLDCache.getExpires(null, 0, now, now - 10000));
+        assertEquals(now + RemoteSLDCache.MAX_HEURISTIC_AGE, RemoteSLDCache.getExpires(null, 0,
+                now, 1));
+    }
+
+    public void testCacheable() {
+        assertTrue(RemoteSLDCache.isCacheable(null));
+        assertTrue(RemoteSLDCache.isCacheable("private, max-age=10"));
+        assertFalse(RemoteSLDCache.isCacheable("no-store"));
+        assertFalse(RemoteSLDCache.isCacheable("max-age=10, No-Store"));
+    }
+
+    public void testLocalDocument() throws Exception {
+        RemoteSLDCache cache = new RemoteSLDCache();
+        StyledLayerDescriptor sld = cache.get(getClass().getResource(
+                "BasicPolygonsLibraryDefault.sld"), CommonFactoryFinder.getStyleFactory(null));
+        assertNotNull(sld);
+        assertTrue(sld.getStyledLayers().length > 0);
+
+        // only remote documents are cached
+        assertTrue(cache.entries.isEmpty());
+    }
+}
@@ -0,0 +1,87 @@
+package org.geoserver.wms.util;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+
+import junit.framework.TestCase;
+
+import org.geoserver.wms.kvp.GetMapKvpRequestReader;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleFactory;
+import org.geotools.styling.StyledLayerDescriptor;
+
+public class SLDBodyCacheTest extends TestCase {
+
+    StyleFactory styleFactory = CommonFactoryFinder.getStyleFactory(null);
+
+    public void testHitsAndMisses() throws Exception {
+        SLDBodyCache cache = new SLDBodyCache();
+        String body = readBody("BasicPolygonsLibraryDefault.sld");
+
+        StyledLayerDescriptor sld = cache.getSLD(body, styleFactory);
+        assertNotNull(sld);
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // same content, different string
+        assertSame(sld, cache.getSLD(new String(body), styleFactory));
+        assertEquals(1, cache.getHits());
+
+        // the styles are parsed separately, once
+        Style[] styles = cache.getStyles(body, styleFactory);
+        assertTrue(styles.length > 0);
+        assertSame(styles, cache.getStyles(body, styleFactory));
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+
+        // a different document
+        assertNotSame(sld, cache.getSLD(readBody("BasicPolygonsLibraryNoDefault.sld"),
+                styleFactory));
+        assertEquals(3, cache.getMisses());
+
+        cache.clear();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+        assertNotSame(sld, cache.getSLD(body, styleFactory));
+    }
+
+    public void testValidated() throws Exception {
+        SLDBodyCache cache = new SLDBodyCache();
+        String body = readBody("BasicPolygonsLibraryDefault.sld");
+        assertFalse(cache.isValidated(body));
+        cache.setValidated(body);
+        assertTrue(cache.isValidated(body));
+    }
+
+    public void testEviction() throws Exception {
+        int max = SLDBodyCache.MAX_ENTRIES;
+        SLDBodyCache.MAX_ENTRIES = 2;
+        try {
+            SLDBodyCache cache = new SLDBodyCache();
+            String body = readBody("BasicPolygonsLibraryDefault.sld");
+            cache.getSLD(body, styleFactory);
+            cache.getSLD(body + " ", styleFactory);
+            cache.getSLD(body + "  ", styleFactory);
+            assertEquals(2, cache.entries.size());
+
+            // the first one has been evicted
+            cache.getSLD(body, styleFactory);
+            assertEquals(4, cache.getMisses());
+        } finally {
+            SLDBodyCache.MAX_ENTRIES = max;
+        }
+    }
+
+    String readBody(String resource) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                GetMapKvpRequestReader.class.getResourceAsStream(resource)));
+        StringBuffer sb = new StringBuffer();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            sb.append(line).append("\n");
+        }
+        reader.close();
+        return sb.toString();
+    }
+}
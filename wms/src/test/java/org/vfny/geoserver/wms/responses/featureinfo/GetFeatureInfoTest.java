@@ -6,9 +6,11 @@ import javax.xml.namespace.QName;
 
 import junit.framework.Test;
 
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.wms.WMSInfo;
 import org.geoserver.wms.WMSTestSupport;
+import org.vfny.geoserver.wms.responses.featureInfo.FeatureInfoIndex;
 import org.w3c.dom.Document;
 
 import com.mockrunner.mock.web.MockHttpServletResponse;
@@ -180,6 +182,67 @@ public class GetFeatureInfoTest extends WMSTestSupport {
 
     }
 
+    /**
+     * Tests the features of all the queried layers are returned, in layer order
+     * 
+     * @throws Exception
+     */
+    public void testTwoLayersResults() throws Exception {
+        String layer = getLayerId(MockData.FORESTS) + "," + getLayerId(MockData.LAKES);
+        String request = "wms?bbox=-0.002,-0.002,0.002,0.002&styles=&format=jpeg&info_format=text/plain&request=GetFeatureInfo&layers="
+                + layer + "&query_layers=" + layer + "&width=20&height=20&x=17&y=17";
+        String result = getAsString(request);
+        int forest = result.indexOf("Green Forest");
+        int lake = result.indexOf("Blue Lake");
+        assertTrue(forest > 0);
+        assertTrue(lake > forest);
+    }
+
+    /**
+     * Tests the same results are returned when the layer is indexed in memory, and that the
+     * index is actually used
+     * 
+     * @throws Exception
+     */
+    public void testIndexedLayer() throws Exception {
+        FeatureTypeInfo ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.FORESTS));
+        ft.getMetadata().put(FeatureInfoIndex.INDEX_KEY, Boolean.TRUE);
+        getCatalog().save(ft);
+        try {
+            long hits = FeatureInfoIndex.getInstance().getHits();
+            String layer = getLayerId(MockData.FORESTS);
+            String request = "wms?bbox=-0.002,-0.002,0.002,0.002&styles=&format=jpeg&info_format=text/plain&request=GetFeatureInfo&layers="
+                    + layer + "&query_layers=" + layer + "&width=20&height=20";
+            String result = getAsString(request + "&x=10&y=10");
+            assertTrue(result.indexOf("Green Forest") > 0);
+            assertEquals(hits + 1, FeatureInfoIndex.getInstance().getHits());
+            
+            // a click outside of the forest
+            result = getAsString(request + "&x=0&y=0");
+            assertTrue(result.indexOf("Green Forest") < 0);
+            assertEquals(hits + 2, FeatureInfoIndex.getInstance().getHits());
+
+            // along with another layer, the indexed results are gathered in another thread
+            String layers = layer + "," + getLayerId(MockData.LAKES);
+            result = getAsString("wms?bbox=-0.002,-0.002,0.002,0.002&styles=&format=jpeg&info_format=text/plain&request=GetFeatureInfo&layers="
+                    + layers + "&query_layers=" + layers + "&width=20&height=20&x=17&y=17");
+            assertTrue(result.indexOf("Green Forest") > 0);
+            assertTrue(result.indexOf("Blue Lake") > result.indexOf("Green Forest"));
+            assertEquals(hits + 3, FeatureInfoIndex.getInstance().getHits());
+        } finally {
+            ft = getCatalog().getFeatureTypeByName(getLayerId(MockData.FORESTS));
+            ft.getMetadata().remove(FeatureInfoIndex.INDEX_KEY);
+            getCatalog().save(ft);
+        }
+
+        // not used anymore once disabled
+        long hits = FeatureInfoIndex.getInstance().getHits();
+        String layer = getLayerId(MockData.FORESTS);
+        getAsString("wms?bbox=-0.002,-0.002,0.002,0.002&styles=&format=jpeg&info_format=text/plain&request=GetFeatureInfo&layers="
+                + layer + "&query_layers=" + layer + "&width=20&height=20&x=10&y=10");
+        assertEquals(hits, FeatureInfoIndex.getInstance().getHits());
+    }
+
     /**
      * Check GetFeatureInfo returns an error if the format is not known, instead
      * of returning the text format as in
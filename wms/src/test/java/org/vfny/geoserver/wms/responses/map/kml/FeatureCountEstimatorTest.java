@@ -0,0 +1,137 @@
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.wfs.TransactionEvent;
+import org.geoserver.wfs.TransactionEventType;
+import org.geotools.data.FeatureSource;
+import org.geotools.feature.FeatureCollection;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.vfny.geoserver.wms.responses.map.kml.FeatureCountEstimator.Histogram;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+public class FeatureCountEstimatorTest extends RegionatingTestSupport {
+
+    public void testHistogram() throws Exception {
+        Histogram histogram = new Histogram(new ReferencedEnvelope(0, 100, 0, 100,
+                DefaultGeographicCRS.WGS84), 10);
+        for (int i = 0; i < 100; i++) {
+            histogram.add(new Envelope(i, i, i, i));
+        }
+        // outside of the bounds, counted in the corner cell
+        histogram.add(new Envelope(150, 150, 150, 150));
+
+        assertEquals(101, histogram.estimate(new ReferencedEnvelope(-10, 200, -10, 200,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(10, histogram.estimate(new ReferencedEnvelope(0, 9.9, 0, 9.9,
+                DefaultGeographicCRS.WGS84)));
+        // the whole cell is counted
+        assertEquals(10, histogram.estimate(new ReferencedEnvelope(0, 5, 0, 9.9,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(0, histogram.estimate(new ReferencedEnvelope(0, 9.9, 50, 59.9,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(0, histogram.estimate(new ReferencedEnvelope(200, 300, 200, 300,
+                DefaultGeographicCRS.WGS84)));
+    }
+
+    public void testHistogramIntersection() throws Exception {
+        Histogram histogram = new Histogram(new ReferencedEnvelope(0, 100, 0, 100,
+                DefaultGeographicCRS.WGS84), 10);
+        // spans all the cells
+        histogram.add(new Envelope(0, 100, 0, 100));
+        // spans the cells of the bottom row
+        histogram.add(new Envelope(0, 100, 1, 2));
+        histogram.add(new Envelope(1, 2, 1, 2));
+
+        assertEquals(1, histogram.estimate(new ReferencedEnvelope(50, 55, 50, 55,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(2, histogram.estimate(new ReferencedEnvelope(50, 55, 0, 5,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(3, histogram.estimate(new ReferencedEnvelope(0, 5, 0, 5,
+                DefaultGeographicCRS.WGS84)));
+        // each feature is counted once
+        assertEquals(3, histogram.estimate(new ReferencedEnvelope(0, 50, 0, 50,
+                DefaultGeographicCRS.WGS84)));
+
+        histogram.remove(new Envelope(0, 100, 0, 100));
+        assertEquals(0, histogram.estimate(new ReferencedEnvelope(50, 55, 50, 55,
+                DefaultGeographicCRS.WGS84)));
+        assertEquals(2, histogram.estimate(new ReferencedEnvelope(0, 5, 0, 5,
+                DefaultGeographicCRS.WGS84)));
+    }
+
+    public void testBuild() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(DISPERSED_FEATURES);
+        FeatureCountEstimator estimator = new FeatureCountEstimator(getGeoServer());
+        try {
+            Histogram histogram = estimator.build(fti);
+            assertEquals(10, histogram.total);
+            assertEquals(10, histogram.estimate(new ReferencedEnvelope(-180, 180, -90, 90,
+                    DefaultGeographicCRS.WGS84)));
+
+            // estimates are only given once the histogram has been built in the background
+            assertEquals(-1, estimator.estimate(fti, new ReferencedEnvelope(-180, 180, -90, 90,
+                    DefaultGeographicCRS.WGS84)));
+            for (int i = 0; i < 100 && !estimator.histograms.containsKey(fti.getId()); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(10, estimator.estimate(fti, new ReferencedEnvelope(-180, 180, -90, 90,
+                    DefaultGeographicCRS.WGS84)));
+        } finally {
+            estimator.destroy();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public void testTransactionUpdates() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(DISPERSED_FEATURES);
+        FeatureCountEstimator estimator = new FeatureCountEstimator(getGeoServer());
+        try {
+            Histogram histogram = estimator.build(fti);
+            estimator.histograms.put(fti.getId(), histogram);
+
+            FeatureCollection<SimpleFeatureType, SimpleFeature> features =
+                ((FeatureSource<SimpleFeatureType, SimpleFeature>) fti.getFeatureSource(null, null)).getFeatures();
+            ReferencedEnvelope world = new ReferencedEnvelope(-180, 180, -90, 90,
+                    DefaultGeographicCRS.WGS84);
+
+            // the histogram is updated in place, no scan is needed
+            estimator.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_DELETE,
+                    DISPERSED_FEATURES, features));
+            assertSame(histogram, estimator.histograms.get(fti.getId()));
+            assertEquals(0, estimator.estimate(fti, world));
+
+            estimator.dataStoreChange(new TransactionEvent(TransactionEventType.PRE_INSERT,
+                    DISPERSED_FEATURES, features));
+            assertEquals(10, estimator.estimate(fti, world));
+
+            // a resync is scheduled far away
+            assertTrue(estimator.scheduled.contains(fti.getId()));
+        } finally {
+            estimator.destroy();
+        }
+    }
+
+    public void testRetryUnavailable() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(DISPERSED_FEATURES);
+        FeatureCountEstimator estimator = new FeatureCountEstimator(getGeoServer());
+        try {
+            Histogram unavailable = Histogram.unavailable();
+            unavailable.created -= FeatureCountEstimator.RETRY_DELAY + 1;
+            estimator.histograms.put(fti.getId(), unavailable);
+
+            ReferencedEnvelope world = new ReferencedEnvelope(-180, 180, -90, 90,
+                    DefaultGeographicCRS.WGS84);
+            assertEquals(-1, estimator.estimate(fti, world));
+            for (int i = 0; i < 100 && estimator.histograms.get(fti.getId()) == unavailable; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(10, estimator.estimate(fti, world));
+        } finally {
+            estimator.destroy();
+        }
+    }
+}
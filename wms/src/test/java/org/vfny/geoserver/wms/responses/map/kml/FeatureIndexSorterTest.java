@@ -0,0 +1,92 @@
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.io.File;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class FeatureIndexSorterTest extends TestCase {
+
+    public void testInMemory() throws Exception {
+        FeatureIndexSorter sorter = new FeatureIndexSorter(1024 * 1024, 2);
+        try {
+            sorter.add(0, 0, "f.1", 1);
+            sorter.add(1, 1, "f.2", null);
+            sorter.add(2, 2, "f.3", 3);
+
+            FeatureIndexSorter.Cursor cursor = sorter.sort();
+            assertTrue(sorter.files.isEmpty());
+            assertNext(cursor, "f.3");
+            assertNext(cursor, "f.1");
+            assertNext(cursor, "f.2");
+            assertFalse(cursor.next());
+        } finally {
+            sorter.dispose();
+        }
+    }
+
+    public void testMerge() throws Exception {
+        // a tiny budget forces many runs to disk
+        FeatureIndexSorter sorter = new FeatureIndexSorter(2000, 3);
+        try {
+            Random random = new Random(42);
+            for (int i = 0; i < 5000; i++) {
+                Double value = i % 100 == 0 ? null : random.nextDouble();
+                sorter.add(i, -i, "f." + i, value);
+            }
+
+            FeatureIndexSorter.Cursor cursor = sorter.sort();
+            assertTrue(sorter.files.size() > 1);
+
+            int count = 0;
+            Comparable last = Double.MAX_VALUE;
+            while (cursor.next()) {
+                Comparable value = cursor.current.value;
+                if (last == null) {
+                    assertNull(value);
+                } else if (value != null) {
+                    assertTrue(value.compareTo(last) <= 0);
+                }
+                int i = Integer.parseInt(cursor.getFid().substring(2));
+                assertEquals((double) i, cursor.getX());
+                assertEquals((double) -i, cursor.getY());
+
+                last = value;
+                count++;
+            }
+            assertEquals(5000, count);
+        } finally {
+            sorter.dispose();
+        }
+
+        for (File file : sorter.files) {
+            assertFalse(file.exists());
+        }
+    }
+
+    public void testStrings() throws Exception {
+        FeatureIndexSorter sorter = new FeatureIndexSorter(500, 2);
+        try {
+            for (int i = 0; i < 100; i++) {
+                sorter.add(0, 0, "f." + i, String.valueOf((char) ('a' + i % 26)) + i);
+            }
+
+            FeatureIndexSorter.Cursor cursor = sorter.sort();
+            String last = null;
+            while (cursor.next()) {
+                String value = (String) cursor.current.value;
+                if (last != null) {
+                    assertTrue(value.compareTo(last) <= 0);
+                }
+                last = value;
+            }
+        } finally {
+            sorter.dispose();
+        }
+    }
+
+    void assertNext(FeatureIndexSorter.Cursor cursor, String fid) throws Exception {
+        assertTrue(cursor.next());
+        assertEquals(fid, cursor.getFid());
+    }
+}
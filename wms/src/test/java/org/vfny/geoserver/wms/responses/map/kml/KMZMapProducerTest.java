@@ -4,10 +4,12 @@
  */
 package org.vfny.geoserver.wms.responses.map.kml;
 
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.util.zip.ZipFile;
 
+import javax.imageio.ImageIO;
 import javax.xml.namespace.QName;
 
 import junit.framework.Test;
@@ -75,6 +77,25 @@ public class KMZMapProducerTest extends WMSTestSupport {
 		zipFile.close();
 	}
 
+    public void testImages() throws Exception {
+        File zip = File.createTempFile("test", ".kmz");
+        zip.deleteOnExit();
+
+        FileOutputStream output = new FileOutputStream(zip);
+        mapProducer.writeTo(output);
+        output.close();
+
+        // the images rendered in parallel end up complete and in layer order
+        ZipFile zipFile = new ZipFile(zip);
+        for (int i = 0; i < 2; i++) {
+            BufferedImage image = ImageIO.read(zipFile.getInputStream(zipFile
+                    .getEntry("layer_" + i + ".png")));
+            assertEquals(256, image.getWidth());
+            assertEquals(256, image.getHeight());
+        }
+        zipFile.close();
+    }
+
     public void testAbort() throws Exception {
         mapProducer.abort();
         FileOutputStream output = null;
@@ -0,0 +1,95 @@
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.data.test.MockData;
+import org.vfny.geoserver.wms.responses.map.kml.RegionatingHierarchyBuilder.Job;
+import org.vfny.geoserver.wms.responses.map.kml.RegionatingHierarchyBuilder.State;
+import org.vfny.geoserver.wms.responses.map.kml.TileCacheDatabase.TileCacheConnection;
+import org.w3c.dom.Document;
+
+public class RegionatingHierarchyBuilderTest extends RegionatingTestSupport {
+
+    public void testBuildHierarchy() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(MockData.DIVIDED_ROUTES);
+        new RandomRegionatingStrategy(getGeoServer()).buildHierarchy(fti, null);
+
+        // the cache has been filled up front
+        String dataDir = getCatalog().getResourceLoader().getBaseDirectory().getCanonicalPath();
+        TileCacheDatabase db = TileCacheDatabase.get(dataDir + "/geosearch/h2cache_"
+                + MockData.DIVIDED_ROUTES.getPrefix() + "_" + MockData.DIVIDED_ROUTES.getLocalPart());
+        TileCacheConnection cx = db.acquire();
+        try {
+            Statement st = cx.getConnection().createStatement();
+            ResultSet rs = st.executeQuery("SELECT count(*) FROM TILECACHE WHERE fid IS NOT NULL");
+            rs.next();
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+            st.close();
+        } finally {
+            db.release(cx, false);
+        }
+
+        // and the tiles served from it are the same the tile by tile computation gives
+        final String path =
+            "wms?request=getmap&service=wms&version=1.1.1" +
+            "&format=" + KMLMapProducer.MIME_TYPE +
+            "&layers=" + MockData.DIVIDED_ROUTES.getPrefix() + ":" + MockData.DIVIDED_ROUTES.getLocalPart() +
+            "&styles=" + MockData.DIVIDED_ROUTES.getLocalPart() +
+            "&height=1024&width=1024&srs=EPSG:4326" +
+            "&format_options=regionateBy:random";
+        Document document = getAsDOM(path + "&bbox=-180,-90,0,90");
+        assertEquals("kml", document.getDocumentElement().getTagName());
+        assertEquals(1, document.getDocumentElement().getElementsByTagName("Placemark").getLength());
+
+        assertStatusCodeForGet(204, path + "&bbox=0,-90,180,90");
+    }
+
+    public void testBuilder() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(TILE_TESTS);
+        fti.getMetadata().put("kml.regionateFeatureLimit", 2);
+        fti.getMetadata().put("kml.regionateStrategy", "random");
+
+        RegionatingHierarchyBuilder builder = new RegionatingHierarchyBuilder(getGeoServer());
+        try {
+            assertNull(builder.getJob(fti));
+
+            Job job = builder.build(fti);
+            assertSame(job, builder.getJob(fti));
+
+            for (int i = 0; i < 300 && (job.getState() == State.QUEUED
+                    || job.getState() == State.RUNNING); i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(State.COMPLETED, job.getState());
+            assertEquals(100f, job.getProgress());
+            assertNull(job.getError());
+        } finally {
+            builder.destroy();
+        }
+    }
+
+    public void testScheduleAfterCancel() throws Exception {
+        FeatureTypeInfo fti = getFeatureTypeInfo(TILE_TESTS);
+        fti.getMetadata().put("kml.regionateFeatureLimit", 2);
+        fti.getMetadata().put("kml.regionateStrategy", "random");
+
+        RegionatingHierarchyBuilder builder = new RegionatingHierarchyBuilder(getGeoServer());
+        try {
+            // queue the job without running it, then cancel it
+            Job job = builder.new Job(fti.getId());
+            builder.jobs.put(fti.getId(), job);
+            job.state = State.QUEUED;
+            job.setCanceled(true);
+
+            // a change comes in before the queued run, the rebuild must not be lost
+            builder.schedule(job, 0);
+            job.run();
+            assertEquals(State.COMPLETED, job.getState());
+        } finally {
+            builder.destroy();
+        }
+    }
+}
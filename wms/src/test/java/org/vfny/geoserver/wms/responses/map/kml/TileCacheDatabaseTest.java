@@ -0,0 +1,84 @@
+package org.vfny.geoserver.wms.responses.map.kml;
+
+import java.io.File;
+import java.sql.ResultSet;
+
+import junit.framework.TestCase;
+
+import org.h2.tools.DeleteDbFiles;
+import org.vfny.geoserver.wms.responses.map.kml.TileCacheDatabase.TileCacheConnection;
+
+public class TileCacheDatabaseTest extends TestCase {
+
+    File dir;
+
+    String path;
+
+    @Override
+    protected void setUp() throws Exception {
+        dir = new File("./target/tilecache");
+        dir.mkdirs();
+        path = dir.getCanonicalPath() + "/h2cache_test";
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TileCacheDatabase.close(path);
+        DeleteDbFiles.execute(dir.getCanonicalPath(), "h2cache_test", true);
+    }
+
+    public void testPooling() throws Exception {
+        TileCacheDatabase db = TileCacheDatabase.get(path);
+        assertSame(db, TileCacheDatabase.get(path));
+
+        TileCacheConnection cx = db.acquire();
+        TileCacheConnection other = db.acquire();
+        assertNotSame(cx, other);
+
+        // statements are prepared once per connection
+        assertSame(cx.getSelectStatement(), cx.getSelectStatement());
+        assertSame(cx.getInsertStatement(), cx.getInsertStatement());
+
+        db.release(cx, false);
+        db.release(other, true);
+        assertSame(cx, db.acquire());
+        assertTrue(other.getConnection().isClosed());
+        db.release(cx, false);
+
+        // closing drops the database and its connections
+        TileCacheDatabase.close(path);
+        assertTrue(cx.getConnection().isClosed());
+        assertNotSame(db, TileCacheDatabase.get(path));
+    }
+
+    public void testStoreAndRead() throws Exception {
+        TileCacheDatabase db = TileCacheDatabase.get(path);
+        TileCacheConnection cx = db.acquire();
+        try {
+            cx.getInsertStatement().setLong(1, 1);
+            cx.getInsertStatement().setLong(2, 2);
+            cx.getInsertStatement().setLong(3, 3);
+            cx.getInsertStatement().setString(4, "fid.1");
+            cx.getInsertStatement().execute();
+
+            cx.getSelectStatement().setLong(1, 1);
+            cx.getSelectStatement().setLong(2, 2);
+            cx.getSelectStatement().setLong(3, 3);
+            ResultSet rs = cx.getSelectStatement().executeQuery();
+            assertTrue(rs.next());
+            assertEquals("fid.1", rs.getString(1));
+            assertFalse(rs.next());
+            rs.close();
+        } finally {
+            db.release(cx, false);
+        }
+    }
+
+    public void testTileLocks() throws Exception {
+        TileCacheDatabase db = TileCacheDatabase.get(path);
+        assertSame(db.getTileLock(3, 4, 5), db.getTileLock(3, 4, 5));
+
+        // locks are never shared across zoom levels
+        assertNotSame(db.getTileLock(0, 0, 1), db.getTileLock(0, 0, 2));
+    }
+}
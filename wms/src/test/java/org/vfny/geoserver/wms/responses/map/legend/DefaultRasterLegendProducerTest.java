@@ -16,6 +16,7 @@ import javax.xml.namespace.QName;
 
 import org.geoserver.catalog.CoverageInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.StyleInfo;
 import org.geoserver.data.test.MockData;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.WMSTestSupport;
@@ -132,6 +133,39 @@ public class DefaultRasterLegendProducerTest extends WMSTestSupport {
         assertEquals(errMsg, 1, resultLegendCount);
     }
 
+    /**
+     * Tests the same legend is not rendered twice, and that it is rendered again once the
+     * style is modified in the catalog
+     *
+     * @throws Exception DOCUMENT ME!
+     */
+    public void testCachedLegend() throws Exception {
+        StyleInfo styleInfo = getCatalog().getStyleByName(MockData.ROAD_SEGMENTS.getLocalPart());
+        Style style = styleInfo.getStyle();
+
+        GetLegendGraphicRequest req = new GetLegendGraphicRequest(getWMS());
+        FeatureTypeInfo ftInfo = getCatalog().getFeatureTypeByName(MockData.ROAD_SEGMENTS.getNamespaceURI(), MockData.ROAD_SEGMENTS.getLocalPart());
+        req.setLayer(ftInfo.getFeatureType());
+        req.setStyle(style);
+        req.setLegendOptions(new HashMap());
+
+        this.legendProducer.produceLegendGraphic(req);
+        BufferedImage legend = this.legendProducer.getLegendGraphic();
+        this.legendProducer.produceLegendGraphic(req);
+        assertSame(legend, this.legendProducer.getLegendGraphic());
+
+        // a different size is a different legend
+        req.setWidth(40);
+        this.legendProducer.produceLegendGraphic(req);
+        assertNotSame(legend, this.legendProducer.getLegendGraphic());
+
+        // dropped when the style changes
+        req.setWidth(GetLegendGraphicRequest.DEFAULT_WIDTH);
+        getCatalog().save(styleInfo);
+        this.legendProducer.produceLegendGraphic(req);
+        assertNotSame(legend, this.legendProducer.getLegendGraphic());
+    }
+
 	/**
 	 * Tests that a legend is produced for the explicitly specified rule, when
 	 * the FeatureTypeStyle has more than one rule, and one of them is